@@ -0,0 +1,82 @@
+/* -*- Mode: Java; c-basic-offset: 4; tab-width: 4; indent-tabs-mode: nil; -*-
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/. */
+
+package org.mozilla.vrbrowser;
+
+import java.util.List;
+
+/**
+ * Feeds a recorded input trace back into a dispatch target with the original timing, or faster,
+ * and measures how long each event takes from its scheduled time until it has been dispatched.
+ */
+public class InputReplay {
+    public interface Target {
+        /**
+         * Dispatches the event and returns once it has been handled.
+         */
+        void dispatch(InputTrace.Event aEvent) throws InterruptedException;
+    }
+
+    private List<InputTrace.Event> mEvents;
+    private Target mTarget;
+    private float mSpeed;
+    private volatile boolean mCanceled;
+
+    /**
+     * @param aSpeed playback speed, 1 replays with the original timing, 2 twice as fast and 0 as
+     *               fast as the target can dispatch the events.
+     */
+    public InputReplay(List<InputTrace.Event> aEvents, Target aTarget, float aSpeed) {
+        mEvents = aEvents;
+        mTarget = aTarget;
+        mSpeed = aSpeed;
+    }
+
+    /**
+     * Creates a replay whose events are passed to run(List) once they are loaded, it can be
+     * canceled before that.
+     */
+    public InputReplay(Target aTarget, float aSpeed) {
+        this(null, aTarget, aSpeed);
+    }
+
+    public void cancel() {
+        mCanceled = true;
+    }
+
+    /**
+     * Replays every event on the calling thread.
+     */
+    public InputTrace.LatencyReport run() throws InterruptedException {
+        return run(mEvents);
+    }
+
+    /**
+     * Replays aEvents on the calling thread, nothing is dispatched if it was already canceled.
+     */
+    public InputTrace.LatencyReport run(List<InputTrace.Event> aEvents) throws InterruptedException {
+        long[] latencies = new long[aEvents.size()];
+        int count = 0;
+        long start = System.nanoTime();
+        for (InputTrace.Event event: aEvents) {
+            if (mCanceled) {
+                break;
+            }
+            long scheduled = start;
+            if (mSpeed > 0.0f) {
+                scheduled += (long) (event.mTimestamp / mSpeed);
+                long wait = scheduled - System.nanoTime();
+                if (wait > 0) {
+                    Thread.sleep(wait / 1000000, (int) (wait % 1000000));
+                }
+            } else {
+                scheduled = System.nanoTime();
+            }
+            mTarget.dispatch(event);
+            latencies[count++] = Math.max(0, System.nanoTime() - scheduled);
+        }
+        return InputTrace.LatencyReport.create(latencies, count);
+    }
+}
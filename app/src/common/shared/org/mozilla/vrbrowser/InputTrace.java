@@ -0,0 +1,176 @@
+/* -*- Mode: Java; c-basic-offset: 4; tab-width: 4; indent-tabs-mode: nil; -*-
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/. */
+
+package org.mozilla.vrbrowser;
+
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Compact binary trace of the input callbacks the native side sends to the activity, used to
+ * reproduce input driven performance problems without a headset.
+ *
+ * The trace starts with a magic number and a version, followed by fixed size big endian records:
+ * type (byte), device (byte), pressed (byte), handle or gesture type (int), x (float), y (float)
+ * and the nanoseconds elapsed since the recording started (long).
+ */
+public class InputTrace {
+    static final int MAGIC = 0x56524954; // "VRIT"
+    static final int VERSION = 1;
+    static final int RECORD_SIZE = 23;
+
+    public static final byte TYPE_MOTION = 1;
+    public static final byte TYPE_SCROLL = 2;
+    public static final byte TYPE_GESTURE = 3;
+
+    public static class Event {
+        public byte mType;
+        public int mHandle;
+        public int mDevice;
+        public boolean mPressed;
+        public float mX;
+        public float mY;
+        public int mGesture;
+        public long mTimestamp;
+    }
+
+    /**
+     * Records events in memory, so the render thread calling it never does any I/O.
+     * The trace is written out once the recording is finished.
+     */
+    public static class Recorder {
+        private static final int INITIAL_CAPACITY = RECORD_SIZE * 4096;
+
+        private ByteBuffer mBuffer = ByteBuffer.allocate(INITIAL_CAPACITY);
+        private long mStartTime = -1;
+        private int mCount;
+
+        public synchronized void recordMotion(int aHandle, int aDevice, boolean aPressed, float aX, float aY, long aTimestamp) {
+            record(TYPE_MOTION, aHandle, aDevice, aPressed, aX, aY, aTimestamp);
+        }
+
+        public synchronized void recordScroll(int aHandle, int aDevice, float aX, float aY, long aTimestamp) {
+            record(TYPE_SCROLL, aHandle, aDevice, false, aX, aY, aTimestamp);
+        }
+
+        public synchronized void recordGesture(int aGesture, long aTimestamp) {
+            record(TYPE_GESTURE, aGesture, 0, false, 0.0f, 0.0f, aTimestamp);
+        }
+
+        public synchronized int getCount() {
+            return mCount;
+        }
+
+        private void record(byte aType, int aHandle, int aDevice, boolean aPressed, float aX, float aY, long aTimestamp) {
+            if (mStartTime < 0) {
+                mStartTime = aTimestamp;
+            }
+            if (mBuffer.remaining() < RECORD_SIZE) {
+                ByteBuffer buffer = ByteBuffer.allocate(mBuffer.capacity() * 2);
+                mBuffer.flip();
+                buffer.put(mBuffer);
+                mBuffer = buffer;
+            }
+            mBuffer.put(aType);
+            mBuffer.put((byte) aDevice);
+            mBuffer.put(aPressed ? (byte) 1 : (byte) 0);
+            mBuffer.putInt(aHandle);
+            mBuffer.putFloat(aX);
+            mBuffer.putFloat(aY);
+            mBuffer.putLong(aTimestamp - mStartTime);
+            mCount++;
+        }
+
+        public synchronized void writeTo(OutputStream aStream) throws IOException {
+            ByteBuffer header = ByteBuffer.allocate(8);
+            header.putInt(MAGIC);
+            header.putInt(VERSION);
+            aStream.write(header.array());
+            aStream.write(mBuffer.array(), 0, mBuffer.position());
+            aStream.flush();
+        }
+    }
+
+    public static List<Event> read(InputStream aStream) throws IOException {
+        DataInputStream input = new DataInputStream(aStream);
+        if (input.readInt() != MAGIC) {
+            throw new IOException("Not an input trace");
+        }
+        int version = input.readInt();
+        if (version != VERSION) {
+            throw new IOException("Unsupported input trace version: " + version);
+        }
+        ArrayList<Event> events = new ArrayList<>();
+        byte[] record = new byte[RECORD_SIZE];
+        while (true) {
+            try {
+                input.readFully(record);
+            } catch (EOFException e) {
+                // A truncated last record is dropped.
+                break;
+            }
+            ByteBuffer buffer = ByteBuffer.wrap(record);
+            Event event = new Event();
+            event.mType = buffer.get();
+            event.mDevice = buffer.get();
+            event.mPressed = buffer.get() != 0;
+            int handle = buffer.getInt();
+            if (event.mType == TYPE_GESTURE) {
+                event.mGesture = handle;
+            } else {
+                event.mHandle = handle;
+            }
+            event.mX = buffer.getFloat();
+            event.mY = buffer.getFloat();
+            event.mTimestamp = buffer.getLong();
+            events.add(event);
+        }
+        return events;
+    }
+
+    /**
+     * Dispatch latency percentiles, in nanoseconds.
+     */
+    public static class LatencyReport {
+        public int mCount;
+        public long mP50;
+        public long mP90;
+        public long mP99;
+        public long mMax;
+
+        static LatencyReport create(long[] aLatencies, int aCount) {
+            LatencyReport report = new LatencyReport();
+            report.mCount = aCount;
+            if (aCount == 0) {
+                return report;
+            }
+            long[] sorted = Arrays.copyOf(aLatencies, aCount);
+            Arrays.sort(sorted);
+            report.mP50 = percentile(sorted, 50);
+            report.mP90 = percentile(sorted, 90);
+            report.mP99 = percentile(sorted, 99);
+            report.mMax = sorted[aCount - 1];
+            return report;
+        }
+
+        private static long percentile(long[] aSorted, int aPercentile) {
+            int index = (int) Math.ceil(aPercentile / 100.0 * aSorted.length) - 1;
+            return aSorted[Math.max(0, Math.min(aSorted.length - 1, index))];
+        }
+
+        @Override
+        public String toString() {
+            return mCount + " events, dispatch latency p50 " + (mP50 / 1000) + "us, p90 " + (mP90 / 1000) +
+                    "us, p99 " + (mP99 / 1000) + "us, max " + (mMax / 1000) + "us";
+        }
+    }
+}
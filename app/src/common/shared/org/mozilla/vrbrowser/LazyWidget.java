@@ -0,0 +1,148 @@
+/* -*- Mode: Java; c-basic-offset: 4; tab-width: 4; indent-tabs-mode: nil; -*-
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/. */
+
+package org.mozilla.vrbrowser;
+
+import android.content.Context;
+import android.os.Handler;
+import android.os.SystemClock;
+import android.util.Log;
+
+/**
+ * Holds a rarely used widget. The widget is only created the first time it is requested and
+ * it is released, together with its surface texture and native quad, after it has been
+ * hidden for longer than the idle timeout. It will be created again on the next request.
+ */
+public class LazyWidget<T extends Widget> {
+    private static final String LOGTAG = "VRB";
+
+    public interface Factory<T extends Widget> {
+        T create();
+    }
+
+    private static long mTotalBytesReleased;
+
+    private WidgetManagerDelegate mWidgetManager;
+    private Factory<T> mFactory;
+    private T mWidget;
+    private long mIdleTimeout;
+    private long mHiddenSince = -1;
+    private Handler mHandler = new Handler();
+    private Runnable mIdleCheck = new Runnable() {
+        @Override
+        public void run() {
+            checkIdle();
+        }
+    };
+    // Under memory pressure a hidden widget is released without waiting for the idle timeout.
+    private MemoryPressureManager.Reclaimable mReclaimable = new MemoryPressureManager.Reclaimable() {
+        @Override
+        public long getReclaimableBytes() {
+            if (mWidget == null || mWidget.getPlacement().visible) {
+                return 0;
+            }
+            return getTextureBytes();
+        }
+
+        @Override
+        public long reclaim() {
+            long bytes = getReclaimableBytes();
+            if (bytes > 0) {
+                release();
+                addBytesReleased(bytes);
+            }
+            return bytes;
+        }
+    };
+
+    public LazyWidget(Context aContext, Factory<T> aFactory) {
+        this(aContext, aContext.getResources().getInteger(R.integer.widget_idle_release_timeout), aFactory);
+    }
+
+    public LazyWidget(Context aContext, long aIdleTimeout, Factory<T> aFactory) {
+        mWidgetManager = (WidgetManagerDelegate) aContext;
+        mIdleTimeout = aIdleTimeout;
+        mFactory = aFactory;
+    }
+
+    /**
+     * Returns the widget, creating it if needed. Callers are expected to show it right away.
+     */
+    public T get() {
+        if (mWidget == null) {
+            mWidget = mFactory.create();
+            Log.d(LOGTAG, "LazyWidget: created " + mWidget.getClass().getSimpleName());
+            MemoryPressureManager.get().register("LazyWidget " + mWidget.getClass().getSimpleName(),
+                    MemoryPressureManager.PRIORITY_REBUILDABLE, mReclaimable);
+        }
+        mHiddenSince = -1;
+        mHandler.removeCallbacks(mIdleCheck);
+        mHandler.postDelayed(mIdleCheck, mIdleTimeout);
+        return mWidget;
+    }
+
+    /**
+     * Returns the widget if it currently exists, without creating it.
+     */
+    public T peek() {
+        return mWidget;
+    }
+
+    public boolean isCreated() {
+        return mWidget != null;
+    }
+
+    /**
+     * Total estimated texture memory returned by all the lazy widgets released while idle.
+     */
+    public static synchronized long getTotalBytesReleased() {
+        return mTotalBytesReleased;
+    }
+
+    private static synchronized long addBytesReleased(long aBytes) {
+        mTotalBytesReleased += aBytes;
+        return mTotalBytesReleased;
+    }
+
+    private void checkIdle() {
+        if (mWidget == null) {
+            return;
+        }
+        if (mWidget.getPlacement().visible) {
+            mHiddenSince = -1;
+        } else if (mHiddenSince < 0) {
+            mHiddenSince = SystemClock.uptimeMillis();
+        } else if (SystemClock.uptimeMillis() - mHiddenSince >= mIdleTimeout) {
+            long bytes = getTextureBytes();
+            String name = mWidget.getClass().getSimpleName();
+            release();
+            long total = addBytesReleased(bytes);
+            Log.d(LOGTAG, "LazyWidget: released idle " + name + ", saved " + bytes + " bytes (" + total + " bytes total)");
+            return;
+        }
+        mHandler.postDelayed(mIdleCheck, mIdleTimeout);
+    }
+
+    private long getTextureBytes() {
+        WidgetPlacement placement = mWidget.getPlacement();
+        return (long) placement.textureWidth() * placement.textureHeight() * 4;
+    }
+
+    /**
+     * Releases the widget, if any, and stops the idle checks. Owners call it when they are released.
+     */
+    public void release() {
+        mHandler.removeCallbacks(mIdleCheck);
+        mHiddenSince = -1;
+        if (mWidget == null) {
+            return;
+        }
+        MemoryPressureManager.get().unregister(mReclaimable);
+        // Removing an already removed widget is a no-op.
+        mWidgetManager.removeWidget(mWidget);
+        mWidget.releaseWidget();
+        mWidget = null;
+    }
+}
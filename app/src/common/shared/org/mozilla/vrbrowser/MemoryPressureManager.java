@@ -0,0 +1,140 @@
+/* -*- Mode: Java; c-basic-offset: 4; tab-width: 4; indent-tabs-mode: nil; -*-
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/. */
+
+package org.mozilla.vrbrowser;
+
+import android.content.ComponentCallbacks2;
+import android.util.Log;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+
+/**
+ * Releases reclaimable resources when the system asks the app to trim its memory. Subsystems
+ * register what they can give back together with a priority, and rebuild it lazily the next
+ * time it is needed. Higher trim levels release higher priorities: caches first, then resources
+ * that are cheap to rebuild and finally the ones the user may notice being rebuilt.
+ *
+ * Everything runs on the UI thread.
+ */
+public class MemoryPressureManager {
+    private static final String LOGTAG = "VRB";
+    private static MemoryPressureManager mInstance;
+
+    public static MemoryPressureManager get() {
+        if (mInstance == null) {
+            mInstance = new MemoryPressureManager();
+        }
+        return mInstance;
+    }
+
+    // Pure caches, dropping them only costs a cache miss.
+    public static final int PRIORITY_CACHE = 0;
+    // Resources rebuilt without the user noticing, like hidden textures or preloaded sounds.
+    public static final int PRIORITY_REBUILDABLE = 1;
+    // Resources whose rebuild is visible, like reloading a background tab.
+    public static final int PRIORITY_VISIBLE = 2;
+
+    public interface Reclaimable {
+        /**
+         * Estimated bytes that reclaim() would release right now, 0 when there is nothing resident.
+         */
+        long getReclaimableBytes();
+
+        /**
+         * Releases the resources and returns the bytes released.
+         */
+        long reclaim();
+    }
+
+    private static class Entry {
+        String mName;
+        int mPriority;
+        Reclaimable mReclaimable;
+        // Sampled when reclaiming.
+        long mCost;
+    }
+
+    private ArrayList<Entry> mEntries = new ArrayList<>();
+    private long mTotalBytesReclaimed;
+
+    private MemoryPressureManager() {
+    }
+
+    /**
+     * @param aName used in the log.
+     * @param aPriority one of the PRIORITY_ constants.
+     */
+    public void register(String aName, int aPriority, Reclaimable aReclaimable) {
+        Entry entry = new Entry();
+        entry.mName = aName;
+        entry.mPriority = aPriority;
+        entry.mReclaimable = aReclaimable;
+        mEntries.add(entry);
+    }
+
+    public void unregister(Reclaimable aReclaimable) {
+        for (int i = mEntries.size() - 1; i >= 0; i--) {
+            if (mEntries.get(i).mReclaimable == aReclaimable) {
+                mEntries.remove(i);
+            }
+        }
+    }
+
+    public long getTotalBytesReclaimed() {
+        return mTotalBytesReclaimed;
+    }
+
+    public void onTrimMemory(int aLevel) {
+        reclaim(getMaxPriority(aLevel), "trim level " + aLevel);
+    }
+
+    public void onLowMemory() {
+        reclaim(PRIORITY_VISIBLE, "low memory");
+    }
+
+    static int getMaxPriority(int aLevel) {
+        if (aLevel >= ComponentCallbacks2.TRIM_MEMORY_MODERATE) {
+            // In the background LRU list and about to be killed.
+            return PRIORITY_VISIBLE;
+        } else if (aLevel >= ComponentCallbacks2.TRIM_MEMORY_UI_HIDDEN) {
+            return PRIORITY_REBUILDABLE;
+        } else if (aLevel >= ComponentCallbacks2.TRIM_MEMORY_RUNNING_CRITICAL) {
+            return PRIORITY_VISIBLE;
+        } else if (aLevel >= ComponentCallbacks2.TRIM_MEMORY_RUNNING_LOW) {
+            return PRIORITY_REBUILDABLE;
+        }
+        return PRIORITY_CACHE;
+    }
+
+    private void reclaim(int aMaxPriority, String aReason) {
+        ArrayList<Entry> entries = new ArrayList<>();
+        for (Entry entry: mEntries) {
+            entry.mCost = entry.mReclaimable.getReclaimableBytes();
+            if (entry.mPriority <= aMaxPriority && entry.mCost > 0) {
+                entries.add(entry);
+            }
+        }
+        // Lowest priority first, and the most expensive resource first within a priority.
+        Collections.sort(entries, new Comparator<Entry>() {
+            @Override
+            public int compare(Entry aLeft, Entry aRight) {
+                if (aLeft.mPriority != aRight.mPriority) {
+                    return aLeft.mPriority < aRight.mPriority ? -1 : 1;
+                }
+                return aLeft.mCost == aRight.mCost ? 0 : (aLeft.mCost > aRight.mCost ? -1 : 1);
+            }
+        });
+        long total = 0;
+        for (Entry entry: entries) {
+            long bytes = entry.mReclaimable.reclaim();
+            total += bytes;
+            Log.d(LOGTAG, "MemoryPressureManager: " + entry.mName + " released " + bytes + " bytes");
+        }
+        mTotalBytesReclaimed += total;
+        Log.i(LOGTAG, "MemoryPressureManager: " + aReason + " reclaimed " + total + " bytes (" + mTotalBytesReclaimed + " bytes total)");
+    }
+}
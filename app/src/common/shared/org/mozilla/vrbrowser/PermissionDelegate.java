@@ -6,24 +6,41 @@ import android.content.pm.PackageManager;
 import android.util.Log;
 
 import org.mozilla.geckoview.GeckoSession;
+import org.mozilla.geckoview.GeckoSessionSettings;
 import org.mozilla.vrbrowser.ui.PermissionWidget;
 
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.HashMap;
 
-public class PermissionDelegate implements GeckoSession.PermissionDelegate {
+public class PermissionDelegate implements GeckoSession.PermissionDelegate, SessionStore.SessionChangeListener {
     static final int PERMISSION_REQUEST_CODE = 1143;
     static final String LOGTAG = "VRB";
     private Context mContext;
     private int mParentWidgetHandle;
     private WidgetManagerDelegate mWidgetManager;
     private GeckoSession.PermissionDelegate.Callback mCallback;
-    private PermissionWidget mPermissionWidget;
+    private LazyWidget<PermissionWidget> mPermissionWidget;
+    private PermissionStore mPermissionStore;
+    // Android permissions can only be granted through onRequestPermissionsResult while we run,
+    // and revoking one kills the process, so the state is only queried once per permission.
+    private HashMap<String, Boolean> mAndroidPermissions = new HashMap<>();
 
     PermissionDelegate(Context aContext, WidgetManagerDelegate aWidgetManager) {
         mContext = aContext;
         mWidgetManager = aWidgetManager;
+        mPermissionStore = new PermissionStore(aContext);
         SessionStore.get().setPermissionDelegate(this);
+        SessionStore.get().addSessionChangeListener(this);
+        mPermissionWidget = new LazyWidget<>(aContext, new LazyWidget.Factory<PermissionWidget>() {
+            @Override
+            public PermissionWidget create() {
+                PermissionWidget widget = new PermissionWidget(mContext);
+                widget.getPlacement().parentHandle = mParentWidgetHandle;
+                mWidgetManager.addWidget(widget);
+                return widget;
+            }
+        });
     }
 
     public void setParentWidgetHandle(int aHandle) {
@@ -31,7 +48,13 @@ public class PermissionDelegate implements GeckoSession.PermissionDelegate {
     }
 
     public void onRequestPermissionsResult(int requestCode, String[] permissions, int[] grantResults) {
-        if (requestCode != PERMISSION_REQUEST_CODE || mCallback == null) {
+        if (requestCode != PERMISSION_REQUEST_CODE) {
+            return;
+        }
+        for (int i = 0; i < permissions.length && i < grantResults.length; i++) {
+            mAndroidPermissions.put(permissions[i], grantResults[i] == PackageManager.PERMISSION_GRANTED);
+        }
+        if (mCallback == null) {
             return;
         }
 
@@ -50,18 +73,48 @@ public class PermissionDelegate implements GeckoSession.PermissionDelegate {
         }
     }
 
-    private void handleContentPermission(final String aUri, final PermissionWidget.PermissionType aType, final Callback aCallback) {
-        if (mPermissionWidget == null) {
-            mPermissionWidget = new PermissionWidget(mContext);
-            mPermissionWidget.getPlacement().parentHandle = mParentWidgetHandle;
-            mWidgetManager.addWidget(mPermissionWidget);
+    private boolean hasAndroidPermission(String aPermission) {
+        Boolean granted = mAndroidPermissions.get(aPermission);
+        if (granted == null) {
+            granted = mContext.checkSelfPermission(aPermission) == PackageManager.PERMISSION_GRANTED;
+            mAndroidPermissions.put(aPermission, granted);
+        }
+        return granted;
+    }
+
+    private void handleContentPermission(GeckoSession aSession, final String aUri, final PermissionWidget.PermissionType aType, final Callback aCallback) {
+        final String origin = PermissionStore.getOrigin(aUri);
+        final boolean isPrivate = aSession.getSettings().getBoolean(GeckoSessionSettings.USE_PRIVATE_MODE);
+        PermissionStore.Decision decision = mPermissionStore.getDecision(origin, aType, isPrivate);
+        if (decision == PermissionStore.Decision.Granted) {
+            Log.d(LOGTAG, "Permission " + aType + " previously granted for " + origin);
+            aCallback.grant();
+            return;
+        } else if (decision == PermissionStore.Decision.Rejected) {
+            Log.d(LOGTAG, "Permission " + aType + " previously rejected for " + origin);
+            aCallback.reject();
+            return;
         }
 
-        mPermissionWidget.showPrompt(aUri, aType, aCallback);
+        mPermissionWidget.get().showPrompt(aUri, aType, new Callback() {
+            @Override
+            public void grant() {
+                mPermissionStore.setDecision(origin, aType, true, isPrivate);
+                aCallback.grant();
+            }
+
+            @Override
+            public void reject() {
+                mPermissionStore.setDecision(origin, aType, false, isPrivate);
+                aCallback.reject();
+            }
+        });
     }
 
     public void release() {
         SessionStore.get().setPermissionDelegate(null);
+        SessionStore.get().removeSessionChangeListener(this);
+        mPermissionWidget.release();
         mCallback = null;
         mContext = null;
         mWidgetManager = null;
@@ -79,7 +132,7 @@ public class PermissionDelegate implements GeckoSession.PermissionDelegate {
                 continue;
             }
             Log.d(LOGTAG, "permission = " + permission);
-            if (mContext.checkSelfPermission(permission) != PackageManager.PERMISSION_GRANTED) {
+            if (!hasAndroidPermission(permission)) {
                 missingPermissions.add(permission);
             }
         }
@@ -113,7 +166,7 @@ public class PermissionDelegate implements GeckoSession.PermissionDelegate {
             return;
         }
 
-        handleContentPermission(aUri, type, callback);
+        handleContentPermission(aSession, aUri, type, callback);
     }
 
     @Override
@@ -146,6 +199,25 @@ public class PermissionDelegate implements GeckoSession.PermissionDelegate {
             }
         };
 
-        handleContentPermission(aUri, type, callback);
+        handleContentPermission(aSession, aUri, type, callback);
+    }
+
+    // SessionStore.SessionChangeListener
+    @Override
+    public void onNewSession(GeckoSession aSession, int aId) {
+
+    }
+
+    @Override
+    public void onRemoveSession(GeckoSession aSession, int aId) {
+        boolean isPrivate = aSession.getSettings().getBoolean(GeckoSessionSettings.USE_PRIVATE_MODE);
+        if (isPrivate && SessionStore.get().getSessionsByPrivateMode(true).isEmpty()) {
+            mPermissionStore.clearPrivateDecisions();
+        }
+    }
+
+    @Override
+    public void onCurrentSessionChange(GeckoSession aSession, int aId) {
+
     }
 }
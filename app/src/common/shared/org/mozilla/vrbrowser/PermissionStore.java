@@ -0,0 +1,158 @@
+/* -*- Mode: Java; c-basic-offset: 4; tab-width: 4; indent-tabs-mode: nil; -*-
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/. */
+
+package org.mozilla.vrbrowser;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.net.Uri;
+import android.util.Log;
+
+import org.mozilla.vrbrowser.ui.PermissionWidget;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Remembers the answers given to content permission prompts, keyed by origin and permission type.
+ * Lookups are served from memory. Decisions made in regular sessions are written to disk
+ * asynchronously; decisions made in private sessions only live until private browsing ends.
+ * Stored decisions are only read on the first lookup, the preferences file itself is read in the
+ * background as soon as the store is created, so startup never waits for the disk.
+ */
+public class PermissionStore {
+    private static final String LOGTAG = "VRB";
+    private static final String PREFS_NAME = "permissions";
+    private static final long GRANT_LIFETIME = 30L * 24 * 60 * 60 * 1000; // 30 days
+    private static final long REJECT_LIFETIME = 24L * 60 * 60 * 1000; // 1 day
+
+    public enum Decision {
+        Unknown,
+        Granted,
+        Rejected
+    }
+
+    static class Entry {
+        boolean mGranted;
+        long mExpiry;
+
+        Entry(boolean aGranted, long aExpiry) {
+            mGranted = aGranted;
+            mExpiry = aExpiry;
+        }
+    }
+
+    private SharedPreferences mPrefs;
+    private HashMap<String, Entry> mEntries = new HashMap<>();
+    private HashMap<String, Entry> mPrivateEntries = new HashMap<>();
+    private boolean mLoaded;
+
+    public PermissionStore(Context aContext) {
+        mPrefs = aContext.getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE);
+    }
+
+    private void ensureLoaded() {
+        if (mLoaded) {
+            return;
+        }
+        mLoaded = true;
+        long now = System.currentTimeMillis();
+        SharedPreferences.Editor editor = null;
+        for (Map.Entry<String, ?> pref: mPrefs.getAll().entrySet()) {
+            Entry entry = parseEntry(pref.getValue());
+            if (entry == null || entry.mExpiry <= now) {
+                if (editor == null) {
+                    editor = mPrefs.edit();
+                }
+                editor.remove(pref.getKey());
+                continue;
+            }
+            mEntries.put(pref.getKey(), entry);
+        }
+        if (editor != null) {
+            editor.apply();
+        }
+    }
+
+    private static Entry parseEntry(Object aValue) {
+        if (!(aValue instanceof String)) {
+            return null;
+        }
+        String[] parts = ((String) aValue).split(":");
+        if (parts.length != 2) {
+            return null;
+        }
+        try {
+            return new Entry("1".equals(parts[0]), Long.parseLong(parts[1]));
+        } catch (NumberFormatException e) {
+            Log.e(LOGTAG, "Invalid permission entry: " + aValue);
+            return null;
+        }
+    }
+
+    /**
+     * Returns the scheme, host and port of the URI, or null if it has no host.
+     */
+    public static String getOrigin(String aUri) {
+        if (aUri == null) {
+            return null;
+        }
+        Uri uri = Uri.parse(aUri);
+        if (uri.getScheme() == null || uri.getHost() == null) {
+            return null;
+        }
+        String origin = uri.getScheme() + "://" + uri.getHost();
+        if (uri.getPort() != -1) {
+            origin += ":" + uri.getPort();
+        }
+        return origin;
+    }
+
+    private static String getKey(String aOrigin, PermissionWidget.PermissionType aType) {
+        return aType.name() + "|" + aOrigin;
+    }
+
+    public Decision getDecision(String aOrigin, PermissionWidget.PermissionType aType, boolean aPrivate) {
+        if (aOrigin == null) {
+            return Decision.Unknown;
+        }
+        ensureLoaded();
+        String key = getKey(aOrigin, aType);
+        Map<String, Entry> entries = aPrivate ? mPrivateEntries : mEntries;
+        Entry entry = entries.get(key);
+        if (entry == null) {
+            return Decision.Unknown;
+        }
+        if (entry.mExpiry <= System.currentTimeMillis()) {
+            entries.remove(key);
+            if (!aPrivate) {
+                mPrefs.edit().remove(key).apply();
+            }
+            return Decision.Unknown;
+        }
+        return entry.mGranted ? Decision.Granted : Decision.Rejected;
+    }
+
+    public void setDecision(String aOrigin, PermissionWidget.PermissionType aType, boolean aGranted, boolean aPrivate) {
+        if (aOrigin == null) {
+            return;
+        }
+        String key = getKey(aOrigin, aType);
+        long expiry = System.currentTimeMillis() + (aGranted ? GRANT_LIFETIME : REJECT_LIFETIME);
+        Entry entry = new Entry(aGranted, expiry);
+        if (aPrivate) {
+            mPrivateEntries.put(key, entry);
+            return;
+        }
+        ensureLoaded();
+        mEntries.put(key, entry);
+        // apply() commits to memory right away and writes to disk in the background.
+        mPrefs.edit().putString(key, (aGranted ? "1" : "0") + ":" + expiry).apply();
+    }
+
+    public void clearPrivateDecisions() {
+        mPrivateEntries.clear();
+    }
+}
@@ -0,0 +1,59 @@
+/* -*- Mode: Java; c-basic-offset: 4; tab-width: 4; indent-tabs-mode: nil; -*-
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/. */
+
+package org.mozilla.vrbrowser;
+
+import java.util.ArrayDeque;
+import java.util.concurrent.Executor;
+
+/**
+ * Closes removed sessions a few at a time, so removing many sessions at once does not stall the
+ * UI thread. Sessions are expected to be detached from their delegates and widgets before they
+ * are queued, nothing observes them while they wait to be closed.
+ *
+ * Each batch runs as its own task on the executor, other work queued in the meantime runs
+ * in between batches.
+ */
+class SessionCloser {
+    static final int BATCH_SIZE = 2;
+
+    private final Executor mExecutor;
+    private final ArrayDeque<Runnable> mPending = new ArrayDeque<>();
+    private boolean mScheduled;
+
+    private final Runnable mCloseBatch = new Runnable() {
+        @Override
+        public void run() {
+            mScheduled = false;
+            for (int i = 0; i < BATCH_SIZE && !mPending.isEmpty(); i++) {
+                mPending.poll().run();
+            }
+            schedule();
+        }
+    };
+
+    SessionCloser(Executor aExecutor) {
+        mExecutor = aExecutor;
+    }
+
+    /**
+     * Queues aClose, which closes one session. Called and run on the executor's thread.
+     */
+    void enqueue(Runnable aClose) {
+        mPending.add(aClose);
+        schedule();
+    }
+
+    int getPendingCount() {
+        return mPending.size();
+    }
+
+    private void schedule() {
+        if (!mScheduled && !mPending.isEmpty()) {
+            mScheduled = true;
+            mExecutor.execute(mCloseBatch);
+        }
+    }
+}
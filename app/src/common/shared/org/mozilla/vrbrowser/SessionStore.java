@@ -6,20 +6,30 @@
 package org.mozilla.vrbrowser;
 
 import android.content.Context;
+import android.net.Uri;
+import android.os.Environment;
+import android.os.Handler;
+import android.os.Looper;
 import android.support.annotation.NonNull;
 import android.support.annotation.Nullable;
+import android.util.Base64;
 import android.util.Log;
 import android.view.inputmethod.CursorAnchorInfo;
 import android.view.inputmethod.ExtractedText;
 import android.view.inputmethod.ExtractedTextRequest;
 import org.mozilla.gecko.GeckoProfile;
 import org.mozilla.geckoview.*;
+import org.mozilla.vrbrowser.crashreporting.CrashReporterService;
+import org.mozilla.vrbrowser.downloads.Download;
+import org.mozilla.vrbrowser.downloads.DownloadManager;
 
 import java.io.File;
 import java.io.FileNotFoundException;
 import java.io.FileOutputStream;
 import java.io.IOException;
+import java.nio.charset.StandardCharsets;
 import java.util.*;
+import java.util.concurrent.Executor;
 
 public class SessionStore implements GeckoSession.NavigationDelegate, GeckoSession.ProgressDelegate, GeckoSession.ContentDelegate, GeckoSession.TextInputDelegate, GeckoSession.TrackingProtectionDelegate {
     private static SessionStore mInstance;
@@ -56,8 +66,13 @@ public class SessionStore implements GeckoSession.NavigationDelegate, GeckoSessi
         String mTitle;
         boolean mFullScreen;
         GeckoSession mSession;
+        // Closed under memory pressure, mUri is loaded again when it becomes current.
+        boolean mReclaimed;
     }
 
+    // Rough footprint of the content of a background session, only used to order and log reclaims.
+    private static final long ESTIMATED_SESSION_BYTES = 20 * 1024 * 1024;
+
     private GeckoRuntime mRuntime;
     private GeckoSession mCurrentSession;
     private HashMap<Integer, State> mSessions;
@@ -67,6 +82,9 @@ public class SessionStore implements GeckoSession.NavigationDelegate, GeckoSessi
     private int mPreviousSessionId = SessionStore.NO_SESSION_ID;
     private String mLastUri;
     private Context mContext;
+    private ThumbnailCache mThumbnailCache;
+    private DownloadManager mDownloadManager;
+    private SessionCloser mSessionCloser;
 
     private SessionStore() {
         mNavigationListeners = new LinkedList<>();
@@ -78,6 +96,14 @@ public class SessionStore implements GeckoSession.NavigationDelegate, GeckoSessi
         mSessions = new LinkedHashMap<>();
         mSessionsStack = new ArrayDeque<>();
         mPrivateSessionsStack = new ArrayDeque<>();
+
+        final Handler handler = new Handler(Looper.getMainLooper());
+        mSessionCloser = new SessionCloser(new Executor() {
+            @Override
+            public void execute(Runnable aRunnable) {
+                handler.post(aRunnable);
+            }
+        });
     }
 
     public void clearListeners() {
@@ -133,6 +159,7 @@ public class SessionStore implements GeckoSession.NavigationDelegate, GeckoSessi
             GeckoRuntimeSettings.Builder runtimeSettingsBuilder = new GeckoRuntimeSettings.Builder();
             runtimeSettingsBuilder.javaCrashReportingEnabled(SettingsStore.getInstance(aContext).isCrashReportingEnabled());
             runtimeSettingsBuilder.nativeCrashReportingEnabled(SettingsStore.getInstance(aContext).isCrashReportingEnabled());
+            runtimeSettingsBuilder.crashHandler(CrashReporterService.class);
             runtimeSettingsBuilder.trackingProtectionCategories(GeckoSession.TrackingProtectionDelegate.CATEGORY_AD | GeckoSession.TrackingProtectionDelegate.CATEGORY_SOCIAL | GeckoSession.TrackingProtectionDelegate.CATEGORY_ANALYTIC);
 
             if (BuildConfig.DEBUG) {
@@ -147,6 +174,110 @@ public class SessionStore implements GeckoSession.NavigationDelegate, GeckoSessi
         }
 
         mContext = aContext;
+        if (mThumbnailCache == null) {
+            mThumbnailCache = new ThumbnailCache(new File(aContext.getCacheDir(), "thumbnails"),
+                    aContext.getResources().getInteger(R.integer.thumbnail_memory_budget) * 1024,
+                    aContext.getResources().getInteger(R.integer.thumbnail_disk_budget) * 1024L);
+        }
+        // Continues the downloads interrupted by the last shutdown.
+        getDownloadManager();
+        registerReclaimables();
+    }
+
+    private void registerReclaimables() {
+        MemoryPressureManager manager = MemoryPressureManager.get();
+        manager.unregister(mThumbnailReclaimable);
+        manager.unregister(mSessionReclaimable);
+        manager.register("Session thumbnails", MemoryPressureManager.PRIORITY_CACHE, mThumbnailReclaimable);
+        manager.register("Background sessions", MemoryPressureManager.PRIORITY_VISIBLE, mSessionReclaimable);
+    }
+
+    private MemoryPressureManager.Reclaimable mThumbnailReclaimable = new MemoryPressureManager.Reclaimable() {
+        @Override
+        public long getReclaimableBytes() {
+            return mThumbnailCache != null ? mThumbnailCache.getMemoryBytes() : 0;
+        }
+
+        @Override
+        public long reclaim() {
+            return mThumbnailCache != null ? mThumbnailCache.trimMemory() : 0;
+        }
+    };
+
+    // Closes the sessions in the background. Private sessions are kept, their content could not
+    // be loaded again.
+    private MemoryPressureManager.Reclaimable mSessionReclaimable = new MemoryPressureManager.Reclaimable() {
+        @Override
+        public long getReclaimableBytes() {
+            return getReclaimableSessions().size() * ESTIMATED_SESSION_BYTES;
+        }
+
+        @Override
+        public long reclaim() {
+            List<State> states = getReclaimableSessions();
+            for (State state: states) {
+                Log.d(LOGTAG, "SessionStore closing background session: " + state.mUri);
+                state.mSession.close();
+                state.mReclaimed = true;
+            }
+            return states.size() * ESTIMATED_SESSION_BYTES;
+        }
+    };
+
+    private List<State> getReclaimableSessions() {
+        ArrayList<State> result = new ArrayList<>();
+        for (State state: mSessions.values()) {
+            GeckoSession session = state.mSession;
+            if (session != mCurrentSession && session.isOpen() && state.mUri != null &&
+                    !session.getSettings().getBoolean(GeckoSessionSettings.USE_PRIVATE_MODE)) {
+                result.add(state);
+            }
+        }
+        return result;
+    }
+
+    public ThumbnailCache getThumbnailCache() {
+        return mThumbnailCache;
+    }
+
+    public DownloadManager getDownloadManager() {
+        if (mDownloadManager == null && mContext != null) {
+            File directory = mContext.getExternalFilesDir(Environment.DIRECTORY_DOWNLOADS);
+            if (directory == null) {
+                directory = new File(mContext.getFilesDir(), "downloads");
+            }
+            if (!directory.isDirectory() && !directory.mkdirs()) {
+                Log.e(LOGTAG, "Unable to create download directory: " + directory);
+            }
+            final Handler handler = new Handler(Looper.getMainLooper());
+            mDownloadManager = new DownloadManager(directory, new File(mContext.getFilesDir(), "downloads.queue"),
+                    mContext.getResources().getInteger(R.integer.max_concurrent_downloads),
+                    new Executor() {
+                        @Override
+                        public void execute(Runnable aRunnable) {
+                            handler.post(aRunnable);
+                        }
+                    });
+            mDownloadManager.addListener(new DownloadManager.Listener() {
+                @Override
+                public void onDownloadAdded(Download aDownload) {
+                }
+
+                @Override
+                public void onDownloadProgress(Download aDownload) {
+                }
+
+                @Override
+                public void onDownloadStateChanged(Download aDownload) {
+                    if (aDownload.getState() == Download.COMPLETED) {
+                        Log.d(LOGTAG, "Download completed: " + aDownload.getFile());
+                    } else if (aDownload.getState() == Download.FAILED) {
+                        Log.e(LOGTAG, "Download failed: " + aDownload.getUri() + " got exception: " + aDownload.getError());
+                    }
+                }
+            });
+        }
+        return mDownloadManager;
     }
 
     public void dumpAllState(Integer sessionId) {
@@ -291,18 +422,52 @@ public class SessionStore implements GeckoSession.NavigationDelegate, GeckoSessi
     }
 
     public void removeSession(int aSessionId) {
-        GeckoSession session = getSession(aSessionId);
-        if (session != null) {
+        removeSessions(Collections.singletonList(aSessionId));
+    }
+
+    // Detaches the sessions right away and closes them later in batches, see SessionCloser.
+    private void removeSessions(List<Integer> aSessionIds) {
+        ArrayList<Integer> removedIds = new ArrayList<>();
+        ArrayList<GeckoSession> removedSessions = new ArrayList<>();
+        for (Integer sessionId: aSessionIds) {
+            State state = mSessions.remove(sessionId);
+            if (state == null) {
+                continue;
+            }
+            GeckoSession session = state.mSession;
             session.setContentDelegate(null);
             session.setNavigationDelegate(null);
             session.setProgressDelegate(null);
+            session.setPermissionDelegate(null);
+            session.setTrackingProtectionDelegate(null);
             session.getTextInput().setDelegate(null);
-            mSessions.remove(aSessionId);
+            session.setActive(false);
+            removedIds.add(sessionId);
+            removedSessions.add(session);
+        }
+        if (removedIds.isEmpty()) {
+            return;
+        }
+        if (mThumbnailCache != null) {
+            mThumbnailCache.remove(removedIds);
+        }
+        // Listeners are told once every session is gone, so per mode cleanup like the private
+        // permission decisions runs against the final state.
+        for (int i = 0; i < removedIds.size(); i++) {
             for (SessionChangeListener listener: mSessionChangeListeners) {
-                listener.onRemoveSession(session, aSessionId);
+                listener.onRemoveSession(removedSessions.get(i), removedIds.get(i));
             }
-            session.setActive(false);
-            session.stop();
+        }
+        for (final GeckoSession session: removedSessions) {
+            mSessionCloser.enqueue(new Runnable() {
+                @Override
+                public void run() {
+                    // Reclaimed sessions are already closed.
+                    if (session.isOpen()) {
+                        session.close();
+                    }
+                }
+            });
         }
     }
 
@@ -391,6 +556,10 @@ public class SessionStore implements GeckoSession.NavigationDelegate, GeckoSessi
             mCurrentSession = state.mSession;
             if (!mCurrentSession.isOpen()) {
                 mCurrentSession.open(mRuntime);
+                if (state.mReclaimed) {
+                    state.mReclaimed = false;
+                    mCurrentSession.loadUri(state.mUri);
+                }
             }
             for (SessionChangeListener listener: mSessionChangeListeners) {
                 listener.onCurrentSessionChange(mCurrentSession, aId);
@@ -569,15 +738,13 @@ public class SessionStore implements GeckoSession.NavigationDelegate, GeckoSessi
             setCurrentSession(mPreviousSessionId);
             mPreviousSessionId = SessionStore.NO_SESSION_ID;
 
-            // Remove current private_mode session
-            removeSession(privateSessionId);
-
-            // Remove all the stacked private_mode sessions
-            for (Iterator<Integer> it = mPrivateSessionsStack.iterator(); it.hasNext();) {
-                int sessionId = it.next();
-                removeSession(sessionId);
-            }
+            // Remove the current private_mode session and all the stacked ones at once, they are
+            // closed in the background.
+            ArrayList<Integer> privateSessions = new ArrayList<>();
+            privateSessions.add(privateSessionId);
+            privateSessions.addAll(mPrivateSessionsStack);
             mPrivateSessionsStack.clear();
+            removeSessions(privateSessions);
         }
     }
 
@@ -800,7 +967,31 @@ public class SessionStore implements GeckoSession.NavigationDelegate, GeckoSessi
 
     @Override
     public void onExternalResponse(GeckoSession session, GeckoSession.WebResponseInfo response) {
-
+        Log.d(LOGTAG, "SessionStore onExternalResponse: " + response.uri);
+        DownloadManager manager = getDownloadManager();
+        if (manager == null) {
+            return;
+        }
+        // The response only carries its URI, the file is requested again outside of Gecko. The
+        // referrer and the credentials in the URI go with it, Gecko's cookies can not be read, the
+        // download fails rather than saving a sign in page when the server needs them.
+        HashMap<String, String> headers = new HashMap<>();
+        String uri = response.uri;
+        Uri parsed = Uri.parse(response.uri);
+        String userInfo = parsed.getUserInfo();
+        if (userInfo != null && !userInfo.isEmpty()) {
+            String authority = parsed.getEncodedAuthority();
+            uri = parsed.buildUpon().encodedAuthority(authority.substring(authority.indexOf('@') + 1)).build().toString();
+            headers.put("Authorization", "Basic " +
+                    Base64.encodeToString(userInfo.getBytes(StandardCharsets.UTF_8), Base64.NO_WRAP));
+        }
+        State state = mSessions.get(getSessionId(session));
+        if (state != null && state.mUri != null &&
+                (state.mUri.startsWith("http://") || state.mUri.startsWith("https://"))) {
+            headers.put("Referer", state.mUri);
+        }
+        manager.enqueue(uri, response.filename, response.contentType,
+                response.contentLength > 0 ? response.contentLength : Download.UNKNOWN_LENGTH, headers);
     }
 
     @Override
@@ -45,6 +45,16 @@ public class SettingsStore {
         editor.commit();
     }
 
+    public boolean isWidgetViewRootsEnabled() {
+        return mPrefs.getBoolean(mContext.getString(R.string.settings_key_widget_view_roots), false);
+    }
+
+    public void setWidgetViewRootsEnabled(boolean isEnabled) {
+        SharedPreferences.Editor editor = mPrefs.edit();
+        editor.putBoolean(mContext.getString(R.string.settings_key_widget_view_roots), isEnabled);
+        editor.commit();
+    }
+
     public boolean isTelemetryEnabled() {
         // The first access to shared preferences will require a disk read.
         final StrictMode.ThreadPolicy threadPolicy = StrictMode.allowThreadDiskReads();
@@ -0,0 +1,113 @@
+/* -*- Mode: Java; c-basic-offset: 4; tab-width: 4; indent-tabs-mode: nil; -*-
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/. */
+
+package org.mozilla.vrbrowser;
+
+import android.os.SystemClock;
+import android.util.Log;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Records named startup phases and the first frame / first page paint milestones.
+ * Phases may be started and finished from any thread. A report is logged once both
+ * milestones have been reached.
+ */
+public class StartupTracer {
+    private static final String LOGTAG = "VRB";
+    private static StartupTracer mInstance;
+
+    public static synchronized StartupTracer get() {
+        if (mInstance == null) {
+            mInstance = new StartupTracer();
+        }
+        return mInstance;
+    }
+
+    static class Phase {
+        String mThread;
+        long mStart;
+        long mEnd = -1;
+    }
+
+    private long mStartTime = -1;
+    private long mFirstFrameTime = -1;
+    private long mFirstPaintTime = -1;
+    private boolean mReported;
+    private LinkedHashMap<String, Phase> mPhases = new LinkedHashMap<>();
+
+    private StartupTracer() {}
+
+    public synchronized void start() {
+        if (mStartTime < 0) {
+            mStartTime = SystemClock.elapsedRealtime();
+        }
+    }
+
+    public synchronized void beginPhase(String aName) {
+        start();
+        Phase phase = new Phase();
+        phase.mThread = Thread.currentThread().getName();
+        phase.mStart = SystemClock.elapsedRealtime();
+        mPhases.put(aName, phase);
+    }
+
+    public synchronized void endPhase(String aName) {
+        Phase phase = mPhases.get(aName);
+        if (phase == null) {
+            Log.e(LOGTAG, "StartupTracer: endPhase called for unknown phase: " + aName);
+            return;
+        }
+        phase.mEnd = SystemClock.elapsedRealtime();
+    }
+
+    public synchronized boolean hasFirstFrame() {
+        return mFirstFrameTime >= 0;
+    }
+
+    public synchronized void markFirstFrame() {
+        if (mFirstFrameTime < 0) {
+            mFirstFrameTime = SystemClock.elapsedRealtime();
+            reportIfDone();
+        }
+    }
+
+    public synchronized void markFirstPaint() {
+        if (mFirstPaintTime < 0) {
+            mFirstPaintTime = SystemClock.elapsedRealtime();
+            reportIfDone();
+        }
+    }
+
+    public synchronized long getTimeToFirstFrame() {
+        return mFirstFrameTime < 0 ? -1 : mFirstFrameTime - mStartTime;
+    }
+
+    public synchronized long getTimeToFirstPaint() {
+        return mFirstPaintTime < 0 ? -1 : mFirstPaintTime - mStartTime;
+    }
+
+    private void reportIfDone() {
+        if (mReported || mFirstFrameTime < 0 || mFirstPaintTime < 0) {
+            return;
+        }
+        mReported = true;
+        Log.i(LOGTAG, "Startup report:");
+        for (Map.Entry<String, Phase> entry: mPhases.entrySet()) {
+            Phase phase = entry.getValue();
+            if (phase.mEnd < 0) {
+                Log.i(LOGTAG, "  " + entry.getKey() + " [" + phase.mThread + "]: started at " +
+                        (phase.mStart - mStartTime) + "ms, not finished");
+                continue;
+            }
+            Log.i(LOGTAG, "  " + entry.getKey() + " [" + phase.mThread + "]: " +
+                    (phase.mStart - mStartTime) + "ms -> " + (phase.mEnd - mStartTime) + "ms (" +
+                    (phase.mEnd - phase.mStart) + "ms)");
+        }
+        Log.i(LOGTAG, "  Time to first frame: " + getTimeToFirstFrame() + "ms");
+        Log.i(LOGTAG, "  Time to first page paint: " + getTimeToFirstPaint() + "ms");
+    }
+}
@@ -0,0 +1,312 @@
+/* -*- Mode: Java; c-basic-offset: 4; tab-width: 4; indent-tabs-mode: nil; -*-
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/. */
+
+package org.mozilla.vrbrowser;
+
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.util.Log;
+import android.util.LruCache;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Keeps downscaled RGB565 snapshots of the sessions that are not current, so they can be shown
+ * while a session switch waits for the compositor. The memory tier is a LRU bounded in bytes.
+ * Entries evicted from it are compressed to disk on a background thread when a disk budget is
+ * set, except for private sessions which never leave memory.
+ */
+public class ThumbnailCache {
+    public interface LoadCallback {
+        /**
+         * @param aThumbnail the decoded thumbnail, or null when it could not be read.
+         */
+        void onThumbnailLoaded(Bitmap aThumbnail);
+    }
+
+    private static final String LOGTAG = "VRB";
+    private static final int JPEG_QUALITY = 80;
+
+    private LruCache<Integer, Bitmap> mMemory;
+    private final HashSet<Integer> mMemoryOnly = new HashSet<>();
+    // Evicted thumbnails waiting to be written, still served from memory until they are on disk.
+    private final HashMap<Integer, Bitmap> mPendingWrites = new HashMap<>();
+    // Access ordered, the eldest entry is the least recently used file.
+    private final LinkedHashMap<Integer, Long> mDiskEntries = new LinkedHashMap<>(16, 0.75f, true);
+    private long mDiskBytes;
+    private long mDiskBudget;
+    private File mDirectory;
+    private Handler mDiskHandler;
+
+    /**
+     * @param aDirectory where evicted thumbnails are spilled, its content is discarded because
+     *                   session ids do not survive a restart.
+     * @param aDiskBudget bytes that may be used on disk, 0 keeps thumbnails in memory only.
+     */
+    public ThumbnailCache(File aDirectory, int aMemoryBudget, long aDiskBudget) {
+        mMemory = new LruCache<Integer, Bitmap>(aMemoryBudget) {
+            @Override
+            protected int sizeOf(Integer aKey, Bitmap aValue) {
+                return aValue.getAllocationByteCount();
+            }
+
+            @Override
+            protected void entryRemoved(boolean aEvicted, Integer aKey, Bitmap aOldValue, Bitmap aNewValue) {
+                if (aEvicted) {
+                    spill(aKey, aOldValue);
+                }
+            }
+        };
+        mDirectory = aDirectory;
+        mDiskBudget = aDiskBudget;
+        if (mDiskBudget > 0) {
+            HandlerThread thread = new HandlerThread("ThumbnailCache");
+            thread.start();
+            mDiskHandler = new Handler(thread.getLooper());
+            mDiskHandler.post(new Runnable() {
+                @Override
+                public void run() {
+                    if (!mDirectory.isDirectory() && !mDirectory.mkdirs()) {
+                        Log.e(LOGTAG, "Unable to create thumbnail directory: " + mDirectory);
+                        return;
+                    }
+                    File[] files = mDirectory.listFiles();
+                    if (files != null) {
+                        for (File file: files) {
+                            file.delete();
+                        }
+                    }
+                }
+            });
+        }
+    }
+
+    /**
+     * Stores the thumbnail of a session, replacing any previous one.
+     * @param aPersistable false for private sessions, their thumbnails are never written to disk.
+     */
+    public void put(int aSessionId, Bitmap aThumbnail, boolean aPersistable) {
+        synchronized (mMemoryOnly) {
+            if (aPersistable) {
+                mMemoryOnly.remove(aSessionId);
+            } else {
+                mMemoryOnly.add(aSessionId);
+            }
+        }
+        removeFromDisk(aSessionId);
+        mMemory.put(aSessionId, aThumbnail);
+    }
+
+    /**
+     * Returns the thumbnail of a session if it is in memory, or null. It never reads the disk,
+     * see load() for thumbnails that were spilled.
+     */
+    public Bitmap get(int aSessionId) {
+        Bitmap result = mMemory.get(aSessionId);
+        if (result != null) {
+            return result;
+        }
+        synchronized (mPendingWrites) {
+            return mPendingWrites.get(aSessionId);
+        }
+    }
+
+    /**
+     * Decodes the thumbnail of a session from disk on the disk thread, then passes it to
+     * aCallback on aHandler. Returns false, and aCallback is not called, when it is not on disk.
+     */
+    public boolean load(final int aSessionId, final Handler aHandler, final LoadCallback aCallback) {
+        synchronized (mDiskEntries) {
+            if (mDiskHandler == null || !mDiskEntries.containsKey(aSessionId)) {
+                return false;
+            }
+        }
+        mDiskHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                Bitmap result = null;
+                boolean onDisk;
+                synchronized (mDiskEntries) {
+                    onDisk = mDiskEntries.get(aSessionId) != null;
+                }
+                if (onDisk) {
+                    BitmapFactory.Options options = new BitmapFactory.Options();
+                    options.inPreferredConfig = Bitmap.Config.RGB_565;
+                    result = BitmapFactory.decodeFile(getFile(aSessionId).getPath(), options);
+                }
+                if (result != null) {
+                    // Promote it back to memory, the file is no longer needed.
+                    put(aSessionId, result, true);
+                }
+                final Bitmap thumbnail = result;
+                aHandler.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        aCallback.onThumbnailLoaded(thumbnail);
+                    }
+                });
+            }
+        });
+        return true;
+    }
+
+    public void remove(int aSessionId) {
+        mMemory.remove(aSessionId);
+        synchronized (mMemoryOnly) {
+            mMemoryOnly.remove(aSessionId);
+        }
+        synchronized (mPendingWrites) {
+            mPendingWrites.remove(aSessionId);
+        }
+        removeFromDisk(aSessionId);
+    }
+
+    /**
+     * Removes the thumbnails of several sessions, their files are deleted in a single disk task.
+     */
+    public void remove(Collection<Integer> aSessionIds) {
+        final ArrayList<Integer> files = new ArrayList<>();
+        for (Integer sessionId: aSessionIds) {
+            mMemory.remove(sessionId);
+            synchronized (mMemoryOnly) {
+                mMemoryOnly.remove(sessionId);
+            }
+            synchronized (mPendingWrites) {
+                mPendingWrites.remove(sessionId);
+            }
+            synchronized (mDiskEntries) {
+                Long length = mDiskEntries.remove(sessionId);
+                if (length != null) {
+                    mDiskBytes -= length;
+                    files.add(sessionId);
+                }
+            }
+        }
+        if (files.isEmpty()) {
+            return;
+        }
+        mDiskHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                for (Integer sessionId: files) {
+                    getFile(sessionId).delete();
+                }
+            }
+        });
+    }
+
+    /**
+     * Moves every thumbnail out of memory, to disk when allowed. Returns the bytes released.
+     */
+    public long trimMemory() {
+        long bytes = mMemory.size();
+        mMemory.evictAll();
+        return bytes;
+    }
+
+    public int getMemoryBytes() {
+        return mMemory.size();
+    }
+
+    public long getDiskBytes() {
+        synchronized (mDiskEntries) {
+            return mDiskBytes;
+        }
+    }
+
+    private File getFile(int aSessionId) {
+        return new File(mDirectory, aSessionId + ".jpg");
+    }
+
+    private void spill(final int aSessionId, final Bitmap aThumbnail) {
+        if (mDiskHandler == null) {
+            return;
+        }
+        synchronized (mMemoryOnly) {
+            if (mMemoryOnly.remove(aSessionId)) {
+                return;
+            }
+        }
+        synchronized (mPendingWrites) {
+            mPendingWrites.put(aSessionId, aThumbnail);
+        }
+        mDiskHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                synchronized (mPendingWrites) {
+                    // Removed or promoted back to memory in the meantime.
+                    if (mPendingWrites.get(aSessionId) != aThumbnail) {
+                        return;
+                    }
+                }
+                File file = getFile(aSessionId);
+                boolean written = false;
+                try (FileOutputStream output = new FileOutputStream(file)) {
+                    written = aThumbnail.compress(Bitmap.CompressFormat.JPEG, JPEG_QUALITY, output);
+                } catch (IOException e) {
+                    Log.e(LOGTAG, "Unable to write thumbnail: '" + file + "' got exception: " + e.toString());
+                }
+                synchronized (mPendingWrites) {
+                    if (mPendingWrites.get(aSessionId) == aThumbnail) {
+                        mPendingWrites.remove(aSessionId);
+                    } else {
+                        written = false;
+                    }
+                }
+                if (!written) {
+                    file.delete();
+                    return;
+                }
+                synchronized (mDiskEntries) {
+                    long length = file.length();
+                    mDiskEntries.put(aSessionId, length);
+                    mDiskBytes += length;
+                    trimDisk();
+                }
+            }
+        });
+    }
+
+    private void removeFromDisk(final int aSessionId) {
+        synchronized (mPendingWrites) {
+            mPendingWrites.remove(aSessionId);
+        }
+        synchronized (mDiskEntries) {
+            Long length = mDiskEntries.remove(aSessionId);
+            if (length == null) {
+                return;
+            }
+            mDiskBytes -= length;
+        }
+        mDiskHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                getFile(aSessionId).delete();
+            }
+        });
+    }
+
+    // Called on the disk thread with mDiskEntries locked.
+    private void trimDisk() {
+        Iterator<Map.Entry<Integer, Long>> it = mDiskEntries.entrySet().iterator();
+        while (mDiskBytes > mDiskBudget && it.hasNext()) {
+            Map.Entry<Integer, Long> entry = it.next();
+            mDiskBytes -= entry.getValue();
+            getFile(entry.getKey()).delete();
+            it.remove();
+        }
+    }
+}
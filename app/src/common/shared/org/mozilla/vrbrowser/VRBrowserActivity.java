@@ -6,6 +6,7 @@
 package org.mozilla.vrbrowser;
 
 import android.content.Intent;
+import android.content.pm.PackageManager;
 import android.graphics.SurfaceTexture;
 import android.net.Uri;
 import android.opengl.GLES11Ext;
@@ -15,6 +16,7 @@ import android.os.Handler;
 import android.os.Looper;
 import android.support.annotation.Keep;
 import android.util.Log;
+import android.util.SparseArray;
 import android.view.KeyEvent;
 import android.view.View;
 import android.view.ViewTreeObserver;
@@ -25,42 +27,78 @@ import org.mozilla.vrbrowser.audio.VRAudioTheme;
 import org.mozilla.vrbrowser.telemetry.TelemetryWrapper;
 import org.mozilla.vrbrowser.ui.*;
 
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.LinkedList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
 
 public class VRBrowserActivity extends PlatformActivity implements WidgetManagerDelegate {
 
-    class SwipeRunnable implements Runnable {
-        boolean mCanceled = false;
-        @Override
-        public void run() {
-            if (!mCanceled) {
-                mLastGesture = NoGesture;
-            }
-        }
-    }
-
     // Used to load the 'native-lib' library on application startup.
     static {
         System.loadLibrary("native-lib");
     }
 
-    static final int NoGesture = -1;
-    static final int GestureSwipeLeft = 0;
-    static final int GestureSwipeRight = 1;
-    static final int SwipeDelay = 1000; // milliseconds
+    // Navigation intents recognized from touchpad swipes by the native SwipeRecognizer.
+    static final int GestureNavigateBack = 0;
+    static final int GestureNavigateForward = 1;
+    static final int ResizeSettleDelay = 1500; // milliseconds
 
     static final String LOGTAG = "VRB";
+    // Debug build intent extras: adb shell am start -n <activity> --es record_input_trace <name>
+    // Trace files are read from and written to the app's external files directory.
+    static final String EXTRA_RECORD_INPUT_TRACE = "record_input_trace";
+    static final String EXTRA_REPLAY_INPUT_TRACE = "replay_input_trace";
+    static final String EXTRA_REPLAY_INPUT_SPEED = "replay_input_speed";
+    // Debug build boolean extra: counts and times JNI calls, per frame to a CSV file in the external
+    // files directory and per session to telemetry.
+    static final String EXTRA_PROFILE_JNI = "profile_jni";
+    static final String JNI_PROFILE_FILE = "jni_profile.csv";
+    // Debug build extras for the head and controller pose prediction: pose_prediction (boolean)
+    // turns it on or off, pose_head_horizon and pose_controller_horizon (float, seconds) bound the
+    // extrapolation. record_pose_trace (boolean) writes the head poses to a file in the external
+    // files directory, which app/src/test/cpp/PosePredictorReplay.cpp replays.
+    static final String EXTRA_POSE_PREDICTION = "pose_prediction";
+    static final String EXTRA_POSE_HEAD_HORIZON = "pose_head_horizon";
+    static final String EXTRA_POSE_CONTROLLER_HORIZON = "pose_controller_horizon";
+    static final String EXTRA_RECORD_POSE_TRACE = "record_pose_trace";
+    static final String POSE_TRACE_FILE = "pose_trace.txt";
+    // Name of the environment to switch to, "meadow" or "space".
+    static final String EXTRA_ENVIRONMENT = "environment";
     HashMap<Integer, Widget> mWidgets;
     private int mWidgetHandleIndex = 1;
+    // Completion callbacks of the widget animations running on the render thread.
+    SparseArray<Runnable> mAnimationCallbacks = new SparseArray<>();
+    private int mAnimationIdIndex = 1;
     AudioEngine mAudioEngine;
     OffscreenDisplay mOffscreenDisplay;
-    FrameLayout mWidgetContainer;
-    int mLastGesture;
-    SwipeRunnable mLastRunnable;
+    OffscreenViewRoot mWidgetContainer;
+    // When enabled each widget is hosted in its own offscreen window instead of mWidgetContainer.
+    boolean mUseWidgetViewRoots;
+    HashMap<Integer, OffscreenViewRoot> mWidgetViewRoots = new HashMap<>();
+    ViewTreeObserver.OnGlobalFocusChangeListener mFocusChangeListener;
     Handler mHandler = new Handler();
     Runnable mAudioUpdateRunnable;
+    MemoryPressureManager.Reclaimable mAudioReclaimable = new MemoryPressureManager.Reclaimable() {
+        @Override
+        public long getReclaimableBytes() {
+            return mAudioEngine != null ? mAudioEngine.getPreloadedBytes() : 0;
+        }
+
+        @Override
+        public long reclaim() {
+            return mAudioEngine != null ? mAudioEngine.unloadPreloaded() : 0;
+        }
+    };
     BrowserWidget mBrowserWidget;
     KeyboardWidget mKeyboard;
     NavigationBarWidget mNavigationBar;
@@ -69,33 +107,81 @@ public class VRBrowserActivity extends PlatformActivity implements WidgetManager
     PermissionDelegate mPermissionDelegate;
     LinkedList<WidgetManagerDelegate.Listener> mWidgetEventListeners;
     LinkedList<Runnable> mBackHandlers;
+    // Widgets being resized keep their current surface until the new size is committed.
+    HashSet<Widget> mResizePreviewWidgets = new HashSet<>();
+    HashSet<Widget> mPendingSurfaceResizes = new HashSet<>();
+    // Widget updates are sent to the native layout once per UI loop iteration.
+    WidgetLayout mWidgetLayout = new WidgetLayout();
+    boolean mWidgetLayoutPending;
+    Runnable mWidgetLayoutRunnable = new Runnable() {
+        @Override
+        public void run() {
+            flushWidgetLayout();
+        }
+    };
+    Runnable mResizeSettleRunnable = new Runnable() {
+        @Override
+        public void run() {
+            commitSurfaceResizes();
+        }
+    };
     private boolean mIsPresentingImmersive = false;
     private Thread mUiThread;
+    private volatile InputTrace.Recorder mInputRecorder;
+    private File mInputRecordFile;
+    private boolean mJNIProfiling;
+    private boolean mPoseTracing;
+    private InputReplay mInputReplay;
 
     @Override
     protected void onCreate(Bundle savedInstanceState) {
         mUiThread = Thread.currentThread();
+        final StartupTracer tracer = StartupTracer.get();
+        tracer.beginPhase("onCreate");
+
+        // The audio engine does not depend on Gecko, so build it while the runtime is created.
+        Thread audioThread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                tracer.beginPhase("audio");
+                mAudioEngine = new AudioEngine(VRBrowserActivity.this, new VRAudioTheme());
+                tracer.endPhase("audio");
+            }
+        }, "AudioEngineInit");
+        audioThread.start();
+
+        tracer.beginPhase("geckoRuntime");
         SessionStore.get().setContext(this);
+        tracer.endPhase("geckoRuntime");
 
-        mLastGesture = NoGesture;
+        tracer.beginPhase("platform");
         super.onCreate(savedInstanceState);
+        tracer.endPhase("platform");
 
         mWidgets = new HashMap<>();
-        mWidgetContainer = new FrameLayout(this);
-        mWidgetContainer.getViewTreeObserver().addOnGlobalFocusChangeListener(new ViewTreeObserver.OnGlobalFocusChangeListener() {
+        mFocusChangeListener = new ViewTreeObserver.OnGlobalFocusChangeListener() {
             @Override
             public void onGlobalFocusChanged(View oldFocus, View newFocus) {
                 if (mKeyboard != null) {
                     mKeyboard.updateFocusedView(newFocus);
                 }
             }
-        });
+        };
+        mUseWidgetViewRoots = SettingsStore.getInstance(this).isWidgetViewRootsEnabled();
+        mWidgetContainer = new OffscreenViewRoot(this, "shared");
+        mWidgetContainer.getViewTreeObserver().addOnGlobalFocusChangeListener(mFocusChangeListener);
 
         mPermissionDelegate = new PermissionDelegate(this, this);
         mWidgetEventListeners = new LinkedList<>();
         mBackHandlers = new LinkedList<>();
 
-        mAudioEngine = new AudioEngine(this, new VRAudioTheme());
+        // Widgets look up the audio engine when they are created.
+        try {
+            audioThread.join();
+        } catch (InterruptedException e) {
+            Log.e(LOGTAG, "Interrupted while waiting for the AudioEngine: " + e.toString());
+        }
+        MemoryPressureManager.get().register("Preloaded sounds", MemoryPressureManager.PRIORITY_REBUILDABLE, mAudioReclaimable);
         mAudioEngine.preloadAsync(new Runnable() {
             @Override
             public void run() {
@@ -111,6 +197,10 @@ public class VRBrowserActivity extends PlatformActivity implements WidgetManager
         };
 
         loadFromIntent(getIntent());
+        handleInputTraceIntent(getIntent());
+        handleJNIProfilerIntent(getIntent());
+        handlePosePredictionIntent(getIntent());
+        handleEnvironmentIntent(getIntent());
         queueRunnable(new Runnable() {
             @Override
             public void run() {
@@ -124,7 +214,10 @@ public class VRBrowserActivity extends PlatformActivity implements WidgetManager
                 setTemporaryFilePath(tempPath);
             }
         });
+        tracer.beginPhase("initializeWorld");
         initializeWorld();
+        tracer.endPhase("initializeWorld");
+        tracer.endPhase("onCreate");
     }
 
     protected void initializeWorld() {
@@ -141,10 +234,6 @@ public class VRBrowserActivity extends PlatformActivity implements WidgetManager
         mNavigationBar = new NavigationBarWidget(this);
         mNavigationBar.setBrowserWidget(mBrowserWidget);
 
-        // Create keyboard widget
-        mKeyboard = new KeyboardWidget(this);
-        mKeyboard.setBrowserWidget(mBrowserWidget);
-
         // Create the top bar
         mTopBar = new TopBarWidget(this);
         mTopBar.setBrowserWidget(mBrowserWidget);
@@ -152,7 +241,22 @@ public class VRBrowserActivity extends PlatformActivity implements WidgetManager
         // Create Tray
         mTray = new TrayWidget(this);
 
-        addWidgets(Arrays.<Widget>asList(mBrowserWidget, mNavigationBar, mKeyboard, mTray));
+        // The keyboard is hidden on startup, see createDeferredWidgets()
+        addWidgets(Arrays.<Widget>asList(mBrowserWidget, mNavigationBar, mTray));
+    }
+
+    // Creates the widgets that are not needed for the first frame.
+    protected void createDeferredWidgets() {
+        if (mKeyboard != null || mBrowserWidget == null) {
+            return;
+        }
+        StartupTracer.get().beginPhase("deferredWidgets");
+        mKeyboard = new KeyboardWidget(this);
+        mKeyboard.setBrowserWidget(mBrowserWidget);
+        addWidget(mKeyboard);
+        // The focus may have changed before the keyboard existed.
+        mKeyboard.updateFocusedView(findFocusedWidgetView());
+        StartupTracer.get().endPhase("deferredWidgets");
     }
 
     @Override
@@ -167,8 +271,26 @@ public class VRBrowserActivity extends PlatformActivity implements WidgetManager
         TelemetryWrapper.stop();
     }
 
+    @Override
+    public void onTrimMemory(int aLevel) {
+        super.onTrimMemory(aLevel);
+        MemoryPressureManager.get().onTrimMemory(aLevel);
+    }
+
+    @Override
+    public void onLowMemory() {
+        super.onLowMemory();
+        MemoryPressureManager.get().onLowMemory();
+    }
+
     @Override
     protected void onPause() {
+        stopInputTrace();
+        stopJNIProfiler();
+        stopPoseTrace();
+        if (mBrowserWidget != null) {
+            mBrowserWidget.recordRenderBudgetMetrics();
+        }
         mAudioEngine.pauseEngine();
         super.onPause();
     }
@@ -188,6 +310,7 @@ public class VRBrowserActivity extends PlatformActivity implements WidgetManager
         if (mOffscreenDisplay != null) {
             mOffscreenDisplay.release();
         }
+        MemoryPressureManager.get().unregister(mAudioReclaimable);
         if (mAudioEngine != null) {
             mAudioEngine.release();
         }
@@ -204,6 +327,10 @@ public class VRBrowserActivity extends PlatformActivity implements WidgetManager
         Log.d(LOGTAG,"VRBrowserActivity onNewIntent");
         super.onNewIntent(intent);
         setIntent(intent);
+        handleInputTraceIntent(intent);
+        handleJNIProfilerIntent(intent);
+        handlePosePredictionIntent(intent);
+        handleEnvironmentIntent(intent);
         final String action = intent.getAction();
         if (Intent.ACTION_VIEW.equals(action)) {
             if (intent.getData() != null) {
@@ -226,6 +353,198 @@ public class VRBrowserActivity extends PlatformActivity implements WidgetManager
         }
     }
 
+    // The activity is exported, so other apps could send these extras as well.
+    void handleInputTraceIntent(final Intent intent) {
+        if (!BuildConfig.DEBUG) {
+            return;
+        }
+        final File recordFile = getDebugFile(intent.getStringExtra(EXTRA_RECORD_INPUT_TRACE));
+        final File replayFile = getDebugFile(intent.getStringExtra(EXTRA_REPLAY_INPUT_TRACE));
+        if (recordFile != null) {
+            stopInputTrace();
+            Log.d(LOGTAG, "Recording input trace to: " + recordFile);
+            mInputRecordFile = recordFile;
+            mInputRecorder = new InputTrace.Recorder();
+        } else if (replayFile != null) {
+            stopInputTrace();
+            replayInputTrace(replayFile, intent.getFloatExtra(EXTRA_REPLAY_INPUT_SPEED, 1.0f));
+        }
+    }
+
+    // Only the name is kept, so a debug extra can not point outside the external files directory.
+    private File getDebugFile(final String aName) {
+        File directory = getExternalFilesDir(null);
+        if (aName == null || directory == null) {
+            return null;
+        }
+        String name = new File(aName).getName();
+        if (name.isEmpty() || name.equals(".") || name.equals("..")) {
+            return null;
+        }
+        return new File(directory, name);
+    }
+
+    // The native profiler opens the CSV for writing, so the path never comes from the intent.
+    void handleJNIProfilerIntent(final Intent intent) {
+        if (!BuildConfig.DEBUG || !intent.getBooleanExtra(EXTRA_PROFILE_JNI, false)) {
+            return;
+        }
+        stopJNIProfiler();
+        File directory = getExternalFilesDir(null);
+        // Without external storage only the summary is recorded.
+        final String path = directory != null ? new File(directory, JNI_PROFILE_FILE).getPath() : "";
+        Log.d(LOGTAG, "Profiling JNI calls to: " + path);
+        // The profiler is thread safe, no need to queue this on the render thread.
+        enableJNIProfilerNative(path);
+        mJNIProfiling = true;
+    }
+
+    void handlePosePredictionIntent(final Intent intent) {
+        if (!BuildConfig.DEBUG) {
+            return;
+        }
+        if (intent.hasExtra(EXTRA_POSE_PREDICTION) || intent.hasExtra(EXTRA_POSE_HEAD_HORIZON) ||
+                intent.hasExtra(EXTRA_POSE_CONTROLLER_HORIZON)) {
+            final boolean enabled = intent.getBooleanExtra(EXTRA_POSE_PREDICTION, true);
+            // Negative keeps the current horizon.
+            final float headHorizon = intent.getFloatExtra(EXTRA_POSE_HEAD_HORIZON, -1.0f);
+            final float controllerHorizon = intent.getFloatExtra(EXTRA_POSE_CONTROLLER_HORIZON, -1.0f);
+            Log.d(LOGTAG, "Pose prediction " + (enabled ? "enabled" : "disabled") + ", horizons: " +
+                    headHorizon + "s " + controllerHorizon + "s");
+            queueRunnable(new Runnable() {
+                @Override
+                public void run() {
+                    setPosePredictionNative(enabled, headHorizon, controllerHorizon);
+                }
+            });
+        }
+        File directory = getExternalFilesDir(null);
+        if (intent.getBooleanExtra(EXTRA_RECORD_POSE_TRACE, false) && directory != null) {
+            final String path = new File(directory, POSE_TRACE_FILE).getPath();
+            Log.d(LOGTAG, "Recording pose trace to: " + path);
+            mPoseTracing = true;
+            queueRunnable(new Runnable() {
+                @Override
+                public void run() {
+                    setPoseTraceFileNative(path);
+                }
+            });
+        }
+    }
+
+    private void stopPoseTrace() {
+        if (!mPoseTracing) {
+            return;
+        }
+        mPoseTracing = false;
+        queueRunnable(new Runnable() {
+            @Override
+            public void run() {
+                setPoseTraceFileNative("");
+            }
+        });
+    }
+
+    void handleEnvironmentIntent(final Intent intent) {
+        final String environment = intent.getStringExtra(EXTRA_ENVIRONMENT);
+        if (environment != null) {
+            setEnvironment(environment);
+        }
+    }
+
+    public void setEnvironment(final String aName) {
+        queueRunnable(new Runnable() {
+            @Override
+            public void run() {
+                setEnvironmentNative(aName);
+            }
+        });
+    }
+
+    private void stopJNIProfiler() {
+        if (!mJNIProfiling) {
+            return;
+        }
+        mJNIProfiling = false;
+        disableJNIProfilerNative();
+        final String summary = getJNIProfileNative();
+        Log.d(LOGTAG, "JNI profile (direction,method,calls,total_us,max_us,frames):\n" + summary);
+        TelemetryWrapper.recordJNIProfile(summary);
+    }
+
+    private void stopInputTrace() {
+        if (mInputReplay != null) {
+            mInputReplay.cancel();
+            mInputReplay = null;
+        }
+        if (mInputRecorder == null) {
+            return;
+        }
+        final InputTrace.Recorder recorder = mInputRecorder;
+        final File file = mInputRecordFile;
+        mInputRecorder = null;
+        mInputRecordFile = null;
+        new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try (OutputStream stream = new FileOutputStream(file)) {
+                    recorder.writeTo(stream);
+                    Log.d(LOGTAG, "Saved " + recorder.getCount() + " input events to: " + file);
+                } catch (IOException e) {
+                    Log.e(LOGTAG, "Unable to save input trace: " + e.getMessage());
+                }
+            }
+        }, "InputTraceWriter").start();
+    }
+
+    private void replayInputTrace(final File aFile, final float aSpeed) {
+        final InputReplay.Target target = new InputReplay.Target() {
+            @Override
+            public void dispatch(final InputTrace.Event aEvent) throws InterruptedException {
+                final CountDownLatch latch = new CountDownLatch(1);
+                runOnUiThread(new Runnable() {
+                    @Override
+                    public void run() {
+                        dispatchInputEvent(aEvent);
+                        latch.countDown();
+                    }
+                });
+                latch.await();
+            }
+        };
+        // Set before the trace is read, so stopInputTrace() can cancel it right away.
+        final InputReplay replay = new InputReplay(target, aSpeed);
+        mInputReplay = replay;
+        new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try (InputStream stream = new FileInputStream(aFile)) {
+                    List<InputTrace.Event> events = InputTrace.read(stream);
+                    Log.d(LOGTAG, "Replaying " + events.size() + " input events at speed " + aSpeed);
+                    Log.d(LOGTAG, "Input replay finished: " + replay.run(events));
+                } catch (IOException e) {
+                    Log.e(LOGTAG, "Unable to replay input trace: " + e.getMessage());
+                } catch (InterruptedException e) {
+                    Log.e(LOGTAG, "Input replay interrupted");
+                }
+            }
+        }, "InputReplay").start();
+    }
+
+    void dispatchInputEvent(InputTrace.Event aEvent) {
+        switch (aEvent.mType) {
+            case InputTrace.TYPE_MOTION:
+                dispatchMotionEvent(aEvent.mHandle, aEvent.mDevice, aEvent.mPressed, aEvent.mX, aEvent.mY);
+                break;
+            case InputTrace.TYPE_SCROLL:
+                dispatchScrollEvent(aEvent.mHandle, aEvent.mDevice, aEvent.mX, aEvent.mY);
+                break;
+            case InputTrace.TYPE_GESTURE:
+                dispatchGesture(aEvent.mGesture);
+                break;
+        }
+    }
+
     @Override
     public void onBackPressed() {
         if (mIsPresentingImmersive) {
@@ -272,6 +591,17 @@ public class VRBrowserActivity extends PlatformActivity implements WidgetManager
                         @Override
                         public void onFrameAvailable(SurfaceTexture surfaceTexture) {
                             surfaceTexture.setOnFrameAvailableListener(null);
+                            if (widget == mBrowserWidget) {
+                                StartupTracer.get().markFirstPaint();
+                            } else if (!StartupTracer.get().hasFirstFrame()) {
+                                StartupTracer.get().markFirstFrame();
+                                mHandler.post(new Runnable() {
+                                    @Override
+                                    public void run() {
+                                        createDeferredWidgets();
+                                    }
+                                });
+                            }
                             if (!widget.getFirstDraw()) {
                                 widget.setFirstDraw(true);
                                 updateWidget(widget);
@@ -283,7 +613,9 @@ public class VRBrowserActivity extends PlatformActivity implements WidgetManager
                 widget.setSurfaceTexture(aTexture, aWidth, aHeight);
                 // Add widget to a virtual display for invalidation
                 if (((View)widget).getParent() == null) {
-                    mWidgetContainer.addView((View) widget, new FrameLayout.LayoutParams(aWidth, aHeight));
+                    attachWidgetView(widget, aWidth, aHeight);
+                    // Updates made before the view was attached were not reported.
+                    notifyWidgetUpdate(widget);
                 }
             }
         });
@@ -292,63 +624,72 @@ public class VRBrowserActivity extends PlatformActivity implements WidgetManager
     @Keep
     @SuppressWarnings("unused")
     void handleMotionEvent(final int aHandle, final int aDevice, final boolean aPressed, final float aX, final float aY) {
+        InputTrace.Recorder recorder = mInputRecorder;
+        if (recorder != null) {
+            recorder.recordMotion(aHandle, aDevice, aPressed, aX, aY, System.nanoTime());
+        }
         runOnUiThread(new Runnable() {
             @Override
             public void run() {
-                Widget widget = mWidgets.get(aHandle);
-                MotionEventGenerator.dispatch(widget, aDevice, aPressed, aX, aY);
+                dispatchMotionEvent(aHandle, aDevice, aPressed, aX, aY);
             }
         });
     }
 
+    void dispatchMotionEvent(int aHandle, int aDevice, boolean aPressed, float aX, float aY) {
+        Widget widget = mWidgets.get(aHandle);
+        MotionEventGenerator.dispatch(widget, aDevice, aPressed, aX, aY);
+    }
+
     @Keep
     @SuppressWarnings("unused")
     void handleScrollEvent(final int aHandle, final int aDevice, final float aX, final float aY) {
+        InputTrace.Recorder recorder = mInputRecorder;
+        if (recorder != null) {
+            recorder.recordScroll(aHandle, aDevice, aX, aY, System.nanoTime());
+        }
         runOnUiThread(new Runnable() {
             @Override
             public void run() {
-                Widget widget = mWidgets.get(aHandle);
-                if (widget != null) {
-                    MotionEventGenerator.dispatchScroll(widget, aDevice, aX, aY);
-                } else {
-                    Log.e(LOGTAG, "Failed to find widget for scroll event: " + aHandle);
-                }
+                dispatchScrollEvent(aHandle, aDevice, aX, aY);
             }
         });
     }
 
+    void dispatchScrollEvent(int aHandle, int aDevice, float aX, float aY) {
+        Widget widget = mWidgets.get(aHandle);
+        if (widget != null) {
+            MotionEventGenerator.dispatchScroll(widget, aDevice, aX, aY);
+        } else {
+            Log.e(LOGTAG, "Failed to find widget for scroll event: " + aHandle);
+        }
+    }
+
     @Keep
     @SuppressWarnings("unused")
     void handleGesture(final int aType) {
+        InputTrace.Recorder recorder = mInputRecorder;
+        if (recorder != null) {
+            recorder.recordGesture(aType, System.nanoTime());
+        }
         runOnUiThread(new Runnable() {
             @Override
             public void run() {
-                boolean consumed = false;
-                if ((aType == GestureSwipeLeft) && (mLastGesture == GestureSwipeLeft)) {
-                    Log.d(LOGTAG, "Go back!");
-                    SessionStore.get().goBack();
-                    consumed = true;
-                } else if ((aType == GestureSwipeRight) && (mLastGesture == GestureSwipeRight)) {
-                    Log.d(LOGTAG, "Go forward!");
-                    SessionStore.get().goForward();
-                    consumed = true;
-                }
-                if (mLastRunnable != null) {
-                    mLastRunnable.mCanceled = true;
-                    mLastRunnable = null;
-                }
-                if (consumed) {
-                    mLastGesture = NoGesture;
-
-                } else {
-                    mLastGesture = aType;
-                    mLastRunnable = new SwipeRunnable();
-                    mHandler.postDelayed(mLastRunnable, SwipeDelay);
-                }
+                dispatchGesture(aType);
             }
         });
     }
 
+    void dispatchGesture(int aType) {
+        if (aType == GestureNavigateBack) {
+            Log.d(LOGTAG, "Go back!");
+            SessionStore.get().goBack();
+        } else if (aType == GestureNavigateForward) {
+            Log.d(LOGTAG, "Go forward!");
+            SessionStore.get().goForward();
+        }
+    }
+
     @SuppressWarnings({"UnusedDeclaration"})
     @Keep
     void handleBack() {
@@ -387,6 +728,35 @@ public class VRBrowserActivity extends PlatformActivity implements WidgetManager
         });
     }
 
+    @Keep
+    @SuppressWarnings("unused")
+    void handleWidgetAnimationFinished(final int aHandle, final int aAnimationId) {
+        runOnUiThread(new Runnable() {
+            @Override
+            public void run() {
+                Runnable callback = mAnimationCallbacks.get(aAnimationId);
+                if (callback != null) {
+                    mAnimationCallbacks.remove(aAnimationId);
+                    callback.run();
+                }
+            }
+        });
+    }
+
+    @Keep
+    @SuppressWarnings("unused")
+    void handleWidgetInView(final int aHandle, final boolean aInView) {
+        runOnUiThread(new Runnable() {
+            @Override
+            public void run() {
+                Widget widget = mWidgets.get(aHandle);
+                if (widget instanceof BrowserWidget) {
+                    ((BrowserWidget) widget).setInView(aInView);
+                }
+            }
+        });
+    }
+
     @Keep
     @SuppressWarnings("unused")
     void registerExternalContext(long aContext) {
@@ -454,6 +824,17 @@ public class VRBrowserActivity extends PlatformActivity implements WidgetManager
         return getExternalFilesDir(null).getAbsolutePath();
     }
 
+    // Changes whenever the APK is installed or updated, and with it the bundled assets.
+    @Keep
+    long getAppUpdateTime() {
+        try {
+            return getPackageManager().getPackageInfo(getPackageName(), 0).lastUpdateTime;
+        } catch (PackageManager.NameNotFoundException e) {
+            Log.e(LOGTAG, "Unable to get app update time: " + e.toString());
+            return 0;
+        }
+    }
+
     void createOffscreenDisplay() {
         int[] ids = new int[1];
         GLES20.glGenTextures(1, ids, 0);
@@ -474,10 +855,54 @@ public class VRBrowserActivity extends PlatformActivity implements WidgetManager
             public void run() {
                 mOffscreenDisplay = new OffscreenDisplay(VRBrowserActivity.this, texture, 16, 16);
                 mOffscreenDisplay.setContentView(mWidgetContainer);
+                // Widget views created before the display existed
+                for (OffscreenViewRoot root: mWidgetViewRoots.values()) {
+                    root.attach(mOffscreenDisplay);
+                }
             }
         });
     }
 
+    private void attachWidgetView(Widget aWidget, int aWidth, int aHeight) {
+        FrameLayout.LayoutParams params = new FrameLayout.LayoutParams(aWidth, aHeight);
+        if (!mUseWidgetViewRoots) {
+            mWidgetContainer.addView((View) aWidget, params);
+            return;
+        }
+        OffscreenViewRoot root = new OffscreenViewRoot(this, aWidget.getClass().getSimpleName() + "-" + aWidget.getHandle());
+        root.getViewTreeObserver().addOnGlobalFocusChangeListener(mFocusChangeListener);
+        root.addView((View) aWidget, params);
+        mWidgetViewRoots.put(aWidget.getHandle(), root);
+        if (mOffscreenDisplay != null) {
+            root.attach(mOffscreenDisplay);
+        }
+    }
+
+    private void detachWidgetView(Widget aWidget) {
+        OffscreenViewRoot root = mWidgetViewRoots.remove(aWidget.getHandle());
+        if (root == null) {
+            mWidgetContainer.removeView((View) aWidget);
+            return;
+        }
+        root.removeView((View) aWidget);
+        root.getViewTreeObserver().removeOnGlobalFocusChangeListener(mFocusChangeListener);
+        root.detach();
+    }
+
+    private View findFocusedWidgetView() {
+        View focused = mWidgetContainer.findFocus();
+        if (focused != null) {
+            return focused;
+        }
+        for (OffscreenViewRoot root: mWidgetViewRoots.values()) {
+            focused = root.findFocus();
+            if (focused != null) {
+                return focused;
+            }
+        }
+        return null;
+    }
+
     @Override
     public int newWidgetHandle() {
         return mWidgetHandleIndex++;
@@ -485,6 +910,7 @@ public class VRBrowserActivity extends PlatformActivity implements WidgetManager
 
 
     public void addWidgets(final Iterable<Widget> aWidgets) {
+        flushWidgetLayout();
         for (Widget widget: aWidgets) {
             mWidgets.put(widget.getHandle(), widget);
             ((View)widget).setVisibility(widget.getPlacement().visible ? View.VISIBLE : View.GONE);
@@ -502,6 +928,7 @@ public class VRBrowserActivity extends PlatformActivity implements WidgetManager
     // WidgetManagerDelegate
     @Override
     public void addWidget(final Widget aWidget) {
+        flushWidgetLayout();
         mWidgets.put(aWidget.getHandle(), aWidget);
         ((View)aWidget).setVisibility(aWidget.getPlacement().visible ? View.VISIBLE : View.GONE);
         queueRunnable(new Runnable() {
@@ -514,26 +941,79 @@ public class VRBrowserActivity extends PlatformActivity implements WidgetManager
 
     @Override
     public void updateWidget(final Widget aWidget) {
+        if (!mWidgetLayout.setParent(aWidget.getHandle(), aWidget.getPlacement().parentHandle)) {
+            Log.e(LOGTAG, "Widget " + aWidget.getHandle() + " can't be anchored to widget " +
+                    aWidget.getPlacement().parentHandle + ", it would create a cycle");
+        }
+        mWidgetLayout.invalidate(aWidget.getHandle());
+        if (!mWidgetLayoutPending) {
+            mWidgetLayoutPending = true;
+            mHandler.post(mWidgetLayoutRunnable);
+        }
+        updateWidgetView(aWidget);
+    }
+
+    // Sends the widgets updated since the last flush to the native layout in a single runnable,
+    // parents first. Listeners that update their own widget in response to an update of their
+    // parent are folded into the same flush. Called before any other widget operation is queued
+    // so the render thread sees them in order.
+    void flushWidgetLayout() {
+        mHandler.removeCallbacks(mWidgetLayoutRunnable);
+        mWidgetLayoutPending = false;
+        if (!mWidgetLayout.isDirty()) {
+            return;
+        }
+        final ArrayList<Widget> widgets = new ArrayList<>();
+        mWidgetLayout.resolve(new WidgetLayout.Callback() {
+            @Override
+            public void onResolve(int aHandle) {
+                Widget widget = mWidgets.get(aHandle);
+                if (widget != null) {
+                    widgets.add(widget);
+                }
+            }
+        });
         queueRunnable(new Runnable() {
             @Override
             public void run() {
-                updateWidgetNative(aWidget.getHandle(), aWidget.getPlacement());
+                for (Widget widget: widgets) {
+                    updateWidgetNative(widget.getHandle(), widget.getPlacement());
+                }
             }
         });
+    }
 
-        final int textureWidth = aWidget.getPlacement().textureWidth();
-        final int textureHeight = aWidget.getPlacement().textureHeight();
+    @Override
+    public void animateWidget(final Widget aWidget, final long aDuration, final long aDelay, final int aEasing, final Runnable aCallback) {
+        flushWidgetLayout();
+        final int animationId = mAnimationIdIndex++;
+        if (aCallback != null) {
+            mAnimationCallbacks.put(animationId, aCallback);
+        }
+        // The target is captured now, the widget may be updated again before the animation ends.
+        final WidgetPlacement placement = aWidget.getPlacement().clone();
+        queueRunnable(new Runnable() {
+            @Override
+            public void run() {
+                animateWidgetNative(aWidget.getHandle(), animationId, placement, (int)aDuration, (int)aDelay, aEasing);
+            }
+        });
+        updateWidgetView(aWidget);
+    }
 
-        FrameLayout.LayoutParams params = (FrameLayout.LayoutParams)((View)aWidget).getLayoutParams();
-        if (params == null) {
+    private void updateWidgetView(Widget aWidget) {
+        if (((View)aWidget).getLayoutParams() == null) {
             // Widget not added yet
             return;
         }
-        if (params.width != textureWidth || params.height != textureHeight) {
-            params.width = textureWidth;
-            params.height = textureHeight;
-            ((View)aWidget).setLayoutParams(params);
-            aWidget.resizeSurfaceTexture(textureWidth, textureHeight);
+        if (mResizePreviewWidgets.contains(aWidget)) {
+            // The native quad letterboxes the current texture while the resize is previewed,
+            // so the surface and the Gecko viewport are only resized once the user settles.
+            mPendingSurfaceResizes.add(aWidget);
+            mHandler.removeCallbacks(mResizeSettleRunnable);
+            mHandler.postDelayed(mResizeSettleRunnable, ResizeSettleDelay);
+        } else {
+            resizeWidgetSurface(aWidget);
         }
 
         boolean visible = aWidget.getPlacement().visible;
@@ -542,17 +1022,57 @@ public class VRBrowserActivity extends PlatformActivity implements WidgetManager
             view.setVisibility(visible ? View.VISIBLE : View.GONE);
         }
 
+        notifyWidgetUpdate(aWidget);
+    }
+
+    private void notifyWidgetUpdate(Widget aWidget) {
         for (WidgetManagerDelegate.Listener listener: mWidgetEventListeners) {
             listener.onWidgetUpdate(aWidget);
         }
+    }
 
+    private void resizeWidgetSurface(Widget aWidget) {
+        final int textureWidth = aWidget.getPlacement().textureWidth();
+        final int textureHeight = aWidget.getPlacement().textureHeight();
+
+        FrameLayout.LayoutParams params = (FrameLayout.LayoutParams)((View)aWidget).getLayoutParams();
+        if (params == null) {
+            return;
+        }
+        if (params.width != textureWidth || params.height != textureHeight) {
+            params.width = textureWidth;
+            params.height = textureHeight;
+            ((View)aWidget).setLayoutParams(params);
+            aWidget.resizeSurfaceTexture(textureWidth, textureHeight);
+        }
+    }
+
+    private void commitSurfaceResizes() {
+        mHandler.removeCallbacks(mResizeSettleRunnable);
+        flushWidgetLayout();
+        for (final Widget widget: mPendingSurfaceResizes) {
+            resizeWidgetSurface(widget);
+            queueRunnable(new Runnable() {
+                @Override
+                public void run() {
+                    commitWidgetResizeNative(widget.getHandle());
+                }
+            });
+        }
+        mPendingSurfaceResizes.clear();
     }
 
     @Override
     public void removeWidget(final Widget aWidget) {
+        mResizePreviewWidgets.remove(aWidget);
+        mPendingSurfaceResizes.remove(aWidget);
         mWidgets.remove(aWidget.getHandle());
-        mWidgetContainer.removeView((View) aWidget);
+        mWidgetLayout.remove(aWidget.getHandle());
+        flushWidgetLayout();
+        detachWidgetView(aWidget);
         aWidget.setFirstDraw(false);
+        // Hidden widgets are removed, e.g. the settings panel.
+        notifyWidgetUpdate(aWidget);
         queueRunnable(new Runnable() {
             @Override
             public void run() {
@@ -563,6 +1083,8 @@ public class VRBrowserActivity extends PlatformActivity implements WidgetManager
 
     @Override
     public void startWidgetResize(final Widget aWidget) {
+        mResizePreviewWidgets.add(aWidget);
+        flushWidgetLayout();
         queueRunnable(new Runnable() {
             @Override
             public void run() {
@@ -573,12 +1095,20 @@ public class VRBrowserActivity extends PlatformActivity implements WidgetManager
 
     @Override
     public void finishWidgetResize(final Widget aWidget) {
+        mResizePreviewWidgets.remove(aWidget);
+        flushWidgetLayout();
         queueRunnable(new Runnable() {
             @Override
             public void run() {
                 finishWidgetResizeNative(aWidget.getHandle());
             }
         });
+        if (mPendingSurfaceResizes.remove(aWidget)) {
+            resizeWidgetSurface(aWidget);
+        }
+        if (mPendingSurfaceResizes.isEmpty()) {
+            mHandler.removeCallbacks(mResizeSettleRunnable);
+        }
     }
 
     @Override
@@ -642,11 +1172,19 @@ public class VRBrowserActivity extends PlatformActivity implements WidgetManager
 
     private native void addWidgetNative(int aHandle, WidgetPlacement aPlacement);
     private native void updateWidgetNative(int aHandle, WidgetPlacement aPlacement);
+    private native void animateWidgetNative(int aHandle, int aAnimationId, WidgetPlacement aPlacement, int aDuration, int aDelay, int aEasing);
     private native void removeWidgetNative(int aHandle);
     private native void startWidgetResizeNative(int aHandle);
     private native void finishWidgetResizeNative(int aHandle);
+    private native void commitWidgetResizeNative(int aHandle);
     private native void fadeOutWorldNative();
     private native void fadeInWorldNative();
+    private native void setEnvironmentNative(String aName);
     private native void setTemporaryFilePath(String aPath);
     private native void exitImmersiveNative();
+    private native void setPosePredictionNative(boolean aEnabled, float aMaxHeadHorizon, float aMaxControllerHorizon);
+    private native void setPoseTraceFileNative(String aPath);
+    private native void enableJNIProfilerNative(String aPath);
+    private native void disableJNIProfilerNative();
+    private native String getJNIProfileNative();
 }
@@ -13,6 +13,9 @@ public class VRBrowserApplication extends Application {
     @Override
     public void onCreate() {
         super.onCreate();
+        StartupTracer.get().start();
+        StartupTracer.get().beginPhase("telemetry");
         TelemetryWrapper.init(this);
+        StartupTracer.get().endPhase("telemetry");
     }
 }
@@ -0,0 +1,111 @@
+/* -*- Mode: Java; c-basic-offset: 4; tab-width: 4; indent-tabs-mode: nil; -*-
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/. */
+
+package org.mozilla.vrbrowser;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+
+/**
+ * Tracks the parent of each widget and which widgets were updated since the last layout pass,
+ * so widget updates are sent to the native layout once per pass, parents before children.
+ * Descendants of an updated widget are not visited: the native layout (see WidgetLayout.h)
+ * moves them along with their parent. Parent links that would create a cycle are rejected.
+ */
+class WidgetLayout {
+    static final int NO_PARENT = -1;
+
+    interface Callback {
+        void onResolve(int aHandle);
+    }
+
+    private HashMap<Integer, Integer> mParents = new HashMap<>();
+    private LinkedHashSet<Integer> mDirty = new LinkedHashSet<>();
+    private ArrayList<Integer> mOrder = new ArrayList<>();
+    private HashMap<Integer, Integer> mDepths = new HashMap<>();
+    private Comparator<Integer> mDepthComparator = new Comparator<Integer>() {
+        @Override
+        public int compare(Integer aLeft, Integer aRight) {
+            return Integer.compare(mDepths.get(aLeft), mDepths.get(aRight));
+        }
+    };
+
+    /**
+     * @return false, leaving the widget without parent, if aParent is the widget itself or one
+     * of its descendants.
+     */
+    boolean setParent(int aHandle, int aParent) {
+        if (aParent == aHandle || isAncestor(aHandle, aParent)) {
+            mParents.put(aHandle, NO_PARENT);
+            return false;
+        }
+        mParents.put(aHandle, aParent);
+        return true;
+    }
+
+    int getParent(int aHandle) {
+        Integer parent = mParents.get(aHandle);
+        return parent != null ? parent : NO_PARENT;
+    }
+
+    void remove(int aHandle) {
+        mParents.remove(aHandle);
+        mDirty.remove(aHandle);
+    }
+
+    void invalidate(int aHandle) {
+        if (!mParents.containsKey(aHandle)) {
+            mParents.put(aHandle, NO_PARENT);
+        }
+        mDirty.add(aHandle);
+    }
+
+    boolean isDirty() {
+        return !mDirty.isEmpty();
+    }
+
+    /**
+     * Calls aCallback once for each widget invalidated since the last pass, parents first.
+     */
+    void resolve(Callback aCallback) {
+        if (mDirty.isEmpty()) {
+            return;
+        }
+        mOrder.clear();
+        mOrder.addAll(mDirty);
+        mDirty.clear();
+        mDepths.clear();
+        for (int handle: mOrder) {
+            // Parents that are not registered yet do not count.
+            int depth = 0;
+            int parent = getParent(handle);
+            while (parent != NO_PARENT && mParents.containsKey(parent)) {
+                depth++;
+                parent = getParent(parent);
+            }
+            mDepths.put(handle, depth);
+        }
+        // Stable, so widgets at the same depth keep their update order.
+        Collections.sort(mOrder, mDepthComparator);
+        for (int handle: mOrder) {
+            aCallback.onResolve(handle);
+        }
+    }
+
+    private boolean isAncestor(int aAncestor, int aHandle) {
+        // Bounded in case the links were corrupted.
+        int current = aHandle;
+        for (int steps = 0; current != NO_PARENT && steps <= mParents.size(); steps++) {
+            if (current == aAncestor) {
+                return true;
+            }
+            current = getParent(current);
+        }
+        return false;
+    }
+}
@@ -9,6 +9,12 @@ public interface WidgetManagerDelegate {
     int newWidgetHandle();
     void addWidget(Widget aWidget);
     void updateWidget(Widget aWidget);
+    /**
+     * Like updateWidget, but the opacity, scale and translation of the placement are animated
+     * on the render thread. aCallback runs on the UI thread once the animation finishes or is
+     * replaced by another animation of the same widget. See AnimationHelper for the easings.
+     */
+    void animateWidget(Widget aWidget, long aDuration, long aDelay, int aEasing, @Nullable Runnable aCallback);
     void removeWidget(Widget aWidget);
     void startWidgetResize(Widget aWidget);
     void finishWidgetResize(Widget aWidget);
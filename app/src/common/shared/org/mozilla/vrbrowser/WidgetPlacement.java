@@ -36,6 +36,9 @@ public class WidgetPlacement {
     public boolean opaque = false;
     public boolean showPointer = true;
     public boolean firstDraw = false;
+    // Animatable with WidgetManagerDelegate.animateWidget, along with the translation.
+    public float opacity = 1.0f;
+    public float scale = 1.0f;
 
     public WidgetPlacement clone() {
         WidgetPlacement w = new WidgetPlacement();
@@ -64,6 +67,8 @@ public class WidgetPlacement {
         this.opaque = w.opaque;
         this.showPointer = w.showPointer;
         this.firstDraw = w.firstDraw;
+        this.opacity = w.opacity;
+        this.scale = w.scale;
     }
 
     public int textureWidth() {
@@ -10,6 +10,9 @@ import android.content.Context;
 import android.util.Log;
 
 import com.google.vr.sdk.audio.GvrAudioEngine;
+
+import java.io.IOException;
+import java.io.InputStream;
 import java.util.concurrent.ConcurrentHashMap;
 
 public class AudioEngine {
@@ -18,6 +21,7 @@ public class AudioEngine {
     private AudioTheme mTheme;
     private ConcurrentHashMap<Sound, Integer> mSourceIds;
     private float mMasterVolume = 1.0f;
+    private long mPreloadedBytes;
     private static ConcurrentHashMap<Context, AudioEngine> mEngines = new ConcurrentHashMap<>();
     private static final String LOGTAG = "VRB";
 
@@ -63,7 +67,8 @@ public class AudioEngine {
         mEngines.put(aContext, this);
     }
 
-    public void preload() {
+    public synchronized void preload() {
+        mPreloadedBytes = 0;
         for (Sound sound: Sound.values()) {
             if (sound.getType() == SoundType.FIELD) {
                 // Ambisonic soundfields do *not* need to be preloaded
@@ -74,8 +79,40 @@ public class AudioEngine {
             String path = mTheme.getPath(sound);
             if (path != null && path.length() > 0) {
                 preloadFile(path);
+                mPreloadedBytes += getAssetLength(path);
+            }
+        }
+    }
+
+    /**
+     * Bytes of the sounds currently preloaded, estimated from the size of the assets.
+     */
+    public synchronized long getPreloadedBytes() {
+        return mPreloadedBytes;
+    }
+
+    /**
+     * Unloads the preloaded sounds, they are loaded again the next time they are played.
+     * Returns the bytes released.
+     */
+    public synchronized long unloadPreloaded() {
+        long bytes = mPreloadedBytes;
+        for (Sound sound: Sound.values()) {
+            String path = mTheme.getPath(sound);
+            if (path != null && path.length() > 0 && sound.getType() != SoundType.FIELD) {
+                mEngine.unloadSoundFile(path);
             }
         }
+        mPreloadedBytes = 0;
+        return bytes;
+    }
+
+    private long getAssetLength(String aPath) {
+        try (InputStream input = mContext.getAssets().open(aPath)) {
+            return input.available();
+        } catch (IOException e) {
+            return 0;
+        }
     }
 
     public void preloadAsync() {
@@ -0,0 +1,90 @@
+/* -*- Mode: Java; c-basic-offset: 4; tab-width: 4; indent-tabs-mode: nil; -*-
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/. */
+
+package org.mozilla.vrbrowser.crashreporting;
+
+import android.app.job.JobInfo;
+import android.app.job.JobParameters;
+import android.app.job.JobScheduler;
+import android.app.job.JobService;
+import android.content.ComponentName;
+import android.content.Context;
+import android.os.Process;
+import android.util.Log;
+
+import org.mozilla.vrbrowser.R;
+import org.mozilla.vrbrowser.SettingsStore;
+
+import java.io.File;
+
+/**
+ * Submits the queued crash reports once there is a network, on a background priority thread.
+ * Scheduled by the crash handler when it queues a report, and again by itself while reports are
+ * waiting for their next attempt. The browser never touches the queue while it starts.
+ */
+public class CrashReportJobService extends JobService {
+    private static final String LOGTAG = "VRB";
+    private static final int JOB_ID = 0x56524352;
+    private static final String DIRECTORY = "crash_reports";
+
+    private Thread mThread;
+
+    public static CrashReportQueue createQueue(Context aContext) {
+        return new CrashReportQueue(new File(aContext.getFilesDir(), DIRECTORY),
+                aContext.getResources().getInteger(R.integer.crash_report_queue_size),
+                aContext.getResources().getInteger(R.integer.crash_report_queue_budget) * 1024L);
+    }
+
+    /**
+     * Runs the job after aDelay milliseconds at the earliest, replacing a pending one.
+     */
+    public static void schedule(Context aContext, long aDelay) {
+        JobScheduler scheduler = (JobScheduler) aContext.getSystemService(Context.JOB_SCHEDULER_SERVICE);
+        if (scheduler == null) {
+            return;
+        }
+        JobInfo job = new JobInfo.Builder(JOB_ID, new ComponentName(aContext, CrashReportJobService.class))
+                .setMinimumLatency(Math.max(aDelay, 0))
+                .setRequiredNetworkType(JobInfo.NETWORK_TYPE_ANY)
+                .build();
+        scheduler.schedule(job);
+    }
+
+    @Override
+    public boolean onStartJob(final JobParameters aParams) {
+        final Context context = getApplicationContext();
+        mThread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+                CrashReportQueue queue = createQueue(context);
+                long next = -1;
+                if (SettingsStore.getInstance(context).isCrashReportingEnabled()) {
+                    CrashReportUploader.Result result = new CrashReportUploader(queue, CrashReportUploader.DEFAULT_SERVER_URL)
+                            .submitDue(System.currentTimeMillis());
+                    Log.d(LOGTAG, "Crash reports submitted: " + result.submitted + " failed: " + result.failed +
+                            " rejected: " + result.rejected);
+                    next = queue.getNextAttempt();
+                }
+                jobFinished(aParams, false);
+                // Scheduling while the job runs would stop it, the next run is scheduled once done.
+                if (next >= 0) {
+                    schedule(context, next - System.currentTimeMillis());
+                }
+            }
+        }, "CrashReportJob");
+        mThread.start();
+        return true;
+    }
+
+    @Override
+    public boolean onStopJob(JobParameters aParams) {
+        // Lost network or the system needs the resources, reports left are submitted next time.
+        if (mThread != null) {
+            mThread.interrupt();
+        }
+        return true;
+    }
+}
@@ -0,0 +1,435 @@
+/* -*- Mode: Java; c-basic-offset: 4; tab-width: 4; indent-tabs-mode: nil; -*-
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/. */
+
+package org.mozilla.vrbrowser.crashreporting;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.BufferedReader;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Crash reports waiting to be submitted, kept in a directory so they survive the crashed process.
+ * Each report is stored as the gzipped multipart body the crash server expects, so submitting it
+ * is a plain copy from the file to the socket, next to a small metadata file with its signature
+ * and retry state. A report with the same Java stack or crash reason as one already queued is
+ * only counted. Native crashes without either can only be told apart by their minidump, they are
+ * always queued. The oldest reports are dropped to stay within the count and size bounds.
+ *
+ * Failed submissions are retried with exponential backoff until MAX_ATTEMPTS. Reports may be
+ * queued by the crash handler process while the browser submits others, every file is written
+ * aside and renamed into place.
+ */
+public class CrashReportQueue {
+    public static class Entry {
+        String mId;
+        String mSignature;
+        String mServerUrl;
+        String mBoundary;
+        long mCreated;
+        int mCount;
+        int mAttempts;
+        long mNextAttempt;
+
+        public String getSignature() {
+            return mSignature;
+        }
+
+        public String getServerUrl() {
+            return mServerUrl;
+        }
+
+        /**
+         * How many crashes with this signature happened while the report was queued.
+         */
+        public int getCount() {
+            return mCount;
+        }
+
+        public int getAttempts() {
+            return mAttempts;
+        }
+
+        public long getNextAttempt() {
+            return mNextAttempt;
+        }
+    }
+
+    static final int META_MAGIC = 0x56524352; // "VRCR"
+    static final int META_VERSION = 1;
+    static final String REPORT_SUFFIX = ".report";
+    static final String META_SUFFIX = ".meta";
+    static final String MINIDUMP_FIELD = "upload_file_minidump";
+    public static final String SERVER_URL_KEY = "ServerURL";
+    public static final int MAX_ATTEMPTS = 8;
+    public static final long INITIAL_BACKOFF_MS = 60 * 1000;
+    public static final long MAX_BACKOFF_MS = 24 * 60 * 60 * 1000;
+    // Extras that tell crashes apart, the rest (uptime, memory...) differs between identical ones.
+    // Only the first ones identify a crash, the others tell the builds where it happened apart.
+    private static final String[] SIGNATURE_KEYS = { "JavaStackTrace", "MozCrashReason", "ProductName", "Version", "BuildID" };
+    private static final int IDENTIFYING_KEY_COUNT = 2;
+    private static final int MAX_SIGNATURE_VALUE_LENGTH = 2048;
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+    private static final int COPY_BUFFER_SIZE = 16 * 1024;
+
+    private final File mDirectory;
+    private final int mMaxReports;
+    private final long mMaxBytes;
+
+    public CrashReportQueue(File aDirectory, int aMaxReports, long aMaxBytes) {
+        mDirectory = aDirectory;
+        mMaxReports = aMaxReports;
+        mMaxBytes = aMaxBytes;
+    }
+
+    /**
+     * Compresses a report into the queue. The minidump is streamed, it is never fully in memory.
+     * @param aExtras crash annotations, sent as form fields. ServerURL is where it is submitted.
+     * @param aMinidump may be null for crashes without one, e.g. Java exceptions.
+     * @return false when it was counted as a duplicate of a queued report or did not fit.
+     */
+    public synchronized boolean enqueue(Map<String, String> aExtras, File aMinidump, long aNow) throws IOException {
+        String signature = computeSignature(aExtras);
+        if (signature == null) {
+            // Nothing to dedupe it on, made unique so it is never counted as another crash.
+            signature = "Report=" + UUID.randomUUID() + "\n" + buildSignature(aExtras, IDENTIFYING_KEY_COUNT);
+        }
+        String id = computeId(signature);
+        Entry existing = readEntry(id);
+        if (existing != null) {
+            existing.mCount++;
+            writeEntry(existing);
+            return false;
+        }
+        if (!mDirectory.isDirectory() && !mDirectory.mkdirs()) {
+            throw new IOException("Unable to create crash report directory: " + mDirectory);
+        }
+
+        Entry entry = new Entry();
+        entry.mId = id;
+        entry.mSignature = signature;
+        entry.mServerUrl = aExtras.get(SERVER_URL_KEY);
+        entry.mBoundary = "---------------------------" + id;
+        entry.mCreated = aNow;
+        entry.mCount = 1;
+        entry.mNextAttempt = aNow;
+
+        File report = getReportFile(id);
+        File temporary = new File(mDirectory, id + REPORT_SUFFIX + ".tmp");
+        try (OutputStream output = new GZIPOutputStream(new BufferedOutputStream(new FileOutputStream(temporary)))) {
+            writeBody(output, entry.mBoundary, aExtras, aMinidump);
+        } catch (IOException e) {
+            temporary.delete();
+            throw e;
+        }
+        if (temporary.length() > mMaxBytes) {
+            temporary.delete();
+            return false;
+        }
+        if (!temporary.renameTo(report)) {
+            temporary.delete();
+            throw new IOException("Unable to queue crash report: " + report);
+        }
+        writeEntry(entry);
+        trim();
+        return true;
+    }
+
+    /**
+     * Returns the reports whose next attempt is due, oldest first.
+     */
+    public synchronized List<Entry> getDue(long aNow) {
+        List<Entry> result = new ArrayList<>();
+        for (Entry entry: getEntries()) {
+            if (entry.mNextAttempt <= aNow) {
+                result.add(entry);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Returns when the next report is due, or -1 when the queue is empty.
+     */
+    public synchronized long getNextAttempt() {
+        long result = -1;
+        for (Entry entry: getEntries()) {
+            if (result < 0 || entry.mNextAttempt < result) {
+                result = entry.mNextAttempt;
+            }
+        }
+        return result;
+    }
+
+    public synchronized int size() {
+        return getEntries().size();
+    }
+
+    /**
+     * Opens the gzipped multipart body of a report.
+     */
+    public InputStream openReport(Entry aEntry) throws IOException {
+        return new FileInputStream(getReportFile(aEntry.mId));
+    }
+
+    public long getReportLength(Entry aEntry) {
+        return getReportFile(aEntry.mId).length();
+    }
+
+    public String getContentType(Entry aEntry) {
+        return "multipart/form-data; boundary=" + aEntry.mBoundary;
+    }
+
+    /**
+     * Removes a report that was accepted, or rejected for good, by the server.
+     */
+    public synchronized void remove(Entry aEntry) {
+        getReportFile(aEntry.mId).delete();
+        getMetaFile(aEntry.mId).delete();
+    }
+
+    /**
+     * Schedules the next attempt of a report that could not be submitted, or drops it once it
+     * ran out of attempts.
+     */
+    public synchronized void onFailed(Entry aEntry, long aNow) throws IOException {
+        Entry entry = readEntry(aEntry.mId);
+        if (entry == null) {
+            return;
+        }
+        entry.mAttempts++;
+        if (entry.mAttempts >= MAX_ATTEMPTS) {
+            remove(entry);
+            return;
+        }
+        entry.mNextAttempt = aNow + getBackoff(entry.mAttempts);
+        writeEntry(entry);
+        aEntry.mAttempts = entry.mAttempts;
+        aEntry.mNextAttempt = entry.mNextAttempt;
+    }
+
+    static long getBackoff(int aAttempts) {
+        long backoff = INITIAL_BACKOFF_MS;
+        for (int i = 1; i < aAttempts && backoff < MAX_BACKOFF_MS; i++) {
+            backoff *= 2;
+        }
+        return Math.min(backoff, MAX_BACKOFF_MS);
+    }
+
+    /**
+     * Returns null when the extras have neither a Java stack nor a crash reason, e.g. for most
+     * native crashes, so they can't tell the crash apart from others in the same build.
+     */
+    static String computeSignature(Map<String, String> aExtras) {
+        boolean identified = false;
+        for (int i = 0; i < IDENTIFYING_KEY_COUNT; i++) {
+            String value = aExtras.get(SIGNATURE_KEYS[i]);
+            identified |= value != null && !value.isEmpty();
+        }
+        return identified ? buildSignature(aExtras, 0) : null;
+    }
+
+    private static String buildSignature(Map<String, String> aExtras, int aFirstKey) {
+        StringBuilder result = new StringBuilder();
+        for (int i = aFirstKey; i < SIGNATURE_KEYS.length; i++) {
+            String key = SIGNATURE_KEYS[i];
+            String value = aExtras.get(key);
+            if (value != null) {
+                // Bounded so it fits the metadata, the top of a stack tells crashes apart.
+                if (value.length() > MAX_SIGNATURE_VALUE_LENGTH) {
+                    value = value.substring(0, MAX_SIGNATURE_VALUE_LENGTH);
+                }
+                result.append(key).append('=').append(value).append('\n');
+            }
+        }
+        return result.toString();
+    }
+
+    // FNV-1a, only used to name the files of a signature.
+    static String computeId(String aSignature) {
+        long hash = 0xcbf29ce484222325L;
+        for (byte b: aSignature.getBytes(UTF8)) {
+            hash ^= (b & 0xff);
+            hash *= 0x100000001b3L;
+        }
+        return String.format("%016x", hash);
+    }
+
+    /**
+     * Reads a Gecko .extra file, one key=value per line with newlines and backslashes escaped.
+     */
+    public static Map<String, String> readExtras(File aFile) throws IOException {
+        Map<String, String> result = new LinkedHashMap<>();
+        try (BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(aFile), UTF8))) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                int equals = line.indexOf('=');
+                if (equals <= 0) {
+                    continue;
+                }
+                result.put(line.substring(0, equals), unescape(line.substring(equals + 1)));
+            }
+        }
+        return result;
+    }
+
+    private static String unescape(String aValue) {
+        if (aValue.indexOf('\\') < 0) {
+            return aValue;
+        }
+        StringBuilder result = new StringBuilder(aValue.length());
+        for (int i = 0; i < aValue.length(); i++) {
+            char c = aValue.charAt(i);
+            if (c == '\\' && i + 1 < aValue.length()) {
+                char next = aValue.charAt(++i);
+                result.append(next == 'n' ? '\n' : next);
+            } else {
+                result.append(c);
+            }
+        }
+        return result.toString();
+    }
+
+    private static void writeBody(OutputStream aOutput, String aBoundary, Map<String, String> aExtras,
+                                  File aMinidump) throws IOException {
+        for (Map.Entry<String, String> extra: aExtras.entrySet()) {
+            aOutput.write(("--" + aBoundary + "\r\n" +
+                    "Content-Disposition: form-data; name=\"" + extra.getKey() + "\"\r\n\r\n" +
+                    extra.getValue() + "\r\n").getBytes(UTF8));
+        }
+        if (aMinidump != null) {
+            aOutput.write(("--" + aBoundary + "\r\n" +
+                    "Content-Disposition: form-data; name=\"" + MINIDUMP_FIELD + "\"; filename=\"" + aMinidump.getName() + "\"\r\n" +
+                    "Content-Type: application/octet-stream\r\n\r\n").getBytes(UTF8));
+            byte[] buffer = new byte[COPY_BUFFER_SIZE];
+            try (InputStream input = new FileInputStream(aMinidump)) {
+                int read;
+                while ((read = input.read(buffer)) > 0) {
+                    aOutput.write(buffer, 0, read);
+                }
+            }
+            aOutput.write("\r\n".getBytes(UTF8));
+        }
+        aOutput.write(("--" + aBoundary + "--\r\n").getBytes(UTF8));
+    }
+
+    // Drops the oldest reports, and reports whose body is gone, until the queue fits.
+    private void trim() {
+        List<Entry> entries = getEntries();
+        long bytes = 0;
+        for (Entry entry: entries) {
+            bytes += getReportFile(entry.mId).length();
+        }
+        int count = entries.size();
+        for (Entry entry: entries) {
+            if (count <= mMaxReports && bytes <= mMaxBytes) {
+                break;
+            }
+            bytes -= getReportFile(entry.mId).length();
+            count--;
+            remove(entry);
+        }
+    }
+
+    private List<Entry> getEntries() {
+        List<Entry> result = new ArrayList<>();
+        File[] files = mDirectory.listFiles();
+        if (files == null) {
+            return result;
+        }
+        for (File file: files) {
+            String name = file.getName();
+            if (!name.endsWith(META_SUFFIX)) {
+                continue;
+            }
+            Entry entry = readEntry(name.substring(0, name.length() - META_SUFFIX.length()));
+            if (entry != null) {
+                result.add(entry);
+            }
+        }
+        Collections.sort(result, new Comparator<Entry>() {
+            @Override
+            public int compare(Entry aLeft, Entry aRight) {
+                return Long.compare(aLeft.mCreated, aRight.mCreated);
+            }
+        });
+        return result;
+    }
+
+    private Entry readEntry(String aId) {
+        File meta = getMetaFile(aId);
+        if (!meta.exists()) {
+            return null;
+        }
+        try (DataInputStream input = new DataInputStream(new BufferedInputStream(new FileInputStream(meta)))) {
+            if (input.readInt() != META_MAGIC || input.readInt() != META_VERSION || !getReportFile(aId).exists()) {
+                throw new IOException("Invalid crash report: " + meta);
+            }
+            Entry entry = new Entry();
+            entry.mId = aId;
+            entry.mSignature = input.readUTF();
+            entry.mServerUrl = input.readBoolean() ? input.readUTF() : null;
+            entry.mBoundary = input.readUTF();
+            entry.mCreated = input.readLong();
+            entry.mCount = input.readInt();
+            entry.mAttempts = input.readInt();
+            entry.mNextAttempt = input.readLong();
+            return entry;
+        } catch (IOException e) {
+            // Left behind by a process killed while queueing, it can not be submitted.
+            meta.delete();
+            getReportFile(aId).delete();
+            return null;
+        }
+    }
+
+    private void writeEntry(Entry aEntry) throws IOException {
+        File meta = getMetaFile(aEntry.mId);
+        File temporary = new File(mDirectory, aEntry.mId + META_SUFFIX + ".tmp");
+        try (DataOutputStream output = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(temporary)))) {
+            output.writeInt(META_MAGIC);
+            output.writeInt(META_VERSION);
+            output.writeUTF(aEntry.mSignature);
+            output.writeBoolean(aEntry.mServerUrl != null);
+            if (aEntry.mServerUrl != null) {
+                output.writeUTF(aEntry.mServerUrl);
+            }
+            output.writeUTF(aEntry.mBoundary);
+            output.writeLong(aEntry.mCreated);
+            output.writeInt(aEntry.mCount);
+            output.writeInt(aEntry.mAttempts);
+            output.writeLong(aEntry.mNextAttempt);
+        }
+        if (!temporary.renameTo(meta)) {
+            temporary.delete();
+            throw new IOException("Unable to write crash report: " + meta);
+        }
+    }
+
+    private File getReportFile(String aId) {
+        return new File(mDirectory, aId + REPORT_SUFFIX);
+    }
+
+    private File getMetaFile(String aId) {
+        return new File(mDirectory, aId + META_SUFFIX);
+    }
+}
@@ -0,0 +1,96 @@
+/* -*- Mode: Java; c-basic-offset: 4; tab-width: 4; indent-tabs-mode: nil; -*-
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/. */
+
+package org.mozilla.vrbrowser.crashreporting;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.util.List;
+
+/**
+ * Submits the due reports of a CrashReportQueue. The stored bodies are already gzipped, they are
+ * sent as they are with Content-Encoding: gzip. Blocks, it is run from a background job.
+ */
+public class CrashReportUploader {
+    public static final String DEFAULT_SERVER_URL = "https://crash-reports.mozilla.com/submit";
+    private static final int CONNECT_TIMEOUT = 15000; // milliseconds
+    private static final int READ_TIMEOUT = 30000; // milliseconds
+    private static final int BUFFER_SIZE = 16 * 1024;
+
+    public static class Result {
+        public int submitted;
+        public int failed;
+        public int rejected;
+    }
+
+    private final CrashReportQueue mQueue;
+    private final String mDefaultServerUrl;
+
+    /**
+     * @param aDefaultServerUrl used for reports without a ServerURL annotation.
+     */
+    public CrashReportUploader(CrashReportQueue aQueue, String aDefaultServerUrl) {
+        mQueue = aQueue;
+        mDefaultServerUrl = aDefaultServerUrl;
+    }
+
+    public Result submitDue(long aNow) {
+        Result result = new Result();
+        List<CrashReportQueue.Entry> entries = mQueue.getDue(aNow);
+        for (CrashReportQueue.Entry entry: entries) {
+            int code;
+            try {
+                code = submit(entry);
+            } catch (IOException e) {
+                code = -1;
+            }
+            if (code >= 200 && code < 300) {
+                mQueue.remove(entry);
+                result.submitted++;
+            } else if (code >= 400 && code < 500 && code != HttpURLConnection.HTTP_CLIENT_TIMEOUT && code != 429) {
+                // The server will not take this report, trying again would not change that.
+                mQueue.remove(entry);
+                result.rejected++;
+            } else {
+                try {
+                    mQueue.onFailed(entry, aNow);
+                } catch (IOException e) {
+                    mQueue.remove(entry);
+                }
+                result.failed++;
+                // The server or the network is down, the other reports would fail too.
+                break;
+            }
+        }
+        return result;
+    }
+
+    private int submit(CrashReportQueue.Entry aEntry) throws IOException {
+        String serverUrl = aEntry.getServerUrl() != null ? aEntry.getServerUrl() : mDefaultServerUrl;
+        HttpURLConnection connection = (HttpURLConnection) new URL(serverUrl).openConnection();
+        try {
+            connection.setConnectTimeout(CONNECT_TIMEOUT);
+            connection.setReadTimeout(READ_TIMEOUT);
+            connection.setDoOutput(true);
+            connection.setRequestMethod("POST");
+            connection.setRequestProperty("Content-Type", mQueue.getContentType(aEntry));
+            connection.setRequestProperty("Content-Encoding", "gzip");
+            connection.setFixedLengthStreamingMode(mQueue.getReportLength(aEntry));
+            byte[] buffer = new byte[BUFFER_SIZE];
+            try (InputStream input = mQueue.openReport(aEntry); OutputStream output = connection.getOutputStream()) {
+                int read;
+                while ((read = input.read(buffer)) > 0) {
+                    output.write(buffer, 0, read);
+                }
+            }
+            return connection.getResponseCode();
+        } finally {
+            connection.disconnect();
+        }
+    }
+}
@@ -0,0 +1,88 @@
+/* -*- Mode: Java; c-basic-offset: 4; tab-width: 4; indent-tabs-mode: nil; -*-
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/. */
+
+package org.mozilla.vrbrowser.crashreporting;
+
+import android.app.IntentService;
+import android.app.Notification;
+import android.app.NotificationChannel;
+import android.app.NotificationManager;
+import android.content.Intent;
+import android.os.Build;
+import android.util.Log;
+
+import org.mozilla.geckoview.GeckoRuntime;
+import org.mozilla.vrbrowser.R;
+import org.mozilla.vrbrowser.SettingsStore;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Map;
+
+/**
+ * GeckoView crash handler, runs in its own process so the crashed browser can be relaunched right
+ * away. The report is compressed into the queue and the files Gecko wrote are deleted, it is
+ * submitted later by CrashReportJobService.
+ *
+ * On Android O and later GeckoView starts it with startForegroundService, so it has to become a
+ * foreground service right away or the system kills it.
+ */
+public class CrashReporterService extends IntentService {
+    private static final String LOGTAG = "VRB";
+    // Leaves the browser a moment to start before the job competes for the network.
+    private static final long SUBMIT_DELAY_MS = 60 * 1000;
+    private static final String CHANNEL_ID = "crash_reporting";
+    private static final int NOTIFICATION_ID = 1;
+
+    public CrashReporterService() {
+        super("CrashReporterService");
+    }
+
+    @Override
+    public int onStartCommand(Intent aIntent, int aFlags, int aStartId) {
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.O) {
+            NotificationManager manager = getSystemService(NotificationManager.class);
+            manager.createNotificationChannel(new NotificationChannel(CHANNEL_ID,
+                    getString(R.string.crash_reporting_channel), NotificationManager.IMPORTANCE_LOW));
+            Notification notification = new Notification.Builder(this, CHANNEL_ID)
+                    .setSmallIcon(R.drawable.ff_logo)
+                    .setContentTitle(getString(R.string.crash_reporting_notification))
+                    .build();
+            // Removed when the service stops, once the intents are handled.
+            startForeground(NOTIFICATION_ID, notification);
+        }
+        return super.onStartCommand(aIntent, aFlags, aStartId);
+    }
+
+    @Override
+    protected void onHandleIntent(Intent aIntent) {
+        if (aIntent == null || !GeckoRuntime.ACTION_CRASHED.equals(aIntent.getAction())) {
+            return;
+        }
+        String minidumpPath = aIntent.getStringExtra(GeckoRuntime.EXTRA_MINIDUMP_PATH);
+        String extrasPath = aIntent.getStringExtra(GeckoRuntime.EXTRA_EXTRAS_PATH);
+        File minidump = minidumpPath != null ? new File(minidumpPath) : null;
+        File extras = extrasPath != null ? new File(extrasPath) : null;
+        try {
+            if (extras == null || !SettingsStore.getInstance(this).isCrashReportingEnabled()) {
+                return;
+            }
+            Map<String, String> annotations = CrashReportQueue.readExtras(extras);
+            boolean queued = CrashReportJobService.createQueue(this).enqueue(annotations,
+                    minidump != null && minidump.exists() ? minidump : null, System.currentTimeMillis());
+            Log.d(LOGTAG, queued ? "Crash report queued" : "Crash report not queued, duplicate or over budget");
+            CrashReportJobService.schedule(this, SUBMIT_DELAY_MS);
+        } catch (IOException e) {
+            Log.e(LOGTAG, "Unable to queue crash report: " + e.toString());
+        } finally {
+            if (minidump != null) {
+                minidump.delete();
+            }
+            if (extras != null) {
+                extras.delete();
+            }
+        }
+    }
+}
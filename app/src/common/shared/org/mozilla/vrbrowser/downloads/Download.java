@@ -0,0 +1,133 @@
+/* -*- Mode: Java; c-basic-offset: 4; tab-width: 4; indent-tabs-mode: nil; -*-
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/. */
+
+package org.mozilla.vrbrowser.downloads;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.util.Map;
+
+/**
+ * State of a single download. Instances are owned by the DownloadManager, listeners get a
+ * snapshot so they never race with the worker thread updating the original.
+ */
+public class Download {
+    public static final int QUEUED = 0;
+    public static final int RUNNING = 1;
+    public static final int PAUSED = 2;
+    public static final int COMPLETED = 3;
+    public static final int FAILED = 4;
+    public static final int CANCELED = 5;
+
+    public static final long UNKNOWN_LENGTH = -1;
+
+    long mId;
+    String mUri;
+    File mFile;
+    String mContentType;
+    long mTotalBytes = UNKNOWN_LENGTH;
+    long mDownloadedBytes;
+    int mState = QUEUED;
+    // ETag or Last-Modified of the response, sent as If-Range when resuming.
+    String mValidator;
+    String mError;
+    // False when the requests need headers, like cookies, that are only kept in memory.
+    boolean mResumable = true;
+    // Sent with every request of this session, never persisted since they may hold credentials.
+    Map<String, String> mHeaders;
+
+    Download() {
+    }
+
+    public long getId() {
+        return mId;
+    }
+
+    public String getUri() {
+        return mUri;
+    }
+
+    public File getFile() {
+        return mFile;
+    }
+
+    public String getContentType() {
+        return mContentType;
+    }
+
+    public long getTotalBytes() {
+        return mTotalBytes;
+    }
+
+    public long getDownloadedBytes() {
+        return mDownloadedBytes;
+    }
+
+    public int getState() {
+        return mState;
+    }
+
+    public String getError() {
+        return mError;
+    }
+
+    public boolean isFinished() {
+        return mState == COMPLETED || mState == FAILED || mState == CANCELED;
+    }
+
+    synchronized Download snapshot() {
+        Download result = new Download();
+        result.mId = mId;
+        result.mUri = mUri;
+        result.mFile = mFile;
+        result.mContentType = mContentType;
+        result.mTotalBytes = mTotalBytes;
+        result.mDownloadedBytes = mDownloadedBytes;
+        result.mState = mState;
+        result.mValidator = mValidator;
+        result.mError = mError;
+        result.mResumable = mResumable;
+        return result;
+    }
+
+    synchronized void write(DataOutputStream aOutput) throws IOException {
+        aOutput.writeLong(mId);
+        aOutput.writeUTF(mUri);
+        aOutput.writeUTF(mFile.getPath());
+        aOutput.writeUTF(mContentType != null ? mContentType : "");
+        aOutput.writeLong(mTotalBytes);
+        aOutput.writeInt(mState);
+        aOutput.writeUTF(mValidator != null ? mValidator : "");
+        aOutput.writeUTF(mError != null ? mError : "");
+        aOutput.writeBoolean(mResumable);
+    }
+
+    /**
+     * @param aVersion version of the queue file, entries written before version 2 are resumable.
+     */
+    static Download read(DataInputStream aInput, int aVersion) throws IOException {
+        Download result = new Download();
+        result.mId = aInput.readLong();
+        result.mUri = aInput.readUTF();
+        result.mFile = new File(aInput.readUTF());
+        result.mContentType = emptyToNull(aInput.readUTF());
+        result.mTotalBytes = aInput.readLong();
+        result.mState = aInput.readInt();
+        result.mValidator = emptyToNull(aInput.readUTF());
+        result.mError = emptyToNull(aInput.readUTF());
+        if (aVersion >= 2) {
+            result.mResumable = aInput.readBoolean();
+        }
+        // The file is the source of truth for the progress, it is not persisted on every write.
+        result.mDownloadedBytes = result.mFile.length();
+        return result;
+    }
+
+    private static String emptyToNull(String aValue) {
+        return aValue.isEmpty() ? null : aValue;
+    }
+}
@@ -0,0 +1,611 @@
+/* -*- Mode: Java; c-basic-offset: 4; tab-width: 4; indent-tabs-mode: nil; -*-
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/. */
+
+package org.mozilla.vrbrowser.downloads;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Streams HTTP downloads into a directory without getting in the way of rendering: transfers run
+ * on a bounded pool of minimum priority threads, each one reusing a fixed size direct buffer
+ * between the socket and a FileChannel, and progress is reported at most once per display frame.
+ *
+ * The queue is persisted, so downloads interrupted by a restart continue from the bytes already
+ * on disk using a range request. If-Range makes the server send the whole file again when it
+ * changed in the meantime. Request headers are not persisted, they may hold cookies or
+ * credentials, so downloads that need them fail after a restart instead of being requested again
+ * without them. A download also fails, instead of saving the wrong file, when the server asks for
+ * credentials or answers with a web page, usually a sign in, where the browser got the file.
+ */
+public class DownloadManager {
+    public interface Listener {
+        void onDownloadAdded(Download aDownload);
+        void onDownloadProgress(Download aDownload);
+        void onDownloadStateChanged(Download aDownload);
+    }
+
+    static final int QUEUE_MAGIC = 0x56524451; // "VRDQ"
+    static final int QUEUE_VERSION = 2;
+    public static final int BUFFER_SIZE = 64 * 1024;
+    public static final long PROGRESS_INTERVAL_NANOS = 1000000000L / 60;
+    private static final int CONNECT_TIMEOUT = 15000; // milliseconds
+    private static final int READ_TIMEOUT = 30000; // milliseconds
+
+    private final File mDirectory;
+    private final File mQueueFile;
+    private final Executor mCallbackExecutor;
+    private final ExecutorService mWorkers;
+    // Persisting is serialized on its own thread so callers never wait on the disk.
+    private final ExecutorService mPersister;
+    private final ArrayBlockingQueue<ByteBuffer> mBuffers;
+    private final LinkedHashMap<Long, Download> mDownloads = new LinkedHashMap<>();
+    private final List<Listener> mListeners = new ArrayList<>();
+    private long mNextId = 1;
+    private boolean mPersistPending;
+
+    /**
+     * @param aCallbackExecutor where listeners are called, usually the UI thread.
+     */
+    public DownloadManager(File aDirectory, File aQueueFile, int aMaxConcurrent, Executor aCallbackExecutor) {
+        mDirectory = aDirectory;
+        mQueueFile = aQueueFile;
+        mCallbackExecutor = aCallbackExecutor;
+        mBuffers = new ArrayBlockingQueue<>(aMaxConcurrent);
+        for (int i = 0; i < aMaxConcurrent; i++) {
+            mBuffers.add(ByteBuffer.allocateDirect(BUFFER_SIZE));
+        }
+        mWorkers = Executors.newFixedThreadPool(aMaxConcurrent, new ThreadFactory() {
+            private final AtomicInteger mCount = new AtomicInteger();
+            @Override
+            public Thread newThread(Runnable aRunnable) {
+                Thread thread = new Thread(aRunnable, "Download-" + mCount.incrementAndGet());
+                thread.setPriority(Thread.MIN_PRIORITY);
+                return thread;
+            }
+        });
+        mPersister = Executors.newSingleThreadExecutor();
+        // Read before anything is persisted, downloads queued in the meantime are kept.
+        mPersister.execute(new Runnable() {
+            @Override
+            public void run() {
+                restore();
+            }
+        });
+    }
+
+    public void addListener(Listener aListener) {
+        synchronized (mListeners) {
+            mListeners.add(aListener);
+        }
+    }
+
+    public void removeListener(Listener aListener) {
+        synchronized (mListeners) {
+            mListeners.remove(aListener);
+        }
+    }
+
+    /**
+     * Queues a download into the download directory.
+     * @param aFilename suggested name, it is sanitized and made unique.
+     * @param aContentLength expected size or Download.UNKNOWN_LENGTH.
+     */
+    public Download enqueue(String aUri, String aFilename, String aContentType, long aContentLength) {
+        return enqueue(aUri, aFilename, aContentType, aContentLength, null);
+    }
+
+    /**
+     * Queues a download whose requests need aHeaders, for example cookies or an authorization.
+     * They are only kept in memory, so the download is not resumed after a restart.
+     */
+    public Download enqueue(String aUri, String aFilename, String aContentType, long aContentLength,
+                            Map<String, String> aHeaders) {
+        Download download = new Download();
+        if (aHeaders != null && !aHeaders.isEmpty()) {
+            download.mHeaders = new LinkedHashMap<>(aHeaders);
+            download.mResumable = false;
+        }
+        synchronized (this) {
+            download.mId = mNextId++;
+            download.mUri = aUri;
+            download.mFile = uniqueFile(aFilename, aUri);
+            download.mContentType = aContentType;
+            download.mTotalBytes = aContentLength;
+            mDownloads.put(download.mId, download);
+        }
+        notifyAdded(download);
+        schedulePersist();
+        submit(download);
+        return download.snapshot();
+    }
+
+    public void pause(long aId) {
+        Download download = getInternal(aId);
+        if (download != null && setState(download, Download.PAUSED, Download.QUEUED, Download.RUNNING)) {
+            schedulePersist();
+        }
+    }
+
+    /**
+     * Resumes a paused or failed download from the bytes already written. Downloads that need
+     * request headers which were lost in a restart stay as they are.
+     */
+    public void resume(long aId) {
+        Download download = getInternal(aId);
+        if (download != null && canRequest(download) && setState(download, Download.QUEUED, Download.PAUSED, Download.FAILED)) {
+            schedulePersist();
+            submit(download);
+        }
+    }
+
+    public void cancel(long aId) {
+        final Download download = getInternal(aId);
+        if (download == null || !setState(download, Download.CANCELED, Download.QUEUED, Download.RUNNING, Download.PAUSED, Download.FAILED)) {
+            return;
+        }
+        synchronized (this) {
+            mDownloads.remove(aId);
+        }
+        schedulePersist();
+        // A running transfer deletes its file once it notices, the others are deleted here.
+        mPersister.execute(new Runnable() {
+            @Override
+            public void run() {
+                synchronized (download) {
+                    download.mFile.delete();
+                }
+            }
+        });
+    }
+
+    /**
+     * Forgets a finished download, the file is kept.
+     */
+    public void remove(long aId) {
+        synchronized (this) {
+            Download download = mDownloads.get(aId);
+            if (download == null || !download.isFinished()) {
+                return;
+            }
+            mDownloads.remove(aId);
+        }
+        schedulePersist();
+    }
+
+    public Download getDownload(long aId) {
+        Download download = getInternal(aId);
+        return download != null ? download.snapshot() : null;
+    }
+
+    public List<Download> getDownloads() {
+        ArrayList<Download> result = new ArrayList<>();
+        synchronized (this) {
+            for (Download download: mDownloads.values()) {
+                result.add(download.snapshot());
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Stops the workers without touching the persisted queue, so running downloads continue the
+     * next time a DownloadManager is created for the same queue file.
+     */
+    public void shutdown() {
+        mWorkers.shutdownNow();
+        mPersister.shutdown();
+        try {
+            mWorkers.awaitTermination(READ_TIMEOUT, TimeUnit.MILLISECONDS);
+            mPersister.awaitTermination(READ_TIMEOUT, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private synchronized Download getInternal(long aId) {
+        return mDownloads.get(aId);
+    }
+
+    private static boolean canRequest(Download aDownload) {
+        synchronized (aDownload) {
+            return aDownload.mResumable || aDownload.mHeaders != null;
+        }
+    }
+
+    private void submit(final Download aDownload) {
+        try {
+            mWorkers.execute(new Runnable() {
+                @Override
+                public void run() {
+                    runDownload(aDownload);
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            // Shut down, the download is still queued and is resumed on the next start.
+        }
+    }
+
+    private void runDownload(Download aDownload) {
+        if (!setState(aDownload, Download.RUNNING, Download.QUEUED)) {
+            return;
+        }
+        ByteBuffer buffer = mBuffers.poll();
+        if (buffer == null) {
+            // Never happens, there is one buffer per worker.
+            buffer = ByteBuffer.allocateDirect(BUFFER_SIZE);
+        }
+        try {
+            if (transfer(aDownload, buffer)) {
+                setState(aDownload, Download.COMPLETED, Download.RUNNING);
+            }
+        } catch (IOException e) {
+            // On shutdown the download is left running so it is resumed on the next start.
+            if (!Thread.currentThread().isInterrupted()) {
+                synchronized (aDownload) {
+                    aDownload.mError = e.toString();
+                }
+                setState(aDownload, Download.FAILED, Download.RUNNING);
+            }
+        } finally {
+            mBuffers.offer(buffer);
+        }
+        if (getState(aDownload) == Download.CANCELED) {
+            synchronized (aDownload) {
+                aDownload.mFile.delete();
+            }
+        }
+        schedulePersist();
+    }
+
+    // Returns false when the transfer was stopped before the end of the response.
+    private boolean transfer(Download aDownload, ByteBuffer aBuffer) throws IOException {
+        File file;
+        String validator;
+        String contentType;
+        Map<String, String> headers;
+        synchronized (aDownload) {
+            file = aDownload.mFile;
+            validator = aDownload.mValidator;
+            contentType = aDownload.mContentType;
+            headers = aDownload.mHeaders;
+        }
+        long offset = file.length();
+        HttpURLConnection connection = (HttpURLConnection) new URL(aDownload.mUri).openConnection();
+        try {
+            connection.setConnectTimeout(CONNECT_TIMEOUT);
+            connection.setReadTimeout(READ_TIMEOUT);
+            if (headers != null) {
+                for (Map.Entry<String, String> header: headers.entrySet()) {
+                    connection.setRequestProperty(header.getKey(), header.getValue());
+                }
+            }
+            if (offset > 0) {
+                connection.setRequestProperty("Range", "bytes=" + offset + "-");
+                if (validator != null) {
+                    connection.setRequestProperty("If-Range", validator);
+                }
+            }
+            int code = connection.getResponseCode();
+            long total;
+            if (code == HttpURLConnection.HTTP_PARTIAL && offset > 0) {
+                total = parseContentRange(connection.getHeaderField("Content-Range"), offset);
+            } else if (code == HttpURLConnection.HTTP_UNAUTHORIZED || code == HttpURLConnection.HTTP_FORBIDDEN ||
+                    code == HttpURLConnection.HTTP_PROXY_AUTH) {
+                throw new IOException("The server requires credentials (HTTP " + code + ")");
+            } else if (code == HttpURLConnection.HTTP_OK) {
+                if (contentType != null && !isWebPage(contentType) && isWebPage(connection.getContentType())) {
+                    throw new IOException("The server answered with a web page instead of " + contentType +
+                            ", it may require signing in");
+                }
+                // No range support or the file changed, start over.
+                offset = 0;
+                long length = connection.getContentLengthLong();
+                total = length >= 0 ? length : Download.UNKNOWN_LENGTH;
+                validator = connection.getHeaderField("ETag");
+                if (validator == null) {
+                    validator = connection.getHeaderField("Last-Modified");
+                }
+            } else if (code == 416 && offset > 0) {
+                // Requested range not satisfiable: everything was already written.
+                synchronized (aDownload) {
+                    aDownload.mDownloadedBytes = offset;
+                    aDownload.mTotalBytes = offset;
+                }
+                return true;
+            } else {
+                throw new IOException("Unexpected HTTP response " + code);
+            }
+            synchronized (aDownload) {
+                aDownload.mTotalBytes = total;
+                aDownload.mValidator = validator;
+                aDownload.mDownloadedBytes = offset;
+            }
+            schedulePersist();
+
+            long lastProgress = 0;
+            try (FileChannel output = new RandomAccessFile(file, "rw").getChannel();
+                 ReadableByteChannel input = Channels.newChannel(connection.getInputStream())) {
+                output.truncate(offset);
+                output.position(offset);
+                while (true) {
+                    if (getState(aDownload) != Download.RUNNING || Thread.currentThread().isInterrupted()) {
+                        return false;
+                    }
+                    aBuffer.clear();
+                    int read = input.read(aBuffer);
+                    if (read < 0) {
+                        break;
+                    }
+                    aBuffer.flip();
+                    while (aBuffer.hasRemaining()) {
+                        output.write(aBuffer);
+                    }
+                    offset += read;
+                    synchronized (aDownload) {
+                        aDownload.mDownloadedBytes = offset;
+                    }
+                    long now = System.nanoTime();
+                    if (now - lastProgress >= PROGRESS_INTERVAL_NANOS) {
+                        lastProgress = now;
+                        notifyProgress(aDownload);
+                    }
+                }
+            }
+            if (total != Download.UNKNOWN_LENGTH && offset != total) {
+                throw new IOException("Connection closed after " + offset + " of " + total + " bytes");
+            }
+            synchronized (aDownload) {
+                aDownload.mTotalBytes = offset;
+            }
+            return true;
+        } finally {
+            connection.disconnect();
+        }
+    }
+
+    private static boolean isWebPage(String aContentType) {
+        return aContentType != null && (aContentType.startsWith("text/html") ||
+                aContentType.startsWith("application/xhtml+xml"));
+    }
+
+    // Returns the total length from a "bytes start-end/total" header.
+    private static long parseContentRange(String aHeader, long aOffset) throws IOException {
+        if (aHeader == null || !aHeader.startsWith("bytes " + aOffset + "-")) {
+            throw new IOException("Unexpected Content-Range: " + aHeader);
+        }
+        String total = aHeader.substring(aHeader.indexOf('/') + 1).trim();
+        if (total.equals("*")) {
+            return Download.UNKNOWN_LENGTH;
+        }
+        try {
+            return Long.parseLong(total);
+        } catch (NumberFormatException e) {
+            throw new IOException("Unexpected Content-Range: " + aHeader);
+        }
+    }
+
+    private static int getState(Download aDownload) {
+        synchronized (aDownload) {
+            return aDownload.mState;
+        }
+    }
+
+    // Moves the download to aState if it is in one of aFrom, listeners are told about the change.
+    private boolean setState(Download aDownload, int aState, int... aFrom) {
+        synchronized (aDownload) {
+            boolean allowed = false;
+            for (int state: aFrom) {
+                allowed |= aDownload.mState == state;
+            }
+            if (!allowed) {
+                return false;
+            }
+            aDownload.mState = aState;
+            if (aState != Download.FAILED) {
+                aDownload.mError = null;
+            }
+        }
+        notifyStateChanged(aDownload);
+        return true;
+    }
+
+    private File uniqueFile(String aFilename, String aUri) {
+        String name = aFilename;
+        if (name == null || name.trim().isEmpty()) {
+            name = aUri.substring(aUri.lastIndexOf('/') + 1);
+            int query = name.indexOf('?');
+            if (query >= 0) {
+                name = name.substring(0, query);
+            }
+        }
+        name = name.replaceAll("[/\\\\:*?\"<>|\\x00-\\x1f]", "_").trim();
+        if (name.isEmpty() || name.equals(".") || name.equals("..")) {
+            name = "download";
+        }
+        String base = name;
+        String extension = "";
+        int dot = name.lastIndexOf('.');
+        if (dot > 0) {
+            base = name.substring(0, dot);
+            extension = name.substring(dot);
+        }
+        File result = new File(mDirectory, name);
+        for (int i = 1; result.exists() || isReserved(result); i++) {
+            result = new File(mDirectory, base + " (" + i + ")" + extension);
+        }
+        return result;
+    }
+
+    // Called with the manager locked.
+    private boolean isReserved(File aFile) {
+        for (Download download: mDownloads.values()) {
+            if (download.mFile.equals(aFile)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private void notifyAdded(Download aDownload) {
+        final Download snapshot = aDownload.snapshot();
+        mCallbackExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                for (Listener listener: getListeners()) {
+                    listener.onDownloadAdded(snapshot);
+                }
+            }
+        });
+    }
+
+    private void notifyProgress(Download aDownload) {
+        final Download snapshot = aDownload.snapshot();
+        mCallbackExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                for (Listener listener: getListeners()) {
+                    listener.onDownloadProgress(snapshot);
+                }
+            }
+        });
+    }
+
+    private void notifyStateChanged(Download aDownload) {
+        final Download snapshot = aDownload.snapshot();
+        mCallbackExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                for (Listener listener: getListeners()) {
+                    listener.onDownloadStateChanged(snapshot);
+                }
+            }
+        });
+    }
+
+    private List<Listener> getListeners() {
+        synchronized (mListeners) {
+            return new ArrayList<>(mListeners);
+        }
+    }
+
+    private void schedulePersist() {
+        synchronized (this) {
+            if (mPersistPending) {
+                return;
+            }
+            mPersistPending = true;
+        }
+        try {
+            mPersister.execute(new Runnable() {
+                @Override
+                public void run() {
+                    persist();
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            // Shut down, the last persisted queue is kept.
+        }
+    }
+
+    private void persist() {
+        List<Download> downloads;
+        synchronized (this) {
+            mPersistPending = false;
+            downloads = new ArrayList<>(mDownloads.values());
+        }
+        File temp = new File(mQueueFile.getPath() + ".tmp");
+        try (DataOutputStream output = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(temp)))) {
+            output.writeInt(QUEUE_MAGIC);
+            output.writeInt(QUEUE_VERSION);
+            output.writeInt(downloads.size());
+            for (Download download: downloads) {
+                download.write(output);
+            }
+        } catch (IOException e) {
+            temp.delete();
+            return;
+        }
+        if (!temp.renameTo(mQueueFile)) {
+            temp.delete();
+        }
+    }
+
+    // Runs on the persister thread, before the first persist.
+    private void restore() {
+        ArrayList<Download> restored = new ArrayList<>();
+        if (mQueueFile.exists()) {
+            try (DataInputStream input = new DataInputStream(new BufferedInputStream(new FileInputStream(mQueueFile)))) {
+                int version = input.readInt() == QUEUE_MAGIC ? input.readInt() : 0;
+                if (version >= 1 && version <= QUEUE_VERSION) {
+                    int count = input.readInt();
+                    for (int i = 0; i < count; i++) {
+                        restored.add(Download.read(input, version));
+                    }
+                }
+            } catch (IOException e) {
+                // A damaged queue only loses the entries after the damage.
+            }
+        }
+        ArrayList<Download> resumed = new ArrayList<>();
+        synchronized (this) {
+            for (Download download: restored) {
+                if (download.mState == Download.RUNNING || download.mState == Download.QUEUED) {
+                    if (download.mResumable) {
+                        download.mState = Download.QUEUED;
+                        resumed.add(download);
+                    } else {
+                        // Requesting it again without its cookies could save a login page instead.
+                        download.mState = Download.FAILED;
+                        download.mError = "Interrupted by a restart";
+                    }
+                }
+                // Downloads queued before the restore keep their ids and files.
+                if (mDownloads.containsKey(download.mId)) {
+                    download.mId = mNextId++;
+                }
+                if (isReserved(download.mFile)) {
+                    download.mFile = uniqueFile(download.mFile.getName(), download.mUri);
+                }
+                mDownloads.put(download.mId, download);
+                mNextId = Math.max(mNextId, download.mId + 1);
+            }
+        }
+        if (!restored.isEmpty()) {
+            schedulePersist();
+        }
+        for (Download download: restored) {
+            notifyAdded(download);
+        }
+        for (Download download: resumed) {
+            submit(download);
+        }
+    }
+}
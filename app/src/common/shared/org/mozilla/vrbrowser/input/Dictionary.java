@@ -0,0 +1,276 @@
+/* -*- Mode: Java; c-basic-offset: 4; tab-width: 4; indent-tabs-mode: nil; -*-
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/. */
+
+package org.mozilla.vrbrowser.input;
+
+import android.content.Context;
+import android.content.res.AssetFileDescriptor;
+import android.util.Log;
+
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * Word completion over a frequency annotated trie compiled by DictionaryBuilder. The file is
+ * memory mapped from the (uncompressed) APK assets and read in place, and lookups reuse
+ * preallocated buffers so they can run on every keystroke without allocating.
+ *
+ * Format, big endian: a 16 byte header (magic, version, node count, longest word) followed by
+ * 12 byte nodes. A node holds its character, the frequency of the word ending there (0 if none),
+ * the highest frequency in its subtree and the index and count of its children, which are
+ * contiguous and sorted by character. The root is node 0.
+ *
+ * Not thread safe, lookups are expected to come from the UI thread.
+ */
+public class Dictionary {
+    private static final String LOGTAG = "VRB";
+    static final int MAGIC = 0x56524B44; // "VRKD"
+    static final int VERSION = 1;
+    public static final int MAX_WORD_LENGTH = 48;
+    private static final int HEADER_SIZE = 16;
+    private static final int NODE_SIZE = 12;
+    // Bounds the work done by a lookup, plenty for a handful of suggestions.
+    private static final int MAX_SEARCH_ENTRIES = 1024;
+
+    /**
+     * Reusable lookup results. Words are lower case and include the prefix.
+     */
+    public static class Suggestions {
+        private char[][] mWords;
+        private int[] mLengths;
+        private int[] mFrequencies;
+        private int mCount;
+
+        public Suggestions(int aCapacity) {
+            mWords = new char[aCapacity][MAX_WORD_LENGTH];
+            mLengths = new int[aCapacity];
+            mFrequencies = new int[aCapacity];
+        }
+
+        public int getCount() {
+            return mCount;
+        }
+
+        public int getCapacity() {
+            return mWords.length;
+        }
+
+        public char[] getWord(int aIndex) {
+            return mWords[aIndex];
+        }
+
+        public int getLength(int aIndex) {
+            return mLengths[aIndex];
+        }
+
+        public int getFrequency(int aIndex) {
+            return mFrequencies[aIndex];
+        }
+
+        public String toString(int aIndex) {
+            return new String(mWords[aIndex], 0, mLengths[aIndex]);
+        }
+    }
+
+    private ByteBuffer mBuffer;
+    private int mNodeCount;
+    // Search entries: the node and the entry of its parent, to spell the word back.
+    private int[] mEntryNode = new int[MAX_SEARCH_ENTRIES];
+    private int[] mEntryParent = new int[MAX_SEARCH_ENTRIES];
+    // Max heap of entries. The key is twice the best frequency reachable from the entry, plus
+    // one when the entry stands for the word ending at its node rather than for its subtree.
+    private int[] mHeapKeys = new int[MAX_SEARCH_ENTRIES];
+    private int[] mHeapEntries = new int[MAX_SEARCH_ENTRIES];
+    private int mHeapSize;
+
+    /**
+     * Maps assets/dictionaries/<aLocale>.dict, returns null if there is no dictionary for it.
+     */
+    public static Dictionary load(Context aContext, String aLocale) {
+        String path = "dictionaries/" + aLocale + ".dict";
+        try (AssetFileDescriptor descriptor = aContext.getAssets().openFd(path);
+             FileInputStream input = descriptor.createInputStream()) {
+            FileChannel channel = input.getChannel();
+            // The mapping stays valid once the channel is closed.
+            ByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, descriptor.getStartOffset(), descriptor.getLength());
+            return new Dictionary(buffer);
+        } catch (IOException e) {
+            Log.w(LOGTAG, "Unable to load dictionary '" + path + "': " + e.toString());
+            return null;
+        }
+    }
+
+    public Dictionary(ByteBuffer aBuffer) throws IOException {
+        mBuffer = aBuffer;
+        if (mBuffer.limit() < HEADER_SIZE || mBuffer.getInt(0) != MAGIC || mBuffer.getInt(4) != VERSION) {
+            throw new IOException("Not a dictionary");
+        }
+        mNodeCount = mBuffer.getInt(8);
+        if (mNodeCount < 1 || (long)HEADER_SIZE + (long)mNodeCount * NODE_SIZE > mBuffer.limit() ||
+            mBuffer.getInt(12) > MAX_WORD_LENGTH) {
+            throw new IOException("Truncated dictionary");
+        }
+    }
+
+    public int getNodeCount() {
+        return mNodeCount;
+    }
+
+    /**
+     * Finds the most frequent words starting with the first aLength characters of aPrefix,
+     * ignoring case, best first. The prefix itself is not suggested even if it is a word.
+     * @return the number of suggestions found.
+     */
+    public int suggest(char[] aPrefix, int aLength, Suggestions aResult) {
+        aResult.mCount = 0;
+        if (aLength <= 0 || aLength >= MAX_WORD_LENGTH) {
+            return 0;
+        }
+        int node = 0;
+        for (int i = 0; i < aLength && node >= 0; i++) {
+            node = findChild(node, Character.toLowerCase(aPrefix[i]));
+        }
+        if (node < 0) {
+            return 0;
+        }
+
+        int entryCount = 1;
+        mEntryNode[0] = node;
+        mEntryParent[0] = -1;
+        mHeapSize = 0;
+        push(getMaxFrequency(node) * 2, 0);
+        int capacity = aResult.getCapacity();
+        while (mHeapSize > 0 && aResult.mCount < capacity) {
+            int key = mHeapKeys[0];
+            int entry = pop();
+            int current = mEntryNode[entry];
+            if ((key & 1) != 0) {
+                if (entry != 0) {
+                    emit(aPrefix, aLength, entry, key >> 1, aResult);
+                }
+                continue;
+            }
+            int frequency = getFrequency(current);
+            if (frequency > 0) {
+                push(frequency * 2 + 1, entry);
+            }
+            int child = getFirstChild(current);
+            int end = child + getChildCount(current);
+            for (; child < end && entryCount < MAX_SEARCH_ENTRIES && mHeapSize < MAX_SEARCH_ENTRIES; child++) {
+                mEntryNode[entryCount] = child;
+                mEntryParent[entryCount] = entry;
+                push(getMaxFrequency(child) * 2, entryCount);
+                entryCount++;
+            }
+        }
+        return aResult.mCount;
+    }
+
+    private void emit(char[] aPrefix, int aLength, int aEntry, int aFrequency, Suggestions aResult) {
+        int depth = 0;
+        for (int entry = aEntry; entry > 0; entry = mEntryParent[entry]) {
+            depth++;
+        }
+        int length = aLength + depth;
+        if (length > MAX_WORD_LENGTH) {
+            return;
+        }
+        int index = aResult.mCount++;
+        char[] word = aResult.mWords[index];
+        for (int i = 0; i < aLength; i++) {
+            word[i] = Character.toLowerCase(aPrefix[i]);
+        }
+        int position = length;
+        for (int entry = aEntry; entry > 0; entry = mEntryParent[entry]) {
+            word[--position] = getChar(mEntryNode[entry]);
+        }
+        aResult.mLengths[index] = length;
+        aResult.mFrequencies[index] = aFrequency;
+    }
+
+    private int findChild(int aNode, char aChar) {
+        int low = getFirstChild(aNode);
+        int high = low + getChildCount(aNode) - 1;
+        while (low <= high) {
+            int middle = (low + high) >>> 1;
+            char c = getChar(middle);
+            if (c < aChar) {
+                low = middle + 1;
+            } else if (c > aChar) {
+                high = middle - 1;
+            } else {
+                return middle;
+            }
+        }
+        return -1;
+    }
+
+    private int offset(int aNode) {
+        return HEADER_SIZE + aNode * NODE_SIZE;
+    }
+
+    private char getChar(int aNode) {
+        return mBuffer.getChar(offset(aNode));
+    }
+
+    private int getFrequency(int aNode) {
+        return mBuffer.get(offset(aNode) + 2) & 0xff;
+    }
+
+    private int getMaxFrequency(int aNode) {
+        return mBuffer.get(offset(aNode) + 3) & 0xff;
+    }
+
+    private int getFirstChild(int aNode) {
+        return mBuffer.getInt(offset(aNode) + 4);
+    }
+
+    private int getChildCount(int aNode) {
+        return mBuffer.getShort(offset(aNode) + 8) & 0xffff;
+    }
+
+    private void push(int aKey, int aEntry) {
+        int i = mHeapSize++;
+        while (i > 0) {
+            int parent = (i - 1) >> 1;
+            if (mHeapKeys[parent] >= aKey) {
+                break;
+            }
+            mHeapKeys[i] = mHeapKeys[parent];
+            mHeapEntries[i] = mHeapEntries[parent];
+            i = parent;
+        }
+        mHeapKeys[i] = aKey;
+        mHeapEntries[i] = aEntry;
+    }
+
+    private int pop() {
+        int result = mHeapEntries[0];
+        mHeapSize--;
+        int key = mHeapKeys[mHeapSize];
+        int entry = mHeapEntries[mHeapSize];
+        int i = 0;
+        while (true) {
+            int child = i * 2 + 1;
+            if (child >= mHeapSize) {
+                break;
+            }
+            if (child + 1 < mHeapSize && mHeapKeys[child + 1] > mHeapKeys[child]) {
+                child++;
+            }
+            if (mHeapKeys[child] <= key) {
+                break;
+            }
+            mHeapKeys[i] = mHeapKeys[child];
+            mHeapEntries[i] = mHeapEntries[child];
+            i = child;
+        }
+        mHeapKeys[i] = key;
+        mHeapEntries[i] = entry;
+        return result;
+    }
+}
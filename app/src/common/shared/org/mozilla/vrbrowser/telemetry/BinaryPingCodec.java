@@ -0,0 +1,295 @@
+/* -*- Mode: Java; c-basic-offset: 4; tab-width: 4; indent-tabs-mode: nil; -*-
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/. */
+
+package org.mozilla.vrbrowser.telemetry;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.lang.reflect.Array;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Compact binary form of a telemetry ping: its type, document id and upload path followed by the
+ * measurement results as tagged values. Pings are stored this way and only turned into the JSON
+ * the server expects when they are uploaded, see BinaryTelemetryStorage.
+ */
+class BinaryPingCodec {
+    static class Ping {
+        String mType;
+        String mDocumentId;
+        String mUploadPath;
+        Map<String, Object> mResults;
+    }
+
+    private static final int TAG_NULL = 0;
+    private static final int TAG_FALSE = 1;
+    private static final int TAG_TRUE = 2;
+    private static final int TAG_LONG = 3;
+    private static final int TAG_DOUBLE = 4;
+    private static final int TAG_STRING = 5;
+    private static final int TAG_ARRAY = 6;
+    private static final int TAG_OBJECT = 7;
+
+    static byte[] encode(String aType, String aDocumentId, String aUploadPath, Map<String, Object> aResults) {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (DataOutputStream output = new DataOutputStream(bytes)) {
+            output.writeUTF(aType);
+            output.writeUTF(aDocumentId);
+            output.writeUTF(aUploadPath);
+            writeObject(output, aResults.entrySet().iterator(), aResults.size());
+        } catch (IOException e) {
+            // A ByteArrayOutputStream does not throw.
+            throw new IllegalStateException(e);
+        }
+        return bytes.toByteArray();
+    }
+
+    /**
+     * Reads only the type, so pings of other types are skipped without decoding them.
+     */
+    static String decodeType(byte[] aRecord) throws IOException {
+        return new DataInputStream(new ByteArrayInputStream(aRecord)).readUTF();
+    }
+
+    @SuppressWarnings("unchecked")
+    static Ping decode(byte[] aRecord) throws IOException {
+        DataInputStream input = new DataInputStream(new ByteArrayInputStream(aRecord));
+        Ping ping = new Ping();
+        ping.mType = input.readUTF();
+        ping.mDocumentId = input.readUTF();
+        ping.mUploadPath = input.readUTF();
+        Object results = readValue(input);
+        if (!(results instanceof Map)) {
+            throw new IOException("Invalid ping measurements");
+        }
+        ping.mResults = (Map<String, Object>) results;
+        return ping;
+    }
+
+    /**
+     * Serializes decoded measurement results. Unlike JSONPingSerializer, which goes through a
+     * JSONObject, null values are written as null instead of being dropped, and non finite
+     * numbers are written as null instead of failing the whole ping.
+     */
+    static String toJSON(Map<String, Object> aResults) {
+        StringBuilder result = new StringBuilder();
+        appendJSON(result, aResults);
+        return result.toString();
+    }
+
+    private static void writeValue(DataOutputStream aOutput, Object aValue) throws IOException {
+        // JSONObject.NULL is the only object equal to null.
+        if (aValue == null || aValue.equals(null)) {
+            aOutput.writeByte(TAG_NULL);
+        } else if (aValue instanceof Boolean) {
+            aOutput.writeByte((Boolean) aValue ? TAG_TRUE : TAG_FALSE);
+        } else if (aValue instanceof Long || aValue instanceof Integer || aValue instanceof Short || aValue instanceof Byte) {
+            aOutput.writeByte(TAG_LONG);
+            aOutput.writeLong(((Number) aValue).longValue());
+        } else if (aValue instanceof Number) {
+            aOutput.writeByte(TAG_DOUBLE);
+            aOutput.writeDouble(((Number) aValue).doubleValue());
+        } else if (aValue instanceof Map) {
+            Map<?, ?> map = (Map<?, ?>) aValue;
+            writeObject(aOutput, map.entrySet().iterator(), map.size());
+        } else if (aValue instanceof JSONObject) {
+            JSONObject object = (JSONObject) aValue;
+            aOutput.writeByte(TAG_OBJECT);
+            aOutput.writeInt(object.length());
+            Iterator<String> keys = object.keys();
+            while (keys.hasNext()) {
+                String key = keys.next();
+                writeString(aOutput, key);
+                writeValue(aOutput, object.opt(key));
+            }
+        } else if (aValue instanceof Iterable) {
+            List<Object> list = new ArrayList<>();
+            for (Object item: (Iterable<?>) aValue) {
+                list.add(item);
+            }
+            aOutput.writeByte(TAG_ARRAY);
+            aOutput.writeInt(list.size());
+            for (Object item: list) {
+                writeValue(aOutput, item);
+            }
+        } else if (aValue instanceof JSONArray) {
+            JSONArray array = (JSONArray) aValue;
+            aOutput.writeByte(TAG_ARRAY);
+            aOutput.writeInt(array.length());
+            for (int i = 0; i < array.length(); i++) {
+                writeValue(aOutput, array.opt(i));
+            }
+        } else if (aValue.getClass().isArray()) {
+            int length = Array.getLength(aValue);
+            aOutput.writeByte(TAG_ARRAY);
+            aOutput.writeInt(length);
+            for (int i = 0; i < length; i++) {
+                writeValue(aOutput, Array.get(aValue, i));
+            }
+        } else {
+            aOutput.writeByte(TAG_STRING);
+            writeString(aOutput, aValue.toString());
+        }
+    }
+
+    private static void writeObject(DataOutputStream aOutput, Iterator<? extends Map.Entry<?, ?>> aEntries,
+                                    int aSize) throws IOException {
+        aOutput.writeByte(TAG_OBJECT);
+        aOutput.writeInt(aSize);
+        while (aEntries.hasNext()) {
+            Map.Entry<?, ?> entry = aEntries.next();
+            writeString(aOutput, String.valueOf(entry.getKey()));
+            writeValue(aOutput, entry.getValue());
+        }
+    }
+
+    // Not writeUTF, which is limited to 64 KB.
+    private static void writeString(DataOutputStream aOutput, String aValue) throws IOException {
+        byte[] bytes = aValue.getBytes("UTF-8");
+        aOutput.writeInt(bytes.length);
+        aOutput.write(bytes);
+    }
+
+    private static String readString(DataInputStream aInput) throws IOException {
+        int length = aInput.readInt();
+        if (length < 0 || length > aInput.available()) {
+            throw new IOException("Invalid string length: " + length);
+        }
+        byte[] bytes = new byte[length];
+        aInput.readFully(bytes);
+        return new String(bytes, "UTF-8");
+    }
+
+    private static Object readValue(DataInputStream aInput) throws IOException {
+        int tag = aInput.readByte();
+        switch (tag) {
+            case TAG_NULL:
+                return null;
+            case TAG_FALSE:
+                return Boolean.FALSE;
+            case TAG_TRUE:
+                return Boolean.TRUE;
+            case TAG_LONG:
+                return aInput.readLong();
+            case TAG_DOUBLE:
+                return aInput.readDouble();
+            case TAG_STRING:
+                return readString(aInput);
+            case TAG_ARRAY: {
+                int length = readCount(aInput);
+                List<Object> result = new ArrayList<>(length);
+                for (int i = 0; i < length; i++) {
+                    result.add(readValue(aInput));
+                }
+                return result;
+            }
+            case TAG_OBJECT: {
+                int length = readCount(aInput);
+                Map<String, Object> result = new LinkedHashMap<>();
+                for (int i = 0; i < length; i++) {
+                    String key = readString(aInput);
+                    result.put(key, readValue(aInput));
+                }
+                return result;
+            }
+            default:
+                throw new IOException("Invalid value tag: " + tag);
+        }
+    }
+
+    // Every value takes at least a byte, a larger count can only come from a corrupted record.
+    private static int readCount(DataInputStream aInput) throws IOException {
+        int count = aInput.readInt();
+        if (count < 0 || count > aInput.available()) {
+            throw new IOException("Invalid count: " + count);
+        }
+        return count;
+    }
+
+    private static void appendJSON(StringBuilder aResult, Object aValue) {
+        if (aValue == null) {
+            aResult.append("null");
+        } else if (aValue instanceof Map) {
+            aResult.append('{');
+            boolean first = true;
+            for (Map.Entry<?, ?> entry: ((Map<?, ?>) aValue).entrySet()) {
+                if (!first) {
+                    aResult.append(',');
+                }
+                first = false;
+                appendString(aResult, String.valueOf(entry.getKey()));
+                aResult.append(':');
+                appendJSON(aResult, entry.getValue());
+            }
+            aResult.append('}');
+        } else if (aValue instanceof List) {
+            aResult.append('[');
+            boolean first = true;
+            for (Object item: (List<?>) aValue) {
+                if (!first) {
+                    aResult.append(',');
+                }
+                first = false;
+                appendJSON(aResult, item);
+            }
+            aResult.append(']');
+        } else if (aValue instanceof Double) {
+            double value = (Double) aValue;
+            // Non finite numbers are not valid JSON.
+            if (Double.isNaN(value) || Double.isInfinite(value)) {
+                aResult.append("null");
+            } else if (value == Math.rint(value) && Math.abs(value) < 1e15) {
+                aResult.append((long) value);
+            } else {
+                aResult.append(value);
+            }
+        } else if (aValue instanceof Long || aValue instanceof Boolean) {
+            aResult.append(aValue);
+        } else {
+            appendString(aResult, aValue.toString());
+        }
+    }
+
+    private static void appendString(StringBuilder aResult, String aValue) {
+        aResult.append('"');
+        for (int i = 0; i < aValue.length(); i++) {
+            char c = aValue.charAt(i);
+            switch (c) {
+                case '"':
+                    aResult.append("\\\"");
+                    break;
+                case '\\':
+                    aResult.append("\\\\");
+                    break;
+                case '\n':
+                    aResult.append("\\n");
+                    break;
+                case '\r':
+                    aResult.append("\\r");
+                    break;
+                case '\t':
+                    aResult.append("\\t");
+                    break;
+                default:
+                    if (c < 0x20 || c == 0x2028 || c == 0x2029) {
+                        aResult.append(String.format("\\u%04x", (int) c));
+                    } else {
+                        aResult.append(c);
+                    }
+            }
+        }
+        aResult.append('"');
+    }
+}
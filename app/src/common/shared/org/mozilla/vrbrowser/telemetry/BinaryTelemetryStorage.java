@@ -0,0 +1,169 @@
+/* -*- Mode: Java; c-basic-offset: 4; tab-width: 4; indent-tabs-mode: nil; -*-
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/. */
+
+package org.mozilla.vrbrowser.telemetry;
+
+import android.util.Log;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+import org.mozilla.telemetry.config.TelemetryConfiguration;
+import org.mozilla.telemetry.ping.TelemetryPing;
+import org.mozilla.telemetry.storage.TelemetryStorage;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Telemetry storage that appends pings in binary form to a SegmentedLog instead of writing a JSON
+ * file per ping. Pings are converted to JSON only when the upload job processes them, off the UI
+ * thread. The log is bounded, the oldest pings are dropped first once it is full.
+ *
+ * Pings left by FileTelemetryStorage, which was used before, are moved into the log the first
+ * time it is opened.
+ */
+public class BinaryTelemetryStorage implements TelemetryStorage {
+    private static final String LOGTAG = "VRB";
+    private static final String DIRECTORY = "log";
+    private static final int SEGMENT_SIZE = 256 * 1024;
+    private static final int MAX_SEGMENTS = 8;
+    // Where FileTelemetryStorage kept a file per ping, in a directory per ping type.
+    private static final String LEGACY_DIRECTORY = "storage";
+
+    private final File mDirectory;
+    private final File mLegacyDirectory;
+    private SegmentedLog mLog;
+
+    public BinaryTelemetryStorage(TelemetryConfiguration aConfiguration) {
+        mDirectory = new File(aConfiguration.getDataDirectory(), DIRECTORY);
+        mLegacyDirectory = new File(aConfiguration.getDataDirectory(), LEGACY_DIRECTORY);
+    }
+
+    // Opened on first use, which happens on the telemetry threads.
+    private synchronized SegmentedLog getLog() throws IOException {
+        if (mLog == null) {
+            mLog = new SegmentedLog(mDirectory, SEGMENT_SIZE, MAX_SEGMENTS);
+            migrateLegacyPings(mLog);
+        }
+        return mLog;
+    }
+
+    // The legacy directory is deleted once its pings are moved, so this only runs once.
+    private void migrateLegacyPings(SegmentedLog aLog) {
+        File[] types = mLegacyDirectory.listFiles();
+        if (types == null) {
+            return;
+        }
+        int migrated = 0;
+        for (File type: types) {
+            File[] files = type.listFiles();
+            if (files != null) {
+                for (File file: files) {
+                    if (migrateLegacyPing(aLog, type.getName(), file)) {
+                        migrated++;
+                    }
+                    file.delete();
+                }
+            }
+            type.delete();
+        }
+        mLegacyDirectory.delete();
+        Log.d(LOGTAG, "Migrated " + migrated + " telemetry pings");
+    }
+
+    // A legacy ping file holds the upload path on its first line, followed by the JSON ping.
+    private static boolean migrateLegacyPing(SegmentedLog aLog, String aType, File aFile) {
+        try (BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(aFile), "UTF-8"))) {
+            String uploadPath = reader.readLine();
+            StringBuilder serializedPing = new StringBuilder();
+            String line;
+            while ((line = reader.readLine()) != null) {
+                serializedPing.append(line);
+            }
+            if (uploadPath == null || serializedPing.length() == 0) {
+                return false;
+            }
+            JSONObject ping = new JSONObject(serializedPing.toString());
+            Map<String, Object> results = new LinkedHashMap<>();
+            Iterator<String> keys = ping.keys();
+            while (keys.hasNext()) {
+                String key = keys.next();
+                results.put(key, ping.opt(key));
+            }
+            return aLog.append(BinaryPingCodec.encode(aType, aFile.getName(), uploadPath, results));
+        } catch (IOException | JSONException e) {
+            Log.e(LOGTAG, "Unable to migrate telemetry ping: " + e.toString());
+            return false;
+        }
+    }
+
+    @Override
+    public void store(TelemetryPing aPing) {
+        byte[] record = BinaryPingCodec.encode(aPing.getType(), aPing.getDocumentId(), aPing.getUploadPath(),
+                aPing.getMeasurementResults());
+        try {
+            if (!getLog().append(record)) {
+                Log.e(LOGTAG, "Telemetry ping too large to store: " + aPing.getType() + " " + record.length + " bytes");
+            }
+        } catch (IOException e) {
+            Log.e(LOGTAG, "Unable to store telemetry ping: " + e.toString());
+        }
+    }
+
+    @Override
+    public boolean process(final String aPingType, final TelemetryStorageCallback aCallback) {
+        try {
+            return getLog().process(new SegmentedLog.Visitor() {
+                @Override
+                public int visit(byte[] aRecord) {
+                    try {
+                        if (!aPingType.equals(BinaryPingCodec.decodeType(aRecord))) {
+                            return KEEP;
+                        }
+                        BinaryPingCodec.Ping ping = BinaryPingCodec.decode(aRecord);
+                        String serializedPing = BinaryPingCodec.toJSON(ping.mResults);
+                        return aCallback.onTelemetryPingLoaded(ping.mUploadPath, serializedPing) ? CONSUME : STOP;
+                    } catch (IOException e) {
+                        // Passed the CRC but can not be decoded, it would never be uploaded.
+                        Log.e(LOGTAG, "Dropping invalid telemetry ping: " + e.toString());
+                        return CONSUME;
+                    }
+                }
+            });
+        } catch (IOException e) {
+            Log.e(LOGTAG, "Unable to read telemetry pings: " + e.toString());
+            return false;
+        }
+    }
+
+    @Override
+    public int countStoredPings(final String aPingType) {
+        final int[] count = { 0 };
+        try {
+            getLog().process(new SegmentedLog.Visitor() {
+                @Override
+                public int visit(byte[] aRecord) {
+                    try {
+                        if (aPingType.equals(BinaryPingCodec.decodeType(aRecord))) {
+                            count[0]++;
+                        }
+                    } catch (IOException e) {
+                        // Dropped the next time pings are processed.
+                    }
+                    return KEEP;
+                }
+            });
+        } catch (IOException e) {
+            Log.e(LOGTAG, "Unable to read telemetry pings: " + e.toString());
+        }
+        return count[0];
+    }
+}
@@ -0,0 +1,305 @@
+/* -*- Mode: Java; c-basic-offset: 4; tab-width: 4; indent-tabs-mode: nil; -*-
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/. */
+
+package org.mozilla.vrbrowser.telemetry;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.zip.CRC32;
+
+/**
+ * Append only log of binary records, split in fixed size segment files. Each segment is
+ * preallocated and memory mapped, so appending a record is a copy into the mapping and never a
+ * write call. When the active segment is full the next one is started, and the oldest segments
+ * are deleted to stay within the maximum count.
+ *
+ * Records are never rewritten: consuming one only sets a flag in place, and a segment is deleted
+ * once all its records are consumed. Every record carries a CRC, a torn or corrupted record ends
+ * the reading of its segment and the following segments are still read.
+ */
+class SegmentedLog {
+    interface Visitor {
+        int KEEP = 0;
+        int CONSUME = 1;
+        int STOP = 2;
+
+        /**
+         * Returns what to do with aRecord: KEEP it, CONSUME it or STOP visiting, which keeps it.
+         */
+        int visit(byte[] aRecord);
+    }
+
+    static final int SEGMENT_MAGIC = 0x5652544c; // "VRTL"
+    static final int SEGMENT_VERSION = 1;
+    static final String SEGMENT_SUFFIX = ".seg";
+    // Magic and version.
+    static final int SEGMENT_HEADER_SIZE = 8;
+    // Length, CRC of the payload and flags.
+    static final int RECORD_HEADER_SIZE = 9;
+    private static final byte FLAG_CONSUMED = 1;
+
+    private static class Segment {
+        long mSequence;
+        File mFile;
+        MappedByteBuffer mBuffer;
+        // End of the valid records, where the next one is appended.
+        int mEnd;
+        int mLive;
+    }
+
+    private final File mDirectory;
+    private final int mSegmentSize;
+    private final int mMaxSegments;
+    private final ArrayList<Segment> mSegments = new ArrayList<>();
+    // Held by process() for its whole duration, unlike the log itself.
+    private final Object mProcessLock = new Object();
+
+    /**
+     * @param aSegmentSize bytes preallocated per segment, the largest record is a bit smaller.
+     * @param aMaxSegments segments kept, so the log never takes more than their total size.
+     */
+    SegmentedLog(File aDirectory, int aSegmentSize, int aMaxSegments) throws IOException {
+        mDirectory = aDirectory;
+        mSegmentSize = aSegmentSize;
+        mMaxSegments = Math.max(aMaxSegments, 1);
+        if (!mDirectory.isDirectory() && !mDirectory.mkdirs()) {
+            throw new IOException("Unable to create log directory: " + mDirectory);
+        }
+        open();
+    }
+
+    /**
+     * Appends aRecord, returns false when it is empty or larger than a segment.
+     */
+    synchronized boolean append(byte[] aRecord) throws IOException {
+        if (aRecord.length == 0 || RECORD_HEADER_SIZE + aRecord.length > mSegmentSize - SEGMENT_HEADER_SIZE) {
+            return false;
+        }
+        Segment segment = mSegments.isEmpty() ? null : mSegments.get(mSegments.size() - 1);
+        if (segment == null || segment.mEnd + RECORD_HEADER_SIZE + aRecord.length > mSegmentSize) {
+            if (segment != null) {
+                segment.mBuffer.force();
+            }
+            segment = createSegment(segment == null ? 0 : segment.mSequence + 1);
+            mSegments.add(segment);
+            while (mSegments.size() > mMaxSegments) {
+                deleteSegment(mSegments.remove(0));
+            }
+        }
+        CRC32 crc = new CRC32();
+        crc.update(aRecord);
+        MappedByteBuffer buffer = segment.mBuffer;
+        // The payload goes in first and the length last, a record is never seen half written.
+        buffer.position(segment.mEnd + RECORD_HEADER_SIZE);
+        buffer.put(aRecord);
+        buffer.putInt(segment.mEnd + 4, (int) crc.getValue());
+        buffer.put(segment.mEnd + 8, (byte) 0);
+        buffer.putInt(segment.mEnd, aRecord.length);
+        segment.mEnd += RECORD_HEADER_SIZE + aRecord.length;
+        segment.mLive++;
+        return true;
+    }
+
+    /**
+     * Visits the records that were not consumed, oldest first. Returns false if it was stopped.
+     * The log is only locked while the records of a segment are copied out and while the
+     * consumed ones are marked, never while visiting, so a slow visitor such as an upload does not
+     * block appending. Records appended meanwhile are visited by the next call. Calls are
+     * serialized, a record is never visited by two of them at once.
+     */
+    boolean process(Visitor aVisitor) {
+        synchronized (mProcessLock) {
+            List<Segment> segments;
+            synchronized (this) {
+                segments = new ArrayList<>(mSegments);
+            }
+            ArrayList<Integer> positions = new ArrayList<>();
+            ArrayList<byte[]> records = new ArrayList<>();
+            ArrayList<Integer> consumed = new ArrayList<>();
+            for (Segment segment: segments) {
+                positions.clear();
+                records.clear();
+                consumed.clear();
+                if (!copyLiveRecords(segment, positions, records)) {
+                    // Dropped by an append since.
+                    continue;
+                }
+                boolean stopped = false;
+                for (int i = 0; i < records.size() && !stopped; i++) {
+                    int action = aVisitor.visit(records.get(i));
+                    if (action == Visitor.STOP) {
+                        stopped = true;
+                    } else if (action == Visitor.CONSUME) {
+                        consumed.add(positions.get(i));
+                    }
+                }
+                consume(segment, consumed);
+                if (stopped) {
+                    return false;
+                }
+            }
+            return true;
+        }
+    }
+
+    // Copies the records of aSegment that were not consumed, with their positions. Returns false
+    // if the segment is no longer part of the log.
+    private synchronized boolean copyLiveRecords(Segment aSegment, List<Integer> aPositions, List<byte[]> aRecords) {
+        if (!mSegments.contains(aSegment)) {
+            return false;
+        }
+        MappedByteBuffer buffer = aSegment.mBuffer;
+        int position = SEGMENT_HEADER_SIZE;
+        while (position < aSegment.mEnd) {
+            int length = buffer.getInt(position);
+            int payload = position + RECORD_HEADER_SIZE;
+            if ((buffer.get(position + 8) & FLAG_CONSUMED) == 0) {
+                byte[] record = new byte[length];
+                buffer.position(payload);
+                buffer.get(record);
+                aPositions.add(position);
+                aRecords.add(record);
+            }
+            position = payload + length;
+        }
+        return true;
+    }
+
+    // Flags the records at aPositions as consumed and deletes aSegment once all its records are,
+    // unless it is the one being appended to.
+    private synchronized void consume(Segment aSegment, List<Integer> aPositions) {
+        if (!mSegments.contains(aSegment)) {
+            return;
+        }
+        MappedByteBuffer buffer = aSegment.mBuffer;
+        for (int position: aPositions) {
+            buffer.put(position + 8, (byte) (buffer.get(position + 8) | FLAG_CONSUMED));
+        }
+        aSegment.mLive -= aPositions.size();
+        if (aSegment.mLive == 0 && aSegment != mSegments.get(mSegments.size() - 1)) {
+            mSegments.remove(aSegment);
+            deleteSegment(aSegment);
+        }
+    }
+
+    /**
+     * Writes the mappings back to their files.
+     */
+    synchronized void flush() {
+        for (Segment segment: mSegments) {
+            segment.mBuffer.force();
+        }
+    }
+
+    synchronized int getSegmentCount() {
+        return mSegments.size();
+    }
+
+    private void open() throws IOException {
+        File[] files = mDirectory.listFiles();
+        if (files == null) {
+            return;
+        }
+        Arrays.sort(files);
+        for (File file: files) {
+            String name = file.getName();
+            if (!name.endsWith(SEGMENT_SUFFIX)) {
+                continue;
+            }
+            long sequence;
+            try {
+                sequence = Long.parseLong(name.substring(0, name.length() - SEGMENT_SUFFIX.length()), 16);
+            } catch (NumberFormatException e) {
+                file.delete();
+                continue;
+            }
+            Segment segment = new Segment();
+            segment.mSequence = sequence;
+            segment.mFile = file;
+            if (file.length() != mSegmentSize || !map(segment, false) || !scan(segment)) {
+                // Not one of ours, or from a configuration with another segment size.
+                file.delete();
+                continue;
+            }
+            mSegments.add(segment);
+        }
+        while (mSegments.size() > mMaxSegments) {
+            deleteSegment(mSegments.remove(0));
+        }
+    }
+
+    // Finds the end of the valid records and counts the live ones.
+    private boolean scan(Segment aSegment) {
+        MappedByteBuffer buffer = aSegment.mBuffer;
+        if (buffer.getInt(0) != SEGMENT_MAGIC || buffer.getInt(4) != SEGMENT_VERSION) {
+            return false;
+        }
+        int position = SEGMENT_HEADER_SIZE;
+        while (position + RECORD_HEADER_SIZE <= mSegmentSize) {
+            int length = buffer.getInt(position);
+            int payload = position + RECORD_HEADER_SIZE;
+            if (length <= 0 || length > mSegmentSize - payload) {
+                break;
+            }
+            byte[] record = new byte[length];
+            buffer.position(payload);
+            buffer.get(record);
+            CRC32 crc = new CRC32();
+            crc.update(record);
+            if (buffer.getInt(position + 4) != (int) crc.getValue()) {
+                break;
+            }
+            if ((buffer.get(position + 8) & FLAG_CONSUMED) == 0) {
+                aSegment.mLive++;
+            }
+            position = payload + length;
+        }
+        aSegment.mEnd = position;
+        // Whatever follows is garbage, cleared so appending after it yields a valid segment.
+        for (int i = position; i < Math.min(position + RECORD_HEADER_SIZE, mSegmentSize); i++) {
+            buffer.put(i, (byte) 0);
+        }
+        return true;
+    }
+
+    private Segment createSegment(long aSequence) throws IOException {
+        Segment segment = new Segment();
+        segment.mSequence = aSequence;
+        segment.mFile = new File(mDirectory, String.format("%016x", aSequence) + SEGMENT_SUFFIX);
+        if (!map(segment, true)) {
+            throw new IOException("Unable to create log segment: " + segment.mFile);
+        }
+        segment.mBuffer.putInt(0, SEGMENT_MAGIC);
+        segment.mBuffer.putInt(4, SEGMENT_VERSION);
+        segment.mEnd = SEGMENT_HEADER_SIZE;
+        return segment;
+    }
+
+    private boolean map(Segment aSegment, boolean aCreate) {
+        try (RandomAccessFile file = new RandomAccessFile(aSegment.mFile, "rw")) {
+            if (aCreate) {
+                // Preallocated, appending never grows the file.
+                file.setLength(0);
+                file.setLength(mSegmentSize);
+            }
+            // The mapping stays valid once the channel is closed.
+            aSegment.mBuffer = file.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, mSegmentSize);
+            return true;
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    private void deleteSegment(Segment aSegment) {
+        aSegment.mBuffer = null;
+        aSegment.mFile.delete();
+    }
+}
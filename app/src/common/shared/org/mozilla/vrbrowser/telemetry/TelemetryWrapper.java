@@ -12,8 +12,6 @@ import org.mozilla.telemetry.net.HttpURLConnectionTelemetryClient;
 import org.mozilla.telemetry.ping.TelemetryCorePingBuilder;
 import org.mozilla.telemetry.ping.TelemetryMobileEventPingBuilder;
 import org.mozilla.telemetry.schedule.jobscheduler.JobSchedulerTelemetryScheduler;
-import org.mozilla.telemetry.serialize.JSONPingSerializer;
-import org.mozilla.telemetry.storage.FileTelemetryStorage;
 import org.mozilla.vrbrowser.BuildConfig;
 import org.mozilla.vrbrowser.R;
 import org.mozilla.vrbrowser.SettingsStore;
@@ -24,15 +22,19 @@ public class TelemetryWrapper {
 
     private class Category {
         private static final String ACTION = "action";
+        private static final String PERFORMANCE = "performance";
     }
 
     private class Method {
         private static final String FOREGROUND = "foreground";
         private static final String BACKGROUND = "background";
+        private static final String JNI = "jni";
+        private static final String RENDER_BUDGET = "render_budget";
     }
 
     private class Object {
         private static final String APP = "app";
+        private static final String BROWSER_WINDOW = "browser_window";
     }
 
     // We should call this at the application initial stage. Instead,
@@ -54,8 +56,8 @@ public class TelemetryWrapper {
                     .setUploadEnabled(telemetryEnabled)
                     .setBuildId(String.valueOf(BuildConfig.VERSION_CODE));
             
-            final JSONPingSerializer serializer = new JSONPingSerializer();
-            final FileTelemetryStorage storage = new FileTelemetryStorage(configuration, serializer);
+            // Pings are appended to a binary log and only turned into JSON when uploaded.
+            final BinaryTelemetryStorage storage = new BinaryTelemetryStorage(configuration);
             final HttpURLConnectionTelemetryClient client = new HttpURLConnectionTelemetryClient();
             final JobSchedulerTelemetryScheduler scheduler = new JobSchedulerTelemetryScheduler();
 
@@ -84,5 +86,44 @@ public class TelemetryWrapper {
                 .scheduleUpload();
     }
 
+    /**
+     * Records an event per method of a JNI profile, aSummary as returned by JNIProfiler::GetSummary:
+     * one "direction,method,calls,total_us,max_us,frames" line per method.
+     */
+    @UiThread
+    public static void recordJNIProfile(String aSummary) {
+        for (String line: aSummary.split("\n")) {
+            String[] fields = line.split(",");
+            if (fields.length != 6) {
+                continue;
+            }
+            TelemetryEvent.create(Category.PERFORMANCE, Method.JNI, fields[1])
+                    .extra("direction", fields[0])
+                    .extra("calls", fields[2])
+                    .extra("total_us", fields[3])
+                    .extra("max_us", fields[4])
+                    .extra("frames", fields[5])
+                    .queue();
+        }
+    }
+
+    /**
+     * Records the time a browser window spent at each render budget level, see RenderBudget.
+     */
+    @UiThread
+    public static void recordRenderBudget(String aLevel, long aFullMs, long aReducedMs, long aPausedMs, int aTransitions,
+                                          int aSwitches, long aSwitchUs, long aMaxSwitchUs) {
+        TelemetryEvent.create(Category.PERFORMANCE, Method.RENDER_BUDGET, Object.BROWSER_WINDOW)
+                .extra("level", aLevel)
+                .extra("full_ms", String.valueOf(aFullMs))
+                .extra("reduced_ms", String.valueOf(aReducedMs))
+                .extra("paused_ms", String.valueOf(aPausedMs))
+                .extra("transitions", String.valueOf(aTransitions))
+                .extra("switches", String.valueOf(aSwitches))
+                .extra("switch_us", String.valueOf(aSwitchUs))
+                .extra("max_switch_us", String.valueOf(aMaxSwitchUs))
+                .queue();
+    }
+
 }
 
@@ -1,67 +1,75 @@
+/* -*- Mode: Java; c-basic-offset: 4; tab-width: 4; indent-tabs-mode: nil; -*-
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/. */
+
 package org.mozilla.vrbrowser.ui;
 
-import android.view.View;
-import android.view.animation.AccelerateInterpolator;
-import android.view.animation.AlphaAnimation;
-import android.view.animation.Animation;
-import android.view.animation.DecelerateInterpolator;
+import org.mozilla.vrbrowser.Widget;
+import org.mozilla.vrbrowser.WidgetManagerDelegate;
+import org.mozilla.vrbrowser.WidgetPlacement;
 
+/**
+ * Widget animations run on the render thread by animating the placement, so the widget texture
+ * is not redrawn on every frame of the animation.
+ */
 public class AnimationHelper {
     public static final long FADE_ANIMATION_DURATION = 150;
-    
-    public static void fadeIn(View aView, long delay, final Runnable aCallback) {
-        aView.setVisibility(View.VISIBLE);
-        Animation animation = new AlphaAnimation(0, 1);
-        animation.setInterpolator(new DecelerateInterpolator());
-        animation.setDuration(FADE_ANIMATION_DURATION);
-        animation.setAnimationListener(new Animation.AnimationListener() {
-            @Override
-            public void onAnimationStart(Animation animation) {
-            }
 
-            @Override
-            public void onAnimationEnd(Animation animation) {
-                if (aCallback != null) {
-                    aCallback.run();
-                }
-            }
+    // Must match WidgetAnimator::Easing.
+    public static final int EASING_LINEAR = 0;
+    public static final int EASING_EASE_IN = 1;
+    public static final int EASING_EASE_OUT = 2;
+    public static final int EASING_EASE_IN_OUT = 3;
 
-            @Override
-            public void onAnimationRepeat(Animation animation) {
-            }
-        });
-        if (delay > 0) {
-            animation.setStartOffset(delay);
-        }
-        aView.setAnimation(animation);
+    /**
+     * Shows the widget, fading it in from transparent if it was hidden.
+     */
+    public static void fadeIn(WidgetManagerDelegate aManager, Widget aWidget, long aDelay, Runnable aCallback) {
+        WidgetPlacement placement = aWidget.getPlacement();
+        placement.visible = true;
+        placement.opacity = 1.0f;
+        aManager.animateWidget(aWidget, FADE_ANIMATION_DURATION, aDelay, EASING_EASE_OUT, aCallback);
     }
 
-    public static void fadeOut(final View aView, long delay, final Runnable aCallback) {
-        aView.setVisibility(View.VISIBLE);
-        Animation animation = new AlphaAnimation(1, 0);
-        animation.setInterpolator(new AccelerateInterpolator());
-        animation.setDuration(FADE_ANIMATION_DURATION);
-        if (delay > 0) {
-            animation.setStartOffset(delay);
-        }
-        animation.setAnimationListener(new Animation.AnimationListener() {
-            @Override
-            public void onAnimationStart(Animation animation) {
-            }
-
+    /**
+     * Fades the widget out and hides it. The opacity of the placement is restored once hidden,
+     * so the next update that makes the widget visible shows it as usual.
+     */
+    public static void fadeOut(final WidgetManagerDelegate aManager, final Widget aWidget, long aDelay, final Runnable aCallback) {
+        final WidgetPlacement placement = aWidget.getPlacement();
+        placement.opacity = 0.0f;
+        aManager.animateWidget(aWidget, FADE_ANIMATION_DURATION, aDelay, EASING_EASE_IN, new Runnable() {
             @Override
-            public void onAnimationEnd(Animation animation) {
-                aView.setVisibility(View.GONE);
+            public void run() {
+                // Unless the widget was faded in again in the meantime.
+                if (placement.opacity == 0.0f) {
+                    placement.visible = false;
+                    placement.opacity = 1.0f;
+                    aManager.updateWidget(aWidget);
+                }
                 if (aCallback != null) {
                     aCallback.run();
                 }
             }
+        });
+    }
 
+    /**
+     * Fades the widget out, runs aSwap to change its content while it is transparent and fades
+     * it back in. Replaces fading views of the widget in and out, which redraws the texture on
+     * every frame, with a single redraw.
+     */
+    public static void crossFade(final WidgetManagerDelegate aManager, final Widget aWidget, final Runnable aSwap) {
+        final WidgetPlacement placement = aWidget.getPlacement();
+        placement.opacity = 0.0f;
+        aManager.animateWidget(aWidget, FADE_ANIMATION_DURATION, 0, EASING_EASE_IN, new Runnable() {
             @Override
-            public void onAnimationRepeat(Animation animation) {
+            public void run() {
+                aSwap.run();
+                placement.opacity = 1.0f;
+                aManager.animateWidget(aWidget, FADE_ANIMATION_DURATION, 0, EASING_EASE_OUT, null);
             }
         });
-
-        aView.setAnimation(animation);
     }
 }
@@ -6,11 +6,19 @@
 package org.mozilla.vrbrowser.ui;
 
 import android.content.Context;
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.graphics.Color;
+import android.graphics.Paint;
 import android.graphics.PointF;
 import android.graphics.Rect;
 import android.graphics.SurfaceTexture;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.SystemClock;
 import android.view.KeyEvent;
 import android.view.MotionEvent;
+import android.view.PixelCopy;
 import android.view.Surface;
 import android.util.Log;
 import android.view.View;
@@ -24,12 +32,17 @@ import org.mozilla.geckoview.GeckoSession;
 import org.mozilla.geckoview.GeckoSessionSettings;
 import org.mozilla.vrbrowser.R;
 import org.mozilla.vrbrowser.SessionStore;
+import org.mozilla.vrbrowser.ThumbnailCache;
 import org.mozilla.vrbrowser.Widget;
 import org.mozilla.vrbrowser.WidgetManagerDelegate;
 import org.mozilla.vrbrowser.WidgetPlacement;
+import org.mozilla.vrbrowser.telemetry.TelemetryWrapper;
 
-public class BrowserWidget extends View implements Widget, SessionStore.SessionChangeListener {
+public class BrowserWidget extends View implements Widget, SessionStore.SessionChangeListener,
+        WidgetManagerDelegate.Listener {
     private static final String LOGTAG = "VRB";
+    // Shown while the thumbnail of a session is loaded, pages are white until they paint.
+    private static final int PLACEHOLDER_COLOR = Color.WHITE;
     private int mSessionId;
     private GeckoDisplay mDisplay;
     private Surface mSurface;
@@ -40,6 +53,30 @@ public class BrowserWidget extends View implements Widget, SessionStore.SessionC
     private WidgetPlacement mWidgetPlacement;
     private WidgetManagerDelegate mWidgetManager;
     private PointF mLastWorldSize;
+    private float mBaseDensity;
+    private DynamicResolutionController mResolutionController;
+    private Handler mHandler = new Handler();
+    private Paint mPlaceholderPaint = new Paint(Paint.FILTER_BITMAP_FLAG);
+    private RenderBudget mRenderBudget = new RenderBudget();
+    private RenderBudget.Level mRenderBudgetLevel = RenderBudget.Level.FULL;
+    private boolean mCompositorRunning = true;
+    private Runnable mRenderBudgetRunnable = new Runnable() {
+        @Override
+        public void run() {
+            applyRenderBudget();
+        }
+    };
+    // PixelCopy reads the surface back on the calling thread, thumbnails are captured on this one.
+    private HandlerThread mCaptureThread;
+    private Handler mCaptureHandler;
+    // A session switch waits for the thumbnail of the old session, which keeps the surface until
+    // then. Switches requested meanwhile only update the session to attach.
+    private boolean mSessionChangePending;
+    private int mPendingSessionId;
+    // Set while the thumbnail of the new session is decoded. The display only gets the surface
+    // once it is drawn, EGL and a Canvas can not draw into the surface at the same time.
+    private boolean mPlaceholderPending;
+    private int mPlaceholderRequest;
 
     public BrowserWidget(Context aContext, int aSessionId) {
         super(aContext);
@@ -54,6 +91,17 @@ public class BrowserWidget extends View implements Widget, SessionStore.SessionC
         mHandle = ((WidgetManagerDelegate)aContext).newWidgetHandle();
         mWidgetPlacement = new WidgetPlacement(aContext);
         initializeWidgetPlacement(mWidgetPlacement);
+        mBaseDensity = mWidgetPlacement.density;
+        mResolutionController = new DynamicResolutionController(aContext, new DynamicResolutionController.Delegate() {
+            @Override
+            public void onResolutionScaleChanged(float aScale) {
+                mWidgetPlacement.density = mBaseDensity * aScale;
+                if (mWidgetManager != null) {
+                    mWidgetManager.updateWidget(BrowserWidget.this);
+                }
+            }
+        });
+        mWidgetManager.addListener(this);
     }
 
     private void initializeWidgetPlacement(WidgetPlacement aPlacement) {
@@ -70,22 +118,75 @@ public class BrowserWidget extends View implements Widget, SessionStore.SessionC
     }
 
     public void pauseCompositor() {
-        if (mDisplay == null) {
-            return;
-        }
-
-        mDisplay.surfaceDestroyed();
+        mRenderBudget.setSuspended(true, SystemClock.uptimeMillis());
+        applyRenderBudget();
     }
 
     public void resumeCompositor() {
-        if (mDisplay == null) {
-            return;
+        mRenderBudget.setSuspended(false, SystemClock.uptimeMillis());
+        applyRenderBudget();
+    }
+
+    /**
+     * Called when the window enters or leaves the field of view.
+     */
+    public void setInView(boolean aInView) {
+        mRenderBudget.setInView(aInView, SystemClock.uptimeMillis());
+        applyRenderBudget();
+    }
+
+    /**
+     * Input directed to the page that doesn't go through this view, e.g. from the keyboard.
+     */
+    public void onInput() {
+        mRenderBudget.onInput(SystemClock.uptimeMillis());
+        applyRenderBudget();
+    }
+
+    /**
+     * Records the time spent at each render budget level since the last call.
+     */
+    public void recordRenderBudgetMetrics() {
+        long now = SystemClock.uptimeMillis();
+        TelemetryWrapper.recordRenderBudget(mRenderBudget.getLevel(now).name(),
+                mRenderBudget.getTime(RenderBudget.Level.FULL, now),
+                mRenderBudget.getTime(RenderBudget.Level.REDUCED, now),
+                mRenderBudget.getTime(RenderBudget.Level.PAUSED, now),
+                mRenderBudget.getTransitionCount(),
+                mRenderBudget.getSwitchCount(),
+                mRenderBudget.getSwitchTimeUs(),
+                mRenderBudget.getMaxSwitchTimeUs());
+        mRenderBudget.resetMetrics(now);
+    }
+
+    // Pauses or resumes the compositor as the budget says and schedules the next check. The
+    // surface keeps the last frame while the compositor is paused.
+    private void applyRenderBudget() {
+        mHandler.removeCallbacks(mRenderBudgetRunnable);
+        long now = SystemClock.uptimeMillis();
+        RenderBudget.Level level = mRenderBudget.getLevel(now);
+        if (level != mRenderBudgetLevel) {
+            Log.d(LOGTAG, "BrowserWidget " + mHandle + " render budget " + mRenderBudgetLevel + " -> " + level);
+            mRenderBudgetLevel = level;
         }
-        if (mSurface == null) {
-            return;
+        boolean run = mRenderBudget.shouldRun(now);
+        if (run != mCompositorRunning && mPlaceholderPending) {
+            // Applied when the display gets the surface.
+            mCompositorRunning = run;
+        } else if (run != mCompositorRunning && mDisplay != null && mSurface != null) {
+            long start = System.nanoTime();
+            if (run) {
+                mDisplay.surfaceChanged(mSurface, mWidth, mHeight);
+            } else {
+                mDisplay.surfaceDestroyed();
+            }
+            mRenderBudget.onSwitched((System.nanoTime() - start) / 1000);
+            mCompositorRunning = run;
+        }
+        long next = mRenderBudget.getNextChange(now);
+        if (next >= 0) {
+            mHandler.postAtTime(mRenderBudgetRunnable, next);
         }
-
-        mDisplay.surfaceChanged(mSurface, mWidth, mHeight);
     }
 
     @Override
@@ -99,14 +200,23 @@ public class BrowserWidget extends View implements Widget, SessionStore.SessionC
         mSurfaceTexture = aTexture;
         aTexture.setDefaultBufferSize(aWidth, aHeight);
         mSurface = new Surface(aTexture);
+        mPlaceholderPending = false;
+        mPlaceholderRequest++;
         mDisplay = session.acquireDisplay();
+        mCompositorRunning = true;
         mDisplay.surfaceChanged(mSurface, aWidth, aHeight);
+        applyRenderBudget();
     }
 
     @Override
     public void resizeSurfaceTexture(final int aWidth, final int aHeight) {
+        mWidth = aWidth;
+        mHeight = aHeight;
         mSurfaceTexture.setDefaultBufferSize(aWidth, aHeight);
-        mDisplay.surfaceChanged(mSurface, aWidth, aHeight);
+        // A paused compositor picks up the size when it is resumed.
+        if (mCompositorRunning && !mPlaceholderPending) {
+            mDisplay.surfaceChanged(mSurface, aWidth, aHeight);
+        }
     }
 
     @Override
@@ -121,8 +231,11 @@ public class BrowserWidget extends View implements Widget, SessionStore.SessionC
 
     @Override
     public void handleTouchEvent(MotionEvent aEvent) {
+        onInput();
         if (aEvent.getActionMasked() == MotionEvent.ACTION_DOWN) {
             requestFocus();
+        } else if (aEvent.getActionMasked() == MotionEvent.ACTION_MOVE) {
+            mResolutionController.onInteraction();
         }
         GeckoSession session = SessionStore.get().getSession(mSessionId);
         if (session == null) {
@@ -133,6 +246,10 @@ public class BrowserWidget extends View implements Widget, SessionStore.SessionC
 
     @Override
     public void handleHoverEvent(MotionEvent aEvent) {
+        if (aEvent.getActionMasked() == MotionEvent.ACTION_SCROLL) {
+            mResolutionController.onInteraction();
+            onInput();
+        }
         GeckoSession session = SessionStore.get().getSession(mSessionId);
         if (session == null) {
             return;
@@ -162,6 +279,18 @@ public class BrowserWidget extends View implements Widget, SessionStore.SessionC
 
     @Override
     public void releaseWidget() {
+        mResolutionController.detach();
+        mHandler.removeCallbacks(mRenderBudgetRunnable);
+        // A pending session switch finishes without attaching anything.
+        mPendingSessionId = mSessionId;
+        mPlaceholderPending = false;
+        mPlaceholderRequest++;
+        if (mCaptureThread != null) {
+            mCaptureThread.quitSafely();
+            mCaptureThread = null;
+            mCaptureHandler = null;
+        }
+        mWidgetManager.removeListener(this);
         SessionStore.get().removeSessionChangeListener(this);
         GeckoSession session = SessionStore.get().getSession(mSessionId);
         if (session == null) {
@@ -174,6 +303,12 @@ public class BrowserWidget extends View implements Widget, SessionStore.SessionC
     @Override
     public void setFirstDraw(final boolean aIsFirstDraw) {
         mWidgetPlacement.firstDraw = aIsFirstDraw;
+        // The first frame listener has been consumed, start sampling the compositor frame rate.
+        if (aIsFirstDraw && mSurfaceTexture != null) {
+            mResolutionController.attach(mSurfaceTexture);
+        } else if (!aIsFirstDraw) {
+            mResolutionController.detach();
+        }
     }
 
     @Override
@@ -195,10 +330,30 @@ public class BrowserWidget extends View implements Widget, SessionStore.SessionC
     @Override
     public void onCurrentSessionChange(GeckoSession aSession, int aId) {
         Log.d(LOGTAG, "onCurrentSessionChange: " + this.toString());
-        if (mSessionId == aId) {
+        if (mSessionId == aId && !mSessionChangePending) {
             Log.d(LOGTAG, "BrowserWidget.onCurrentSessionChange session id same, bail: " + aId);
             return;
         }
+        mPendingSessionId = aId;
+        if (mSessionChangePending) {
+            return;
+        }
+
+        GeckoSession oldSession = SessionStore.get().getSession(mSessionId);
+        if (oldSession != null && mDisplay != null && captureThumbnail(mSessionId, oldSession)) {
+            mSessionChangePending = true;
+            return;
+        }
+        finishSessionChange();
+    }
+
+    private void finishSessionChange() {
+        mSessionChangePending = false;
+        final int id = mPendingSessionId;
+        GeckoSession session = SessionStore.get().getSession(id);
+        if (id == mSessionId || session == null) {
+            return;
+        }
 
         GeckoSession oldSession = SessionStore.get().getSession(mSessionId);
         if (oldSession != null && mDisplay != null) {
@@ -208,19 +363,43 @@ public class BrowserWidget extends View implements Widget, SessionStore.SessionC
             oldSession.releaseDisplay(mDisplay);
         }
 
-        mSessionId = aId;
-        mDisplay = aSession.acquireDisplay();
-        Log.d(LOGTAG, "surfaceChanged: " + aId);
-        mDisplay.surfaceChanged(mSurface, mWidth, mHeight);
-        aSession.getTextInput().setView(this);
+        mSessionId = id;
+        mDisplay = session.acquireDisplay();
+        if (!drawPlaceholder(id)) {
+            attachDisplay();
+        }
+        session.getTextInput().setView(this);
 
-        boolean isPrivateMode  = aSession.getSettings().getBoolean(GeckoSessionSettings.USE_PRIVATE_MODE);
+        boolean isPrivateMode  = session.getSettings().getBoolean(GeckoSessionSettings.USE_PRIVATE_MODE);
         if (isPrivateMode)
             setPrivateBrowsingEnabled(true);
         else
             setPrivateBrowsingEnabled(false);
     }
 
+    private void attachDisplay() {
+        mPlaceholderPending = false;
+        if (mCompositorRunning) {
+            Log.d(LOGTAG, "surfaceChanged: " + mSessionId);
+            mDisplay.surfaceChanged(mSurface, mWidth, mHeight);
+        }
+    }
+
+    // WidgetManagerDelegate.Listener
+    @Override
+    public void onWidgetUpdate(Widget aWidget) {
+        // The settings panel takes the focus from the window, the keyboard covers its bottom.
+        long now = SystemClock.uptimeMillis();
+        if (aWidget instanceof SettingsWidget) {
+            mRenderBudget.setFocused(!aWidget.getPlacement().visible, now);
+        } else if (aWidget instanceof KeyboardWidget) {
+            mRenderBudget.setOccluded(aWidget.getPlacement().visible, now);
+        } else {
+            return;
+        }
+        applyRenderBudget();
+    }
+
     // View
     @Override
     public InputConnection onCreateInputConnection(final EditorInfo outAttrs) {
@@ -258,6 +437,7 @@ public class BrowserWidget extends View implements Widget, SessionStore.SessionC
 
     @Override
     public boolean onKeyDown(int aKeyCode, KeyEvent aEvent) {
+        onInput();
         if (super.onKeyDown(aKeyCode, aEvent)) {
             return true;
         }
@@ -301,6 +481,118 @@ public class BrowserWidget extends View implements Widget, SessionStore.SessionC
         return (session != null) && session.getPanZoomController().onMotionEvent(aEvent);
     }
 
+    // Returns true when the capture was started, the session switch is finished once it is done.
+    private boolean captureThumbnail(final int aSessionId, GeckoSession aSession) {
+        final ThumbnailCache cache = SessionStore.get().getThumbnailCache();
+        if (cache == null || mSurface == null || !mSurface.isValid() || mWidth <= 0 || mHeight <= 0) {
+            return false;
+        }
+        int width = Math.min(mWidth, getResources().getInteger(R.integer.thumbnail_width));
+        int height = Math.max(1, width * mHeight / mWidth);
+        final boolean persistable = !aSession.getSettings().getBoolean(GeckoSessionSettings.USE_PRIVATE_MODE);
+        // PixelCopy scales the last frame queued to the surface into the bitmap.
+        final Bitmap capture = Bitmap.createBitmap(width, height, Bitmap.Config.ARGB_8888);
+        final Surface surface = mSurface;
+        if (mCaptureHandler == null) {
+            mCaptureThread = new HandlerThread("BrowserCapture");
+            mCaptureThread.start();
+            mCaptureHandler = new Handler(mCaptureThread.getLooper());
+        }
+        final Handler captureHandler = mCaptureHandler;
+        captureHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    PixelCopy.request(surface, capture, new PixelCopy.OnPixelCopyFinishedListener() {
+                        @Override
+                        public void onPixelCopyFinished(int aResult) {
+                            Bitmap thumbnail = null;
+                            if (aResult == PixelCopy.SUCCESS) {
+                                thumbnail = capture.copy(Bitmap.Config.RGB_565, false);
+                            } else {
+                                Log.e(LOGTAG, "Unable to capture thumbnail of session " + aSessionId + ": " + aResult);
+                            }
+                            capture.recycle();
+                            onThumbnailCaptured(aSessionId, thumbnail, persistable);
+                        }
+                    }, captureHandler);
+                } catch (IllegalArgumentException e) {
+                    Log.e(LOGTAG, "Unable to capture thumbnail of session " + aSessionId + ": " + e.toString());
+                    onThumbnailCaptured(aSessionId, null, persistable);
+                }
+            }
+        });
+        return true;
+    }
+
+    // Called on the capture thread.
+    private void onThumbnailCaptured(final int aSessionId, final Bitmap aThumbnail, final boolean aPersistable) {
+        mHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                ThumbnailCache cache = SessionStore.get().getThumbnailCache();
+                if (aThumbnail != null && cache != null && SessionStore.get().getSession(aSessionId) != null) {
+                    cache.put(aSessionId, aThumbnail, aPersistable);
+                }
+                finishSessionChange();
+            }
+        });
+    }
+
+    // Shows the thumbnail of the session until its compositor draws the first frame. Returns true
+    // when it is loaded from disk, the placeholder color is shown meanwhile and the display is
+    // attached once the thumbnail is drawn.
+    private boolean drawPlaceholder(final int aSessionId) {
+        ThumbnailCache cache = SessionStore.get().getThumbnailCache();
+        if (cache == null || mSurfaceTexture == null) {
+            return false;
+        }
+        Bitmap thumbnail = cache.get(aSessionId);
+        if (thumbnail != null) {
+            drawToSurface(aSessionId, thumbnail);
+            return false;
+        }
+        final int request = ++mPlaceholderRequest;
+        boolean loading = cache.load(aSessionId, mHandler, new ThumbnailCache.LoadCallback() {
+            @Override
+            public void onThumbnailLoaded(Bitmap aThumbnail) {
+                // Another session or surface was attached in the meantime.
+                if (request != mPlaceholderRequest || !mPlaceholderPending) {
+                    return;
+                }
+                if (aThumbnail != null) {
+                    drawToSurface(aSessionId, aThumbnail);
+                }
+                attachDisplay();
+            }
+        });
+        if (!loading) {
+            return false;
+        }
+        drawToSurface(aSessionId, null);
+        mPlaceholderPending = true;
+        return true;
+    }
+
+    // Draws the thumbnail, or the placeholder color when it is null. A temporary Surface is used
+    // because a Surface connected to a Canvas can not be used by EGL afterwards.
+    private void drawToSurface(int aSessionId, Bitmap aThumbnail) {
+        Surface surface = new Surface(mSurfaceTexture);
+        try {
+            Canvas canvas = surface.lockCanvas(null);
+            if (aThumbnail != null) {
+                canvas.drawBitmap(aThumbnail, null, new Rect(0, 0, mWidth, mHeight), mPlaceholderPaint);
+            } else {
+                canvas.drawColor(PLACEHOLDER_COLOR);
+            }
+            surface.unlockCanvasAndPost(canvas);
+        } catch (Surface.OutOfResourcesException | IllegalArgumentException e) {
+            Log.e(LOGTAG, "Unable to draw thumbnail of session " + aSessionId + ": " + e.toString());
+        } finally {
+            surface.release();
+        }
+    }
+
     private void setPrivateBrowsingEnabled(boolean isEnabled) {
         // TODO: Fade in/out the browser window. Waiting for https://github.com/MozillaReality/FirefoxReality/issues/77
     }
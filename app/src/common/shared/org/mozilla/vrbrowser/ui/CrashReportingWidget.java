@@ -102,6 +102,7 @@ public class CrashReportingWidget extends UIWidget {
     }
 
     public void hide() {
+        getPlacement().visible = false;
         mWidgetManager.removeWidget(this);
         mWidgetManager.popBackHandler(mBackHandler);
     }
@@ -1301,6 +1301,28 @@ public class CustomKeyboardView extends View implements View.OnClickListener {
         mKeyboardActionListener.swipeDown();
     }
 
+    /**
+     * Bytes held by the key buffer, which is recreated on the next draw once released.
+     */
+    public long getBufferBytes() {
+        return mBuffer != null ? mBuffer.getAllocationByteCount() : 0;
+    }
+
+    /**
+     * Releases the key buffer and the cached mini keyboards, both are recreated on demand.
+     * Returns the bytes released.
+     */
+    public long releaseBuffers() {
+        if (mMiniKeyboardOnScreen) {
+            return 0;
+        }
+        long bytes = getBufferBytes();
+        mBuffer = null;
+        mCanvas = null;
+        mMiniKeyboardCache.clear();
+        return bytes;
+    }
+
     public void closing() {
         if (mPreviewPopup.isShowing()) {
             mPreviewPopup.dismiss();
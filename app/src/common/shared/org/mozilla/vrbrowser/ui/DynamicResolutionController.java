@@ -0,0 +1,203 @@
+/* -*- Mode: Java; c-basic-offset: 4; tab-width: 4; indent-tabs-mode: nil; -*-
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/. */
+
+package org.mozilla.vrbrowser.ui;
+
+import android.content.Context;
+import android.graphics.SurfaceTexture;
+import android.os.Handler;
+import android.os.SystemClock;
+import android.util.Log;
+import android.view.WindowManager;
+
+/**
+ * Watches the rate at which the Gecko compositor delivers frames to the browser surface while
+ * the user is scrolling or dragging content, and lowers the resolution scale when it can't keep
+ * up with the display. Frames are only expected continuously while content is moving, so the
+ * timing is only sampled then.
+ *
+ * A scale change resizes the Gecko viewport, which reflows the page, so it is never applied while
+ * a gesture is active. The scale measured during a gesture is applied once it ends and kept for
+ * the gestures that follow. Once the content settles the full resolution is restored to keep
+ * text readable.
+ *
+ * Scale changes need several consecutive slow (or fast) sample windows and are rate limited,
+ * so the controller does not oscillate between two levels.
+ */
+class DynamicResolutionController implements SurfaceTexture.OnFrameAvailableListener {
+    private static final String LOGTAG = "VRB";
+
+    interface Delegate {
+        void onResolutionScaleChanged(float aScale);
+    }
+
+    static final float MIN_SCALE = 0.6f;
+    static final float MAX_SCALE = 1.0f;
+    static final float SCALE_STEP = 0.1f;
+    // Number of compositor frames averaged per sample window.
+    private static final int WINDOW_FRAMES = 30;
+    // A window is slow when the average frame interval exceeds the display interval by this ratio.
+    private static final float SLOW_RATIO = 1.3f;
+    // A window is fast when the average frame interval is within this ratio of the display interval.
+    private static final float FAST_RATIO = 1.1f;
+    private static final int SLOW_WINDOWS_TO_SCALE_DOWN = 2;
+    private static final int FAST_WINDOWS_TO_SCALE_UP = 4;
+    // Gaps longer than this mean the content stopped moving, they are not counted.
+    private static final long MAX_FRAME_GAP_NANOS = 250000000L;
+    // Input keeps the controller in the interactive state for a while to cover flings.
+    private static final long INTERACTION_LINGER_MS = 600;
+    // Covers the pauses between the flings of a scroll, so the scale is not restored in between.
+    private static final long SETTLE_DELAY_MS = 3000;
+    private static final long CHANGE_COOLDOWN_MS = 1000;
+
+    private Delegate mDelegate;
+    private Handler mHandler = new Handler();
+    private SurfaceTexture mTexture;
+    private long mTargetFrameNanos;
+    private float mScale = MAX_SCALE;
+    private float mInteractionScale = MAX_SCALE;
+    private long mInteractingUntil;
+    private long mLastChange;
+    private long mLastFrameNanos;
+    private long mIntervalSum;
+    private int mFrameCount;
+    private int mSlowWindows;
+    private int mFastWindows;
+    private Runnable mGestureEndRunnable = new Runnable() {
+        @Override
+        public void run() {
+            applyScale(mInteractionScale);
+            mHandler.postDelayed(mSettleRunnable, SETTLE_DELAY_MS);
+        }
+    };
+    private Runnable mSettleRunnable = new Runnable() {
+        @Override
+        public void run() {
+            applyScale(MAX_SCALE);
+        }
+    };
+
+    DynamicResolutionController(Context aContext, Delegate aDelegate) {
+        mDelegate = aDelegate;
+        float refreshRate = 60.0f;
+        WindowManager windowManager = (WindowManager) aContext.getSystemService(Context.WINDOW_SERVICE);
+        if (windowManager != null && windowManager.getDefaultDisplay().getRefreshRate() > 0.0f) {
+            refreshRate = windowManager.getDefaultDisplay().getRefreshRate();
+        }
+        mTargetFrameNanos = (long) (1000000000L / refreshRate);
+    }
+
+    void attach(SurfaceTexture aTexture) {
+        if (mTexture == aTexture) {
+            return;
+        }
+        detach();
+        mTexture = aTexture;
+        mTexture.setOnFrameAvailableListener(this, mHandler);
+        resetWindow();
+    }
+
+    void detach() {
+        if (mTexture != null) {
+            mTexture.setOnFrameAvailableListener(null);
+            mTexture = null;
+        }
+        mHandler.removeCallbacks(mGestureEndRunnable);
+        mHandler.removeCallbacks(mSettleRunnable);
+    }
+
+    float getScale() {
+        return mScale;
+    }
+
+    /**
+     * Called for input that moves the content (drags, scroll wheel).
+     */
+    void onInteraction() {
+        long now = SystemClock.uptimeMillis();
+        if (now > mInteractingUntil) {
+            resetWindow();
+        }
+        mInteractingUntil = now + INTERACTION_LINGER_MS;
+        mHandler.removeCallbacks(mGestureEndRunnable);
+        mHandler.removeCallbacks(mSettleRunnable);
+        mHandler.postDelayed(mGestureEndRunnable, INTERACTION_LINGER_MS);
+    }
+
+    // SurfaceTexture.OnFrameAvailableListener
+    @Override
+    public void onFrameAvailable(SurfaceTexture aTexture) {
+        if (SystemClock.uptimeMillis() > mInteractingUntil) {
+            mLastFrameNanos = 0;
+            return;
+        }
+        long now = System.nanoTime();
+        long interval = now - mLastFrameNanos;
+        mLastFrameNanos = now;
+        if (interval > MAX_FRAME_GAP_NANOS) {
+            return;
+        }
+        mIntervalSum += interval;
+        mFrameCount++;
+        if (mFrameCount >= WINDOW_FRAMES) {
+            evaluateWindow(mIntervalSum / mFrameCount);
+            mIntervalSum = 0;
+            mFrameCount = 0;
+        }
+    }
+
+    private void evaluateWindow(long aAverageNanos) {
+        if (aAverageNanos > mTargetFrameNanos * SLOW_RATIO) {
+            mSlowWindows++;
+            mFastWindows = 0;
+        } else if (aAverageNanos < mTargetFrameNanos * FAST_RATIO) {
+            mFastWindows++;
+            mSlowWindows = 0;
+        } else {
+            mSlowWindows = 0;
+            mFastWindows = 0;
+        }
+
+        if (SystemClock.uptimeMillis() - mLastChange < CHANGE_COOLDOWN_MS) {
+            return;
+        }
+
+        float scale = mInteractionScale;
+        if (mSlowWindows >= SLOW_WINDOWS_TO_SCALE_DOWN) {
+            scale = Math.max(MIN_SCALE, quantize(mInteractionScale - SCALE_STEP));
+        } else if (mFastWindows >= FAST_WINDOWS_TO_SCALE_UP) {
+            scale = Math.min(MAX_SCALE, quantize(mInteractionScale + SCALE_STEP));
+        }
+        if (scale != mInteractionScale) {
+            Log.d(LOGTAG, "DynamicResolution: average frame " + (aAverageNanos / 1000) + "us, scale " +
+                    mInteractionScale + " -> " + scale + " after the gesture");
+            mInteractionScale = scale;
+            mLastChange = SystemClock.uptimeMillis();
+            mSlowWindows = 0;
+            mFastWindows = 0;
+        }
+    }
+
+    // Only called once the gesture ended or the content settled.
+    private void applyScale(float aScale) {
+        if (aScale == mScale) {
+            return;
+        }
+        mScale = aScale;
+        resetWindow();
+        mDelegate.onResolutionScaleChanged(aScale);
+    }
+
+    // Avoids accumulating float error when stepping the scale up and down.
+    private static float quantize(float aScale) {
+        return Math.round(aScale / SCALE_STEP) * SCALE_STEP;
+    }
+
+    private void resetWindow() {
+        mLastFrameNanos = 0;
+        mIntervalSum = 0;
+        mFrameCount = 0;
+    }
+}
@@ -24,9 +24,13 @@ import android.widget.ImageButton;
 import android.widget.RelativeLayout;
 
 import org.mozilla.geckoview.GeckoSession;
+import org.mozilla.vrbrowser.MemoryPressureManager;
 import org.mozilla.vrbrowser.R;
 import org.mozilla.vrbrowser.SessionStore;
 import org.mozilla.vrbrowser.WidgetPlacement;
+import org.mozilla.vrbrowser.input.Dictionary;
+
+import java.util.Locale;
 
 
 public class KeyboardWidget extends UIWidget implements CustomKeyboardView.OnKeyboardActionListener, GeckoSession.TextInputDelegate {
@@ -52,6 +56,20 @@ public class KeyboardWidget extends UIWidget implements CustomKeyboardView.OnKey
     private boolean mIsLongPress;
     private boolean mIsMultiTap;
     private boolean mIsCapsLock;
+    private MemoryPressureManager.Reclaimable mReclaimable;
+    private Dictionary mDictionary;
+    private Dictionary.Suggestions mSuggestions;
+    private ViewGroup mSuggestionsView;
+    private UITextButton[] mSuggestionButtons;
+    // Owned by each button, TextView keeps a reference to the array passed to setText.
+    private char[][] mSuggestionTexts;
+    private int[] mSuggestionLengths;
+    // The word being typed, before the cursor.
+    private char[] mComposing = new char[Dictionary.MAX_WORD_LENGTH];
+    private int mComposingLength;
+    // Text of the focused web content, kept up to date by updateExtractedText.
+    private CharSequence mExtractedText;
+    private int mExtractedTextOffset;
 
     public KeyboardWidget(Context aContext) {
         super(aContext);
@@ -136,11 +154,60 @@ public class KeyboardWidget extends UIWidget implements CustomKeyboardView.OnKey
         mIsPopupVisible = false;
 
         SessionStore.get().addTextInputListener(this);
+
+        initializeSuggestions(aContext);
+
+        // The buffers are only released while the keyboard is hidden, a visible one would have to
+        // redraw them on the next key press.
+        mReclaimable = new MemoryPressureManager.Reclaimable() {
+            @Override
+            public long getReclaimableBytes() {
+                if (mWidgetPlacement.visible) {
+                    return 0;
+                }
+                return mKeyboardview.getBufferBytes();
+            }
+
+            @Override
+            public long reclaim() {
+                if (mWidgetPlacement.visible) {
+                    return 0;
+                }
+                return mKeyboardview.releaseBuffers();
+            }
+        };
+        MemoryPressureManager.get().register("Keyboard buffers", MemoryPressureManager.PRIORITY_REBUILDABLE, mReclaimable);
+    }
+
+    private void initializeSuggestions(Context aContext) {
+        mDictionary = Dictionary.load(aContext, Locale.getDefault().getLanguage());
+        if (mDictionary == null) {
+            mDictionary = Dictionary.load(aContext, "en");
+        }
+        mSuggestionsView = findViewById(R.id.keyboard_suggestions);
+        mSuggestionButtons = new UITextButton[] {
+                findViewById(R.id.keyboard_suggestion0),
+                findViewById(R.id.keyboard_suggestion1),
+                findViewById(R.id.keyboard_suggestion2)
+        };
+        mSuggestions = new Dictionary.Suggestions(mSuggestionButtons.length);
+        mSuggestionTexts = new char[mSuggestionButtons.length][Dictionary.MAX_WORD_LENGTH];
+        mSuggestionLengths = new int[mSuggestionButtons.length];
+        for (int i = 0; i < mSuggestionButtons.length; i++) {
+            final int index = i;
+            mSuggestionButtons[i].setOnClickListener(new OnClickListener() {
+                @Override
+                public void onClick(View view) {
+                    handleSuggestion(index);
+                }
+            });
+        }
     }
 
     @Override
     public void releaseWidget() {
         SessionStore.get().removeTextInputListener(this);
+        MemoryPressureManager.get().unregister(mReclaimable);
         mBrowserWidget = null;
         super.releaseWidget();
     }
@@ -149,7 +216,8 @@ public class KeyboardWidget extends UIWidget implements CustomKeyboardView.OnKey
     void initializeWidgetPlacement(WidgetPlacement aPlacement) {
         Context context = getContext();
         aPlacement.width = WidgetPlacement.dpDimension(context, R.dimen.keyboard_width);
-        aPlacement.height = WidgetPlacement.dpDimension(context, R.dimen.keyboard_height);
+        aPlacement.height = WidgetPlacement.dpDimension(context, R.dimen.keyboard_height) +
+                            WidgetPlacement.dpDimension(context, R.dimen.keyboard_suggestions_height);
         aPlacement.parentAnchorX = 0.5f;
         aPlacement.parentAnchorY = 0.5f;
         aPlacement.anchorX = 0.5f;
@@ -177,6 +245,11 @@ public class KeyboardWidget extends UIWidget implements CustomKeyboardView.OnKey
         } else {
             mInputConnection = null;
         }
+        mExtractedText = null;
+        clearSuggestions();
+        if (mInputConnection != null) {
+            requestExtractedText();
+        }
 
         boolean showKeyboard = mInputConnection != null;
         boolean keyboardIsVisible = this.getVisibility() == View.VISIBLE;
@@ -196,6 +269,7 @@ public class KeyboardWidget extends UIWidget implements CustomKeyboardView.OnKey
        mIsCapsLock = false;
        mIsLongPress = false;
        handleShift(false);
+       clearSuggestions();
     }
 
 
@@ -245,6 +319,7 @@ public class KeyboardWidget extends UIWidget implements CustomKeyboardView.OnKey
                     popupCharacters, 6, 0);
             mKeyboardview.setKeyboard(popupKeyboard);
             params.topMargin= popupKey.y;
+            params.addRule(RelativeLayout.BELOW, R.id.keyboard_suggestions);
             mKeyboardview.setLayoutParams(params);
             mKeyboardview.setShifted(mIsCapsLock);
 
@@ -269,6 +344,9 @@ public class KeyboardWidget extends UIWidget implements CustomKeyboardView.OnKey
     @Override
     public void onKey(int primaryCode, int[] keyCodes) {
         Log.d("VRB", "Keyboard onPress++ " + primaryCode);
+        if (mBrowserWidget != null && mFocusedView == mBrowserWidget) {
+            mBrowserWidget.onInput();
+        }
         switch (primaryCode) {
             case Keyboard.KEYCODE_MODE_CHANGE:
                 handleModeChange();
@@ -374,6 +452,7 @@ public class KeyboardWidget extends UIWidget implements CustomKeyboardView.OnKey
                     // Delete the selected text
                     connection.commitText("", 1);
                 }
+                updateSuggestionsFrom(connection);
             }
         });
 
@@ -423,6 +502,7 @@ public class KeyboardWidget extends UIWidget implements CustomKeyboardView.OnKey
             @Override
             public void run() {
                 connection.commitText(result, 1);
+                updateSuggestionsFrom(connection);
             }
         });
     }
@@ -437,10 +517,134 @@ public class KeyboardWidget extends UIWidget implements CustomKeyboardView.OnKey
             @Override
             public void run() {
                 connection.commitText(aText, 1);
+                updateSuggestionsFrom(connection);
             }
         });
     }
 
+    private void handleSuggestion(int aIndex) {
+        if (aIndex >= mSuggestions.getCount() || mSuggestionLengths[aIndex] <= mComposingLength) {
+            return;
+        }
+        // Only the part of the word that has not been typed yet.
+        String completion = new String(mSuggestionTexts[aIndex], mComposingLength,
+                mSuggestionLengths[aIndex] - mComposingLength);
+        clearSuggestions();
+        handleText(completion + " ");
+    }
+
+    private void requestExtractedText() {
+        if (mFocusedView != mBrowserWidget) {
+            updateSuggestionsFrom(mInputConnection);
+            return;
+        }
+        // Gecko reports later changes through updateExtractedText.
+        final InputConnection connection = mInputConnection;
+        postInputCommand(new Runnable() {
+            @Override
+            public void run() {
+                final ExtractedText text = connection.getExtractedText(new ExtractedTextRequest(), InputConnection.GET_EXTRACTED_TEXT_MONITOR);
+                if (text != null) {
+                    post(new Runnable() {
+                        @Override
+                        public void run() {
+                            onExtractedText(text);
+                        }
+                    });
+                }
+            }
+        });
+    }
+
+    /**
+     * Views other than the browser do not report their changes, ask them for the text before
+     * the cursor after each edit. Called on the thread of the input connection.
+     */
+    private void updateSuggestionsFrom(final InputConnection aConnection) {
+        if (mFocusedView == mBrowserWidget || aConnection == null) {
+            return;
+        }
+        final CharSequence text = aConnection.getTextBeforeCursor(Dictionary.MAX_WORD_LENGTH, 0);
+        post(new Runnable() {
+            @Override
+            public void run() {
+                if (aConnection == mInputConnection) {
+                    updateSuggestions(text, text != null ? text.length() : 0);
+                }
+            }
+        });
+    }
+
+    private void onExtractedText(ExtractedText aText) {
+        mExtractedText = aText.text;
+        mExtractedTextOffset = aText.startOffset;
+        if (aText.selectionStart == aText.selectionEnd) {
+            updateSuggestions(mExtractedText, aText.selectionStart);
+        } else {
+            clearSuggestions();
+        }
+    }
+
+    /**
+     * Looks up the word that ends at aCursor in aText. Runs for every keystroke so it reuses
+     * the composing and suggestion buffers instead of allocating.
+     */
+    private void updateSuggestions(CharSequence aText, int aCursor) {
+        if (mDictionary == null || aText == null || aCursor <= 0 || aCursor > aText.length()) {
+            clearSuggestions();
+            return;
+        }
+        int start = aCursor;
+        while (start > 0 && aCursor - start < mComposing.length - 1) {
+            char c = aText.charAt(start - 1);
+            if (!Character.isLetter(c) && c != '\'') {
+                break;
+            }
+            start--;
+        }
+        if (start > 0 && Character.isLetter(aText.charAt(start - 1))) {
+            // Longer than any word in the dictionary.
+            clearSuggestions();
+            return;
+        }
+        mComposingLength = aCursor - start;
+        for (int i = 0; i < mComposingLength; i++) {
+            mComposing[i] = aText.charAt(start + i);
+        }
+        int count = mComposingLength > 0 ? mDictionary.suggest(mComposing, mComposingLength, mSuggestions) : 0;
+        if (count == 0) {
+            clearSuggestions();
+            return;
+        }
+        boolean upperCase = mComposingLength > 1 && Character.isUpperCase(mComposing[0]) &&
+                            Character.isUpperCase(mComposing[mComposingLength - 1]);
+        for (int i = 0; i < mSuggestionButtons.length; i++) {
+            if (i >= count) {
+                mSuggestionButtons[i].setVisibility(View.GONE);
+                continue;
+            }
+            char[] word = mSuggestions.getWord(i);
+            int length = mSuggestions.getLength(i);
+            char[] text = mSuggestionTexts[i];
+            // Keep what was typed as is and follow its case for the rest of the word.
+            System.arraycopy(mComposing, 0, text, 0, mComposingLength);
+            for (int j = mComposingLength; j < length; j++) {
+                text[j] = upperCase ? Character.toUpperCase(word[j]) : word[j];
+            }
+            mSuggestionLengths[i] = length;
+            mSuggestionButtons[i].setText(text, 0, length);
+            mSuggestionButtons[i].setVisibility(View.VISIBLE);
+        }
+        mSuggestionsView.setVisibility(View.VISIBLE);
+    }
+
+    private void clearSuggestions() {
+        mComposingLength = 0;
+        if (mSuggestionsView != null) {
+            mSuggestionsView.setVisibility(View.INVISIBLE);
+        }
+    }
+
     private void handleVoiceInput() {
         mKeyboardview.setVisibility(View.GONE);
         mVoiceInput.setVisibility(View.VISIBLE);
@@ -487,6 +691,12 @@ public class KeyboardWidget extends UIWidget implements CustomKeyboardView.OnKey
             return;
         }
 
+        if (selStart != selEnd) {
+            clearSuggestions();
+        } else if (mExtractedText != null) {
+            updateSuggestions(mExtractedText, selStart - mExtractedTextOffset);
+        }
+
         final InputConnection connection = mInputConnection;
         postInputCommand(new Runnable() {
             @Override
@@ -501,7 +711,10 @@ public class KeyboardWidget extends UIWidget implements CustomKeyboardView.OnKey
 
     @Override
     public void updateExtractedText(@NonNull GeckoSession session, @NonNull ExtractedTextRequest request, @NonNull ExtractedText text) {
-
+        if (mFocusedView != mBrowserWidget || mInputConnection == null) {
+            return;
+        }
+        onExtractedText(text);
     }
 
     @Override
@@ -291,9 +291,11 @@ public class NavigationBarWidget extends UIWidget implements GeckoSession.Naviga
             return;
         }
         mIsInFocusMode = true;
-        AnimationHelper.fadeIn(mFocusModeContainer, AnimationHelper.FADE_ANIMATION_DURATION, new Runnable() {
+        AnimationHelper.crossFade(mWidgetManager, this, new Runnable() {
             @Override
             public void run() {
+                mNavigationContainer.setVisibility(View.GONE);
+                mFocusModeContainer.setVisibility(View.VISIBLE);
                 // Set up required to show the URLBar while in focus mode
                 mURLBarLayoutIndex = mNavigationContainer.indexOfChild(mURLBar);
                 mNavigationContainer.removeView(mURLBar);
@@ -306,7 +308,6 @@ public class NavigationBarWidget extends UIWidget implements GeckoSession.Naviga
                 mURLBar.setClickable(false);
             }
         });
-        AnimationHelper.fadeOut(mNavigationContainer, 0, null);
 
         mFocusEnterButton.setHovered(false);
         mFocusEnterButton.setPressed(false);
@@ -332,19 +333,23 @@ public class NavigationBarWidget extends UIWidget implements GeckoSession.Naviga
         }
         mIsInFocusMode = false;
 
-        // Restore URL bar to normal mode
-        mFocusModeContainer.removeView(mURLBar);
-        mNavigationContainer.addView(mURLBar, mURLBarLayoutIndex);
-        mURLBar.setVisibility(View.VISIBLE);
-        mURLBar.setAlpha(1.0f);
-        LinearLayout.LayoutParams params = (LinearLayout.LayoutParams) mURLBar.getLayoutParams();
-        params.width = LayoutParams.WRAP_CONTENT;
-        params.weight = 100;
-        mURLBar.setLayoutParams(params);
-        mURLBar.setClickable(true);
-
-        AnimationHelper.fadeIn(mNavigationContainer, AnimationHelper.FADE_ANIMATION_DURATION, null);
-        AnimationHelper.fadeOut(mFocusModeContainer, 0, null);
+        AnimationHelper.crossFade(mWidgetManager, this, new Runnable() {
+            @Override
+            public void run() {
+                // Restore URL bar to normal mode
+                mFocusModeContainer.removeView(mURLBar);
+                mNavigationContainer.addView(mURLBar, mURLBarLayoutIndex);
+                mURLBar.setVisibility(View.VISIBLE);
+                mURLBar.setAlpha(1.0f);
+                LinearLayout.LayoutParams params = (LinearLayout.LayoutParams) mURLBar.getLayoutParams();
+                params.width = LayoutParams.WRAP_CONTENT;
+                params.weight = 100;
+                mURLBar.setLayoutParams(params);
+                mURLBar.setClickable(true);
+                mFocusModeContainer.setVisibility(View.GONE);
+                mNavigationContainer.setVisibility(View.VISIBLE);
+            }
+        });
         mFocusEnterButton.setHovered(false);
         mFocusEnterButton.setPressed(false);
         mFocusExitButton.setHovered(false);
@@ -373,8 +378,13 @@ public class NavigationBarWidget extends UIWidget implements GeckoSession.Naviga
         }
         mIsResizing = true;
         mWidgetManager.startWidgetResize(mBrowserWidget);
-        AnimationHelper.fadeIn(mResizeModeContainer, AnimationHelper.FADE_ANIMATION_DURATION, null);
-        AnimationHelper.fadeOut(mFocusModeContainer, 0, null);
+        AnimationHelper.crossFade(mWidgetManager, this, new Runnable() {
+            @Override
+            public void run() {
+                mFocusModeContainer.setVisibility(View.GONE);
+                mResizeModeContainer.setVisibility(View.VISIBLE);
+            }
+        });
         mWidgetManager.pushBackHandler(mResizeBackHandler);
     }
 
@@ -384,8 +394,13 @@ public class NavigationBarWidget extends UIWidget implements GeckoSession.Naviga
         }
         mIsResizing = false;
         mWidgetManager.finishWidgetResize(mBrowserWidget);
-        AnimationHelper.fadeIn(mFocusModeContainer, AnimationHelper.FADE_ANIMATION_DURATION, null);
-        AnimationHelper.fadeOut(mResizeModeContainer, 0, null);
+        AnimationHelper.crossFade(mWidgetManager, this, new Runnable() {
+            @Override
+            public void run() {
+                mResizeModeContainer.setVisibility(View.GONE);
+                mFocusModeContainer.setVisibility(View.VISIBLE);
+            }
+        });
         mWidgetManager.popBackHandler(mResizeBackHandler);
     }
 
@@ -473,7 +488,8 @@ public class NavigationBarWidget extends UIWidget implements GeckoSession.Naviga
             mReloadButton.setImageResource(R.drawable.ic_icon_exit);
         }
         if (mIsInFocusMode && !mIsResizing) {
-            AnimationHelper.fadeIn(mURLBar, 0, null);
+            // Toggled without fading, fading a single view would redraw the whole widget.
+            mURLBar.setVisibility(View.VISIBLE);
         }
     }
 
@@ -485,7 +501,7 @@ public class NavigationBarWidget extends UIWidget implements GeckoSession.Naviga
             mReloadButton.setImageResource(R.drawable.ic_icon_reload);
         }
         if (mIsInFocusMode) {
-            AnimationHelper.fadeOut(mURLBar, 0, null);
+            mURLBar.setVisibility(View.GONE);
         }
     }
 
@@ -572,8 +588,13 @@ public class NavigationBarWidget extends UIWidget implements GeckoSession.Naviga
         // targetWidth = Math.min((targetWidth, defaultWidth * 2.0f);
 
         float ratio = targetWidth / defaultWidth;
+        int width = (int) (WidgetPlacement.dpDimension(getContext(), R.dimen.navigation_bar_width) * ratio);
+        if (mWidgetPlacement.worldWidth == targetWidth && mWidgetPlacement.width == width) {
+            // The native layout already moves anchored widgets along with their parent.
+            return;
+        }
         mWidgetPlacement.worldWidth = targetWidth;
-        mWidgetPlacement.width = (int) (WidgetPlacement.dpDimension(getContext(), R.dimen.navigation_bar_width) * ratio);
+        mWidgetPlacement.width = width;
         mWidgetManager.updateWidget(this);
     }
 
@@ -19,6 +19,8 @@ import android.view.Surface;
 import android.view.View;
 import android.util.Log;
 
+import java.util.ArrayList;
+
 public class OffscreenDisplay {
     final String LOGTAG = "VRB";
     private Context mContext;
@@ -26,6 +28,7 @@ public class OffscreenDisplay {
     private SurfaceTexture mTexture;
     private Surface mSurface;
     private OffscreenPresentation mPresentation;
+    private ArrayList<Presentation> mExtraPresentations = new ArrayList<>();
 
     private DisplayMetrics mDefaultMetrics;
 
@@ -59,6 +62,28 @@ public class OffscreenDisplay {
         mPresentation.setContentView(aView);
     }
 
+    /**
+     * Creates an additional window in the virtual display. Each window has its own view root,
+     * so its layout and draw passes are independent from the other windows.
+     */
+    public Presentation createPresentation(View aView) {
+        if (mVirtualDisplay == null) {
+            throw new IllegalStateException("No virtual display!");
+        }
+
+        OffscreenPresentation presentation = new OffscreenPresentation(mContext, mVirtualDisplay.getDisplay());
+        presentation.setContentView(aView);
+        presentation.show();
+        mExtraPresentations.add(presentation);
+        return presentation;
+    }
+
+    public void releasePresentation(Presentation aPresentation) {
+        if (mExtraPresentations.remove(aPresentation)) {
+            aPresentation.dismiss();
+        }
+    }
+
     public void resize(int aWidth, int aHeight) {
         if (mVirtualDisplay == null) {
             throw new IllegalStateException("No virtual display!");
@@ -68,6 +93,11 @@ public class OffscreenDisplay {
     }
 
     public void release() {
+        for (Presentation presentation: mExtraPresentations) {
+            presentation.dismiss();
+        }
+        mExtraPresentations.clear();
+
         if (mPresentation != null) {
             mPresentation.dismiss();
             mPresentation = null;
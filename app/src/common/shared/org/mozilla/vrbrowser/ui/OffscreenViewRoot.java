@@ -0,0 +1,116 @@
+/* -*- Mode: Java; c-basic-offset: 4; tab-width: 4; indent-tabs-mode: nil; -*-
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/. */
+
+package org.mozilla.vrbrowser.ui;
+
+import android.app.Presentation;
+import android.content.Context;
+import android.graphics.Canvas;
+import android.os.SystemClock;
+import android.util.Log;
+import android.widget.FrameLayout;
+
+/**
+ * Container hosting widget views in the offscreen display. It is either the single shared
+ * container with every widget, or the root of a window of its own holding one widget, so its
+ * layout and draw are scheduled independently from the other widgets.
+ *
+ * Measure, layout and draw time is recorded for every traversal, and the totals for all the
+ * roots are logged periodically so both modes can be compared.
+ */
+public class OffscreenViewRoot extends FrameLayout {
+    private static final String LOGTAG = "VRB";
+    private static final long REPORT_INTERVAL_MS = 10000;
+
+    private static final Object sStatsLock = new Object();
+    private static long sReportStart;
+    private static int sTraversals;
+    private static long sTraversalNanos;
+    private static long sMaxTraversalNanos;
+    private static String sMaxTraversalRoot;
+
+    private String mName;
+    private OffscreenDisplay mDisplay;
+    private Presentation mPresentation;
+    private long mPendingNanos;
+
+    public OffscreenViewRoot(Context aContext, String aName) {
+        super(aContext);
+        mName = aName;
+    }
+
+    /**
+     * Shows this container in its own window of the offscreen display.
+     */
+    public void attach(OffscreenDisplay aDisplay) {
+        if (mPresentation != null) {
+            return;
+        }
+        mDisplay = aDisplay;
+        mPresentation = aDisplay.createPresentation(this);
+    }
+
+    public boolean isAttached() {
+        return mPresentation != null;
+    }
+
+    public void detach() {
+        if (mPresentation == null) {
+            return;
+        }
+        mDisplay.releasePresentation(mPresentation);
+        mPresentation = null;
+        mDisplay = null;
+    }
+
+    @Override
+    protected void onMeasure(int aWidthMeasureSpec, int aHeightMeasureSpec) {
+        long start = System.nanoTime();
+        super.onMeasure(aWidthMeasureSpec, aHeightMeasureSpec);
+        mPendingNanos += System.nanoTime() - start;
+    }
+
+    @Override
+    protected void onLayout(boolean aChanged, int aLeft, int aTop, int aRight, int aBottom) {
+        long start = System.nanoTime();
+        super.onLayout(aChanged, aLeft, aTop, aRight, aBottom);
+        mPendingNanos += System.nanoTime() - start;
+    }
+
+    @Override
+    protected void dispatchDraw(Canvas aCanvas) {
+        long start = System.nanoTime();
+        super.dispatchDraw(aCanvas);
+        long traversal = mPendingNanos + System.nanoTime() - start;
+        mPendingNanos = 0;
+        recordTraversal(mName, traversal);
+    }
+
+    private static void recordTraversal(String aName, long aNanos) {
+        synchronized (sStatsLock) {
+            long now = SystemClock.uptimeMillis();
+            if (sReportStart == 0) {
+                sReportStart = now;
+            }
+            sTraversals++;
+            sTraversalNanos += aNanos;
+            if (aNanos > sMaxTraversalNanos) {
+                sMaxTraversalNanos = aNanos;
+                sMaxTraversalRoot = aName;
+            }
+            if (now - sReportStart < REPORT_INTERVAL_MS) {
+                return;
+            }
+            Log.d(LOGTAG, "Offscreen traversals in the last " + (now - sReportStart) + "ms: " + sTraversals +
+                    ", total " + (sTraversalNanos / 1000) + "us, average " + (sTraversalNanos / sTraversals / 1000) +
+                    "us, max " + (sMaxTraversalNanos / 1000) + "us (" + sMaxTraversalRoot + ")");
+            sReportStart = now;
+            sTraversals = 0;
+            sTraversalNanos = 0;
+            sMaxTraversalNanos = 0;
+            sMaxTraversalRoot = null;
+        }
+    }
+}
@@ -0,0 +1,185 @@
+/* -*- Mode: Java; c-basic-offset: 4; tab-width: 4; indent-tabs-mode: nil; -*-
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/. */
+
+package org.mozilla.vrbrowser.ui;
+
+/**
+ * Decides how often the Gecko compositor of a browser window runs. The focused window runs at
+ * full rate. Windows behind another panel (settings) or covered by the keyboard run at a reduced
+ * rate: the compositor runs in short slices and is paused in between, the window keeps showing
+ * the last frame while paused. Windows outside of the field of view are paused, after a grace
+ * period so looking around briefly does not pause and resume the compositor. Input on the window
+ * restores the full rate for a while, so typing and scrolling stay responsive.
+ *
+ * Times are uptime milliseconds passed in by the caller, which runs the compositor as told by
+ * shouldRun() and checks again at getNextChange(). The time spent at each level is accounted
+ * for metrics, along with how long the caller blocked pausing and resuming the compositor.
+ */
+class RenderBudget {
+    enum Level { FULL, REDUCED, PAUSED }
+
+    // Pausing and resuming the compositor tears down and recreates its surface on the UI thread,
+    // so it is done rarely: the window is refreshed every couple of seconds.
+    static final long REDUCED_PERIOD_MS = 2000;
+    static final long REDUCED_RUN_MS = 250;
+    static final long OUT_OF_VIEW_DELAY_MS = 1000;
+    static final long INPUT_LINGER_MS = 1500;
+
+    private boolean mFocused = true;
+    private boolean mOccluded;
+    private boolean mInView = true;
+    private boolean mSuspended;
+    private long mOutOfViewSince;
+    private long mInputUntil;
+    private long mReducedSince;
+    private Level mLevel = Level.FULL;
+    private long mAccountedUntil = -1;
+    private long[] mTimes = new long[Level.values().length];
+    private int mTransitions;
+    private int mSwitches;
+    private long mSwitchTimeUs;
+    private long mMaxSwitchTimeUs;
+
+    void setFocused(boolean aFocused, long aNow) {
+        account(aNow);
+        mFocused = aFocused;
+        account(aNow);
+    }
+
+    void setOccluded(boolean aOccluded, long aNow) {
+        account(aNow);
+        mOccluded = aOccluded;
+        account(aNow);
+    }
+
+    void setInView(boolean aInView, long aNow) {
+        account(aNow);
+        if (mInView && !aInView) {
+            mOutOfViewSince = aNow;
+        }
+        mInView = aInView;
+        account(aNow);
+    }
+
+    /**
+     * The compositor is paused regardless of the level while suspended, e.g. while immersive
+     * content is presented.
+     */
+    void setSuspended(boolean aSuspended, long aNow) {
+        account(aNow);
+        mSuspended = aSuspended;
+        account(aNow);
+    }
+
+    void onInput(long aNow) {
+        account(aNow);
+        mInputUntil = aNow + INPUT_LINGER_MS;
+        account(aNow);
+    }
+
+    Level getLevel(long aNow) {
+        account(aNow);
+        return mLevel;
+    }
+
+    boolean shouldRun(long aNow) {
+        account(aNow);
+        switch (mLevel) {
+            case FULL:
+                return true;
+            case REDUCED:
+                return (aNow - mReducedSince) % REDUCED_PERIOD_MS < REDUCED_RUN_MS;
+            default:
+                return false;
+        }
+    }
+
+    /**
+     * Returns the next time shouldRun() may change without any input, or -1.
+     */
+    long getNextChange(long aNow) {
+        account(aNow);
+        long next = Long.MAX_VALUE;
+        if (mLevel == Level.REDUCED) {
+            long phase = (aNow - mReducedSince) % REDUCED_PERIOD_MS;
+            next = aNow + (phase < REDUCED_RUN_MS ? REDUCED_RUN_MS - phase : REDUCED_PERIOD_MS - phase);
+        }
+        if (mInputUntil > aNow) {
+            next = Math.min(next, mInputUntil);
+        }
+        if (!mInView && mLevel != Level.PAUSED) {
+            next = Math.min(next, mOutOfViewSince + OUT_OF_VIEW_DELAY_MS);
+        }
+        return next == Long.MAX_VALUE ? -1 : next;
+    }
+
+    long getTime(Level aLevel, long aNow) {
+        account(aNow);
+        return mTimes[aLevel.ordinal()];
+    }
+
+    int getTransitionCount() {
+        return mTransitions;
+    }
+
+    /**
+     * Accounts the time the caller spent pausing or resuming the compositor.
+     */
+    void onSwitched(long aMicros) {
+        mSwitches++;
+        mSwitchTimeUs += aMicros;
+        mMaxSwitchTimeUs = Math.max(mMaxSwitchTimeUs, aMicros);
+    }
+
+    int getSwitchCount() {
+        return mSwitches;
+    }
+
+    long getSwitchTimeUs() {
+        return mSwitchTimeUs;
+    }
+
+    long getMaxSwitchTimeUs() {
+        return mMaxSwitchTimeUs;
+    }
+
+    /**
+     * Clears the accounted times and transitions, once they have been reported.
+     */
+    void resetMetrics(long aNow) {
+        account(aNow);
+        mTimes = new long[Level.values().length];
+        mTransitions = 0;
+        mSwitches = 0;
+        mSwitchTimeUs = 0;
+        mMaxSwitchTimeUs = 0;
+    }
+
+    private Level computeLevel(long aNow) {
+        if (mSuspended || (!mInView && aNow - mOutOfViewSince >= OUT_OF_VIEW_DELAY_MS)) {
+            return Level.PAUSED;
+        }
+        if (aNow < mInputUntil || (mFocused && !mOccluded)) {
+            return Level.FULL;
+        }
+        return Level.REDUCED;
+    }
+
+    private void account(long aNow) {
+        if (mAccountedUntil >= 0 && aNow > mAccountedUntil) {
+            mTimes[mLevel.ordinal()] += aNow - mAccountedUntil;
+        }
+        mAccountedUntil = Math.max(mAccountedUntil, aNow);
+        Level level = computeLevel(aNow);
+        if (level != mLevel) {
+            if (level == Level.REDUCED) {
+                // Starts with a running slice so the window catches up right away.
+                mReducedSince = aNow;
+            }
+            mLevel = level;
+            mTransitions++;
+        }
+    }
+}
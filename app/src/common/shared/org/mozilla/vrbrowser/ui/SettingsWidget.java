@@ -32,7 +32,7 @@ public class SettingsWidget extends UIWidget {
     private static final String LOGTAG = "VRB";
 
     private AudioEngine mAudio;
-    private CrashReportingWidget mCrashReportingWidget;
+    private LazyWidget<CrashReportingWidget> mCrashReportingWidget;
     private Runnable mBackHandler;
     private TextView mBuildText;
 
@@ -165,6 +165,15 @@ public class SettingsWidget extends UIWidget {
 
         mAudio = AudioEngine.fromContext(aContext);
 
+        mCrashReportingWidget = new LazyWidget<>(aContext, new LazyWidget.Factory<CrashReportingWidget>() {
+            @Override
+            public CrashReportingWidget create() {
+                CrashReportingWidget widget = new CrashReportingWidget(getContext());
+                widget.getPlacement().parentHandle = getHandle();
+                return widget;
+            }
+        });
+
         mBackHandler = new Runnable() {
             @Override
             public void run() {
@@ -186,14 +195,21 @@ public class SettingsWidget extends UIWidget {
         aPlacement.translationZ = WidgetPlacement.unitFromMeters(getContext(), R.dimen.settings_world_z);
     }
 
+    @Override
+    public void releaseWidget() {
+        mCrashReportingWidget.release();
+
+        super.releaseWidget();
+    }
+
     public void toggle() {
         if (getPlacement().visible) {
             getPlacement().visible = false;
             mWidgetManager.removeWidget(this);
             mWidgetManager.popBackHandler(mBackHandler);
 
-            if (mCrashReportingWidget != null) {
-                mCrashReportingWidget.hide();
+            if (mCrashReportingWidget.isCreated()) {
+                mCrashReportingWidget.peek().hide();
             }
 
         } else {
@@ -206,12 +222,7 @@ public class SettingsWidget extends UIWidget {
     private void onSettingsCrashReportingChange(boolean isEnabled) {
         SettingsStore.getInstance(getContext()).setCrashReportingEnabled(isEnabled);
 
-        if (mCrashReportingWidget == null) {
-            mCrashReportingWidget = new CrashReportingWidget(getContext());
-            mCrashReportingWidget.getPlacement().parentHandle = getHandle();
-        }
-
-        mCrashReportingWidget.show();
+        mCrashReportingWidget.get().show();
     }
 
     private void onSettingsTelemetryChange(boolean isEnabled) {
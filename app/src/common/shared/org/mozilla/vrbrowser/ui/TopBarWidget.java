@@ -133,8 +133,13 @@ public class TopBarWidget extends UIWidget implements SessionStore.SessionChange
         targetWidth = Math.max(defaultWidth, targetWidth);
 
         float ratio = targetWidth / defaultWidth;
+        int width = (int) (WidgetPlacement.dpDimension(getContext(), R.dimen.top_bar_width) * ratio);
+        if (mWidgetPlacement.worldWidth == targetWidth && mWidgetPlacement.width == width) {
+            // The native layout already moves anchored widgets along with their parent.
+            return;
+        }
         mWidgetPlacement.worldWidth = targetWidth;
-        mWidgetPlacement.width = (int) (WidgetPlacement.dpDimension(getContext(), R.dimen.top_bar_width) * ratio);
+        mWidgetPlacement.width = width;
         mWidgetManager.updateWidget(this);
     }
 }
@@ -20,7 +20,7 @@ public class TrayWidget extends UIWidget implements SessionStore.SessionChangeLi
     private UIButton mSettingsButton;
     private UIButton mPrivateButton;
     private AudioEngine mAudio;
-    private SettingsWidget mSettingsWidget;
+    private LazyWidget<SettingsWidget> mSettingsWidget;
     private boolean mIsLastSessionPrivate;
 
     public TrayWidget(Context aContext) {
@@ -71,15 +71,19 @@ public class TrayWidget extends UIWidget implements SessionStore.SessionChangeLi
                     mAudio.playSound(AudioEngine.Sound.CLICK);
                 }
 
-                if (mSettingsWidget == null) {
-                    mSettingsWidget = new SettingsWidget(getContext());
-                }
-                mSettingsWidget.toggle();
+                mSettingsWidget.get().toggle();
             }
         });
 
         mAudio = AudioEngine.fromContext(aContext);
 
+        mSettingsWidget = new LazyWidget<>(aContext, new LazyWidget.Factory<SettingsWidget>() {
+            @Override
+            public SettingsWidget create() {
+                return new SettingsWidget(getContext());
+            }
+        });
+
         mIsLastSessionPrivate = false;
 
         SessionStore.get().addSessionChangeListener(this);
@@ -105,6 +109,7 @@ public class TrayWidget extends UIWidget implements SessionStore.SessionChangeLi
     @Override
     public void releaseWidget() {
         SessionStore.get().removeSessionChangeListener(this);
+        mSettingsWidget.release();
 
         super.releaseWidget();
     }
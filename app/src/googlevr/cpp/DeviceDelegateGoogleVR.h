@@ -24,6 +24,8 @@ public:
   device::RenderMode GetRenderMode() override;
   void RegisterImmersiveDisplay(ImmersiveDisplayPtr aDisplay) override;
   GestureDelegateConstPtr GetGestureDelegate() override;
+  // Touch positions are in the [0, 1] range.
+  float GetTouchpadExtent() const override { return 1.0f; }
   vrb::CameraPtr GetCamera(const device::Eye aWhich) override;
   const vrb::Matrix& GetHeadTransform() const override;
   void SetClearColor(const vrb::Color& aColor) override;
@@ -7,6 +7,7 @@
 #include <string>
 
 #include "BrowserWorld.h"
+#include "JNIProfiler.h"
 #include "DeviceDelegateGoogleVR.h"
 
 static crow::DeviceDelegateGoogleVRPtr sDevice;
@@ -21,6 +22,7 @@ extern "C" {
 
 JNI_METHOD(void, activityPaused)
 (JNIEnv*, jobject) {
+  PROFILE_JNI_DOWNCALL();
   if (sDevice) {
     sDevice->Pause();
   }
@@ -30,6 +32,7 @@ JNI_METHOD(void, activityPaused)
 
 JNI_METHOD(void, activityResumed)
 (JNIEnv*, jobject) {
+  PROFILE_JNI_DOWNCALL();
   if (sDevice) {
     sDevice->Resume();
   }
@@ -39,6 +42,7 @@ JNI_METHOD(void, activityResumed)
 
 JNI_METHOD(void, activityCreated)
 (JNIEnv* aEnv, jobject aActivity, jobject aAssetManager, jlong aGVRContext) {
+  PROFILE_JNI_DOWNCALL();
   if (!sDevice) {
     sDevice = crow::DeviceDelegateGoogleVR::Create(BrowserWorld::Instance().GetRenderContext(), (void*) aGVRContext);
   }
@@ -51,6 +55,7 @@ JNI_METHOD(void, activityCreated)
 
 JNI_METHOD(void, activityDestroyed)
 (JNIEnv*, jobject) {
+  PROFILE_JNI_DOWNCALL();
   BrowserWorld::Instance().ShutdownJava();
   BrowserWorld::Instance().RegisterDeviceDelegate(nullptr);
   BrowserWorld::Destroy();
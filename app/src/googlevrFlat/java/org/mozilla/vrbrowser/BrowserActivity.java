@@ -235,6 +235,14 @@ public class BrowserActivity extends Activity implements SessionStore.SessionCha
 
     }
 
+    @Override
+    public void animateWidget(Widget aWidget, long aDuration, long aDelay, int aEasing, Runnable aCallback) {
+        // Nothing is animated in the flat browser, finish right away.
+        if (aCallback != null) {
+            aCallback.run();
+        }
+    }
+
     @Override
     public void removeWidget(Widget aWidget) {
 
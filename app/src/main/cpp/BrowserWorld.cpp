@@ -4,16 +4,24 @@
  * file, You can obtain one at http://mozilla.org/MPL/2.0/. */
 
 #include "BrowserWorld.h"
+#include "CompressedTexture.h"
 #include "Controller.h"
 #include "ControllerContainer.h"
 #include "FadeBlitter.h"
 #include "Device.h"
 #include "DeviceDelegate.h"
+#include "EnvironmentManager.h"
 #include "ExternalBlitter.h"
 #include "ExternalVR.h"
 #include "GeckoSurfaceTexture.h"
+#include "JNIProfiler.h"
 #include "LoadingAnimation.h"
+#include "MeshCache.h"
+#include "SwipeRecognizer.h"
 #include "Widget.h"
+#include "WidgetAnimator.h"
+#include "WidgetBVH.h"
+#include "WidgetLayout.h"
 #include "WidgetPlacement.h"
 #include "VRBrowser.h"
 #include "vrb/CameraSimple.h"
@@ -37,16 +45,18 @@
 #include "vrb/SurfaceTextureFactory.h"
 #include "vrb/TextureCache.h"
 #include "vrb/TextureSurface.h"
-#include "vrb/TextureCubeMap.h"
 #include "vrb/Toggle.h"
 #include "vrb/Transform.h"
 #include "vrb/VertexArray.h"
 #include "vrb/Vector.h"
 #include "Quad.h"
 
+#include <android/asset_manager_jni.h>
+#include <algorithm>
 #include <array>
 #include <functional>
 #include <fstream>
+#include <time.h>
 
 #define ASSERT_ON_RENDER_THREAD(X)                                          \
   if (m.context && !m.context->IsOnRenderThread()) {                        \
@@ -63,16 +73,40 @@ using namespace vrb;
 
 namespace {
 
-static const int GestureSwipeLeft = 0;
-static const int GestureSwipeRight = 1;
+// Navigation intents sent to VRBrowserActivity.handleGesture().
+static const int GestureNavigateBack = 0;
+static const int GestureNavigateForward = 1;
+static const int kMaxSwipeControllers = 4;
 
 static const float kScrollFactor = 20.0f; // Just picked what fell right.
+// Half of the field of view of the headsets, with some margin.
+static const float kViewHalfAngle = float(M_PI * 55.0 / 180.0);
+
+double
+GetTimeInSeconds() {
+  struct timespec now;
+  clock_gettime(CLOCK_MONOTONIC, &now);
+  return (double)now.tv_sec + (double)now.tv_nsec / 1e9;
+}
 static const float kWorldDPIRatio = 2.0f/720.0f;
 
+crow::WidgetAnimator::Values
+GetAnimatedValues(const crow::WidgetPlacement& aPlacement) {
+  crow::WidgetAnimator::Values result;
+  result.opacity = aPlacement.opacity;
+  result.scale = aPlacement.scale;
+  result.translation[0] = aPlacement.translation.x();
+  result.translation[1] = aPlacement.translation.y();
+  result.translation[2] = aPlacement.translation.z();
+  return result;
+}
+
+static const char* kMeadowEnvironment = "meadow";
+static const char* kSpaceEnvironment = "space";
 #if SPACE_THEME == 1
-  static const std::string CubemapDay = "cubemap/space";
+static const char* kDefaultEnvironment = kSpaceEnvironment;
 #else
-  static const std::string CubemapDay = "cubemap/meadow/day";
+static const char* kDefaultEnvironment = kMeadowEnvironment;
 #endif
 
 class SurfaceObserver;
@@ -149,19 +183,40 @@ struct BrowserWorld::State {
   float farClip;
   JNIEnv* env;
   jobject activity;
+  // Kept referenced so assets can be read natively, see CompressedTexture.
+  jobject assetManagerRef;
+  AAssetManager* assetManager;
   GestureDelegateConstPtr gestures;
+  SwipeRecognizer swipeRecognizers[kMaxSwipeControllers];
+  float touchpadExtent;
   ExternalVRPtr externalVR;
   ExternalBlitterPtr blitter;
   bool windowsInitialized;
-  TransformPtr skybox;
   FadeBlitterPtr fadeBlitter;
+  EnvironmentManagerPtr environments;
+  // Selected before the environments were registered.
+  std::string pendingEnvironment;
   uint32_t loaderDelay;
   bool exitImmersiveRequested;
   WidgetPtr resizingWidget;
   LoadingAnimationPtr loadingAnimation;
+  WidgetBVH widgetBVH;
+  WidgetAnimator animator;
+  WidgetLayout layout;
+  std::vector<uint32_t> pointerWidgets;
+  std::vector<uint32_t> activeWidgets;
+  std::vector<uint32_t> shownPointers;
+  std::vector<uint32_t> hiddenPointers;
+  // Widget handles in the field of view, sorted, so the render budget of the browser windows
+  // can pause their compositor while they are not seen.
+  std::vector<uint32_t> widgetsInView;
+  std::vector<uint32_t> currentWidgetsInView;
+  std::vector<uint32_t> enteredView;
+  std::vector<uint32_t> leftView;
 
   State() : paused(true), glInitialized(false), modelsLoaded(false), env(nullptr), nearClip(0.1f),
-            farClip(300.0f), activity(nullptr), windowsInitialized(false), exitImmersiveRequested(false), loaderDelay(0) {
+            farClip(300.0f), activity(nullptr), assetManagerRef(nullptr), assetManager(nullptr), touchpadExtent(1.0f), windowsInitialized(false), exitImmersiveRequested(false),
+            loaderDelay(0) {
     context = RenderContext::Create();
     create = context->GetRenderThreadCreationContext();
     loader = ModelLoaderAndroid::Create(context);
@@ -180,12 +235,20 @@ struct BrowserWorld::State {
     externalVR = ExternalVR::Create();
     blitter = ExternalBlitter::Create(create);
     fadeBlitter = FadeBlitter::Create(create);
+    environments = EnvironmentManager::Create(create, fadeBlitter);
     loadingAnimation = LoadingAnimation::Create(create);
   }
 
   void CheckBackButton();
   bool CheckExitImmersive();
   void UpdateControllers(bool& aRelayoutWidgets);
+  void BuildWidgetBVH();
+  void UpdatePointers();
+  void UpdateWidgetsInView();
+  void LayoutWidget(const WidgetPtr& aWidget);
+  void ResolveLayout();
+  void StepAnimations();
+  void HandleSwipeIntent(const SwipeRecognizer::Intent aIntent);
   WidgetPtr GetWidget(int32_t aHandle) const;
   WidgetPtr FindWidget(const std::function<bool(const WidgetPtr&)>& aCondition) const;
 };
@@ -217,11 +280,107 @@ BrowserWorld::State::CheckExitImmersive() {
 }
 
 void
-BrowserWorld::State::UpdateControllers(bool& aRelayoutWidgets) {
-  std::vector<Widget*> active;
+BrowserWorld::State::BuildWidgetBVH() {
+  widgetBVH.Clear();
+  for (uint32_t index = 0; index < widgets.size(); index++) {
+    const WidgetPtr& widget = widgets[index];
+    if (widget->IsResizing()) {
+      // Resize handles are hit outside of the quad bounds.
+      widgetBVH.AddItem(index, WidgetBVH::Bounds::Infinite());
+      continue;
+    }
+    vrb::Vector min, max;
+    widget->GetWidgetMinAndMax(min, max);
+    const vrb::Matrix transform = widget->GetTransform();
+    const vrb::Vector corners[] = {
+        vrb::Vector(min.x(), min.y(), 0.0f), vrb::Vector(max.x(), min.y(), 0.0f),
+        vrb::Vector(min.x(), max.y(), 0.0f), vrb::Vector(max.x(), max.y(), 0.0f)
+    };
+    WidgetBVH::Bounds bounds;
+    for (const vrb::Vector& corner: corners) {
+      const vrb::Vector point = transform.MultiplyPosition(corner);
+      const float position[3] = {point.x(), point.y(), point.z()};
+      bounds.Include(position);
+    }
+    widgetBVH.AddItem(index, bounds);
+  }
+  widgetBVH.Build();
+}
+
+void
+BrowserWorld::State::UpdatePointers() {
+  std::sort(activeWidgets.begin(), activeWidgets.end());
+  activeWidgets.erase(std::unique(activeWidgets.begin(), activeWidgets.end()), activeWidgets.end());
+  WidgetBVH::Diff(pointerWidgets, activeWidgets, shownPointers, hiddenPointers);
+  for (uint32_t handle: hiddenPointers) {
+    WidgetPtr widget = GetWidget(handle);
+    if (widget) {
+      widget->TogglePointer(false);
+    }
+  }
+  for (uint32_t handle: shownPointers) {
+    WidgetPtr widget = GetWidget(handle);
+    if (widget) {
+      widget->TogglePointer(true);
+    }
+  }
+  pointerWidgets.swap(activeWidgets);
+  activeWidgets.clear();
+}
+
+void
+BrowserWorld::State::UpdateWidgetsInView() {
+  const vrb::Matrix& head = device->GetHeadTransform();
+  const vrb::Vector position = head.GetTranslation();
+  const vrb::Vector forward = head.MultiplyDirection(vrb::Vector(0.0f, 0.0f, -1.0f)).Normalize();
+  currentWidgetsInView.clear();
   for (const WidgetPtr& widget: widgets) {
-    widget->TogglePointer(false);
+    if (!widget->IsVisible()) {
+      continue;
+    }
+    // Bounding sphere of the quad against the view cone.
+    vrb::Vector min, max;
+    widget->GetWidgetMinAndMax(min, max);
+    const vrb::Matrix transform = widget->GetTransform();
+    const vrb::Vector center = transform.MultiplyPosition((min + max) * 0.5f);
+    const float radius = (transform.MultiplyPosition(max) - center).Magnitude();
+    const vrb::Vector toCenter = center - position;
+    const float distance = toCenter.Magnitude();
+    bool inView = distance <= radius;
+    if (!inView) {
+      const float angle = acosf(std::max(-1.0f, std::min(1.0f, forward.Dot(toCenter) / distance)));
+      inView = angle <= kViewHalfAngle + asinf(radius / distance);
+    }
+    if (inView) {
+      currentWidgetsInView.push_back(widget->GetHandle());
+    }
+  }
+  std::sort(currentWidgetsInView.begin(), currentWidgetsInView.end());
+  WidgetBVH::Diff(widgetsInView, currentWidgetsInView, enteredView, leftView);
+  for (uint32_t handle: leftView) {
+    VRBrowser::HandleWidgetInView(handle, JNI_FALSE);
+  }
+  for (uint32_t handle: enteredView) {
+    VRBrowser::HandleWidgetInView(handle, JNI_TRUE);
+  }
+  widgetsInView.swap(currentWidgetsInView);
+}
+
+void
+BrowserWorld::State::HandleSwipeIntent(const SwipeRecognizer::Intent aIntent) {
+  if (aIntent == SwipeRecognizer::Intent::Back) {
+    VRBrowser::HandleGesture(GestureNavigateBack);
+  } else if (aIntent == SwipeRecognizer::Intent::Forward) {
+    VRBrowser::HandleGesture(GestureNavigateForward);
+  }
+}
+
+void
+BrowserWorld::State::UpdateControllers(bool& aRelayoutWidgets) {
+  if (widgetBVH.IsDirty()) {
+    BuildWidgetBVH();
   }
+  const double now = GetTimeInSeconds();
   for (Controller& controller: controllers->GetControllers()) {
     if (!controller.enabled || (controller.index < 0)) {
       continue;
@@ -236,17 +395,35 @@ BrowserWorld::State::UpdateControllers(bool& aRelayoutWidgets) {
     WidgetPtr hitWidget;
     float hitDistance = farClip;
     vrb::Vector hitPoint;
-    for (const WidgetPtr& widget: widgets) {
+    const float rayStart[3] = {start.x(), start.y(), start.z()};
+    const float rayDirection[3] = {direction.x(), direction.y(), direction.z()};
+    uint32_t hitIndex = 0;
+    const bool hit = widgetBVH.Query(rayStart, rayDirection, farClip,
+                                     [&](const uint32_t aIndex, float& aDistance) -> bool {
       vrb::Vector result;
-      float distance = 0.0f;
       bool isInWidget = false;
-      if (widget->TestControllerIntersection(start, direction, result, isInWidget, distance)) {
-        if (isInWidget && (distance < hitDistance)) {
-          hitWidget = widget;
-          hitDistance = distance;
-          hitPoint = result;
-        }
+      if (widgets[aIndex]->TestControllerIntersection(start, direction, result, isInWidget, aDistance) &&
+          isInWidget && (aDistance < hitDistance)) {
+        // Candidates are only accepted when closer than the current hit.
+        hitDistance = aDistance;
+        hitPoint = result;
+        return true;
       }
+      return false;
+    }, hitIndex, hitDistance);
+    if (hit) {
+      hitWidget = widgets[hitIndex];
+    }
+
+    // Devices whose SDK recognizes swipes report them through the gesture delegate instead.
+    // Touchpad movement over a widget scrolls it, so swipes are only recognized away from widgets.
+    bool swiping = false;
+    if (!gestures && controller.index < kMaxSwipeControllers) {
+      SwipeRecognizer& recognizer = swipeRecognizers[controller.index];
+      const bool scrolling = hitWidget && !hitWidget->IsResizing();
+      HandleSwipeIntent(recognizer.AddTouchSample(now, controller.touched, controller.touchX / touchpadExtent,
+                                                  controller.touchY / touchpadExtent, scrolling));
+      swiping = recognizer.IsSwipeRecognized();
     }
 
     if ((!hitWidget || !hitWidget->IsResizing()) && resizingWidget) {
@@ -255,7 +432,7 @@ BrowserWorld::State::UpdateControllers(bool& aRelayoutWidgets) {
     }
 
     if (hitWidget && hitWidget->IsResizing()) {
-      active.push_back(hitWidget.get());
+      activeWidgets.push_back(hitWidget->GetHandle());
       const bool pressed = controller.buttonState & ControllerDelegate::BUTTON_TRIGGER ||
                            controller.buttonState & ControllerDelegate::BUTTON_TOUCHPAD;
       bool aResized = false, aResizeEnded = false;
@@ -263,6 +440,7 @@ BrowserWorld::State::UpdateControllers(bool& aRelayoutWidgets) {
       resizingWidget = hitWidget;
       if (aResized) {
         aRelayoutWidgets = true;
+        widgetBVH.SetDirty();
       }
       if (aResizeEnded) {
         float width, height;
@@ -271,7 +449,7 @@ BrowserWorld::State::UpdateControllers(bool& aRelayoutWidgets) {
       }
     }
     else if (hitWidget) {
-      active.push_back(hitWidget.get());
+      activeWidgets.push_back(hitWidget->GetHandle());
       float theX = 0.0f, theY = 0.0f;
       hitWidget->ConvertToWidgetCoordinates(hitPoint, theX, theY);
       const uint32_t handle = hitWidget->GetHandle();
@@ -298,7 +476,7 @@ BrowserWorld::State::UpdateControllers(bool& aRelayoutWidgets) {
         if (controller.touched) {
           if (!controller.wasTouched) {
             controller.wasTouched = controller.touched;
-          } else {
+          } else if (!swiping) {
             VRBrowser::HandleScrollEvent(controller.widget,
                                 controller.index,
                                 (controller.touchX - controller.lastTouchX) * kScrollFactor,
@@ -317,27 +495,95 @@ BrowserWorld::State::UpdateControllers(bool& aRelayoutWidgets) {
     }
     controller.lastButtonState = controller.buttonState;
   }
-  for (Widget* widget: active) {
-    widget->TogglePointer(true);
-  }
-  active.clear();
+  UpdatePointers();
   if (gestures) {
     const int32_t gestureCount = gestures->GetGestureCount();
     for (int32_t count = 0; count < gestureCount; count++) {
       const GestureType type = gestures->GetGestureType(count);
-      jint javaType = -1;
       if (type == GestureType::SwipeLeft) {
-        javaType = GestureSwipeLeft;
+        HandleSwipeIntent(swipeRecognizers[0].AddSwipe(now, SwipeRecognizer::Direction::Left));
       } else if (type == GestureType::SwipeRight) {
-        javaType = GestureSwipeRight;
-      }
-      if (javaType >= 0) {
-        VRBrowser::HandleGesture(javaType);
+        HandleSwipeIntent(swipeRecognizers[0].AddSwipe(now, SwipeRecognizer::Direction::Right));
       }
     }
   }
 }
 
+// Places the widget using its current placement, except for the animatable values which may
+// come from a running animation. The transform of the parent must already be resolved.
+void
+BrowserWorld::State::LayoutWidget(const WidgetPtr& aWidget) {
+  const WidgetPlacementPtr& placement = aWidget->GetPlacement();
+  WidgetAnimator::Values values;
+  if (!animator.GetValues(aWidget->GetHandle(), values)) {
+    values = GetAnimatedValues(*placement);
+  }
+  WidgetPtr parent = GetWidget(placement->parentHandle);
+  float parentWorldWith = 0.0f, parentWorldHeight = 0.0f;
+  if (parent) {
+    parent->GetWorldSize(parentWorldWith, parentWorldHeight);
+  }
+
+  float worldWidth = 0.0f, worldHeight = 0.0f;
+  aWidget->GetWorldSize(worldWidth, worldHeight);
+
+  vrb::Matrix transform = vrb::Matrix::Identity();
+  if (placement->rotationAxis.Magnitude() > std::numeric_limits<float>::epsilon()) {
+    transform = vrb::Matrix::Rotation(placement->rotationAxis, placement->rotation);
+  }
+
+  vrb::Vector translation = vrb::Vector(values.translation[0] * kWorldDPIRatio,
+                                        values.translation[1] * kWorldDPIRatio,
+                                        values.translation[2] * kWorldDPIRatio);
+  // Widget anchor point
+  translation -= vrb::Vector((placement->anchor.x() - 0.5f) * worldWidth,
+                             (placement->anchor.y() - 0.5f) * worldHeight,
+                             0.0f);
+  // Parent anchor point
+  if (parent) {
+    translation += vrb::Vector(
+        parentWorldWith * placement->parentAnchor.x() - parentWorldWith * 0.5f,
+        parentWorldHeight * placement->parentAnchor.y() - parentWorldHeight * 0.5f,
+        0.0f);
+  }
+
+  transform.TranslateInPlace(translation);
+  if (values.scale != 1.0f) {
+    // Scale around the widget center.
+    transform = transform.PostMultiply(vrb::Matrix::Identity().ScaleInPlace(vrb::Vector(values.scale, values.scale, values.scale)));
+  }
+  aWidget->SetTransform(parent ? parent->GetTransform().PostMultiply(transform) : transform);
+  aWidget->SetOpacity(values.opacity);
+  // Fully transparent widgets are skipped so they neither write depth nor receive pointer events.
+  aWidget->ToggleWidget(placement->visible && values.opacity > 0.0f);
+  widgetBVH.SetDirty();
+}
+
+// Recomputes the transforms of the widgets updated since the last pass and of their descendants,
+// parents first, so anchored widgets follow their parent without being updated from Java.
+void
+BrowserWorld::State::ResolveLayout() {
+  layout.Resolve([this](const int32_t aHandle) {
+    WidgetPtr widget = GetWidget(aHandle);
+    if (widget && widget->GetPlacement()) {
+      LayoutWidget(widget);
+    }
+  });
+}
+
+void
+BrowserWorld::State::StepAnimations() {
+  if (animator.IsEmpty()) {
+    return;
+  }
+  animator.Step(GetTimeInSeconds(), [this](const int32_t aHandle, const WidgetAnimator::Values&) {
+    layout.Invalidate(aHandle);
+  }, [](const int32_t aHandle, const int32_t aAnimationId) {
+    // Also reported for widgets removed while animating, so Java never leaks a callback.
+    VRBrowser::HandleWidgetAnimationFinished(aHandle, aAnimationId);
+  });
+}
+
 WidgetPtr
 BrowserWorld::State::GetWidget(int32_t aHandle) const {
   return FindWidget([=](const WidgetPtr& aWidget){
@@ -389,6 +635,10 @@ BrowserWorld::RegisterDeviceDelegate(DeviceDelegatePtr aDelegate) {
     m.device->SetClipPlanes(m.nearClip, m.farClip);
     m.device->SetControllerDelegate(delegate);
     m.gestures = m.device->GetGestureDelegate();
+    m.touchpadExtent = m.device->GetTouchpadExtent();
+    for (SwipeRecognizer& recognizer: m.swipeRecognizers) {
+      recognizer.Reset();
+    }
   } else if (previousDevice) {
     m.leftCamera = m.rightCamera = nullptr;
     m.controllers->Reset();
@@ -430,6 +680,10 @@ BrowserWorld::InitializeJava(JNIEnv* aEnv, jobject& aActivity, jobject& aAssetMa
   if (!m.activity) {
     return;
   }
+  if (aAssetManager) {
+    m.assetManagerRef = m.env->NewGlobalRef(aAssetManager);
+    m.assetManager = AAssetManager_fromJava(m.env, m.assetManagerRef);
+  }
   jclass clazz = m.env->GetObjectClass(m.activity);
   if (!clazz) {
     return;
@@ -439,6 +693,9 @@ BrowserWorld::InitializeJava(JNIEnv* aEnv, jobject& aActivity, jobject& aAssetMa
   GeckoSurfaceTexture::InitializeJava(m.env, m.activity);
   m.loader->InitializeJava(aEnv, aActivity, aAssetManager);
   VRBrowser::RegisterExternalContext((jlong)m.externalVR->GetSharedData());
+  m.environments->InitializeJava(m.loader, m.assetManager,
+                                 VRBrowser::GetStorageAbsolutePath(MeshCache::kDirectory),
+                                 VRBrowser::GetAppUpdateTime());
 
   if (!m.modelsLoaded) {
     const int32_t modelCount = m.device->GetControllerModelCount();
@@ -451,16 +708,38 @@ BrowserWorld::InitializeJava(JNIEnv* aEnv, jobject& aActivity, jobject& aAssetMa
     m.controllers->InitializePointer();
     m.loadingAnimation->LoadModels(m.loader);
     m.rootOpaque->AddNode(m.controllers->GetRoot());
-    std::string skyboxPath = CubemapDay;
+    std::string meadowSkybox = "cubemap/meadow/day";
+    std::string meadowModel = "meadow_v4.obj";
+    std::string spaceSkybox = "cubemap/space";
+    std::string spaceModel = "FirefoxPlatform2_low.obj";
+#if SPACE_THEME == 1
+    std::string& defaultSkybox = spaceSkybox;
+    std::string& defaultModel = spaceModel;
+#else
+    std::string& defaultSkybox = meadowSkybox;
+    std::string& defaultModel = meadowModel;
+#endif
 #ifdef INJECT_SKYBOX_PATH
     std::string storagePath = VRBrowser::GetStorageAbsolutePath(INJECT_SKYBOX_PATH);
     if (std::ifstream(storagePath)) {
-      skyboxPath = storagePath;
+      defaultSkybox = storagePath;
     }
 #endif
-    m.skybox = CreateSkyBox(skyboxPath.c_str());
-    m.rootOpaqueParent->AddNode(m.skybox);
-    CreateFloor();
+#ifdef INJECT_ENVIRONMENT_PATH
+    std::string injectPath = VRBrowser::GetStorageAbsolutePath(INJECT_ENVIRONMENT_PATH);
+    if (std::ifstream(injectPath)) {
+      defaultModel = injectPath;
+    }
+#endif
+    vrb::Matrix spaceTransform = vrb::Matrix::Identity();
+    spaceTransform.ScaleInPlace(Vector(40.0, 40.0, 40.0));
+    spaceTransform.TranslateInPlace(Vector(0.0, -2.5f, 1.0));
+    spaceTransform.PostMultiplyInPlace(vrb::Matrix::Rotation(Vector(1.0, 0.0, 0.0), float(M_PI * 0.5)));
+    m.environments->Register(kMeadowEnvironment, meadowSkybox, meadowModel, vrb::Matrix::Identity());
+    m.environments->Register(kSpaceEnvironment, spaceSkybox, spaceModel, spaceTransform);
+    m.rootOpaqueParent->AddNode(m.environments->GetSkybox());
+    m.rootOpaque->AddNode(m.environments->GetFloor());
+    m.environments->Select(m.pendingEnvironment.empty() ? kDefaultEnvironment : m.pendingEnvironment);
     m.modelsLoaded = true;
   }
 }
@@ -479,6 +758,7 @@ BrowserWorld::InitializeGL() {
       if (!m.glInitialized) {
         return;
       }
+      CompressedTexture::InitializeFormats();
       // delay the m.loader->InitializeGL() call to fix some issues with Daydream activities
       m.loaderDelay = 3;
       SurfaceTextureFactoryPtr factory = m.context->GetSurfaceTextureFactory();
@@ -498,11 +778,17 @@ BrowserWorld::ShutdownJava() {
   ASSERT_ON_RENDER_THREAD();
   VRB_LOG("BrowserWorld::ShutdownJava");
   GeckoSurfaceTexture::ShutdownJava();
+  m.environments->ShutdownJava();
   VRBrowser::ShutdownJava();
   if (m.env) {
     m.env->DeleteGlobalRef(m.activity);
+    if (m.assetManagerRef) {
+      m.env->DeleteGlobalRef(m.assetManagerRef);
+    }
   }
   m.activity = nullptr;
+  m.assetManagerRef = nullptr;
+  m.assetManager = nullptr;
   m.env = nullptr;
 }
 
@@ -549,8 +835,11 @@ BrowserWorld::Draw() {
 
   m.device->ProcessEvents();
   m.context->Update();
+  m.environments->Update();
   m.externalVR->PullBrowserState();
 
+  m.StepAnimations();
+  m.ResolveLayout();
   m.CheckExitImmersive();
   if (m.externalVR->IsPresenting()) {
     m.CheckBackButton();
@@ -560,7 +849,9 @@ BrowserWorld::Draw() {
     m.UpdateControllers(relayoutWidgets);
     if (relayoutWidgets) {
       UpdateVisibleWidgets();
+      m.ResolveLayout();
     }
+    m.UpdateWidgetsInView();
     DrawWorld();
     m.externalVR->PushSystemState();
   }
@@ -569,7 +860,7 @@ BrowserWorld::Draw() {
   const vrb::Vector p = head.GetTranslation();
   const vrb::Quaternion q(head);
   VRBrowser::HandleAudioPose(q.x(), q.y(), q.z(), q.w(), p.x(), p.y(), p.z());
-
+  JNIProfiler::EndFrame();
 }
 
 void
@@ -618,6 +909,8 @@ BrowserWorld::AddWidget(int32_t aHandle, const WidgetPlacementPtr& aPlacement) {
   }
 
   m.widgets.push_back(widget);
+  // Pointers are only toggled when their visibility changes, start hidden.
+  widget->TogglePointer(false);
   UpdateWidget(widget->GetHandle(), aPlacement);
 
   if (!aPlacement->showPointer) {
@@ -643,18 +936,11 @@ BrowserWorld::UpdateWidget(int32_t aHandle, const WidgetPlacementPtr& aPlacement
   }
 
   widget->SetPlacement(aPlacement);
-  widget->ToggleWidget(aPlacement->visible);
-  widget->SetSurfaceTextureSize((int32_t)(ceilf(aPlacement->width * aPlacement->density)),
-                                (int32_t)(ceilf(aPlacement->height * aPlacement->density)));
-
-  WidgetPtr parent = m.GetWidget(aPlacement->parentHandle);
-
-  int32_t parentWidth = 0, parentHeight = 0;
-  float parentWorldWith = 0.0f, parentWorldHeight = 0.0f;
-
-  if (parent) {
-    parent->GetSurfaceTextureSize(parentWidth, parentHeight);
-    parent->GetWorldSize(parentWorldWith, parentWorldHeight);
+  // While a resize is previewed the quad keeps the size of the current surface and letterboxes
+  // it into the new world size. The new texture size is applied in CommitWidgetResize.
+  if (!widget->IsResizing()) {
+    widget->SetSurfaceTextureSize((int32_t)(ceilf(aPlacement->width * aPlacement->density)),
+                                  (int32_t)(ceilf(aPlacement->height * aPlacement->density)));
   }
 
   float worldWidth = 0.0f, worldHeight = 0.0f;
@@ -666,32 +952,37 @@ BrowserWorld::UpdateWidget(int32_t aHandle, const WidgetPlacementPtr& aPlacement
   }
 
   if (newWorldWidth != worldWidth || oldWidth != aPlacement->width || oldHeight != aPlacement->height) {
-    widget->SetWorldWidth(newWorldWidth);
-    widget->GetWorldSize(worldWidth, worldHeight);
+    if (widget->IsResizing()) {
+      widget->SetWorldSize(newWorldWidth, newWorldWidth * (float)aPlacement->height / (float)aPlacement->width);
+    } else {
+      widget->SetWorldWidth(newWorldWidth);
+    }
   }
 
-  vrb::Matrix transform = vrb::Matrix::Identity();
-  if (aPlacement->rotationAxis.Magnitude() > std::numeric_limits<float>::epsilon()) {
-    transform = vrb::Matrix::Rotation(aPlacement->rotationAxis, aPlacement->rotation);
+  if (!m.layout.SetParent(aHandle, aPlacement->parentHandle)) {
+    VRB_ERROR("Widget %d can't be anchored to widget %d, it would create a cycle.", aHandle, aPlacement->parentHandle);
   }
+  m.layout.Invalidate(aHandle);
+}
 
-  vrb::Vector translation = vrb::Vector(aPlacement->translation.x() * kWorldDPIRatio,
-                                        aPlacement->translation.y() * kWorldDPIRatio,
-                                        aPlacement->translation.z() * kWorldDPIRatio);
-  // Widget anchor point
-  translation -= vrb::Vector((aPlacement->anchor.x() - 0.5f) * worldWidth,
-                             (aPlacement->anchor.y() - 0.5f) * worldHeight,
-                             0.0f);
-  // Parent anchor point
-  if (parent) {
-    translation += vrb::Vector(
-        parentWorldWith * aPlacement->parentAnchor.x() - parentWorldWith * 0.5f,
-        parentWorldHeight * aPlacement->parentAnchor.y() - parentWorldHeight * 0.5f,
-        0.0f);
+void
+BrowserWorld::AnimateWidget(int32_t aHandle, int32_t aAnimationId, const WidgetPlacementPtr& aPlacement,
+                            int32_t aDuration, int32_t aDelay, int32_t aEasing) {
+  ASSERT_ON_RENDER_THREAD();
+  WidgetPtr widget = m.GetWidget(aHandle);
+  if (!widget || !widget->GetPlacement()) {
+    VRB_ERROR("Can't animate Widget with handle: %d", aHandle);
+    VRBrowser::HandleWidgetAnimationFinished(aHandle, aAnimationId);
+    return;
   }
-
-  transform.TranslateInPlace(translation);
-  widget->SetTransform(parent ? parent->GetTransform().PostMultiply(transform) : transform);
+  WidgetAnimator::Values from = GetAnimatedValues(*widget->GetPlacement());
+  // Hidden widgets fade in from transparent.
+  from.opacity = widget->GetPlacement()->visible ? widget->GetOpacity() : 0.0f;
+  const double now = GetTimeInSeconds();
+  m.animator.Start(aHandle, aAnimationId, from, GetAnimatedValues(*aPlacement), now + aDelay / 1000.0,
+                   aDuration / 1000.0, (WidgetAnimator::Easing)aEasing);
+  // Applies the values that are not animated right away, the rest follow the animation.
+  UpdateWidget(aHandle, aPlacement);
 }
 
 void
@@ -705,6 +996,8 @@ BrowserWorld::RemoveWidget(int32_t aHandle) {
     if (it != m.widgets.end()) {
       m.widgets.erase(it);
     }
+    m.layout.Remove(aHandle);
+    m.widgetBVH.SetDirty();
   }
 }
 
@@ -714,6 +1007,7 @@ BrowserWorld::StartWidgetResize(int32_t aHandle) {
   WidgetPtr widget = m.GetWidget(aHandle);
   if (widget) {
     widget->StartResize();
+    m.widgetBVH.SetDirty();
   }
 }
 
@@ -725,6 +1019,20 @@ BrowserWorld::FinishWidgetResize(int32_t aHandle) {
     return;
   }
   widget->FinishResize();
+  m.widgetBVH.SetDirty();
+  CommitWidgetResize(aHandle);
+}
+
+void
+BrowserWorld::CommitWidgetResize(int32_t aHandle) {
+  ASSERT_ON_RENDER_THREAD();
+  WidgetPtr widget = m.GetWidget(aHandle);
+  if (!widget || !widget->GetPlacement()) {
+    return;
+  }
+  const WidgetPlacementPtr& placement = widget->GetPlacement();
+  widget->SetSurfaceTextureSize((int32_t)(ceilf(placement->width * placement->density)),
+                                (int32_t)(ceilf(placement->height * placement->density)));
 }
 
 void
@@ -749,6 +1057,28 @@ BrowserWorld::FadeIn() {
   m.fadeBlitter->FadeIn();
 }
 
+void
+BrowserWorld::SetEnvironment(const std::string& aName) {
+  ASSERT_ON_RENDER_THREAD();
+  if (!m.modelsLoaded) {
+    m.pendingEnvironment = aName;
+    return;
+  }
+  m.environments->Select(aName);
+}
+
+void
+BrowserWorld::SetPosePrediction(const bool aEnabled, const float aMaxHeadHorizon, const float aMaxControllerHorizon) {
+  ASSERT_ON_RENDER_THREAD();
+  m.externalVR->SetPosePrediction(aEnabled, aMaxHeadHorizon, aMaxControllerHorizon);
+}
+
+void
+BrowserWorld::SetPoseTraceFile(const std::string& aPath) {
+  ASSERT_ON_RENDER_THREAD();
+  m.externalVR->SetPoseTraceFile(aPath);
+}
+
 void
 BrowserWorld::ExitImmersive() {
   ASSERT_ON_RENDER_THREAD();
@@ -779,7 +1109,7 @@ BrowserWorld::DrawWorld() {
   m.externalVR->SetCompositorEnabled(true);
   m.device->SetRenderMode(device::RenderMode::StandAlone);
   vrb::Vector headPosition = m.device->GetHeadTransform().GetTranslation();
-  m.skybox->SetTransform(vrb::Matrix::Translation(headPosition));
+  m.environments->GetSkybox()->SetTransform(vrb::Matrix::Translation(headPosition));
   m.rootTransparent->SortNodes([=](const NodePtr& a, const NodePtr& b) {
     return DistanceToNode(a, headPosition) < DistanceToNode(b, headPosition);
   });
@@ -858,106 +1188,6 @@ BrowserWorld::DrawLoadingAnimation() {
 #endif // !defined(VRBROWSER_NO_VR_API)
 }
 
-vrb::TransformPtr
-BrowserWorld::CreateSkyBox(const std::string& basePath) {
-  ASSERT_ON_RENDER_THREAD(nullptr);
-  vrb::TransformPtr transform = vrb::Transform::Create(m.create);
-  transform->SetTransform(Matrix::Position(vrb::Vector(0.0f, 0.0f, 0.0f)));
-  LoadSkybox(transform, basePath);
-  return transform;
-}
-
-void
-BrowserWorld::LoadSkybox(const vrb::TransformPtr transform, const std::string &basePath) {
-  LoadTask task = [basePath](CreationContextPtr &aContext) -> GroupPtr {
-    std::array<GLfloat, 24> cubeVertices{
-      -1.0f, 1.0f, 1.0f, // 0
-      -1.0f, -1.0f, 1.0f, // 1
-      1.0f, -1.0f, 1.0f, // 2
-      1.0f, 1.0f, 1.0f, // 3
-      -1.0f, 1.0f, -1.0f, // 4
-      -1.0f, -1.0f, -1.0f, // 5
-      1.0f, -1.0f, -1.0f, // 6
-      1.0f, 1.0f, -1.0f, // 7
-    };
-
-    std::array<GLushort, 24> cubeIndices{
-      0, 1, 2, 3,
-      3, 2, 6, 7,
-      7, 6, 5, 4,
-      4, 5, 1, 0,
-      0, 3, 7, 4,
-      1, 5, 6, 2
-    };
-
-    VertexArrayPtr array = VertexArray::Create(aContext);
-    const float kLength = 140.0f;
-    for (int i = 0; i < cubeVertices.size(); i += 3) {
-      array->AppendVertex(Vector(-kLength * cubeVertices[i], -kLength * cubeVertices[i + 1],
-                                 -kLength * cubeVertices[i + 2]));
-      array->AppendUV(Vector(-kLength * cubeVertices[i], -kLength * cubeVertices[i + 1],
-                             -kLength * cubeVertices[i + 2]));
-    }
-
-    vrb::GeometryPtr geometry = vrb::Geometry::Create(aContext);
-    geometry->SetVertexArray(array);
-
-    for (int i = 0; i < cubeIndices.size(); i += 4) {
-      std::vector<int> indices = {cubeIndices[i] + 1, cubeIndices[i + 1] + 1,
-                                  cubeIndices[i + 2] + 1, cubeIndices[i + 3] + 1};
-      geometry->AddFace(indices, indices, {});
-    }
-
-    RenderStatePtr state = RenderState::Create(aContext);
-    TextureCubeMapPtr cubemap = vrb::TextureCubeMap::Create(aContext);
-    cubemap->SetTextureParameter(GL_TEXTURE_MAG_FILTER, GL_NEAREST);
-    cubemap->SetTextureParameter(GL_TEXTURE_MIN_FILTER, GL_NEAREST);
-    cubemap->SetTextureParameter(GL_TEXTURE_WRAP_S, GL_CLAMP_TO_EDGE);
-    cubemap->SetTextureParameter(GL_TEXTURE_WRAP_T, GL_CLAMP_TO_EDGE);
-    cubemap->SetTextureParameter(GL_TEXTURE_WRAP_R, GL_CLAMP_TO_EDGE);
-    state->SetTexture(cubemap);
-
-    auto path = [&](const std::string &name) { return basePath + "/" + name + ".jpg"; };
-    vrb::TextureCubeMap::Load(aContext, cubemap, path("posx"), path("negx"), path("posy"),
-                              path("negy"), path("posz"), path("negz"));
-
-    state->SetMaterial(Color(1.0f, 1.0f, 1.0f), Color(1.0f, 1.0f, 1.0f), Color(0.0f, 0.0f, 0.0f),
-                       0.0f);
-    geometry->SetRenderState(state);
-    vrb::GroupPtr group = vrb::Transform::Create(aContext);
-    group->AddNode(geometry);
-    return group;
-  };
-
-  m.loader->RunLoadTask(transform, task);
-}
-
-void
-BrowserWorld::CreateFloor() {
-  ASSERT_ON_RENDER_THREAD();
-  vrb::TransformPtr model = Transform::Create(m.create);
-#if SPACE_THEME == 1
-  std::string environmentPath = "FirefoxPlatform2_low.obj";
-#else
-  std::string environmentPath = "meadow_v4.obj";
-#endif
-#ifdef INJECT_ENVIRONMENT_PATH
-  std::string injectPath = VRBrowser::GetStorageAbsolutePath(INJECT_ENVIRONMENT_PATH);
-  if (std::ifstream(injectPath)) {
-    environmentPath = injectPath;
-  }
-#endif
-  m.loader->LoadModel(environmentPath, model);
-  m.rootOpaque->AddNode(model);
-  vrb::Matrix transform = vrb::Matrix::Identity();
-#if SPACE_THEME == 1
-  transform.ScaleInPlace(Vector(40.0, 40.0, 40.0));
-  transform.TranslateInPlace(Vector(0.0, -2.5f, 1.0));
-  transform.PostMultiplyInPlace(vrb::Matrix::Rotation(Vector(1.0, 0.0, 0.0), float(M_PI * 0.5)));
-#endif
-  model->SetTransform(transform);
-}
-
 float
 BrowserWorld::DistanceToNode(const vrb::NodePtr& aTargetNode, const vrb::Vector& aPosition) const {
   ASSERT_ON_RENDER_THREAD(0.0f);
@@ -986,6 +1216,7 @@ extern "C" {
 
 JNI_METHOD(void, addWidgetNative)
 (JNIEnv* aEnv, jobject, jint aHandle, jobject aPlacement) {
+  PROFILE_JNI_DOWNCALL();
   crow::WidgetPlacementPtr placement = crow::WidgetPlacement::FromJava(aEnv, aPlacement);
   if (placement) {
     crow::BrowserWorld::Instance().AddWidget(aHandle, placement);
@@ -994,39 +1225,70 @@ JNI_METHOD(void, addWidgetNative)
 
 JNI_METHOD(void, updateWidgetNative)
 (JNIEnv* aEnv, jobject, jint aHandle, jobject aPlacement) {
+  PROFILE_JNI_DOWNCALL();
   crow::WidgetPlacementPtr placement = crow::WidgetPlacement::FromJava(aEnv, aPlacement);
   if (placement) {
     crow::BrowserWorld::Instance().UpdateWidget(aHandle, placement);
   }
 }
 
+JNI_METHOD(void, animateWidgetNative)
+(JNIEnv* aEnv, jobject, jint aHandle, jint aAnimationId, jobject aPlacement, jint aDuration, jint aDelay, jint aEasing) {
+  PROFILE_JNI_DOWNCALL();
+  crow::WidgetPlacementPtr placement = crow::WidgetPlacement::FromJava(aEnv, aPlacement);
+  if (placement) {
+    crow::BrowserWorld::Instance().AnimateWidget(aHandle, aAnimationId, placement, aDuration, aDelay, aEasing);
+  }
+}
+
 JNI_METHOD(void, removeWidgetNative)
 (JNIEnv*, jobject, jint aHandle) {
+  PROFILE_JNI_DOWNCALL();
   crow::BrowserWorld::Instance().RemoveWidget(aHandle);
 }
 
 JNI_METHOD(void, startWidgetResizeNative)
 (JNIEnv*, jobject, jint aHandle) {
+  PROFILE_JNI_DOWNCALL();
   crow::BrowserWorld::Instance().StartWidgetResize(aHandle);
 }
 
 JNI_METHOD(void, finishWidgetResizeNative)
 (JNIEnv*, jobject, jint aHandle) {
+  PROFILE_JNI_DOWNCALL();
   crow::BrowserWorld::Instance().FinishWidgetResize(aHandle);
 }
 
+JNI_METHOD(void, commitWidgetResizeNative)
+(JNIEnv*, jobject, jint aHandle) {
+  PROFILE_JNI_DOWNCALL();
+  crow::BrowserWorld::Instance().CommitWidgetResize(aHandle);
+}
+
 JNI_METHOD(void, fadeOutWorldNative)
 (JNIEnv*, jobject) {
+  PROFILE_JNI_DOWNCALL();
   crow::BrowserWorld::Instance().FadeOut();
 }
 
 JNI_METHOD(void, fadeInWorldNative)
 (JNIEnv*, jobject) {
+  PROFILE_JNI_DOWNCALL();
   crow::BrowserWorld::Instance().FadeIn();
 }
 
+JNI_METHOD(void, setEnvironmentNative)
+(JNIEnv* aEnv, jobject, jstring aName) {
+  PROFILE_JNI_DOWNCALL();
+  const char* chars = aEnv->GetStringUTFChars(aName, nullptr);
+  std::string name = chars;
+  aEnv->ReleaseStringUTFChars(aName, chars);
+  crow::BrowserWorld::Instance().SetEnvironment(name);
+}
+
 JNI_METHOD(void, setTemporaryFilePath)
 (JNIEnv* aEnv, jobject, jstring aPath) {
+  PROFILE_JNI_DOWNCALL();
   const char *nativeString = aEnv->GetStringUTFChars(aPath, 0);
   std::string path = nativeString;
   aEnv->ReleaseStringUTFChars(aPath, nativeString);
@@ -1035,7 +1297,44 @@ JNI_METHOD(void, setTemporaryFilePath)
 
 JNI_METHOD(void, exitImmersiveNative)
 (JNIEnv* aEnv, jobject) {
+  PROFILE_JNI_DOWNCALL();
   crow::BrowserWorld::Instance().ExitImmersive();
 }
 
+JNI_METHOD(void, setPosePredictionNative)
+(JNIEnv*, jobject, jboolean aEnabled, jfloat aMaxHeadHorizon, jfloat aMaxControllerHorizon) {
+  PROFILE_JNI_DOWNCALL();
+  crow::BrowserWorld::Instance().SetPosePrediction(aEnabled, aMaxHeadHorizon, aMaxControllerHorizon);
+}
+
+JNI_METHOD(void, setPoseTraceFileNative)
+(JNIEnv* aEnv, jobject, jstring aPath) {
+  PROFILE_JNI_DOWNCALL();
+  const char* chars = aEnv->GetStringUTFChars(aPath, nullptr);
+  std::string path = chars;
+  aEnv->ReleaseStringUTFChars(aPath, chars);
+  crow::BrowserWorld::Instance().SetPoseTraceFile(path);
+}
+
+JNI_METHOD(void, enableJNIProfilerNative)
+(JNIEnv* aEnv, jobject, jstring aPath) {
+  std::string path;
+  if (aPath) {
+    const char* chars = aEnv->GetStringUTFChars(aPath, nullptr);
+    path = chars;
+    aEnv->ReleaseStringUTFChars(aPath, chars);
+  }
+  crow::JNIProfiler::Enable(path);
+}
+
+JNI_METHOD(void, disableJNIProfilerNative)
+(JNIEnv*, jobject) {
+  crow::JNIProfiler::Disable();
+}
+
+JNI_METHOD(jstring, getJNIProfileNative)
+(JNIEnv* aEnv, jobject) {
+  return aEnv->NewStringUTF(crow::JNIProfiler::GetSummary().c_str());
+}
+
 } // extern "C"
@@ -13,6 +13,7 @@
 
 #include <jni.h>
 #include <memory>
+#include <string>
 
 namespace crow {
 
@@ -40,12 +41,20 @@ public:
   void SetSurfaceTexture(const std::string& aName, jobject& aSurface);
   void AddWidget(int32_t aHandle, const WidgetPlacementPtr& placement);
   void UpdateWidget(int32_t aHandle, const WidgetPlacementPtr& aPlacement);
+  void AnimateWidget(int32_t aHandle, int32_t aAnimationId, const WidgetPlacementPtr& aPlacement,
+                     int32_t aDuration, int32_t aDelay, int32_t aEasing);
   void RemoveWidget(int32_t aHandle);
   void StartWidgetResize(int32_t aHandle);
   void FinishWidgetResize(int32_t aHandle);
+  void CommitWidgetResize(int32_t aHandle);
   void UpdateVisibleWidgets();
   void FadeOut();
   void FadeIn();
+  // Switches to one of the environments registered in InitializeJava.
+  void SetEnvironment(const std::string& aName);
+  // See ExternalVR::SetPosePrediction and ExternalVR::SetPoseTraceFile.
+  void SetPosePrediction(const bool aEnabled, const float aMaxHeadHorizon, const float aMaxControllerHorizon);
+  void SetPoseTraceFile(const std::string& aPath);
   void ExitImmersive();
   void SetTrayVisible(bool visible) const;
   JNIEnv* GetJNIEnv() const;
@@ -57,9 +66,6 @@ protected:
   void DrawWorld();
   void DrawImmersive();
   void DrawLoadingAnimation();
-  vrb::TransformPtr CreateSkyBox(const std::string& basePath);
-  void LoadSkybox(const vrb::TransformPtr transform, const std::string& basePath);
-  void CreateFloor();
   void CreateTray();
   float DistanceToNode(const vrb::NodePtr& aNode, const vrb::Vector& aPosition) const;
 private:
@@ -0,0 +1,183 @@
+/* -*- Mode: C++; tab-width: 20; indent-tabs-mode: nil; c-basic-offset: 2 -*-
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/. */
+
+#include "CompressedTexture.h"
+#include "KTXImage.h"
+#include "vrb/ConcreteClass.h"
+#include "vrb/private/TextureState.h"
+#include "vrb/GLError.h"
+#include "vrb/Logger.h"
+
+#include <algorithm>
+#include <cstring>
+#include <fstream>
+#include <mutex>
+#include <time.h>
+#include <vector>
+
+namespace {
+
+// Core in OpenGL ES 3.0, some drivers do not list them in GL_COMPRESSED_TEXTURE_FORMATS.
+const GLint kES3Formats[] = {
+  GL_COMPRESSED_R11_EAC, GL_COMPRESSED_SIGNED_R11_EAC, GL_COMPRESSED_RG11_EAC,
+  GL_COMPRESSED_SIGNED_RG11_EAC, GL_COMPRESSED_RGB8_ETC2, GL_COMPRESSED_SRGB8_ETC2,
+  GL_COMPRESSED_RGB8_PUNCHTHROUGH_ALPHA1_ETC2, GL_COMPRESSED_SRGB8_PUNCHTHROUGH_ALPHA1_ETC2,
+  GL_COMPRESSED_RGBA8_ETC2_EAC, GL_COMPRESSED_SRGB8_ALPHA8_ETC2_EAC
+};
+
+std::mutex sFormatsLock;
+std::vector<GLint> sFormats;
+
+double
+GetTimeInMilliseconds() {
+  struct timespec now;
+  clock_gettime(CLOCK_MONOTONIC, &now);
+  return (double)now.tv_sec * 1e3 + (double)now.tv_nsec / 1e6;
+}
+
+} // namespace
+
+namespace crow {
+
+struct CompressedTexture::State : public vrb::Texture::State {
+  AAssetManager* assetManager;
+  std::string path;
+  // Only held until the images are uploaded.
+  std::unique_ptr<uint8_t[]> data;
+  size_t length;
+  KTXImage image;
+
+  State()
+      : assetManager(nullptr)
+      , length(0)
+  {}
+
+  bool Read() {
+    data.reset();
+    length = 0;
+    image.Clear();
+    if (!path.empty() && path[0] == '/') {
+      std::ifstream input(path, std::ios::binary | std::ios::ate);
+      if (!input) {
+        return false;
+      }
+      length = (size_t)input.tellg();
+      data.reset(new uint8_t[length]);
+      input.seekg(0);
+      if (!input.read((char*)data.get(), length)) {
+        data.reset();
+        return false;
+      }
+    } else if (assetManager) {
+      AAsset* asset = AAssetManager_open(assetManager, path.c_str(), AASSET_MODE_BUFFER);
+      if (!asset) {
+        return false;
+      }
+      length = (size_t)AAsset_getLength(asset);
+      data.reset(new uint8_t[length]);
+      const bool read = AAsset_read(asset, data.get(), length) == (int)length;
+      AAsset_close(asset);
+      if (!read) {
+        data.reset();
+        return false;
+      }
+    } else {
+      return false;
+    }
+    if (!image.Parse(data.get(), length)) {
+      VRB_ERROR("Invalid compressed texture: %s", path.c_str());
+      data.reset();
+      return false;
+    }
+    return true;
+  }
+};
+
+void
+CompressedTexture::InitializeFormats() {
+  GLint count = 0;
+  VRB_GL_CHECK(glGetIntegerv(GL_NUM_COMPRESSED_TEXTURE_FORMATS, &count));
+  std::vector<GLint> formats((size_t)std::max(count, 0));
+  if (count > 0) {
+    VRB_GL_CHECK(glGetIntegerv(GL_COMPRESSED_TEXTURE_FORMATS, formats.data()));
+  }
+  const char* version = (const char*)glGetString(GL_VERSION);
+  if (version && strncmp(version, "OpenGL ES 3.", 12) == 0) {
+    formats.insert(formats.end(), std::begin(kES3Formats), std::end(kES3Formats));
+  }
+  std::lock_guard<std::mutex> lock(sFormatsLock);
+  sFormats.swap(formats);
+}
+
+bool
+CompressedTexture::IsFormatSupported(const GLenum aFormat) {
+  std::lock_guard<std::mutex> lock(sFormatsLock);
+  return std::find(sFormats.begin(), sFormats.end(), (GLint)aFormat) != sFormats.end();
+}
+
+CompressedTexturePtr
+CompressedTexture::Load(vrb::CreationContextPtr& aContext, AAssetManager* aAssetManager,
+                        const std::string& aPath) {
+  const double start = GetTimeInMilliseconds();
+  CompressedTexturePtr result = std::make_shared<vrb::ConcreteClass<CompressedTexture, CompressedTexture::State> >(aContext);
+  State& state = result->m;
+  state.assetManager = aAssetManager;
+  state.path = aPath;
+  if (!state.Read()) {
+    return nullptr;
+  }
+  if (!IsFormatSupported(state.image.GetInternalFormat())) {
+    VRB_LOG("Compressed texture format 0x%x of %s not supported", state.image.GetInternalFormat(), aPath.c_str());
+    return nullptr;
+  }
+  state.target = state.image.GetFaceCount() == 6 ? GL_TEXTURE_CUBE_MAP : GL_TEXTURE_2D;
+  result->SetName(aPath);
+  if (state.image.GetLevelCount() > 1) {
+    result->SetTextureParameter(GL_TEXTURE_MIN_FILTER, GL_LINEAR_MIPMAP_LINEAR);
+  }
+  VRB_LOG("Read compressed texture %s in %.1f ms", aPath.c_str(), GetTimeInMilliseconds() - start);
+  return result;
+}
+
+size_t
+CompressedTexture::GetDataSize() const {
+  return m.length;
+}
+
+CompressedTexture::CompressedTexture(State& aState, vrb::CreationContextPtr& aContext)
+    : vrb::Texture(aState, aContext)
+    , m(aState)
+{}
+
+CompressedTexture::~CompressedTexture() {}
+
+void
+CompressedTexture::InitializeGL() {
+  vrb::Texture::InitializeGL();
+  if (!m.image.IsValid() && !m.Read()) {
+    VRB_ERROR("Unable to read compressed texture: %s", m.path.c_str());
+    return;
+  }
+  const double start = GetTimeInMilliseconds();
+  VRB_GL_CHECK(glBindTexture(m.target, m.texture));
+  uint32_t width = m.image.GetWidth();
+  uint32_t height = m.image.GetHeight();
+  for (uint32_t level = 0; level < m.image.GetLevelCount(); level++) {
+    for (uint32_t face = 0; face < m.image.GetFaceCount(); face++) {
+      const GLenum target = m.target == GL_TEXTURE_CUBE_MAP ? GL_TEXTURE_CUBE_MAP_POSITIVE_X + face : m.target;
+      uint32_t size = 0;
+      const uint8_t* pixels = m.image.GetImage(level, face, size);
+      VRB_GL_CHECK(glCompressedTexImage2D(target, level, m.image.GetInternalFormat(), width, height, 0, size, pixels));
+    }
+    width = std::max(width / 2, 1u);
+    height = std::max(height / 2, 1u);
+  }
+  VRB_GL_CHECK(glBindTexture(m.target, 0));
+  VRB_LOG("Uploaded compressed texture %s in %.1f ms", m.path.c_str(), GetTimeInMilliseconds() - start);
+  m.image.Clear();
+  m.data.reset();
+}
+
+} // namespace crow
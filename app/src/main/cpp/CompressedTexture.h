@@ -0,0 +1,53 @@
+/* -*- Mode: C++; tab-width: 20; indent-tabs-mode: nil; c-basic-offset: 2 -*-
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/. */
+
+#ifndef VRBROWSER_COMPRESSED_TEXTURE_DOT_H
+#define VRBROWSER_COMPRESSED_TEXTURE_DOT_H
+
+#include "vrb/MacroUtils.h"
+#include "vrb/Forward.h"
+#include "vrb/gl.h"
+#include "vrb/Texture.h"
+
+#include <android/asset_manager.h>
+#include <memory>
+#include <string>
+
+namespace crow {
+
+class CompressedTexture;
+typedef std::shared_ptr<CompressedTexture> CompressedTexturePtr;
+
+// A 2D texture or cube map uploaded from a KTX file of GPU compressed images, as written by
+// tools/gradle/textures.gradle. The images are uploaded as they are, with their pregenerated
+// mip levels, instead of being decoded and having their mip levels generated on the device.
+// The file is read again if the texture needs to be uploaded again after a context loss.
+class CompressedTexture : public vrb::Texture {
+public:
+  // Queries the formats supported by the GPU, must be called on the render thread once
+  // the context is current and before any texture is loaded.
+  static void InitializeFormats();
+  static bool IsFormatSupported(const GLenum aFormat);
+  // Reads and validates aPath, from the assets or from the file system for absolute paths.
+  // Returns nullptr if the file is missing, invalid or in a format the GPU does not support,
+  // callers are expected to fall back to the source images.
+  static CompressedTexturePtr Load(vrb::CreationContextPtr& aContext, AAssetManager* aAssetManager,
+                                   const std::string& aPath);
+  // Size of the compressed images, which is about the memory they take on the GPU.
+  size_t GetDataSize() const;
+protected:
+  struct State;
+  CompressedTexture(State& aState, vrb::CreationContextPtr& aContext);
+  ~CompressedTexture();
+  void InitializeGL() override;
+private:
+  State& m;
+  CompressedTexture() = delete;
+  VRB_NO_DEFAULTS(CompressedTexture)
+};
+
+} // namespace crow
+
+#endif // VRBROWSER_COMPRESSED_TEXTURE_DOT_H
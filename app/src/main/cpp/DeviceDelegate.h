@@ -42,6 +42,8 @@ public:
   virtual device::RenderMode GetRenderMode() = 0;
   virtual void RegisterImmersiveDisplay(ImmersiveDisplayPtr aDisplay) = 0;
   virtual GestureDelegateConstPtr GetGestureDelegate() = 0;
+  // Width of the range of touch positions reported to the ControllerDelegate.
+  virtual float GetTouchpadExtent() const = 0;
   virtual vrb::CameraPtr GetCamera(const device::Eye aWhich) = 0;
   virtual const vrb::Matrix& GetHeadTransform() const = 0;
   virtual void SetClearColor(const vrb::Color& aColor) = 0;
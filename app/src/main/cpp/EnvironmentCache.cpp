@@ -0,0 +1,105 @@
+/* -*- Mode: C++; tab-width: 20; indent-tabs-mode: nil; c-basic-offset: 2 -*-
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/. */
+
+#include "EnvironmentCache.h"
+
+namespace crow {
+
+EnvironmentCache::EnvironmentCache(const size_t aBudget)
+    : mBudget(aBudget)
+    , mSize(0)
+{}
+
+bool
+EnvironmentCache::Contains(const std::string& aName) const {
+  return Find(aName) != mEntries.end();
+}
+
+void
+EnvironmentCache::Touch(const std::string& aName) {
+  auto entry = Find(aName);
+  if (entry != mEntries.end()) {
+    mEntries.splice(mEntries.begin(), mEntries, entry);
+  }
+}
+
+void
+EnvironmentCache::Insert(const std::string& aName, const size_t aBytes, std::vector<std::string>& aEvicted) {
+  auto entry = Find(aName);
+  if (entry == mEntries.end()) {
+    mEntries.push_front(Entry{aName, aBytes, false});
+  } else {
+    mSize -= entry->bytes;
+    entry->bytes = aBytes;
+    mEntries.splice(mEntries.begin(), mEntries, entry);
+  }
+  mSize += aBytes;
+
+  // Skips the entry just inserted, it is the most recently used one.
+  auto candidate = mEntries.end();
+  while (mSize > mBudget && candidate != std::next(mEntries.begin())) {
+    --candidate;
+    if (candidate->pinned) {
+      continue;
+    }
+    mSize -= candidate->bytes;
+    aEvicted.push_back(candidate->name);
+    candidate = mEntries.erase(candidate);
+  }
+}
+
+void
+EnvironmentCache::Remove(const std::string& aName) {
+  auto entry = Find(aName);
+  if (entry != mEntries.end()) {
+    mSize -= entry->bytes;
+    mEntries.erase(entry);
+  }
+}
+
+void
+EnvironmentCache::SetPinned(const std::string& aName, const bool aPinned) {
+  auto entry = Find(aName);
+  if (entry != mEntries.end()) {
+    entry->pinned = aPinned;
+  }
+}
+
+size_t
+EnvironmentCache::GetSize() const {
+  return mSize;
+}
+
+size_t
+EnvironmentCache::GetBudget() const {
+  return mBudget;
+}
+
+size_t
+EnvironmentCache::GetCount() const {
+  return mEntries.size();
+}
+
+std::list<EnvironmentCache::Entry>::iterator
+EnvironmentCache::Find(const std::string& aName) {
+  for (auto entry = mEntries.begin(); entry != mEntries.end(); ++entry) {
+    if (entry->name == aName) {
+      return entry;
+    }
+  }
+  return mEntries.end();
+}
+
+std::list<EnvironmentCache::Entry>::const_iterator
+EnvironmentCache::Find(const std::string& aName) const {
+  for (auto entry = mEntries.begin(); entry != mEntries.end(); ++entry) {
+    if (entry->name == aName) {
+      return entry;
+    }
+  }
+  return mEntries.end();
+}
+
+} // namespace crow
@@ -0,0 +1,51 @@
+/* -*- Mode: C++; tab-width: 20; indent-tabs-mode: nil; c-basic-offset: 2 -*-
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/. */
+
+#ifndef VRBROWSER_ENVIRONMENT_CACHE_DOT_H
+#define VRBROWSER_ENVIRONMENT_CACHE_DOT_H
+
+#include <cstddef>
+#include <list>
+#include <string>
+#include <vector>
+
+namespace crow {
+
+// Tracks the loaded environments by name, most recently used first, with the memory they
+// hold on the GPU. Inserting an environment evicts the least recently used ones until the
+// total fits the budget again, pinned environments (the one shown and the one being
+// switched to) are never evicted even if that leaves the cache over budget. It only keeps
+// the bookkeeping, the caller releases the evicted environments. It has no dependency on vrb
+// so it can be unit tested on the host.
+class EnvironmentCache {
+public:
+  explicit EnvironmentCache(const size_t aBudget);
+  bool Contains(const std::string& aName) const;
+  // Makes aName the most recently used environment.
+  void Touch(const std::string& aName);
+  // Adds aName as the most recently used environment, or updates its size. The names of the
+  // evicted environments are appended to aEvicted.
+  void Insert(const std::string& aName, const size_t aBytes, std::vector<std::string>& aEvicted);
+  void Remove(const std::string& aName);
+  void SetPinned(const std::string& aName, const bool aPinned);
+  size_t GetSize() const;
+  size_t GetBudget() const;
+  size_t GetCount() const;
+private:
+  struct Entry {
+    std::string name;
+    size_t bytes;
+    bool pinned;
+  };
+  std::list<Entry>::iterator Find(const std::string& aName);
+  std::list<Entry>::const_iterator Find(const std::string& aName) const;
+  std::list<Entry> mEntries;
+  size_t mBudget;
+  size_t mSize;
+};
+
+} // namespace crow
+
+#endif // VRBROWSER_ENVIRONMENT_CACHE_DOT_H
@@ -0,0 +1,398 @@
+/* -*- Mode: C++; tab-width: 20; indent-tabs-mode: nil; c-basic-offset: 2 -*-
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/. */
+
+#include "EnvironmentManager.h"
+#include "CompressedTexture.h"
+#include "EnvironmentCache.h"
+#include "FadeBlitter.h"
+#include "MeshCache.h"
+#include "vrb/Color.h"
+#include "vrb/ConcreteClass.h"
+#include "vrb/CreationContext.h"
+#include "vrb/Geometry.h"
+#include "vrb/Group.h"
+#include "vrb/Logger.h"
+#include "vrb/ModelLoaderAndroid.h"
+#include "vrb/RenderState.h"
+#include "vrb/TextureCubeMap.h"
+#include "vrb/Transform.h"
+#include "vrb/Vector.h"
+#include "vrb/VertexArray.h"
+
+#include <array>
+#include <deque>
+#include <functional>
+#include <map>
+#include <time.h>
+
+namespace {
+
+// Loaded environments kept around for switching back, the shown one is always kept.
+static const size_t kCacheBudget = 32 * 1024 * 1024;
+// Render thread time spent on environment work per frame, at least one step runs per frame.
+static const double kFrameBudget = 0.002;
+// The shipped cube maps are six 1024x1024 faces, used to estimate decoded ones.
+static const size_t kDecodedSkyboxSize = 6 * 1024 * 1024 * 4;
+
+double
+GetTimeInSeconds() {
+  struct timespec now;
+  clock_gettime(CLOCK_MONOTONIC, &now);
+  return (double)now.tv_sec + (double)now.tv_nsec / 1e9;
+}
+
+vrb::GroupPtr
+CreateSkybox(vrb::CreationContextPtr& aContext, AAssetManager* aAssetManager, const std::string& aBasePath,
+             size_t& aBytes) {
+  std::array<GLfloat, 24> cubeVertices{
+    -1.0f, 1.0f, 1.0f, // 0
+    -1.0f, -1.0f, 1.0f, // 1
+    1.0f, -1.0f, 1.0f, // 2
+    1.0f, 1.0f, 1.0f, // 3
+    -1.0f, 1.0f, -1.0f, // 4
+    -1.0f, -1.0f, -1.0f, // 5
+    1.0f, -1.0f, -1.0f, // 6
+    1.0f, 1.0f, -1.0f, // 7
+  };
+
+  std::array<GLushort, 24> cubeIndices{
+    0, 1, 2, 3,
+    3, 2, 6, 7,
+    7, 6, 5, 4,
+    4, 5, 1, 0,
+    0, 3, 7, 4,
+    1, 5, 6, 2
+  };
+
+  vrb::VertexArrayPtr array = vrb::VertexArray::Create(aContext);
+  const float kLength = 140.0f;
+  for (int i = 0; i < cubeVertices.size(); i += 3) {
+    array->AppendVertex(vrb::Vector(-kLength * cubeVertices[i], -kLength * cubeVertices[i + 1],
+                                    -kLength * cubeVertices[i + 2]));
+    array->AppendUV(vrb::Vector(-kLength * cubeVertices[i], -kLength * cubeVertices[i + 1],
+                                -kLength * cubeVertices[i + 2]));
+  }
+
+  vrb::GeometryPtr geometry = vrb::Geometry::Create(aContext);
+  geometry->SetVertexArray(array);
+
+  for (int i = 0; i < cubeIndices.size(); i += 4) {
+    std::vector<int> indices = {cubeIndices[i] + 1, cubeIndices[i + 1] + 1,
+                                cubeIndices[i + 2] + 1, cubeIndices[i + 3] + 1};
+    geometry->AddFace(indices, indices, {});
+  }
+
+  vrb::RenderStatePtr state = vrb::RenderState::Create(aContext);
+  const double start = GetTimeInSeconds();
+  // Converted at build time by tools/gradle/textures.gradle, the source images are the
+  // fallback for GPUs without ETC2 and for skyboxes that were not converted.
+  crow::CompressedTexturePtr compressed = crow::CompressedTexture::Load(aContext, aAssetManager, aBasePath + ".ktx");
+  if (compressed) {
+    compressed->SetTextureParameter(GL_TEXTURE_MAG_FILTER, GL_LINEAR);
+    compressed->SetTextureParameter(GL_TEXTURE_WRAP_S, GL_CLAMP_TO_EDGE);
+    compressed->SetTextureParameter(GL_TEXTURE_WRAP_T, GL_CLAMP_TO_EDGE);
+    compressed->SetTextureParameter(GL_TEXTURE_WRAP_R, GL_CLAMP_TO_EDGE);
+    state->SetTexture(compressed);
+    aBytes = compressed->GetDataSize();
+  } else {
+    vrb::TextureCubeMapPtr cubemap = vrb::TextureCubeMap::Create(aContext);
+    cubemap->SetTextureParameter(GL_TEXTURE_MAG_FILTER, GL_NEAREST);
+    cubemap->SetTextureParameter(GL_TEXTURE_MIN_FILTER, GL_NEAREST);
+    cubemap->SetTextureParameter(GL_TEXTURE_WRAP_S, GL_CLAMP_TO_EDGE);
+    cubemap->SetTextureParameter(GL_TEXTURE_WRAP_T, GL_CLAMP_TO_EDGE);
+    cubemap->SetTextureParameter(GL_TEXTURE_WRAP_R, GL_CLAMP_TO_EDGE);
+    state->SetTexture(cubemap);
+
+    auto path = [&](const std::string &name) { return aBasePath + "/" + name + ".jpg"; };
+    vrb::TextureCubeMap::Load(aContext, cubemap, path("posx"), path("negx"), path("posy"),
+                              path("negy"), path("posz"), path("negz"));
+    aBytes = kDecodedSkyboxSize;
+  }
+  VRB_LOG("Loaded %s skybox %s in %.1f ms", compressed ? "compressed" : "decoded", aBasePath.c_str(),
+          (GetTimeInSeconds() - start) * 1000.0);
+
+  state->SetMaterial(vrb::Color(1.0f, 1.0f, 1.0f), vrb::Color(1.0f, 1.0f, 1.0f), vrb::Color(0.0f, 0.0f, 0.0f),
+                     0.0f);
+  geometry->SetRenderState(state);
+  vrb::GroupPtr group = vrb::Transform::Create(aContext);
+  group->AddNode(geometry);
+  return group;
+}
+
+struct Environment {
+  std::string skyboxPath;
+  std::string modelPath;
+  vrb::Matrix modelTransform;
+  // Set while the environment is loaded or loading.
+  vrb::GroupPtr skybox;
+  vrb::TransformPtr model;
+  int pendingTasks;
+  size_t bytes;
+  double loadStart;
+
+  Environment()
+      : modelTransform(vrb::Matrix::Identity())
+      , pendingTasks(0)
+      , bytes(0)
+      , loadStart(0.0)
+  {}
+
+  bool IsLoading() const { return skybox && pendingTasks > 0; }
+  bool IsLoaded() const { return skybox && pendingTasks == 0; }
+};
+
+} // namespace
+
+namespace crow {
+
+struct EnvironmentManager::State {
+  vrb::CreationContextWeak context;
+  vrb::ModelLoaderAndroidPtr loader;
+  AAssetManager* assetManager;
+  std::string meshCacheDirectory;
+  int64_t assetVersion;
+  FadeBlitterPtr fadeBlitter;
+  vrb::TransformPtr skybox;
+  vrb::GroupPtr floor;
+  std::map<std::string, Environment> environments;
+  EnvironmentCache cache;
+  std::string selected;
+  std::string target;
+  bool fadingOut;
+  float restoreAlpha;
+  // Render thread work spread over frames, see kFrameBudget.
+  std::deque<std::function<void()>> steps;
+
+  State()
+      : assetManager(nullptr)
+      , assetVersion(0)
+      , cache(kCacheBudget)
+      , fadingOut(false)
+      , restoreAlpha(0.0f)
+  {}
+
+  void Initialize() {
+    vrb::CreationContextPtr create = context.lock();
+    skybox = vrb::Transform::Create(create);
+    skybox->SetTransform(vrb::Matrix::Position(vrb::Vector(0.0f, 0.0f, 0.0f)));
+    floor = vrb::Group::Create(create);
+  }
+
+  void Load(const std::string& aName);
+  void LoadFinished(const std::string& aName, const size_t aBytes);
+  void Cache(const std::string& aName);
+  void Attach(const std::string& aName);
+  void Detach(const std::string& aName);
+  void Swap();
+};
+
+void
+EnvironmentManager::State::Load(const std::string& aName) {
+  Environment& environment = environments[aName];
+  if (environment.skybox) {
+    return;
+  }
+  vrb::CreationContextPtr create = context.lock();
+  environment.skybox = vrb::Group::Create(create);
+  environment.model = vrb::Transform::Create(create);
+  environment.model->SetTransform(environment.modelTransform);
+  environment.pendingTasks = 2;
+  environment.bytes = 0;
+  environment.loadStart = GetTimeInSeconds();
+
+  // Both results are only read on the render thread, once their task has finished.
+  std::shared_ptr<size_t> skyboxBytes = std::make_shared<size_t>(0);
+  std::shared_ptr<size_t> modelBytes = std::make_shared<size_t>(0);
+  AAssetManager* manager = assetManager;
+  const std::string skyboxPath = environment.skyboxPath;
+  vrb::LoadTask skyboxTask = [manager, skyboxPath, skyboxBytes](vrb::CreationContextPtr& aContext) -> vrb::GroupPtr {
+    return CreateSkybox(aContext, manager, skyboxPath, *skyboxBytes);
+  };
+  vrb::LoadFinishedCallback skyboxLoaded = [this, aName, skyboxBytes](vrb::GroupPtr&) {
+    LoadFinished(aName, *skyboxBytes);
+  };
+  loader->RunLoadTask(environment.skybox, skyboxTask, skyboxLoaded);
+
+  const std::string cacheDirectory = meshCacheDirectory;
+  const int64_t version = assetVersion;
+  const std::string modelPath = environment.modelPath;
+  vrb::LoadTask modelTask = [manager, cacheDirectory, version, modelPath, modelBytes](vrb::CreationContextPtr& aContext) -> vrb::GroupPtr {
+    vrb::GroupPtr group = MeshCache::Load(aContext, manager, cacheDirectory, version, modelPath, modelBytes.get());
+    return group ? group : vrb::Group::Create(aContext);
+  };
+  vrb::LoadFinishedCallback modelLoaded = [this, aName, modelBytes](vrb::GroupPtr&) {
+    LoadFinished(aName, *modelBytes);
+  };
+  loader->RunLoadTask(environment.model, modelTask, modelLoaded);
+}
+
+void
+EnvironmentManager::State::LoadFinished(const std::string& aName, const size_t aBytes) {
+  auto found = environments.find(aName);
+  if (found == environments.end() || !found->second.IsLoading()) {
+    return;
+  }
+  Environment& environment = found->second;
+  environment.bytes += aBytes;
+  if (--environment.pendingTasks > 0) {
+    return;
+  }
+  VRB_LOG("Loaded environment %s (%zu KB) in %.1f ms", aName.c_str(), environment.bytes / 1024,
+          (GetTimeInSeconds() - environment.loadStart) * 1000.0);
+  Cache(aName);
+}
+
+void
+EnvironmentManager::State::Cache(const std::string& aName) {
+  std::vector<std::string> evicted;
+  cache.Insert(aName, environments[aName].bytes, evicted);
+  cache.SetPinned(aName, aName == selected || aName == target);
+  for (const std::string& name: evicted) {
+    steps.push_back([this, name]() {
+      // Selected again since it was evicted.
+      if (cache.Contains(name) || name == selected || name == target) {
+        return;
+      }
+      VRB_LOG("Releasing environment %s", name.c_str());
+      Environment& released = environments[name];
+      released.skybox = nullptr;
+      released.model = nullptr;
+    });
+  }
+}
+
+void
+EnvironmentManager::State::Attach(const std::string& aName) {
+  Environment& environment = environments[aName];
+  if (environment.skybox) {
+    skybox->AddNode(environment.skybox);
+    floor->AddNode(environment.model);
+  }
+}
+
+void
+EnvironmentManager::State::Detach(const std::string& aName) {
+  Environment& environment = environments[aName];
+  if (environment.skybox) {
+    skybox->RemoveNode(*environment.skybox);
+    floor->RemoveNode(*environment.model);
+  }
+}
+
+void
+EnvironmentManager::State::Swap() {
+  if (selected != target) {
+    Detach(selected);
+    cache.SetPinned(selected, false);
+    selected = target;
+    Attach(selected);
+    cache.Touch(selected);
+  }
+  fadingOut = false;
+  // Leave the fade alone if something else changed it while switching.
+  if (fadeBlitter->GetTargetAlpha() >= 1.0f) {
+    fadeBlitter->FadeTo(restoreAlpha);
+  }
+}
+
+EnvironmentManagerPtr
+EnvironmentManager::Create(vrb::CreationContextPtr aContext, const FadeBlitterPtr& aFadeBlitter) {
+  EnvironmentManagerPtr result = std::make_shared<vrb::ConcreteClass<EnvironmentManager, EnvironmentManager::State> >(aContext);
+  result->m.fadeBlitter = aFadeBlitter;
+  return result;
+}
+
+void
+EnvironmentManager::InitializeJava(const vrb::ModelLoaderAndroidPtr& aLoader, AAssetManager* aAssetManager,
+                                   const std::string& aMeshCacheDirectory, const int64_t aAssetVersion) {
+  m.loader = aLoader;
+  m.assetManager = aAssetManager;
+  m.meshCacheDirectory = aMeshCacheDirectory;
+  m.assetVersion = aAssetVersion;
+}
+
+void
+EnvironmentManager::ShutdownJava() {
+  m.loader = nullptr;
+  m.assetManager = nullptr;
+}
+
+void
+EnvironmentManager::Register(const std::string& aName, const std::string& aSkyboxPath, const std::string& aModelPath,
+                             const vrb::Matrix& aModelTransform) {
+  Environment& environment = m.environments[aName];
+  environment.skyboxPath = aSkyboxPath;
+  environment.modelPath = aModelPath;
+  environment.modelTransform = aModelTransform;
+}
+
+void
+EnvironmentManager::Select(const std::string& aName) {
+  if (m.environments.find(aName) == m.environments.end()) {
+    VRB_ERROR("Unknown environment: %s", aName.c_str());
+    return;
+  }
+  if (aName == m.target || !m.loader) {
+    return;
+  }
+  if (!m.target.empty() && m.target != m.selected) {
+    m.cache.SetPinned(m.target, false);
+  }
+  m.target = aName;
+  m.Load(aName);
+  if (m.environments[aName].IsLoaded() && !m.cache.Contains(aName)) {
+    m.Cache(aName);
+  }
+  m.cache.SetPinned(aName, true);
+  m.cache.Touch(aName);
+  if (m.selected.empty()) {
+    m.selected = aName;
+    m.Attach(aName);
+  } else if (!m.fadingOut) {
+    m.restoreAlpha = m.fadeBlitter->GetTargetAlpha();
+    m.fadeBlitter->FadeTo(1.0f);
+    m.fadingOut = true;
+  }
+}
+
+const std::string&
+EnvironmentManager::GetSelected() const {
+  return m.selected;
+}
+
+void
+EnvironmentManager::Update() {
+  const double start = GetTimeInSeconds();
+  while (!m.steps.empty()) {
+    std::function<void()> step = m.steps.front();
+    m.steps.pop_front();
+    step();
+    if (GetTimeInSeconds() - start > kFrameBudget) {
+      break;
+    }
+  }
+  if (m.fadingOut && !m.fadeBlitter->IsAnimating() && m.environments[m.target].IsLoaded()) {
+    m.Swap();
+  }
+}
+
+vrb::TransformPtr
+EnvironmentManager::GetSkybox() const {
+  return m.skybox;
+}
+
+vrb::NodePtr
+EnvironmentManager::GetFloor() const {
+  return m.floor;
+}
+
+EnvironmentManager::EnvironmentManager(State& aState, vrb::CreationContextPtr& aContext) : m(aState) {
+  m.context = aContext;
+  m.Initialize();
+}
+
+EnvironmentManager::~EnvironmentManager() {}
+
+} // namespace crow
@@ -0,0 +1,59 @@
+/* -*- Mode: C++; tab-width: 20; indent-tabs-mode: nil; c-basic-offset: 2 -*-
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/. */
+
+#ifndef VRBROWSER_ENVIRONMENT_MANAGER_DOT_H
+#define VRBROWSER_ENVIRONMENT_MANAGER_DOT_H
+
+#include "vrb/Forward.h"
+#include "vrb/MacroUtils.h"
+#include "vrb/Matrix.h"
+
+#include <android/asset_manager.h>
+#include <memory>
+#include <string>
+
+namespace crow {
+
+class EnvironmentManager;
+typedef std::shared_ptr<EnvironmentManager> EnvironmentManagerPtr;
+class FadeBlitter;
+typedef std::shared_ptr<FadeBlitter> FadeBlitterPtr;
+
+// Owns the environments the world can be shown in, each one a sky box and a floor model.
+// Environments are loaded on the model loader thread, the sky box and the floor as separate
+// tasks so each one is uploaded and shown as soon as it is ready. Switching fades the world
+// out, swaps the environments once the new one is loaded and fades back in. Recently shown
+// environments are kept loaded within a memory budget, see EnvironmentCache.
+class EnvironmentManager {
+public:
+  static EnvironmentManagerPtr Create(vrb::CreationContextPtr aContext, const FadeBlitterPtr& aFadeBlitter);
+  void InitializeJava(const vrb::ModelLoaderAndroidPtr& aLoader, AAssetManager* aAssetManager,
+                      const std::string& aMeshCacheDirectory, const int64_t aAssetVersion);
+  // Environments are not loaded again until InitializeJava is called.
+  void ShutdownJava();
+  // aSkyboxPath is a directory of cube map faces, its .ktx conversion is used if there is one.
+  void Register(const std::string& aName, const std::string& aSkyboxPath, const std::string& aModelPath,
+                const vrb::Matrix& aModelTransform);
+  // Shows aName, the first environment selected is shown right away without fading.
+  void Select(const std::string& aName);
+  const std::string& GetSelected() const;
+  // Advances loads and switches, called every frame on the render thread.
+  void Update();
+  // The sky box follows the head, the caller updates its transform every frame.
+  vrb::TransformPtr GetSkybox() const;
+  vrb::NodePtr GetFloor() const;
+
+  struct State;
+  EnvironmentManager(State& aState, vrb::CreationContextPtr& aContext);
+  ~EnvironmentManager();
+private:
+  State& m;
+  EnvironmentManager() = delete;
+  VRB_NO_DEFAULTS(EnvironmentManager)
+};
+
+} // namespace crow
+
+#endif // VRBROWSER_ENVIRONMENT_MANAGER_DOT_H
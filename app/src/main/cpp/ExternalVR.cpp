@@ -4,9 +4,12 @@
  * file, You can obtain one at http://mozilla.org/MPL/2.0/. */
 
 #include "ExternalVR.h"
+#include "LatencyHistogram.h"
+#include "PosePredictor.h"
 #include "VRBrowser.h"
 
 #include "vrb/ConcreteClass.h"
+#include "vrb/Logger.h"
 #include "vrb/Matrix.h"
 #include "vrb/Quaternion.h"
 #include "vrb/Vector.h"
@@ -19,13 +22,23 @@ namespace {
 const float SecondsToNanoseconds = 1e9f;
 const int SecondsToNanosecondsI32 = int(1e9);
 const int MicrosecondsToNanoseconds = 1000;
+// Number of immersive frames between two frame wait reports.
+const uint32_t kFrameWaitReportFrames = 600;
+// Push times are kept for the last frames to match them with the returned mInputFrameId.
+const int kPushedPoseCount = 16;
+const float kDefaultMaxHeadHorizon = 0.05f;
+const float kDefaultMaxControllerHorizon = 0.03f;
+// Weight of the newest measurement in the smoothed pose latency.
+const float kLatencySmoothing = 0.1f;
 
 class Lock {
   pthread_mutex_t& mMutex;
   bool mLocked;
 public:
-  Lock(pthread_mutex_t& aMutex) : mMutex(aMutex), mLocked(false) {
-    if (pthread_mutex_lock(&mMutex) == 0) {
+  enum class Mode { Blocking, Try };
+  Lock(pthread_mutex_t& aMutex, const Mode aMode = Mode::Blocking) : mMutex(aMutex), mLocked(false) {
+    const int result = aMode == Mode::Try ? pthread_mutex_trylock(&mMutex) : pthread_mutex_lock(&mMutex);
+    if (result == 0) {
       mLocked = true;
     }
   }
@@ -124,17 +137,43 @@ struct ExternalVR::State {
   mozilla::gfx::VRExternalShmem data;
   mozilla::gfx::VRSystemState system;
   mozilla::gfx::VRBrowserState browser;
+  // Back buffer the shared browser state is copied into while the mutex is held.
+  mozilla::gfx::VRBrowserState pulledBrowser;
   device::CapabilityFlags deviceCapabilities;
   vrb::Vector eyeOffsets[device::EyeCount];
   uint64_t lastFrameId;
   bool firstPresentingFrame;
   bool compositorEnabled;
   bool waitingForExit;
-
-  State() : deviceCapabilities(0) {
+  bool systemStatePending;
+  LatencyHistogram frameWait;
+  uint32_t frameWaitTimeouts;
+  uint32_t contendedPulls;
+  uint32_t contendedPushes;
+  bool predictionEnabled;
+  PosePredictor headPredictor;
+  PosePredictor controllerPredictors[mozilla::gfx::kVRControllerMaxCount];
+  struct PushedPose {
+    uint64_t inputFrameID;
+    uint64_t time;
+  };
+  PushedPose pushedPoses[kPushedPoseCount];
+  // Smoothed delay in seconds between pushing a pose and getting the frame rendered with it.
+  float poseLatency;
+  LatencyHistogram poseLatencies;
+  FILE* poseTrace;
+
+  State() : deviceCapabilities(0), systemStatePending(false), frameWaitTimeouts(0), contendedPulls(0),
+            contendedPushes(0), predictionEnabled(true), poseLatency(0.0f), poseTrace(nullptr) {
+    memset(pushedPoses, 0, sizeof(pushedPoses));
+    headPredictor.SetMaxHorizon(kDefaultMaxHeadHorizon);
+    for (PosePredictor& predictor: controllerPredictors) {
+      predictor.SetMaxHorizon(kDefaultMaxControllerHorizon);
+    }
     memset(&data, 0, sizeof(mozilla::gfx::VRExternalShmem));
     memset(&system, 0, sizeof(mozilla::gfx::VRSystemState));
     memset(&browser, 0, sizeof(mozilla::gfx::VRBrowserState));
+    memset(&pulledBrowser, 0, sizeof(mozilla::gfx::VRBrowserState));
     data.version = mozilla::gfx::kVRExternalVersion;
     data.size = sizeof(mozilla::gfx::VRExternalShmem);
     pthread_mutex_init(&data.systemMutex, nullptr);
@@ -154,16 +193,40 @@ struct ExternalVR::State {
   }
 
   ~State() {
+    if (poseTrace) {
+      fclose(poseTrace);
+    }
     pthread_mutex_destroy(&(data.systemMutex));
     pthread_mutex_destroy(&(data.browserMutex));
     pthread_cond_destroy(&(data.systemCond));
     pthread_cond_destroy(&(data.browserCond));
   }
 
+  // Gecko's gfxVRExternal reads the system state and writes the browser state holding these
+  // mutexes, the layout of VRExternalShmem on Android requires it. They are only held for the
+  // copies so Gecko's VR thread is never kept waiting for the render thread.
+  bool PublishSystemState(const Lock::Mode aMode) {
+    Lock lock(data.systemMutex, aMode);
+    if (!lock.IsLocked()) {
+      // Gecko is reading the previous state, publish on the next call instead of blocking.
+      systemStatePending = true;
+      contendedPushes++;
+      return false;
+    }
+    memcpy(&(data.state), &system, sizeof(mozilla::gfx::VRSystemState));
+    pthread_cond_signal(&data.systemCond);
+    systemStatePending = false;
+    return true;
+  }
+
   void PullBrowserStateWhileLocked() {
-    const bool wasPresenting = IsPresenting();
-    memcpy(&browser, &data.browserState, sizeof(mozilla::gfx::VRBrowserState));
+    memcpy(&pulledBrowser, &data.browserState, sizeof(mozilla::gfx::VRBrowserState));
+    ApplyBrowserState();
+  }
 
+  void ApplyBrowserState() {
+    const bool wasPresenting = IsPresenting();
+    memcpy(&browser, &pulledBrowser, sizeof(mozilla::gfx::VRBrowserState));
 
     if (!wasPresenting && IsPresenting()) {
       firstPresentingFrame = true;
@@ -177,6 +240,76 @@ struct ExternalVR::State {
   bool IsPresenting() const {
     return browser.presentationActive || browser.navigationTransitionActive || browser.layerState[0].type == mozilla::gfx::VRLayerType::LayerType_Stereo_Immersive;
   }
+
+  float GetPredictionHorizon() const {
+    return predictionEnabled ? poseLatency : 0.0f;
+  }
+
+  void RecordPushedPose(const uint64_t aTime) {
+    PushedPose& pushed = pushedPoses[system.sensorState.inputFrameID % kPushedPoseCount];
+    pushed.inputFrameID = system.sensorState.inputFrameID;
+    pushed.time = aTime;
+  }
+
+  void RecordPoseLatency(const uint64_t aInputFrameID) {
+    const PushedPose& pushed = pushedPoses[aInputFrameID % kPushedPoseCount];
+    if (aInputFrameID == 0 || pushed.inputFrameID != aInputFrameID) {
+      return;
+    }
+    const uint64_t latency = LatencyHistogram::NowMicroseconds() - pushed.time;
+    poseLatencies.Record(latency);
+    poseLatency += ((float)latency / 1000000.0f - poseLatency) * kLatencySmoothing;
+  }
+
+  vrb::Matrix PredictHeadTransform(const vrb::Matrix& aHeadTransform, const double aNow) {
+    PosePredictor::Pose pose;
+    vrb::Quaternion rotation(aHeadTransform);
+    memcpy(pose.orientation, rotation.Data(), sizeof(pose.orientation));
+    memcpy(pose.position, aHeadTransform.GetTranslation().Data(), sizeof(pose.position));
+    headPredictor.AddSample(aNow, pose);
+    if (poseTrace) {
+      PosePredictor::WriteTraceSample(poseTrace, aNow, pose);
+    }
+    if (!predictionEnabled || !headPredictor.HasVelocity()) {
+      return aHeadTransform;
+    }
+    headPredictor.Predict(GetPredictionHorizon(), pose);
+    const vrb::Quaternion predictedRotation(pose.orientation[0], pose.orientation[1], pose.orientation[2], pose.orientation[3]);
+    const vrb::Vector predictedPosition(pose.position[0], pose.position[1], pose.position[2]);
+    return vrb::Matrix::Position(predictedPosition).PostMultiply(vrb::Matrix::Rotation(predictedRotation));
+  }
+
+  vrb::Quaternion PredictControllerRotation(const int aIndex, const vrb::Matrix& aTransform, const double aNow) {
+    vrb::Quaternion rotation(aTransform);
+    if (!predictionEnabled) {
+      return rotation;
+    }
+    PosePredictor::Pose pose;
+    memcpy(pose.orientation, rotation.Data(), sizeof(pose.orientation));
+    PosePredictor& predictor = controllerPredictors[aIndex];
+    predictor.AddSample(aNow, pose);
+    predictor.Predict(GetPredictionHorizon(), pose);
+    return vrb::Quaternion(pose.orientation[0], pose.orientation[1], pose.orientation[2], pose.orientation[3]);
+  }
+
+  void RecordFrameWait(const uint64_t aStart, const bool aTimedOut) {
+    frameWait.Record(LatencyHistogram::NowMicroseconds() - aStart);
+    if (aTimedOut) {
+      frameWaitTimeouts++;
+    }
+    if (frameWait.GetCount() < kFrameWaitReportFrames) {
+      return;
+    }
+    VRB_LOG("ExternalVR frame wait: %s timeouts=%u contended pulls=%u pushes=%u",
+            frameWait.GetReport().c_str(), frameWaitTimeouts, contendedPulls, contendedPushes);
+    VRB_LOG("ExternalVR pose latency: %s predicted=%.1fms", poseLatencies.GetReport().c_str(),
+            GetPredictionHorizon() * 1000.0f);
+    frameWait.Reset();
+    poseLatencies.Reset();
+    frameWaitTimeouts = 0;
+    contendedPulls = 0;
+    contendedPushes = 0;
+  }
 };
 
 ExternalVRPtr
@@ -261,19 +394,24 @@ ExternalVR::SetEyeResolution(const int32_t aWidth, const int32_t aHeight) {
 
 void
 ExternalVR::PushSystemState() {
-  Lock lock(m.data.systemMutex);
-  if (lock.IsLocked()) {
-    memcpy(&(m.data.state), &(m.system), sizeof(mozilla::gfx::VRSystemState));
-    pthread_cond_signal(&m.data.systemCond);
-  }
+  m.PublishSystemState(Lock::Mode::Try);
 }
 
 void
 ExternalVR::PullBrowserState() {
-  Lock lock(m.data.browserMutex);
-  if (lock.IsLocked()) {
-   m.PullBrowserStateWhileLocked();
+  if (m.systemStatePending) {
+    m.PublishSystemState(Lock::Mode::Try);
+  }
+  {
+    Lock lock(m.data.browserMutex, Lock::Mode::Try);
+    if (!lock.IsLocked()) {
+      // Gecko is writing a new state, keep the previous snapshot and pick it up next frame.
+      m.contendedPulls++;
+      return;
+    }
+    memcpy(&m.pulledBrowser, &m.data.browserState, sizeof(mozilla::gfx::VRBrowserState));
   }
+  m.ApplyBrowserState();
 }
 
 void
@@ -289,10 +427,10 @@ ExternalVR::SetCompositorEnabled(bool aEnabled) {
     m.system.displayState.mSuppressFrames = true;
     m.system.displayState.mLastSubmittedFrameId = 0;
     m.lastFrameId = 0;
-    PushSystemState();
+    m.PublishSystemState(Lock::Mode::Blocking);
     VRBrowser::PauseCompositor();
     m.system.displayState.mSuppressFrames = false;
-    PushSystemState();
+    m.PublishSystemState(Lock::Mode::Blocking);
   }
 }
 
@@ -316,15 +454,19 @@ ExternalVR::GetVRState() const {
 
 void
 ExternalVR::PushFramePoses(const vrb::Matrix& aHeadTransform, const std::vector<Controller>& aControllers) {
-  const vrb::Matrix inverseHeadTransform = aHeadTransform.Inverse();
+  const uint64_t now = LatencyHistogram::NowMicroseconds();
+  const double nowSeconds = (double)now / 1000000.0;
+  const vrb::Matrix headTransform = m.PredictHeadTransform(aHeadTransform, nowSeconds);
+  const vrb::Matrix inverseHeadTransform = headTransform.Inverse();
   vrb::Quaternion quaternion(inverseHeadTransform);
-  vrb::Vector translation = aHeadTransform.GetTranslation();
+  vrb::Vector translation = headTransform.GetTranslation();
   memcpy(&(m.system.sensorState.pose.orientation), quaternion.Data(),
          sizeof(m.system.sensorState.pose.orientation));
   memcpy(&(m.system.sensorState.pose.position), translation.Data(),
          sizeof(m.system.sensorState.pose.position));
   m.system.sensorState.inputFrameID++;
   m.system.displayState.mLastSubmittedFrameId = m.lastFrameId;
+  m.RecordPushedPose(now);
 
   vrb::Matrix leftView = vrb::Matrix::Position(-m.eyeOffsets[device::EyeIndex(device::Eye::Left)]).PostMultiply(inverseHeadTransform);
   vrb::Matrix rightView = vrb::Matrix::Position(-m.eyeOffsets[device::EyeIndex(device::Eye::Right)]).PostMultiply(inverseHeadTransform);
@@ -335,9 +477,10 @@ ExternalVR::PushFramePoses(const vrb::Matrix& aHeadTransform, const std::vector<
 
 
   memset(m.system.controllerState, 0, sizeof(m.system.controllerState));
-  for (int i = 0; i < aControllers.size(); ++i) {
+  for (int i = 0; i < aControllers.size() && i < mozilla::gfx::kVRControllerMaxCount; ++i) {
     const Controller& controller = aControllers[i];
     if (controller.immersiveName.empty() || !controller.enabled) {
+      m.controllerPredictors[i].Reset();
       continue;
     }
     mozilla::gfx::VRControllerState& immersiveController = m.system.controllerState[i];
@@ -356,16 +499,18 @@ ExternalVR::PushFramePoses(const vrb::Matrix& aHeadTransform, const std::vector<
 
     immersiveController.flags = mozilla::gfx::ControllerCapabilityFlags::Cap_Orientation;
     immersiveController.isOrientationValid = true;
-    vrb::Quaternion quaternion(controller.transformMatrix);
+    vrb::Quaternion quaternion = m.PredictControllerRotation(i, controller.transformMatrix, nowSeconds);
     quaternion = quaternion.Inverse();
     memcpy(&(immersiveController.pose.orientation), quaternion.Data(), sizeof(immersiveController.pose.orientation));
   }
 
-  PushSystemState();
+  // Gecko needs the poses to render the frame we are about to wait for.
+  m.PublishSystemState(Lock::Mode::Blocking);
 }
 
 bool
 ExternalVR::WaitFrameResult() {
+  const uint64_t start = LatencyHistogram::NowMicroseconds();
   Wait wait(m.data.browserMutex, m.data.browserCond);
   wait.Lock();
   // browserMutex is locked in wait.lock().
@@ -386,6 +531,7 @@ ExternalVR::WaitFrameResult() {
     // Wait causes the current thread to block until the condition variable is notified or the timeout happens.
     // Waiting for the condition variable releases the mutex atomically. So GV can modify the browser data.
     if (!wait.DoWait(kConditionTimeout)) {
+      m.RecordFrameWait(start, true);
       return false;
     }
     // VRB_LOG("RequestFrame DONE TO WAIT FOR FRAME");
@@ -394,9 +540,39 @@ ExternalVR::WaitFrameResult() {
     m.PullBrowserStateWhileLocked();
   }
   m.lastFrameId = m.browser.layerState[0].layer_stereo_immersive.mFrameId;
+  m.RecordPoseLatency(m.browser.layerState[0].layer_stereo_immersive.mInputFrameId);
+  m.RecordFrameWait(start, false);
   return true;
 }
 
+void
+ExternalVR::SetPosePrediction(const bool aEnabled, const float aMaxHeadHorizon, const float aMaxControllerHorizon) {
+  m.predictionEnabled = aEnabled;
+  if (aMaxHeadHorizon >= 0.0f) {
+    m.headPredictor.SetMaxHorizon(aMaxHeadHorizon);
+  }
+  if (aMaxControllerHorizon >= 0.0f) {
+    for (PosePredictor& predictor: m.controllerPredictors) {
+      predictor.SetMaxHorizon(aMaxControllerHorizon);
+    }
+  }
+}
+
+void
+ExternalVR::SetPoseTraceFile(const std::string& aPath) {
+  if (m.poseTrace) {
+    fclose(m.poseTrace);
+    m.poseTrace = nullptr;
+  }
+  if (aPath.empty()) {
+    return;
+  }
+  m.poseTrace = fopen(aPath.c_str(), "w");
+  if (!m.poseTrace) {
+    VRB_ERROR("Unable to open pose trace file: %s", aPath.c_str());
+  }
+}
+
 void
 ExternalVR::CompleteEnumeration()
 {
@@ -416,12 +592,12 @@ ExternalVR::GetFrameResult(int32_t& aSurfaceHandle, device::EyeRect& aLeftEye, d
 void
 ExternalVR::StopPresenting() {
   m.system.displayState.mPresentingGeneration++;
-  PushSystemState();
+  m.PublishSystemState(Lock::Mode::Blocking);
   m.waitingForExit = true;
 }
 
 ExternalVR::ExternalVR(State& aState) : m(aState) {
-  PushSystemState();
+  m.PublishSystemState(Lock::Mode::Blocking);
 }
 
 ExternalVR::~ExternalVR() {}
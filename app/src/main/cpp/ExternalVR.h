@@ -47,6 +47,12 @@ public:
   bool IsPresenting() const;
   VRState GetVRState() const;
   void PushFramePoses(const vrb::Matrix& aHeadTransform, const std::vector<Controller>& aControllers);
+  // Head and controller poses are extrapolated by the measured delay between pushing a pose and
+  // the frame rendered with it being returned, up to the given horizons in seconds. A negative
+  // horizon keeps the current one.
+  void SetPosePrediction(const bool aEnabled, const float aMaxHeadHorizon, const float aMaxControllerHorizon);
+  // Records the sampled head poses to a trace that can be replayed offline. Empty path stops.
+  void SetPoseTraceFile(const std::string& aPath);
   bool WaitFrameResult();
   void GetFrameResult(int32_t& aSurfaceHandle, device::EyeRect& aLeftEye, device::EyeRect& aRightEye) const;
   void StopPresenting();
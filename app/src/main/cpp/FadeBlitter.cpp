@@ -120,6 +120,23 @@ FadeBlitter::FadeOut() {
   m.animations = kAnimationLength;
 }
 
+void
+FadeBlitter::FadeTo(const float aAlpha) {
+  m.animationStartAlpha = m.fadeColor.Alpha();
+  m.animationEndAlpha = aAlpha;
+  m.animations = kAnimationLength;
+}
+
+bool
+FadeBlitter::IsAnimating() const {
+  return m.animations >= 0;
+}
+
+float
+FadeBlitter::GetTargetAlpha() const {
+  return m.animationEndAlpha;
+}
+
 FadeBlitter::FadeBlitter(State& aState, vrb::CreationContextPtr& aContext)
     : vrb::ResourceGL(aState, aContext)
     , m(aState)
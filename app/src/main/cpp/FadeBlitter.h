@@ -23,6 +23,11 @@ public:
   bool IsVisible() const;
   void FadeIn();
   void FadeOut();
+  // Animates from the current alpha to aAlpha, 1.0 hides the world completely.
+  void FadeTo(const float aAlpha);
+  bool IsAnimating() const;
+  // The alpha the last fade ends at.
+  float GetTargetAlpha() const;
 protected:
   struct State;
   FadeBlitter(State& aState, vrb::CreationContextPtr& aContext);
@@ -0,0 +1,214 @@
+/* -*- Mode: C++; tab-width: 20; indent-tabs-mode: nil; c-basic-offset: 2 -*-
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/. */
+
+#include "JNIProfiler.h"
+
+#include <cstdio>
+#include <cstring>
+#include <mutex>
+#include <time.h>
+
+namespace {
+
+const char* kJNIPrefix = "Java_org_mozilla_vrbrowser_";
+
+struct Method {
+  std::string name;
+  crow::JNIProfiler::Direction direction;
+  // Updated by the calling threads.
+  std::atomic<uint64_t> frameCalls;
+  std::atomic<uint64_t> frameNanoseconds;
+  std::atomic<uint64_t> frameMax;
+  // Updated by EndFrame.
+  uint64_t calls;
+  uint64_t nanoseconds;
+  uint64_t max;
+  uint64_t frames;
+};
+
+std::atomic<bool> sEnabled(false);
+std::atomic<int32_t> sMethodCount(0);
+Method sMethods[crow::JNIProfiler::kMaxMethods];
+// Guards registration, the output file and the session totals.
+std::mutex sMutex;
+FILE* sOutput = nullptr;
+uint64_t sFrames = 0;
+
+const char*
+GetDirectionName(const crow::JNIProfiler::Direction aDirection) {
+  return aDirection == crow::JNIProfiler::Direction::JavaToNative ? "java_to_native" : "native_to_java";
+}
+
+void
+ResetCounters() {
+  const int32_t count = sMethodCount.load();
+  for (int32_t i = 0; i < count; i++) {
+    Method& method = sMethods[i];
+    method.frameCalls.store(0);
+    method.frameNanoseconds.store(0);
+    method.frameMax.store(0);
+    method.calls = 0;
+    method.nanoseconds = 0;
+    method.max = 0;
+    method.frames = 0;
+  }
+  sFrames = 0;
+}
+
+void
+CloseOutput() {
+  if (sOutput) {
+    fclose(sOutput);
+    sOutput = nullptr;
+  }
+}
+
+} // namespace
+
+namespace crow {
+
+JNIProfiler::Scope::Scope(const int32_t aMethod) : mMethod(-1), mStart(0) {
+  if (aMethod >= 0 && sEnabled.load(std::memory_order_relaxed)) {
+    mMethod = aMethod;
+    mStart = NowNanoseconds();
+  }
+}
+
+JNIProfiler::Scope::~Scope() {
+  if (mMethod >= 0) {
+    Record(mMethod, NowNanoseconds() - mStart);
+  }
+}
+
+int32_t
+JNIProfiler::Register(const char* aName, const Direction aDirection) {
+  std::lock_guard<std::mutex> lock(sMutex);
+  const char* name = aName;
+  if (strncmp(name, kJNIPrefix, strlen(kJNIPrefix)) == 0) {
+    // Java_org_mozilla_vrbrowser_<Class>_<method>
+    const char* method = strchr(name + strlen(kJNIPrefix), '_');
+    name = method ? method + 1 : name;
+  }
+  const int32_t count = sMethodCount.load();
+  for (int32_t i = 0; i < count; i++) {
+    if (sMethods[i].direction == aDirection && sMethods[i].name == name) {
+      return i;
+    }
+  }
+  if (count >= kMaxMethods) {
+    return -1;
+  }
+  Method& method = sMethods[count];
+  method.name = name;
+  method.direction = aDirection;
+  method.frameCalls.store(0);
+  method.frameNanoseconds.store(0);
+  method.frameMax.store(0);
+  method.calls = 0;
+  method.nanoseconds = 0;
+  method.max = 0;
+  method.frames = 0;
+  // Published last, EndFrame only reads the methods below the count.
+  sMethodCount.store(count + 1);
+  return count;
+}
+
+bool
+JNIProfiler::IsEnabled() {
+  return sEnabled.load(std::memory_order_relaxed);
+}
+
+void
+JNIProfiler::Enable(const std::string& aPath) {
+  std::lock_guard<std::mutex> lock(sMutex);
+  CloseOutput();
+  ResetCounters();
+  if (!aPath.empty()) {
+    sOutput = fopen(aPath.c_str(), "w");
+    if (sOutput) {
+      fprintf(sOutput, "frame,direction,method,calls,total_us,max_us\n");
+    }
+  }
+  sEnabled.store(true);
+}
+
+void
+JNIProfiler::Disable() {
+  sEnabled.store(false);
+  std::lock_guard<std::mutex> lock(sMutex);
+  CloseOutput();
+}
+
+void
+JNIProfiler::EndFrame() {
+  if (!sEnabled.load(std::memory_order_relaxed)) {
+    return;
+  }
+  std::lock_guard<std::mutex> lock(sMutex);
+  const int32_t count = sMethodCount.load();
+  for (int32_t i = 0; i < count; i++) {
+    Method& method = sMethods[i];
+    const uint64_t calls = method.frameCalls.exchange(0, std::memory_order_relaxed);
+    if (calls == 0) {
+      continue;
+    }
+    const uint64_t nanoseconds = method.frameNanoseconds.exchange(0, std::memory_order_relaxed);
+    const uint64_t max = method.frameMax.exchange(0, std::memory_order_relaxed);
+    method.calls += calls;
+    method.nanoseconds += nanoseconds;
+    method.max = max > method.max ? max : method.max;
+    method.frames++;
+    if (sOutput) {
+      fprintf(sOutput, "%llu,%s,%s,%llu,%.1f,%.1f\n", (unsigned long long)sFrames,
+              GetDirectionName(method.direction), method.name.c_str(), (unsigned long long)calls,
+              nanoseconds / 1000.0, max / 1000.0);
+    }
+  }
+  sFrames++;
+}
+
+uint64_t
+JNIProfiler::GetFrameCount() {
+  std::lock_guard<std::mutex> lock(sMutex);
+  return sFrames;
+}
+
+std::string
+JNIProfiler::GetSummary() {
+  std::lock_guard<std::mutex> lock(sMutex);
+  std::string result;
+  char line[256];
+  const int32_t count = sMethodCount.load();
+  for (int32_t i = 0; i < count; i++) {
+    const Method& method = sMethods[i];
+    if (method.calls == 0) {
+      continue;
+    }
+    snprintf(line, sizeof(line), "%s,%s,%llu,%.1f,%.1f,%llu\n", GetDirectionName(method.direction),
+             method.name.c_str(), (unsigned long long)method.calls, method.nanoseconds / 1000.0,
+             method.max / 1000.0, (unsigned long long)method.frames);
+    result += line;
+  }
+  return result;
+}
+
+uint64_t
+JNIProfiler::NowNanoseconds() {
+  struct timespec now;
+  clock_gettime(CLOCK_MONOTONIC, &now);
+  return (uint64_t)now.tv_sec * 1000000000 + (uint64_t)now.tv_nsec;
+}
+
+void
+JNIProfiler::Record(const int32_t aMethod, const uint64_t aNanoseconds) {
+  Method& method = sMethods[aMethod];
+  method.frameCalls.fetch_add(1, std::memory_order_relaxed);
+  method.frameNanoseconds.fetch_add(aNanoseconds, std::memory_order_relaxed);
+  uint64_t max = method.frameMax.load(std::memory_order_relaxed);
+  while (aNanoseconds > max &&
+         !method.frameMax.compare_exchange_weak(max, aNanoseconds, std::memory_order_relaxed)) {}
+}
+
+} // namespace crow
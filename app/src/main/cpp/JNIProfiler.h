@@ -0,0 +1,71 @@
+/* -*- Mode: C++; tab-width: 20; indent-tabs-mode: nil; c-basic-offset: 2 -*-
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/. */
+
+#ifndef VRBROWSER_JNI_PROFILER_DOT_H
+#define VRBROWSER_JNI_PROFILER_DOT_H
+
+#include <atomic>
+#include <cstdint>
+#include <string>
+
+namespace crow {
+
+// Opt-in counters and timers for the crossings between Java and native code. Each instrumented
+// function registers itself once, then every call is counted and timed while profiling is
+// enabled. When it is disabled a call only costs a relaxed atomic load. Calls may come from any
+// thread. Aggregates are collected per frame by EndFrame, appended to a CSV file and summed up
+// for the whole session. It has no dependency on vrb or JNI so it can be unit tested on the host.
+class JNIProfiler {
+public:
+  enum class Direction {
+    JavaToNative = 0,
+    NativeToJava = 1
+  };
+  static const int32_t kMaxMethods = 64;
+
+  class Scope {
+  public:
+    explicit Scope(const int32_t aMethod);
+    ~Scope();
+  private:
+    int32_t mMethod;
+    uint64_t mStart;
+    Scope() = delete;
+    Scope(const Scope&) = delete;
+    Scope& operator=(const Scope&) = delete;
+  };
+
+  // Returns the id of the method, -1 once the table is full. JNI function names are shortened
+  // to the Java method name.
+  static int32_t Register(const char* aName, const Direction aDirection);
+  static bool IsEnabled();
+  // Resets the counters. Per frame aggregates are appended to aPath if it is not empty.
+  static void Enable(const std::string& aPath);
+  static void Disable();
+  // Collects the calls made since the previous frame. Must be called from a single thread.
+  static void EndFrame();
+  static uint64_t GetFrameCount();
+  // Session totals, one line per method called at least once:
+  // "direction,name,calls,total_us,max_us,frames_with_calls"
+  static std::string GetSummary();
+  static uint64_t NowNanoseconds();
+private:
+  static void Record(const int32_t aMethod, const uint64_t aNanoseconds);
+  JNIProfiler() = delete;
+};
+
+} // namespace crow
+
+// Times the rest of the enclosing scope.
+#define PROFILE_JNI_CALL(aName, aDirection) \
+  static const int32_t sJNIProfilerMethod = crow::JNIProfiler::Register(aName, aDirection); \
+  crow::JNIProfiler::Scope jniProfilerScope(sJNIProfilerMethod)
+
+// Place at the top of a JNI function called from Java.
+#define PROFILE_JNI_DOWNCALL() PROFILE_JNI_CALL(__FUNCTION__, crow::JNIProfiler::Direction::JavaToNative)
+// Place at the top of a function calling into Java.
+#define PROFILE_JNI_UPCALL() PROFILE_JNI_CALL(__FUNCTION__, crow::JNIProfiler::Direction::NativeToJava)
+
+#endif // VRBROWSER_JNI_PROFILER_DOT_H
@@ -0,0 +1,156 @@
+/* -*- Mode: C++; tab-width: 20; indent-tabs-mode: nil; c-basic-offset: 2 -*-
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/. */
+
+#include "KTXImage.h"
+
+#include <cstring>
+
+namespace {
+
+const uint8_t kIdentifier[] = {
+  0xAB, 'K', 'T', 'X', ' ', '1', '1', 0xBB, '\r', '\n', 0x1A, '\n'
+};
+const uint32_t kEndianness = 0x04030201;
+const uint32_t kMaxLevels = 32;
+
+uint32_t
+ReadUInt32(const uint8_t* aData) {
+  // KTX files are written in the byte order of the device, little endian on Android.
+  uint32_t result;
+  memcpy(&result, aData, sizeof(result));
+  return result;
+}
+
+uint32_t
+Pad(const uint32_t aSize) {
+  return (aSize + 3u) & ~3u;
+}
+
+} // namespace
+
+namespace crow {
+
+KTXImage::KTXImage()
+    : mInternalFormat(0)
+    , mWidth(0)
+    , mHeight(0)
+    , mFaceCount(0)
+    , mLevelCount(0)
+{}
+
+bool
+KTXImage::Parse(const uint8_t* aData, const size_t aLength) {
+  Clear();
+  if (!aData || aLength < kHeaderSize || memcmp(aData, kIdentifier, sizeof(kIdentifier)) != 0) {
+    return false;
+  }
+  const uint8_t* header = aData + sizeof(kIdentifier);
+  if (ReadUInt32(header) != kEndianness) {
+    return false;
+  }
+  const uint32_t type = ReadUInt32(header + 4);
+  const uint32_t format = ReadUInt32(header + 12);
+  const uint32_t internalFormat = ReadUInt32(header + 16);
+  const uint32_t width = ReadUInt32(header + 24);
+  const uint32_t height = ReadUInt32(header + 28);
+  const uint32_t depth = ReadUInt32(header + 32);
+  const uint32_t arrayElements = ReadUInt32(header + 36);
+  const uint32_t faces = ReadUInt32(header + 40);
+  const uint32_t levels = ReadUInt32(header + 44);
+  const uint32_t keyValueSize = ReadUInt32(header + 48);
+  // Compressed files have no type nor format. Files without levels expect them to be
+  // generated, which compressed textures can't do.
+  if (type != 0 || format != 0 || internalFormat == 0 || width == 0 || height == 0 ||
+      depth != 0 || arrayElements != 0 || (faces != 1 && faces != 6) ||
+      (faces == 6 && width != height) || levels == 0 || levels > kMaxLevels) {
+    return false;
+  }
+
+  size_t offset = kHeaderSize;
+  if (keyValueSize > aLength - offset) {
+    return false;
+  }
+  offset += keyValueSize;
+  std::vector<Image> images;
+  images.reserve(faces * levels);
+  for (uint32_t level = 0; level < levels; level++) {
+    if (aLength - offset < 4) {
+      return false;
+    }
+    // For cube maps this is the size of one face.
+    const uint32_t size = ReadUInt32(aData + offset);
+    offset += 4;
+    for (uint32_t face = 0; face < faces; face++) {
+      if (size == 0 || size > aLength - offset) {
+        return false;
+      }
+      images.push_back({aData + offset, size});
+      offset += size;
+      const uint32_t padding = Pad(size) - size;
+      offset += padding < aLength - offset ? padding : aLength - offset;
+    }
+  }
+
+  mInternalFormat = internalFormat;
+  mWidth = width;
+  mHeight = height;
+  mFaceCount = faces;
+  mLevelCount = levels;
+  mImages.swap(images);
+  return true;
+}
+
+void
+KTXImage::Clear() {
+  mInternalFormat = 0;
+  mWidth = 0;
+  mHeight = 0;
+  mFaceCount = 0;
+  mLevelCount = 0;
+  mImages.clear();
+}
+
+bool
+KTXImage::IsValid() const {
+  return !mImages.empty();
+}
+
+uint32_t
+KTXImage::GetInternalFormat() const {
+  return mInternalFormat;
+}
+
+uint32_t
+KTXImage::GetWidth() const {
+  return mWidth;
+}
+
+uint32_t
+KTXImage::GetHeight() const {
+  return mHeight;
+}
+
+uint32_t
+KTXImage::GetFaceCount() const {
+  return mFaceCount;
+}
+
+uint32_t
+KTXImage::GetLevelCount() const {
+  return mLevelCount;
+}
+
+const uint8_t*
+KTXImage::GetImage(const uint32_t aLevel, const uint32_t aFace, uint32_t& aSize) const {
+  if (aLevel >= mLevelCount || aFace >= mFaceCount) {
+    aSize = 0;
+    return nullptr;
+  }
+  const Image& image = mImages[aLevel * mFaceCount + aFace];
+  aSize = image.size;
+  return image.data;
+}
+
+} // namespace crow
@@ -0,0 +1,51 @@
+/* -*- Mode: C++; tab-width: 20; indent-tabs-mode: nil; c-basic-offset: 2 -*-
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/. */
+
+#ifndef VRBROWSER_KTX_IMAGE_DOT_H
+#define VRBROWSER_KTX_IMAGE_DOT_H
+
+#include <cstddef>
+#include <cstdint>
+#include <vector>
+
+namespace crow {
+
+// Reads the compressed images of a KTX 1.1 file (see tools/textures), either a 2D texture or a
+// cube map with all of its mip levels. The images point into the parsed buffer, nothing is
+// copied. Files that would need byte swapping, uncompressed files and texture arrays are
+// rejected. It has no dependency on vrb so it can be unit tested on the host.
+class KTXImage {
+public:
+  static const uint32_t kHeaderSize = 64;
+
+  KTXImage();
+  // Returns false if aData is not a valid KTX file. aData must outlive the image.
+  bool Parse(const uint8_t* aData, const size_t aLength);
+  void Clear();
+  bool IsValid() const;
+  uint32_t GetInternalFormat() const;
+  uint32_t GetWidth() const;
+  uint32_t GetHeight() const;
+  // 6 for cube maps, in +X, -X, +Y, -Y, +Z, -Z order.
+  uint32_t GetFaceCount() const;
+  uint32_t GetLevelCount() const;
+  // Returns nullptr if the level or the face is out of range.
+  const uint8_t* GetImage(const uint32_t aLevel, const uint32_t aFace, uint32_t& aSize) const;
+private:
+  struct Image {
+    const uint8_t* data;
+    uint32_t size;
+  };
+  uint32_t mInternalFormat;
+  uint32_t mWidth;
+  uint32_t mHeight;
+  uint32_t mFaceCount;
+  uint32_t mLevelCount;
+  std::vector<Image> mImages;
+};
+
+} // namespace crow
+
+#endif // VRBROWSER_KTX_IMAGE_DOT_H
@@ -0,0 +1,120 @@
+/* -*- Mode: C++; tab-width: 20; indent-tabs-mode: nil; c-basic-offset: 2 -*-
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/. */
+
+#include "LatencyHistogram.h"
+
+#include <cstdio>
+#include <cstring>
+#include <time.h>
+
+namespace {
+
+// Each power of two range is split in kSubBuckets linear buckets, so the reported percentiles
+// are within 25% of the real value instead of a factor of two.
+const int kSubBucketBits = 2;
+const uint64_t kSubBuckets = 1 << kSubBucketBits;
+
+int
+GetBucket(const uint64_t aMicroseconds) {
+  if (aMicroseconds < kSubBuckets) {
+    return (int)aMicroseconds;
+  }
+  int exponent = 0;
+  while ((aMicroseconds >> (exponent + 1)) != 0) {
+    exponent++;
+  }
+  const int shift = exponent - kSubBucketBits;
+  const int sub = (int)((aMicroseconds >> shift) & (kSubBuckets - 1));
+  const int bucket = (int)kSubBuckets + shift * (int)kSubBuckets + sub;
+  return bucket < crow::LatencyHistogram::kBucketCount ? bucket : crow::LatencyHistogram::kBucketCount - 1;
+}
+
+uint64_t
+GetBucketUpperBound(const int aBucket) {
+  if (aBucket < (int)kSubBuckets) {
+    return (uint64_t)aBucket;
+  }
+  const int shift = (aBucket - (int)kSubBuckets) / (int)kSubBuckets;
+  const uint64_t sub = (uint64_t)((aBucket - (int)kSubBuckets) % (int)kSubBuckets);
+  return ((kSubBuckets + sub + 1) << shift) - 1;
+}
+
+} // namespace
+
+namespace crow {
+
+LatencyHistogram::LatencyHistogram() {
+  Reset();
+}
+
+void
+LatencyHistogram::Record(const uint64_t aMicroseconds) {
+  mBuckets[GetBucket(aMicroseconds)]++;
+  mCount++;
+  mTotal += aMicroseconds;
+  if (aMicroseconds > mMax) {
+    mMax = aMicroseconds;
+  }
+}
+
+void
+LatencyHistogram::Reset() {
+  memset(mBuckets, 0, sizeof(mBuckets));
+  mCount = 0;
+  mTotal = 0;
+  mMax = 0;
+}
+
+uint64_t
+LatencyHistogram::GetCount() const {
+  return mCount;
+}
+
+uint64_t
+LatencyHistogram::GetMax() const {
+  return mMax;
+}
+
+uint64_t
+LatencyHistogram::GetAverage() const {
+  return mCount > 0 ? mTotal / mCount : 0;
+}
+
+uint64_t
+LatencyHistogram::GetPercentile(const float aPercentile) const {
+  if (mCount == 0) {
+    return 0;
+  }
+  const uint64_t target = (uint64_t)((double)mCount * aPercentile / 100.0);
+  uint64_t accumulated = 0;
+  for (int bucket = 0; bucket < kBucketCount; bucket++) {
+    accumulated += mBuckets[bucket];
+    if (accumulated > target || accumulated == mCount) {
+      // The last bucket is open ended, report the real maximum instead.
+      const uint64_t upper = (bucket < kBucketCount - 1) ? GetBucketUpperBound(bucket) : mMax;
+      return upper < mMax ? upper : mMax;
+    }
+  }
+  return mMax;
+}
+
+std::string
+LatencyHistogram::GetReport() const {
+  char buffer[160];
+  snprintf(buffer, sizeof(buffer), "count=%llu avg=%lluus p50=%lluus p90=%lluus p99=%lluus max=%lluus",
+           (unsigned long long)mCount, (unsigned long long)GetAverage(),
+           (unsigned long long)GetPercentile(50.0f), (unsigned long long)GetPercentile(90.0f),
+           (unsigned long long)GetPercentile(99.0f), (unsigned long long)mMax);
+  return std::string(buffer);
+}
+
+uint64_t
+LatencyHistogram::NowMicroseconds() {
+  struct timespec now;
+  clock_gettime(CLOCK_MONOTONIC, &now);
+  return (uint64_t)now.tv_sec * 1000000 + (uint64_t)now.tv_nsec / 1000;
+}
+
+} // namespace crow
@@ -0,0 +1,42 @@
+/* -*- Mode: C++; tab-width: 20; indent-tabs-mode: nil; c-basic-offset: 2 -*-
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/. */
+
+#ifndef VRBROWSER_LATENCY_HISTOGRAM_DOT_H
+#define VRBROWSER_LATENCY_HISTOGRAM_DOT_H
+
+#include <cstdint>
+#include <string>
+
+namespace crow {
+
+// Fixed size histogram of durations in microseconds. Buckets are logarithmic so recording
+// never allocates and is cheap enough to be done every frame on the render thread.
+class LatencyHistogram {
+public:
+  // Covers durations up to 2^31us, longer ones are counted in the last bucket.
+  static const int kBucketCount = 120;
+
+  LatencyHistogram();
+  void Record(const uint64_t aMicroseconds);
+  void Reset();
+  uint64_t GetCount() const;
+  uint64_t GetMax() const;
+  uint64_t GetAverage() const;
+  // Upper bound of the bucket containing the given percentile, in the [0, 100] range.
+  uint64_t GetPercentile(const float aPercentile) const;
+  // One line summary with the count, average, p50, p90, p99 and max.
+  std::string GetReport() const;
+  // Monotonic clock helper for callers timing an operation.
+  static uint64_t NowMicroseconds();
+private:
+  uint64_t mBuckets[kBucketCount];
+  uint64_t mCount;
+  uint64_t mTotal;
+  uint64_t mMax;
+};
+
+} // namespace crow
+
+#endif // VRBROWSER_LATENCY_HISTOGRAM_DOT_H
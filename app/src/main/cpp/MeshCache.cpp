@@ -0,0 +1,240 @@
+/* -*- Mode: C++; tab-width: 20; indent-tabs-mode: nil; c-basic-offset: 2 -*-
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/. */
+
+#include "MeshCache.h"
+#include "MeshFile.h"
+#include "vrb/Color.h"
+#include "vrb/CreationContext.h"
+#include "vrb/Geometry.h"
+#include "vrb/Group.h"
+#include "vrb/Logger.h"
+#include "vrb/RenderState.h"
+#include "vrb/TextureGL.h"
+#include "vrb/Vector.h"
+#include "vrb/VertexArray.h"
+
+#include <dirent.h>
+#include <fstream>
+#include <sstream>
+#include <sys/stat.h>
+#include <time.h>
+#include <unistd.h>
+#include <vector>
+
+namespace {
+
+double
+GetTimeInMilliseconds() {
+  struct timespec now;
+  clock_gettime(CLOCK_MONOTONIC, &now);
+  return (double)now.tv_sec * 1e3 + (double)now.tv_nsec / 1e6;
+}
+
+bool
+ReadFile(AAssetManager* aAssetManager, const std::string& aPath, std::string& aContents) {
+  if (!aPath.empty() && aPath[0] == '/') {
+    std::ifstream input(aPath, std::ios::binary);
+    if (!input) {
+      return false;
+    }
+    std::stringstream buffer;
+    buffer << input.rdbuf();
+    aContents = buffer.str();
+    return true;
+  }
+  if (!aAssetManager) {
+    return false;
+  }
+  AAsset* asset = AAssetManager_open(aAssetManager, aPath.c_str(), AASSET_MODE_BUFFER);
+  if (!asset) {
+    return false;
+  }
+  const off_t length = AAsset_getLength(asset);
+  aContents.resize((size_t)length);
+  const bool result = AAsset_read(asset, &aContents[0], (size_t)length) == length;
+  AAsset_close(asset);
+  return result;
+}
+
+std::string
+Directory(const std::string& aPath) {
+  const size_t slash = aPath.rfind('/');
+  return slash == std::string::npos ? "" : aPath.substr(0, slash + 1);
+}
+
+std::string
+BaseName(const std::string& aPath) {
+  const size_t slash = aPath.rfind('/');
+  const std::string name = slash == std::string::npos ? aPath : aPath.substr(slash + 1);
+  const size_t dot = name.rfind('.');
+  return dot == std::string::npos ? name : name.substr(0, dot);
+}
+
+// Length and version of a model without reading it, see MeshCacheName.
+bool
+GetModelInfo(AAssetManager* aAssetManager, const std::string& aPath, const int64_t aAssetVersion,
+             uint64_t& aLength, int64_t& aVersion) {
+  if (!aPath.empty() && aPath[0] == '/') {
+    struct stat info;
+    if (stat(aPath.c_str(), &info) != 0) {
+      return false;
+    }
+    aLength = (uint64_t)info.st_size;
+    aVersion = (int64_t)info.st_mtime;
+    return true;
+  }
+  if (!aAssetManager) {
+    return false;
+  }
+  AAsset* asset = AAssetManager_open(aAssetManager, aPath.c_str(), AASSET_MODE_UNKNOWN);
+  if (!asset) {
+    return false;
+  }
+  aLength = (uint64_t)AAsset_getLength(asset);
+  AAsset_close(asset);
+  aVersion = aAssetVersion;
+  return true;
+}
+
+// Cached meshes of older versions of the model.
+void
+RemoveStaleEntries(const std::string& aDirectory, const std::string& aBaseName, const std::string& aKeep) {
+  DIR* directory = opendir(aDirectory.c_str());
+  if (!directory) {
+    return;
+  }
+  const std::string prefix = aBaseName + "-";
+  while (struct dirent* entry = readdir(directory)) {
+    const std::string name = entry->d_name;
+    if (name != aKeep && name.compare(0, prefix.size(), prefix) == 0) {
+      unlink((aDirectory + "/" + name).c_str());
+    }
+  }
+  closedir(directory);
+}
+
+vrb::GroupPtr
+CreateNodes(vrb::CreationContextPtr& aContext, const crow::MeshFile& aMesh, const std::string& aTextureDirectory,
+            size_t* aBytes) {
+  if (aBytes) {
+    *aBytes = aMesh.GetVertexCount() * crow::MeshData::kVertexSize * sizeof(float) +
+              aMesh.GetIndexCount() * sizeof(uint32_t);
+  }
+  vrb::VertexArrayPtr array = vrb::VertexArray::Create(aContext);
+  const float* vertex = aMesh.GetVertices();
+  for (uint32_t index = 0; index < aMesh.GetVertexCount(); index++, vertex += crow::MeshData::kVertexSize) {
+    array->AppendVertex(vrb::Vector(vertex[0], vertex[1], vertex[2]));
+    array->AppendNormal(vrb::Vector(vertex[3], vertex[4], vertex[5]));
+    // Like in vrb's OBJ loader, textures are uploaded top row first.
+    array->AppendUV(vrb::Vector(vertex[6], 1.0f - vertex[7], 0.0f));
+  }
+
+  vrb::GroupPtr result = vrb::Group::Create(aContext);
+  std::vector<vrb::RenderStatePtr> states(aMesh.GetMaterialCount());
+  const uint32_t* indices = aMesh.GetIndices();
+  for (uint32_t index = 0; index < aMesh.GetGroupCount(); index++) {
+    const crow::MeshData::Group& group = aMesh.GetGroup(index);
+    vrb::RenderStatePtr& state = states[group.material];
+    if (!state) {
+      const crow::MeshFile::Material material = aMesh.GetMaterial(group.material);
+      state = vrb::RenderState::Create(aContext);
+      state->SetMaterial(vrb::Color(material.ambient[0], material.ambient[1], material.ambient[2]),
+                         vrb::Color(material.diffuse[0], material.diffuse[1], material.diffuse[2]),
+                         vrb::Color(material.specular[0], material.specular[1], material.specular[2]),
+                         material.shininess);
+      if (material.texture) {
+        state->SetTexture(aContext->LoadTexture(aTextureDirectory + material.texture));
+      }
+    }
+    vrb::GeometryPtr geometry = vrb::Geometry::Create(aContext);
+    geometry->SetVertexArray(array);
+    geometry->SetRenderState(state);
+    std::vector<int> face(3);
+    for (uint32_t i = group.firstIndex; i < group.firstIndex + group.indexCount; i += 3) {
+      // Faces index the vertex array from 1.
+      face[0] = indices[i] + 1;
+      face[1] = indices[i + 1] + 1;
+      face[2] = indices[i + 2] + 1;
+      geometry->AddFace(face, face, face);
+    }
+    result->AddNode(geometry);
+  }
+  return result;
+}
+
+} // namespace
+
+namespace crow {
+
+const char* const MeshCache::kDirectory = "meshes";
+
+vrb::GroupPtr
+MeshCache::Load(vrb::CreationContextPtr& aContext, AAssetManager* aAssetManager,
+                const std::string& aCacheDirectory, const int64_t aAssetVersion,
+                const std::string& aPath, size_t* aBytes) {
+  const double start = GetTimeInMilliseconds();
+  uint64_t length = 0;
+  int64_t version = 0;
+  if (!GetModelInfo(aAssetManager, aPath, aAssetVersion, length, version)) {
+    VRB_ERROR("Unable to find model: %s", aPath.c_str());
+    return nullptr;
+  }
+  const std::string directory = Directory(aPath);
+  const bool useCache = !aCacheDirectory.empty() && aCacheDirectory[0] == '/';
+  const std::string cacheName = MeshCacheName(aPath, length, version);
+  const std::string cachePath = aCacheDirectory + "/" + cacheName;
+
+  if (useCache) {
+    MappedMeshFile mapped;
+    if (mapped.Open(cachePath)) {
+      vrb::GroupPtr result = CreateNodes(aContext, mapped.GetMesh(), directory, aBytes);
+      VRB_LOG("Loaded cached mesh %s in %.1f ms", aPath.c_str(), GetTimeInMilliseconds() - start);
+      return result;
+    }
+    // Missing, or left invalid by an interrupted write.
+    unlink(cachePath.c_str());
+  }
+
+  std::string obj;
+  if (!ReadFile(aAssetManager, aPath, obj)) {
+    VRB_ERROR("Unable to read model: %s", aPath.c_str());
+    return nullptr;
+  }
+  MeshData data;
+  std::string error;
+  ReadFileCallback readLibrary = [&](const std::string& aName, std::string& aContents) {
+    return ReadFile(aAssetManager, directory + aName, aContents);
+  };
+  if (!ParseObj(obj.c_str(), obj.size(), readLibrary, data, error)) {
+    VRB_ERROR("Unable to parse model %s: %s", aPath.c_str(), error.c_str());
+    return nullptr;
+  }
+  std::vector<uint8_t> bytes;
+  MeshFile::Write(data, bytes);
+  MeshFile mesh;
+  if (!mesh.Parse(bytes.data(), bytes.size())) {
+    return nullptr;
+  }
+  vrb::GroupPtr result = CreateNodes(aContext, mesh, directory, aBytes);
+  VRB_LOG("Parsed model %s in %.1f ms", aPath.c_str(), GetTimeInMilliseconds() - start);
+
+  if (useCache) {
+    mkdir(aCacheDirectory.c_str(), 0700);
+    // Written aside and renamed, so a partial file is never mapped.
+    const std::string temporaryPath = cachePath + ".tmp";
+    std::ofstream output(temporaryPath, std::ios::binary | std::ios::trunc);
+    output.write((const char*)bytes.data(), bytes.size());
+    output.close();
+    if (output && rename(temporaryPath.c_str(), cachePath.c_str()) == 0) {
+      RemoveStaleEntries(aCacheDirectory, BaseName(aPath), cacheName);
+    } else {
+      VRB_ERROR("Unable to cache mesh: %s", cachePath.c_str());
+      unlink(temporaryPath.c_str());
+    }
+  }
+  return result;
+}
+
+} // namespace crow
@@ -0,0 +1,35 @@
+/* -*- Mode: C++; tab-width: 20; indent-tabs-mode: nil; c-basic-offset: 2 -*-
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/. */
+
+#ifndef VRBROWSER_MESH_CACHE_DOT_H
+#define VRBROWSER_MESH_CACHE_DOT_H
+
+#include "vrb/Forward.h"
+
+#include <android/asset_manager.h>
+#include <string>
+
+namespace crow {
+
+// Loads OBJ models from a cache of their binary form (see MeshFile.h) kept in app storage.
+// Cache entries are keyed by the model path, its length and a version: the app update time for
+// assets, which covers their MTL libraries, and the modification time for files. Nothing is read
+// to find an entry, updated models are parsed again on their first run. Cached meshes are memory
+// mapped and fed to the vertex arrays as they are, without parsing any text.
+class MeshCache {
+public:
+  static const char* const kDirectory;
+  // Meant to run as a load task. aPath is an asset, or a file for absolute paths. The cache is
+  // skipped if aCacheDirectory is not an absolute path. Returns nullptr if the model can't be
+  // read or parsed. aAssetVersion is the app update time, see VRBrowser::GetAppUpdateTime.
+  // aBytes, if given, is set to the size of the vertex and index data.
+  static vrb::GroupPtr Load(vrb::CreationContextPtr& aContext, AAssetManager* aAssetManager,
+                            const std::string& aCacheDirectory, const int64_t aAssetVersion,
+                            const std::string& aPath, size_t* aBytes = nullptr);
+};
+
+} // namespace crow
+
+#endif // VRBROWSER_MESH_CACHE_DOT_H
@@ -0,0 +1,571 @@
+/* -*- Mode: C++; tab-width: 20; indent-tabs-mode: nil; c-basic-offset: 2 -*-
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/. */
+
+#include "MeshFile.h"
+
+#include <cmath>
+#include <cstdio>
+#include <cstdlib>
+#include <cstring>
+#include <fcntl.h>
+#include <sys/mman.h>
+#include <sys/stat.h>
+#include <unistd.h>
+#include <unordered_map>
+
+namespace {
+
+const uint32_t kHeaderWords = 8;
+const uint32_t kMaterialWords = 12;
+const uint32_t kGroupWords = 3;
+// Vertex keys pack the position, texture coordinates and normal indices in 21 bits each.
+const uint64_t kMaxIndex = (1u << 21) - 1;
+
+struct Cursor {
+  const char* current;
+  const char* end;
+
+  bool AtLineEnd() const {
+    return current >= end || *current == '\n' || *current == '\r' || *current == '#';
+  }
+
+  void SkipSpaces() {
+    while (current < end && (*current == ' ' || *current == '\t')) {
+      current++;
+    }
+  }
+
+  void NextLine() {
+    while (current < end && *current != '\n') {
+      current++;
+    }
+    if (current < end) {
+      current++;
+    }
+  }
+
+  std::string Token() {
+    SkipSpaces();
+    const char* start = current;
+    while (current < end && *current != ' ' && *current != '\t' && *current != '\n' && *current != '\r') {
+      current++;
+    }
+    return std::string(start, current);
+  }
+
+  // The rest of the line without the surrounding spaces, for names that may contain spaces.
+  std::string Rest() {
+    SkipSpaces();
+    const char* start = current;
+    while (current < end && *current != '\n' && *current != '\r') {
+      current++;
+    }
+    const char* last = current;
+    while (last > start && (last[-1] == ' ' || last[-1] == '\t')) {
+      last--;
+    }
+    return std::string(start, last);
+  }
+
+  // The buffer is null terminated, strtof stops at the end of the line.
+  bool Float(float& aValue) {
+    SkipSpaces();
+    if (AtLineEnd()) {
+      return false;
+    }
+    char* next = nullptr;
+    aValue = strtof(current, &next);
+    if (next == current) {
+      return false;
+    }
+    current = next;
+    return true;
+  }
+};
+
+void
+SetColor(float* aColor, const float aRed, const float aGreen, const float aBlue) {
+  aColor[0] = aRed;
+  aColor[1] = aGreen;
+  aColor[2] = aBlue;
+}
+
+crow::MeshData::Material
+DefaultMaterial(const std::string& aName) {
+  crow::MeshData::Material result;
+  result.name = aName;
+  SetColor(result.ambient, 1.0f, 1.0f, 1.0f);
+  SetColor(result.diffuse, 1.0f, 1.0f, 1.0f);
+  SetColor(result.specular, 0.0f, 0.0f, 0.0f);
+  result.shininess = 0.0f;
+  return result;
+}
+
+void
+ParseMtl(const std::string& aMtl, std::vector<crow::MeshData::Material>& aResult) {
+  Cursor cursor = {aMtl.c_str(), aMtl.c_str() + aMtl.size()};
+  crow::MeshData::Material* material = nullptr;
+  for (; cursor.current < cursor.end; cursor.NextLine()) {
+    const std::string keyword = cursor.Token();
+    if (keyword == "newmtl") {
+      aResult.push_back(DefaultMaterial(cursor.Rest()));
+      material = &aResult.back();
+    } else if (!material) {
+      continue;
+    } else if (keyword == "Ka" || keyword == "Kd" || keyword == "Ks") {
+      float* color = keyword == "Ka" ? material->ambient : (keyword == "Kd" ? material->diffuse : material->specular);
+      float values[3];
+      if (cursor.Float(values[0]) && cursor.Float(values[1]) && cursor.Float(values[2])) {
+        SetColor(color, values[0], values[1], values[2]);
+      }
+    } else if (keyword == "Ns") {
+      cursor.Float(material->shininess);
+    } else if (keyword == "map_Kd") {
+      // The file name comes after the options.
+      std::string token;
+      while (!cursor.AtLineEnd()) {
+        std::string next = cursor.Token();
+        if (!next.empty()) {
+          token = next;
+        }
+        cursor.SkipSpaces();
+      }
+      material->texture = token;
+    }
+  }
+}
+
+bool
+ResolveIndex(const long aIndex, const size_t aCount, uint32_t& aResult) {
+  // Negative indices are relative to the end of the list.
+  const long index = aIndex < 0 ? (long)aCount + aIndex : aIndex - 1;
+  if (index < 0 || index >= (long)aCount) {
+    return false;
+  }
+  aResult = (uint32_t)index;
+  return true;
+}
+
+template <typename T>
+const T*
+At(const uint8_t* aData, const uint64_t aOffset) {
+  return reinterpret_cast<const T*>(aData + aOffset);
+}
+
+} // namespace
+
+namespace crow {
+
+uint32_t
+MeshData::GetVertexCount() const {
+  return (uint32_t)(vertices.size() / kVertexSize);
+}
+
+void
+MeshData::Clear() {
+  vertices.clear();
+  indices.clear();
+  materials.clear();
+  groups.clear();
+}
+
+bool
+ParseObj(const char* aObj, const size_t aLength, const ReadFileCallback& aReadFile,
+         MeshData& aResult, std::string& aError) {
+  aResult.Clear();
+  const std::string text(aObj, aLength);
+  Cursor cursor = {text.c_str(), text.c_str() + text.size()};
+  std::vector<float> positions;
+  std::vector<float> uvs;
+  std::vector<float> normals;
+  std::vector<MeshData::Material> library;
+  std::unordered_map<uint64_t, uint32_t> vertexMap;
+  uint32_t material = 0;
+  bool hasMaterial = false;
+  std::vector<uint32_t> face[3];
+  int line = 1;
+
+  auto fail = [&](const char* aMessage) {
+    aError = std::string(aMessage) + " at line " + std::to_string(line);
+    aResult.Clear();
+    return false;
+  };
+  auto useMaterial = [&](const std::string& aName) {
+    for (uint32_t index = 0; index < aResult.materials.size(); index++) {
+      if (aResult.materials[index].name == aName) {
+        return index;
+      }
+    }
+    MeshData::Material result = DefaultMaterial(aName);
+    for (const MeshData::Material& defined: library) {
+      if (defined.name == aName) {
+        result = defined;
+      }
+    }
+    aResult.materials.push_back(result);
+    return (uint32_t)aResult.materials.size() - 1;
+  };
+  auto addVertex = [&](const uint32_t aPosition, const uint32_t aUV, const uint32_t aNormal, const float* aFaceNormal) {
+    const float* normal = aFaceNormal ? aFaceNormal : &normals[aNormal * 3];
+    if (!aFaceNormal) {
+      const uint64_t key = ((uint64_t)aPosition << 42) | ((uint64_t)(aUV + 1) << 21) | (uint64_t)(aNormal + 1);
+      auto found = vertexMap.find(key);
+      if (found != vertexMap.end()) {
+        aResult.indices.push_back(found->second);
+        return;
+      }
+      vertexMap[key] = aResult.GetVertexCount();
+    }
+    aResult.indices.push_back(aResult.GetVertexCount());
+    aResult.vertices.insert(aResult.vertices.end(), &positions[aPosition * 3], &positions[aPosition * 3] + 3);
+    aResult.vertices.insert(aResult.vertices.end(), normal, normal + 3);
+    if (aUV != UINT32_MAX) {
+      aResult.vertices.insert(aResult.vertices.end(), &uvs[aUV * 2], &uvs[aUV * 2] + 2);
+    } else {
+      aResult.vertices.insert(aResult.vertices.end(), 2, 0.0f);
+    }
+  };
+
+  for (; cursor.current < cursor.end; cursor.NextLine(), line++) {
+    const std::string keyword = cursor.Token();
+    if (keyword == "v" || keyword == "vn") {
+      std::vector<float>& list = keyword == "v" ? positions : normals;
+      float values[3];
+      if (!cursor.Float(values[0]) || !cursor.Float(values[1]) || !cursor.Float(values[2])) {
+        return fail("Invalid vertex");
+      }
+      list.insert(list.end(), values, values + 3);
+    } else if (keyword == "vt") {
+      float values[2];
+      if (!cursor.Float(values[0]) || !cursor.Float(values[1])) {
+        return fail("Invalid texture coordinates");
+      }
+      uvs.insert(uvs.end(), values, values + 2);
+    } else if (keyword == "f") {
+      for (std::vector<uint32_t>& list: face) {
+        list.clear();
+      }
+      while (true) {
+        const std::string vertex = cursor.Token();
+        if (vertex.empty()) {
+          break;
+        }
+        const char* current = vertex.c_str();
+        char* next = nullptr;
+        uint32_t indices[3] = {0, UINT32_MAX, UINT32_MAX};
+        const size_t counts[3] = {positions.size() / 3, uvs.size() / 2, normals.size() / 3};
+        for (int part = 0; part < 3 && *current; part++) {
+          if (part > 0) {
+            if (*current != '/') {
+              return fail("Invalid face");
+            }
+            current++;
+            if (*current == '/' || *current == '\0') {
+              // No texture coordinates.
+              continue;
+            }
+          }
+          const long index = strtol(current, &next, 10);
+          if (next == current || !ResolveIndex(index, counts[part], indices[part]) || indices[part] >= kMaxIndex) {
+            return fail("Invalid face index");
+          }
+          current = next;
+        }
+        for (int part = 0; part < 3; part++) {
+          face[part].push_back(indices[part]);
+        }
+      }
+      if (face[0].size() < 3) {
+        return fail("Face with less than three vertices");
+      }
+      if (!hasMaterial) {
+        material = useMaterial("");
+        hasMaterial = true;
+      }
+      if (aResult.groups.empty() || aResult.groups.back().material != material) {
+        aResult.groups.push_back({material, (uint32_t)aResult.indices.size(), 0});
+      }
+      for (size_t i = 1; i + 1 < face[0].size(); i++) {
+        const size_t corners[3] = {0, i, i + 1};
+        float faceNormal[3];
+        bool flat = false;
+        for (size_t corner: corners) {
+          flat |= face[2][corner] == UINT32_MAX;
+        }
+        if (flat) {
+          const float* a = &positions[face[0][0] * 3];
+          const float* b = &positions[face[0][i] * 3];
+          const float* c = &positions[face[0][i + 1] * 3];
+          const float u[3] = {b[0] - a[0], b[1] - a[1], b[2] - a[2]};
+          const float v[3] = {c[0] - a[0], c[1] - a[1], c[2] - a[2]};
+          SetColor(faceNormal, u[1] * v[2] - u[2] * v[1], u[2] * v[0] - u[0] * v[2], u[0] * v[1] - u[1] * v[0]);
+          const float length = std::sqrt(faceNormal[0] * faceNormal[0] + faceNormal[1] * faceNormal[1] + faceNormal[2] * faceNormal[2]);
+          for (float& value: faceNormal) {
+            value = length > 0.0f ? value / length : 0.0f;
+          }
+        }
+        for (size_t corner: corners) {
+          addVertex(face[0][corner], face[1][corner], face[2][corner], flat ? faceNormal : nullptr);
+        }
+        aResult.groups.back().indexCount += 3;
+      }
+    } else if (keyword == "usemtl") {
+      material = useMaterial(cursor.Rest());
+      hasMaterial = true;
+    } else if (keyword == "mtllib") {
+      while (!cursor.AtLineEnd()) {
+        const std::string name = cursor.Token();
+        std::string contents;
+        if (!name.empty() && aReadFile && aReadFile(name, contents)) {
+          ParseMtl(contents, library);
+        }
+        cursor.SkipSpaces();
+      }
+    }
+    // Objects, groups and smoothing groups do not change how the mesh is drawn.
+  }
+  if (aResult.indices.empty()) {
+    aError = "No faces";
+    return false;
+  }
+  return true;
+}
+
+void
+MeshFile::Write(const MeshData& aMesh, std::vector<uint8_t>& aResult) {
+  std::vector<uint32_t> words;
+  std::string strings;
+  auto addString = [&](const std::string& aString) {
+    const uint32_t offset = (uint32_t)strings.size();
+    strings.append(aString);
+    strings.push_back('\0');
+    return offset;
+  };
+  auto addFloat = [&](const float aValue) {
+    uint32_t word;
+    memcpy(&word, &aValue, sizeof(word));
+    words.push_back(word);
+  };
+
+  const uint32_t header[kHeaderWords] = {
+    kMagic, kVersion, (uint32_t)aMesh.materials.size(), (uint32_t)aMesh.groups.size(),
+    aMesh.GetVertexCount(), (uint32_t)aMesh.indices.size(), 0, 0
+  };
+  words.insert(words.end(), header, header + kHeaderWords);
+  for (const MeshData::Material& material: aMesh.materials) {
+    words.push_back(addString(material.name));
+    words.push_back(material.texture.empty() ? kNoTexture : addString(material.texture));
+    for (const float* color: {material.ambient, material.diffuse, material.specular}) {
+      for (int i = 0; i < 3; i++) {
+        addFloat(color[i]);
+      }
+    }
+    addFloat(material.shininess);
+  }
+  for (const MeshData::Group& group: aMesh.groups) {
+    words.push_back(group.material);
+    words.push_back(group.firstIndex);
+    words.push_back(group.indexCount);
+  }
+  for (const float value: aMesh.vertices) {
+    addFloat(value);
+  }
+  words.insert(words.end(), aMesh.indices.begin(), aMesh.indices.end());
+  while (strings.size() % 4 != 0) {
+    strings.push_back('\0');
+  }
+  words[6] = (uint32_t)strings.size();
+
+  // Android devices are little endian, like the hosts running the tests.
+  aResult.resize(words.size() * 4 + strings.size());
+  memcpy(aResult.data(), words.data(), words.size() * 4);
+  memcpy(aResult.data() + words.size() * 4, strings.data(), strings.size());
+}
+
+MeshFile::MeshFile()
+    : mMaterials(nullptr)
+    , mGroups(nullptr)
+    , mVertices(nullptr)
+    , mIndices(nullptr)
+    , mStrings(nullptr)
+    , mMaterialCount(0)
+    , mGroupCount(0)
+    , mVertexCount(0)
+    , mIndexCount(0)
+{}
+
+bool
+MeshFile::Parse(const uint8_t* aData, const size_t aLength) {
+  *this = MeshFile();
+  if (!aData || (reinterpret_cast<uintptr_t>(aData) % 4) != 0 || aLength < kHeaderWords * 4) {
+    return false;
+  }
+  const uint32_t* header = At<uint32_t>(aData, 0);
+  if (header[0] != kMagic || header[1] != kVersion) {
+    return false;
+  }
+  const uint32_t materialCount = header[2];
+  const uint32_t groupCount = header[3];
+  const uint32_t vertexCount = header[4];
+  const uint32_t indexCount = header[5];
+  const uint32_t stringSize = header[6];
+  const uint64_t materialsOffset = kHeaderWords * 4;
+  const uint64_t groupsOffset = materialsOffset + (uint64_t)materialCount * kMaterialWords * 4;
+  const uint64_t verticesOffset = groupsOffset + (uint64_t)groupCount * kGroupWords * 4;
+  const uint64_t indicesOffset = verticesOffset + (uint64_t)vertexCount * MeshData::kVertexSize * 4;
+  const uint64_t stringsOffset = indicesOffset + (uint64_t)indexCount * 4;
+  if (stringsOffset + stringSize != aLength || (stringSize > 0 && aData[aLength - 1] != '\0')) {
+    return false;
+  }
+
+  const uint32_t* materials = At<uint32_t>(aData, materialsOffset);
+  for (uint32_t index = 0; index < materialCount; index++) {
+    const uint32_t* material = materials + index * kMaterialWords;
+    if (material[0] >= stringSize || (material[1] != kNoTexture && material[1] >= stringSize)) {
+      return false;
+    }
+  }
+  const MeshData::Group* groups = At<MeshData::Group>(aData, groupsOffset);
+  for (uint32_t index = 0; index < groupCount; index++) {
+    const MeshData::Group& group = groups[index];
+    if (group.material >= materialCount || group.firstIndex > indexCount ||
+        group.indexCount > indexCount - group.firstIndex) {
+      return false;
+    }
+  }
+  // Checked once here so the indices can be handed to the GPU as they are.
+  const uint32_t* indices = At<uint32_t>(aData, indicesOffset);
+  for (uint32_t index = 0; index < indexCount; index++) {
+    if (indices[index] >= vertexCount) {
+      return false;
+    }
+  }
+
+  mMaterials = materials;
+  mGroups = groups;
+  mVertices = At<float>(aData, verticesOffset);
+  mIndices = indices;
+  mStrings = At<char>(aData, stringsOffset);
+  mMaterialCount = materialCount;
+  mGroupCount = groupCount;
+  mVertexCount = vertexCount;
+  mIndexCount = indexCount;
+  return true;
+}
+
+uint32_t
+MeshFile::GetVertexCount() const {
+  return mVertexCount;
+}
+
+const float*
+MeshFile::GetVertices() const {
+  return mVertices;
+}
+
+uint32_t
+MeshFile::GetIndexCount() const {
+  return mIndexCount;
+}
+
+const uint32_t*
+MeshFile::GetIndices() const {
+  return mIndices;
+}
+
+uint32_t
+MeshFile::GetMaterialCount() const {
+  return mMaterialCount;
+}
+
+MeshFile::Material
+MeshFile::GetMaterial(const uint32_t aIndex) const {
+  const uint32_t* material = mMaterials + aIndex * kMaterialWords;
+  const float* values = reinterpret_cast<const float*>(material + 2);
+  Material result;
+  result.name = mStrings + material[0];
+  result.texture = material[1] == kNoTexture ? nullptr : mStrings + material[1];
+  result.ambient = values;
+  result.diffuse = values + 3;
+  result.specular = values + 6;
+  result.shininess = values[9];
+  return result;
+}
+
+uint32_t
+MeshFile::GetGroupCount() const {
+  return mGroupCount;
+}
+
+const MeshData::Group&
+MeshFile::GetGroup(const uint32_t aIndex) const {
+  return mGroups[aIndex];
+}
+
+MappedMeshFile::MappedMeshFile()
+    : mData(nullptr)
+    , mLength(0)
+{}
+
+MappedMeshFile::~MappedMeshFile() {
+  if (mData) {
+    munmap(mData, mLength);
+  }
+}
+
+bool
+MappedMeshFile::Open(const std::string& aPath) {
+  const int fd = open(aPath.c_str(), O_RDONLY);
+  if (fd < 0) {
+    return false;
+  }
+  struct stat info;
+  void* data = MAP_FAILED;
+  if (fstat(fd, &info) == 0 && info.st_size > 0) {
+    data = mmap(nullptr, (size_t)info.st_size, PROT_READ, MAP_PRIVATE, fd, 0);
+  }
+  close(fd);
+  if (data == MAP_FAILED) {
+    return false;
+  }
+  if (mData) {
+    munmap(mData, mLength);
+  }
+  mData = data;
+  mLength = (size_t)info.st_size;
+  return mMesh.Parse((const uint8_t*)mData, mLength);
+}
+
+const MeshFile&
+MappedMeshFile::GetMesh() const {
+  return mMesh;
+}
+
+std::string
+MeshCacheName(const std::string& aPath, const uint64_t aLength, const int64_t aVersion) {
+  // FNV-1a.
+  uint64_t hash = 0xcbf29ce484222325ull;
+  auto add = [&hash](const uint8_t* aData, const size_t aSize) {
+    for (size_t i = 0; i < aSize; i++) {
+      hash ^= aData[i];
+      hash *= 0x100000001b3ull;
+    }
+  };
+  add((const uint8_t*)aPath.data(), aPath.size());
+  add((const uint8_t*)&aLength, sizeof(aLength));
+  add((const uint8_t*)&aVersion, sizeof(aVersion));
+
+  const size_t slash = aPath.rfind('/');
+  std::string name = slash == std::string::npos ? aPath : aPath.substr(slash + 1);
+  const size_t dot = name.rfind('.');
+  if (dot != std::string::npos) {
+    name.resize(dot);
+  }
+  char key[20];
+  snprintf(key, sizeof(key), "%016llx", (unsigned long long)hash);
+  return name + "-" + key + ".mesh";
+}
+
+} // namespace crow
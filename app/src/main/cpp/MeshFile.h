@@ -0,0 +1,121 @@
+/* -*- Mode: C++; tab-width: 20; indent-tabs-mode: nil; c-basic-offset: 2 -*-
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/. */
+
+#ifndef VRBROWSER_MESH_FILE_DOT_H
+#define VRBROWSER_MESH_FILE_DOT_H
+
+#include <cstddef>
+#include <cstdint>
+#include <functional>
+#include <string>
+#include <vector>
+
+namespace crow {
+
+// A triangle mesh with a single interleaved vertex buffer, an index buffer and the faces
+// grouped by material, as parsed from an OBJ model and its MTL libraries.
+struct MeshData {
+  // Position, normal and texture coordinates.
+  static const uint32_t kVertexSize = 8;
+  struct Material {
+    std::string name;
+    float ambient[3];
+    float diffuse[3];
+    float specular[3];
+    float shininess;
+    // Empty if the material has no diffuse texture.
+    std::string texture;
+  };
+  // A run of triangles drawn with the same material.
+  struct Group {
+    uint32_t material;
+    uint32_t firstIndex;
+    uint32_t indexCount;
+  };
+  std::vector<float> vertices;
+  std::vector<uint32_t> indices;
+  std::vector<Material> materials;
+  std::vector<Group> groups;
+
+  uint32_t GetVertexCount() const;
+  void Clear();
+};
+
+// Parses OBJ models. Polygons are triangulated as fans, vertices sharing the same position,
+// normal and texture coordinates are merged and faces without normals get flat ones.
+// aReadFile is called with the name of each mtllib and returns false if it can't be read,
+// materials it does not define get default values.
+typedef std::function<bool(const std::string& aName, std::string& aContents)> ReadFileCallback;
+bool ParseObj(const char* aObj, const size_t aLength, const ReadFileCallback& aReadFile,
+              MeshData& aResult, std::string& aError);
+
+// The binary form of MeshData, loaded in place from a memory mapped file. All values are
+// 32 bits little endian, after a header come the materials, the groups, the vertices, the
+// indices and the strings referenced by the materials. It has no dependency on vrb so it can
+// be unit tested on the host.
+class MeshFile {
+public:
+  static const uint32_t kMagic = 0x48534D56; // "VMSH"
+  static const uint32_t kVersion = 1;
+  static const uint32_t kNoTexture = 0xffffffff;
+  struct Material {
+    const char* name;
+    const char* texture;
+    const float* ambient;
+    const float* diffuse;
+    const float* specular;
+    float shininess;
+  };
+
+  static void Write(const MeshData& aMesh, std::vector<uint8_t>& aResult);
+  MeshFile();
+  // Returns false if aData is not a valid mesh file. aData must be 4 byte aligned and
+  // outlive the mesh file.
+  bool Parse(const uint8_t* aData, const size_t aLength);
+  uint32_t GetVertexCount() const;
+  const float* GetVertices() const;
+  uint32_t GetIndexCount() const;
+  const uint32_t* GetIndices() const;
+  uint32_t GetMaterialCount() const;
+  // texture is nullptr if the material has no texture.
+  Material GetMaterial(const uint32_t aIndex) const;
+  uint32_t GetGroupCount() const;
+  const MeshData::Group& GetGroup(const uint32_t aIndex) const;
+private:
+  const uint32_t* mMaterials;
+  const MeshData::Group* mGroups;
+  const float* mVertices;
+  const uint32_t* mIndices;
+  const char* mStrings;
+  uint32_t mMaterialCount;
+  uint32_t mGroupCount;
+  uint32_t mVertexCount;
+  uint32_t mIndexCount;
+};
+
+// A mesh file memory mapped from disk, unmapped when destroyed.
+class MappedMeshFile {
+public:
+  MappedMeshFile();
+  ~MappedMeshFile();
+  // Returns false if aPath can't be mapped or is not a valid mesh file.
+  bool Open(const std::string& aPath);
+  const MeshFile& GetMesh() const;
+private:
+  void* mData;
+  size_t mLength;
+  MeshFile mMesh;
+  MappedMeshFile(const MappedMeshFile&) = delete;
+  MappedMeshFile& operator=(const MappedMeshFile&) = delete;
+};
+
+// File name of the cached mesh of a model. It is computed from metadata that changes whenever
+// the model may have: its path, its length and aVersion, the app update time for assets, or
+// the modification time for files. Nothing is read, so a cache hit only maps the mesh file.
+std::string MeshCacheName(const std::string& aPath, const uint64_t aLength, const int64_t aVersion);
+
+} // namespace crow
+
+#endif // VRBROWSER_MESH_FILE_DOT_H
@@ -0,0 +1,190 @@
+/* -*- Mode: C++; tab-width: 20; indent-tabs-mode: nil; c-basic-offset: 2 -*-
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/. */
+
+#include "PosePredictor.h"
+
+#include <algorithm>
+#include <cmath>
+#include <cstring>
+
+namespace {
+
+// Samples further apart than this come from a tracking gap, the velocity is not trusted.
+const double kMaxSampleInterval = 0.1;
+const float kEpsilon = 0.000001f;
+
+void
+Multiply(const float aLeft[4], const float aRight[4], float aResult[4]) {
+  const float x = aLeft[3] * aRight[0] + aLeft[0] * aRight[3] + aLeft[1] * aRight[2] - aLeft[2] * aRight[1];
+  const float y = aLeft[3] * aRight[1] - aLeft[0] * aRight[2] + aLeft[1] * aRight[3] + aLeft[2] * aRight[0];
+  const float z = aLeft[3] * aRight[2] + aLeft[0] * aRight[1] - aLeft[1] * aRight[0] + aLeft[2] * aRight[3];
+  const float w = aLeft[3] * aRight[3] - aLeft[0] * aRight[0] - aLeft[1] * aRight[1] - aLeft[2] * aRight[2];
+  aResult[0] = x;
+  aResult[1] = y;
+  aResult[2] = z;
+  aResult[3] = w;
+}
+
+void
+Normalize(float aQuaternion[4]) {
+  const float length = std::sqrt(aQuaternion[0] * aQuaternion[0] + aQuaternion[1] * aQuaternion[1] +
+                                 aQuaternion[2] * aQuaternion[2] + aQuaternion[3] * aQuaternion[3]);
+  if (length < kEpsilon) {
+    aQuaternion[0] = aQuaternion[1] = aQuaternion[2] = 0.0f;
+    aQuaternion[3] = 1.0f;
+    return;
+  }
+  for (int i = 0; i < 4; i++) {
+    aQuaternion[i] /= length;
+  }
+}
+
+// Rotation that takes aFrom to aTo, as a rotation vector (axis scaled by the angle).
+void
+GetRotationVector(const float aFrom[4], const float aTo[4], float aResult[3]) {
+  const float inverse[4] = {-aFrom[0], -aFrom[1], -aFrom[2], aFrom[3]};
+  float delta[4];
+  Multiply(aTo, inverse, delta);
+  Normalize(delta);
+  if (delta[3] < 0.0f) {
+    // Take the shortest path.
+    for (int i = 0; i < 4; i++) {
+      delta[i] = -delta[i];
+    }
+  }
+  const float sinHalf = std::sqrt(delta[0] * delta[0] + delta[1] * delta[1] + delta[2] * delta[2]);
+  if (sinHalf < kEpsilon) {
+    aResult[0] = aResult[1] = aResult[2] = 0.0f;
+    return;
+  }
+  const float angle = 2.0f * std::atan2(sinHalf, delta[3]);
+  for (int i = 0; i < 3; i++) {
+    aResult[i] = delta[i] / sinHalf * angle;
+  }
+}
+
+} // namespace
+
+namespace crow {
+
+PosePredictor::Pose::Pose() {
+  orientation[0] = orientation[1] = orientation[2] = 0.0f;
+  orientation[3] = 1.0f;
+  position[0] = position[1] = position[2] = 0.0f;
+}
+
+PosePredictor::PosePredictor() : mSmoothing(0.5f), mMaxHorizon(0.05f) {
+  Reset();
+}
+
+void
+PosePredictor::SetSmoothing(const float aFactor) {
+  mSmoothing = std::max(0.01f, std::min(1.0f, aFactor));
+}
+
+void
+PosePredictor::SetMaxHorizon(const float aSeconds) {
+  mMaxHorizon = std::max(0.0f, aSeconds);
+}
+
+float
+PosePredictor::GetMaxHorizon() const {
+  return mMaxHorizon;
+}
+
+void
+PosePredictor::Reset() {
+  mLast = Pose();
+  mLastTime = 0.0;
+  mHasSample = false;
+  mHasVelocity = false;
+  memset(mAngularVelocity, 0, sizeof(mAngularVelocity));
+  memset(mLinearVelocity, 0, sizeof(mLinearVelocity));
+}
+
+void
+PosePredictor::AddSample(const double aSeconds, const Pose& aPose) {
+  const double interval = aSeconds - mLastTime;
+  if (mHasSample && interval > 0.0 && interval <= kMaxSampleInterval) {
+    float angular[3];
+    GetRotationVector(mLast.orientation, aPose.orientation, angular);
+    const float weight = mHasVelocity ? mSmoothing : 1.0f;
+    for (int i = 0; i < 3; i++) {
+      const float linear = (float)((aPose.position[i] - mLast.position[i]) / interval);
+      mAngularVelocity[i] += (angular[i] / (float)interval - mAngularVelocity[i]) * weight;
+      mLinearVelocity[i] += (linear - mLinearVelocity[i]) * weight;
+    }
+    mHasVelocity = true;
+  } else if (mHasSample && interval == 0.0) {
+    // Same timestamp, keep the current velocity.
+  } else {
+    mHasVelocity = false;
+    memset(mAngularVelocity, 0, sizeof(mAngularVelocity));
+    memset(mLinearVelocity, 0, sizeof(mLinearVelocity));
+  }
+  mLast = aPose;
+  mLastTime = aSeconds;
+  mHasSample = true;
+}
+
+bool
+PosePredictor::HasVelocity() const {
+  return mHasVelocity;
+}
+
+void
+PosePredictor::GetAngularVelocity(float aResult[3]) const {
+  memcpy(aResult, mAngularVelocity, sizeof(mAngularVelocity));
+}
+
+void
+PosePredictor::GetLinearVelocity(float aResult[3]) const {
+  memcpy(aResult, mLinearVelocity, sizeof(mLinearVelocity));
+}
+
+void
+PosePredictor::Predict(const float aHorizon, Pose& aResult) const {
+  aResult = mLast;
+  const float horizon = std::min(aHorizon, mMaxHorizon);
+  if (!mHasVelocity || horizon <= 0.0f) {
+    return;
+  }
+  const float speed = std::sqrt(mAngularVelocity[0] * mAngularVelocity[0] + mAngularVelocity[1] * mAngularVelocity[1] +
+                                mAngularVelocity[2] * mAngularVelocity[2]);
+  const float angle = speed * horizon;
+  if (angle > kEpsilon) {
+    const float sinHalf = std::sin(angle * 0.5f) / speed;
+    const float delta[4] = {mAngularVelocity[0] * sinHalf, mAngularVelocity[1] * sinHalf,
+                            mAngularVelocity[2] * sinHalf, std::cos(angle * 0.5f)};
+    Multiply(delta, mLast.orientation, aResult.orientation);
+    Normalize(aResult.orientation);
+  }
+  for (int i = 0; i < 3; i++) {
+    aResult.position[i] = mLast.position[i] + mLinearVelocity[i] * horizon;
+  }
+}
+
+void
+PosePredictor::WriteTraceSample(FILE* aFile, const double aSeconds, const Pose& aPose) {
+  fprintf(aFile, "%.6f %f %f %f %f %f %f %f\n", aSeconds,
+          aPose.orientation[0], aPose.orientation[1], aPose.orientation[2], aPose.orientation[3],
+          aPose.position[0], aPose.position[1], aPose.position[2]);
+}
+
+bool
+PosePredictor::ReadTraceSample(FILE* aFile, double& aSeconds, Pose& aPose) {
+  return fscanf(aFile, "%lf %f %f %f %f %f %f %f", &aSeconds,
+                &aPose.orientation[0], &aPose.orientation[1], &aPose.orientation[2], &aPose.orientation[3],
+                &aPose.position[0], &aPose.position[1], &aPose.position[2]) == 8;
+}
+
+float
+PosePredictor::GetAngle(const float aFirst[4], const float aSecond[4]) {
+  float rotation[3];
+  GetRotationVector(aFirst, aSecond, rotation);
+  return std::sqrt(rotation[0] * rotation[0] + rotation[1] * rotation[1] + rotation[2] * rotation[2]);
+}
+
+} // namespace crow
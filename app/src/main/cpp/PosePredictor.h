@@ -0,0 +1,57 @@
+/* -*- Mode: C++; tab-width: 20; indent-tabs-mode: nil; c-basic-offset: 2 -*-
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/. */
+
+#ifndef VRBROWSER_POSE_PREDICTOR_DOT_H
+#define VRBROWSER_POSE_PREDICTOR_DOT_H
+
+#include <cstdio>
+
+namespace crow {
+
+// Extrapolates a pose into the future from the angular and linear velocity measured over the
+// recent samples. Orientations are xyzw quaternions, the same layout as vrb::Quaternion::Data().
+// It has no dependency on vrb so recorded traces can be replayed on the host.
+class PosePredictor {
+public:
+  struct Pose {
+    float orientation[4];
+    float position[3];
+    Pose();
+  };
+
+  PosePredictor();
+  // Weight of the newest sample in the smoothed velocities, in the (0, 1] range.
+  void SetSmoothing(const float aFactor);
+  // Longest extrapolation allowed, larger horizons are clamped to it.
+  void SetMaxHorizon(const float aSeconds);
+  float GetMaxHorizon() const;
+  void Reset();
+  void AddSample(const double aSeconds, const Pose& aPose);
+  bool HasVelocity() const;
+  void GetAngularVelocity(float aResult[3]) const;
+  void GetLinearVelocity(float aResult[3]) const;
+  // Predicts the pose aHorizon seconds after the last sample. Returns the last sample if there
+  // is not enough history yet.
+  void Predict(const float aHorizon, Pose& aResult) const;
+
+  // Trace lines are "seconds qx qy qz qw px py pz".
+  static void WriteTraceSample(FILE* aFile, const double aSeconds, const Pose& aPose);
+  static bool ReadTraceSample(FILE* aFile, double& aSeconds, Pose& aPose);
+  // Angle in radians between two orientations.
+  static float GetAngle(const float aFirst[4], const float aSecond[4]);
+private:
+  Pose mLast;
+  double mLastTime;
+  bool mHasSample;
+  bool mHasVelocity;
+  float mAngularVelocity[3];
+  float mLinearVelocity[3];
+  float mSmoothing;
+  float mMaxHorizon;
+};
+
+} // namespace crow
+
+#endif // VRBROWSER_POSE_PREDICTOR_DOT_H
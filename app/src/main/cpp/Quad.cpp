@@ -256,8 +256,14 @@ Quad::GetTextureSize(int32_t& aWidth, int32_t& aHeight) const {
 
 void
 Quad::SetTextureSize(int32_t aWidth, int32_t aHeight) {
+  if (m.textureWidth == aWidth && m.textureHeight == aHeight) {
+    return;
+  }
   m.textureWidth = aWidth;
   m.textureHeight = aHeight;
+  if (m.scaleMode != ScaleMode::Fill) {
+    m.UpdateVertexArray();
+  }
 }
 
 void
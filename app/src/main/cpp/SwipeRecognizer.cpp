@@ -0,0 +1,145 @@
+/* -*- Mode: C++; tab-width: 20; indent-tabs-mode: nil; c-basic-offset: 2 -*-
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/. */
+
+#include "SwipeRecognizer.h"
+
+#include <cmath>
+
+namespace crow {
+
+SwipeRecognizer::Config::Config()
+    : minDistance(0.3f)
+    , minVelocity(1.0f)
+    , maxOffAxisRatio(0.6f)
+    , maxDuration(0.5f)
+    , flingDistance(0.5f)
+    , flingVelocity(3.0f)
+    , confirmWindow(1.0f)
+{}
+
+SwipeRecognizer::SwipeRecognizer() {
+  Reset();
+}
+
+void
+SwipeRecognizer::SetConfig(const Config& aConfig) {
+  mConfig = aConfig;
+}
+
+const SwipeRecognizer::Config&
+SwipeRecognizer::GetConfig() const {
+  return mConfig;
+}
+
+void
+SwipeRecognizer::Reset() {
+  mTouching = false;
+  mRecognized = false;
+  mScrolling = false;
+  mCandidate = false;
+  mCandidateTime = 0.0;
+  mCandidateDirection = Direction::Left;
+  mStartTime = 0.0;
+  mStartX = mStartY = 0.0f;
+  mHasPendingSwipe = false;
+  mPendingDirection = Direction::Left;
+  mPendingTime = 0.0;
+}
+
+SwipeRecognizer::Intent
+SwipeRecognizer::AddTouchSample(const double aSeconds, const bool aTouched, const float aX, const float aY,
+                                const bool aScrolling) {
+  if (!aTouched) {
+    mTouching = false;
+    // A fast swipe that stopped short of the fling distance.
+    return FlushCandidate();
+  }
+  if (!mTouching || (!mRecognized && !mCandidate && (aSeconds - mStartTime) > mConfig.maxDuration)) {
+    mTouching = true;
+    mRecognized = false;
+    mScrolling = aScrolling;
+    mCandidate = false;
+    mStartTime = aSeconds;
+    mStartX = aX;
+    mStartY = aY;
+    return Intent::None;
+  }
+  if (mRecognized) {
+    // One swipe per stroke.
+    return Intent::None;
+  }
+  mScrolling |= aScrolling;
+  if (mScrolling) {
+    mCandidate = false;
+    return Intent::None;
+  }
+  const float dx = aX - mStartX;
+  const float distance = std::fabs(dx);
+  const float elapsed = (float)(aSeconds - mStartTime);
+  if (distance < mConfig.minDistance || elapsed <= 0.0f) {
+    return Intent::None;
+  }
+  if (std::fabs(aY - mStartY) > distance * mConfig.maxOffAxisRatio) {
+    return Intent::None;
+  }
+  const float velocity = distance / elapsed;
+  if (velocity < mConfig.minVelocity) {
+    return FlushCandidate();
+  }
+  const Direction direction = dx < 0.0f ? Direction::Left : Direction::Right;
+  if (velocity >= mConfig.flingVelocity) {
+    if (distance >= mConfig.flingDistance) {
+      mRecognized = true;
+      mCandidate = false;
+      return Confirm(aSeconds, direction, true);
+    }
+    // Still fast enough to become a fling, wait for the next sample.
+    if (!mCandidate) {
+      mCandidate = true;
+      mCandidateTime = aSeconds;
+      mCandidateDirection = direction;
+    }
+    return Intent::None;
+  }
+  mRecognized = true;
+  mCandidate = false;
+  return Confirm(aSeconds, direction, false);
+}
+
+bool
+SwipeRecognizer::IsSwipeRecognized() const {
+  return mTouching && mRecognized;
+}
+
+SwipeRecognizer::Intent
+SwipeRecognizer::FlushCandidate() {
+  if (!mCandidate) {
+    return Intent::None;
+  }
+  mCandidate = false;
+  mRecognized = true;
+  return Confirm(mCandidateTime, mCandidateDirection, false);
+}
+
+SwipeRecognizer::Intent
+SwipeRecognizer::AddSwipe(const double aSeconds, const Direction aDirection) {
+  return Confirm(aSeconds, aDirection, false);
+}
+
+SwipeRecognizer::Intent
+SwipeRecognizer::Confirm(const double aSeconds, const Direction aDirection, const bool aFling) {
+  const bool confirmed = aFling || (mHasPendingSwipe && mPendingDirection == aDirection &&
+                                    (aSeconds - mPendingTime) <= mConfig.confirmWindow);
+  if (!confirmed) {
+    mHasPendingSwipe = true;
+    mPendingDirection = aDirection;
+    mPendingTime = aSeconds;
+    return Intent::None;
+  }
+  mHasPendingSwipe = false;
+  return aDirection == Direction::Left ? Intent::Back : Intent::Forward;
+}
+
+} // namespace crow
@@ -0,0 +1,78 @@
+/* -*- Mode: C++; tab-width: 20; indent-tabs-mode: nil; c-basic-offset: 2 -*-
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/. */
+
+#ifndef VRBROWSER_SWIPE_RECOGNIZER_DOT_H
+#define VRBROWSER_SWIPE_RECOGNIZER_DOT_H
+
+namespace crow {
+
+// Turns touchpad samples into back and forward navigation intents. A horizontal stroke is a swipe
+// once it is long and fast enough. A fling (a long and very fast swipe) navigates right away,
+// otherwise two swipes in the same direction within the confirmation window are needed.
+// Swipes are recognized as soon as the thresholds are crossed, without waiting for the finger
+// to be lifted. Over a widget the touchpad scrolls, so a stroke that scrolls at any point is never
+// a swipe, however fast. It keeps no history and never allocates. It has no dependency on vrb so
+// it can be unit tested on the host.
+class SwipeRecognizer {
+public:
+  enum class Intent {
+    None,
+    Back,
+    Forward
+  };
+  enum class Direction {
+    Left,
+    Right
+  };
+  // Distances are in touchpad widths, velocities in touchpad widths per second.
+  struct Config {
+    float minDistance;
+    float minVelocity;
+    // Vertical movement allowed, relative to the horizontal movement.
+    float maxOffAxisRatio;
+    // A stroke slower than this is restarted, so slow drags used to scroll are never swipes.
+    float maxDuration;
+    float flingDistance;
+    float flingVelocity;
+    float confirmWindow;
+    Config();
+  };
+
+  SwipeRecognizer();
+  void SetConfig(const Config& aConfig);
+  const Config& GetConfig() const;
+  void Reset();
+  // aX and aY must already be divided by the touchpad extent. aScrolling is set while the touch
+  // movement is delivered as scroll events, the rest of the stroke is ignored then.
+  Intent AddTouchSample(const double aSeconds, const bool aTouched, const float aX, const float aY,
+                        const bool aScrolling = false);
+  // True from the moment the current stroke is recognized as a swipe until the finger is lifted,
+  // its movement should not scroll anymore.
+  bool IsSwipeRecognized() const;
+  // For devices whose SDK already classifies swipes, only the confirmation step is done.
+  Intent AddSwipe(const double aSeconds, const Direction aDirection);
+private:
+  Intent Confirm(const double aSeconds, const Direction aDirection, const bool aFling);
+  Intent FlushCandidate();
+
+  Config mConfig;
+  bool mTouching;
+  bool mRecognized;
+  bool mScrolling;
+  // Set while a swipe is fast enough to become a fling but has not travelled far enough yet.
+  bool mCandidate;
+  double mCandidateTime;
+  Direction mCandidateDirection;
+  double mStartTime;
+  float mStartX;
+  float mStartY;
+  bool mHasPendingSwipe;
+  Direction mPendingDirection;
+  double mPendingTime;
+};
+
+} // namespace crow
+
+#endif // VRBROWSER_SWIPE_RECOGNIZER_DOT_H
@@ -6,6 +6,7 @@
 #include "VRBrowser.h"
 #include "vrb/ConcreteClass.h"
 #include "vrb/Logger.h"
+#include "JNIProfiler.h"
 #include "JNIUtil.h"
 
 namespace {
@@ -22,6 +23,10 @@ static const char* kHandleGestureName = "handleGesture";
 static const char* kHandleGestureSignature = "(I)V";
 static const char* kHandleResizeName = "handleResize";
 static const char* kHandleResizeSignature = "(IFF)V";
+static const char* kHandleWidgetAnimationFinishedName = "handleWidgetAnimationFinished";
+static const char* kHandleWidgetAnimationFinishedSignature = "(II)V";
+static const char* kHandleWidgetInViewName = "handleWidgetInView";
+static const char* kHandleWidgetInViewSignature = "(IZ)V";
 static const char* kHandleBackEventName = "handleBack";
 static const char* kHandleBackEventSignature = "()V";
 static const char* kRegisterExternalContextName = "registerExternalContext";
@@ -32,6 +37,8 @@ static const char* kResumeCompositorName = "resumeGeckoViewCompositor";
 static const char* kResumeCompositorSignature = "()V";
 static const char* kGetStorageAbsolutePathName = "getStorageAbsolutePath";
 static const char* kGetStorageAbsolutePathSignature = "()Ljava/lang/String;";
+static const char* kGetAppUpdateTimeName = "getAppUpdateTime";
+static const char* kGetAppUpdateTimeSignature = "()J";
 
 static JNIEnv* sEnv;
 static jobject sActivity;
@@ -41,11 +48,14 @@ static jmethodID sHandleScrollEvent;
 static jmethodID sHandleAudioPose;
 static jmethodID sHandleGesture;
 static jmethodID sHandleResize;
+static jmethodID sHandleWidgetAnimationFinished;
+static jmethodID sHandleWidgetInView;
 static jmethodID sHandleBack;
 static jmethodID sRegisterExternalContext;
 static jmethodID sPauseCompositor;
 static jmethodID sResumeCompositor;
 static jmethodID sGetStorageAbsolutePath;
+static jmethodID sGetAppUpdateTime;
 }
 
 namespace crow {
@@ -71,11 +81,14 @@ VRBrowser::InitializeJava(JNIEnv* aEnv, jobject aActivity) {
   sHandleAudioPose = FindJNIMethodID(sEnv, browserClass, kHandleAudioPoseName, kHandleAudioPoseSignature);
   sHandleGesture = FindJNIMethodID(sEnv, browserClass, kHandleGestureName, kHandleGestureSignature);
   sHandleResize = FindJNIMethodID(sEnv, browserClass, kHandleResizeName, kHandleResizeSignature);
+  sHandleWidgetAnimationFinished = FindJNIMethodID(sEnv, browserClass, kHandleWidgetAnimationFinishedName, kHandleWidgetAnimationFinishedSignature);
+  sHandleWidgetInView = FindJNIMethodID(sEnv, browserClass, kHandleWidgetInViewName, kHandleWidgetInViewSignature);
   sHandleBack = FindJNIMethodID(sEnv, browserClass, kHandleBackEventName, kHandleBackEventSignature);
   sRegisterExternalContext = FindJNIMethodID(sEnv, browserClass, kRegisterExternalContextName, kRegisterExternalContextSignature);
   sPauseCompositor = FindJNIMethodID(sEnv, browserClass, kPauseCompositorName, kPauseCompositorSignature);
   sResumeCompositor = FindJNIMethodID(sEnv, browserClass, kResumeCompositorName, kResumeCompositorSignature);
   sGetStorageAbsolutePath = FindJNIMethodID(sEnv, browserClass, kGetStorageAbsolutePathName, kGetStorageAbsolutePathSignature);
+  sGetAppUpdateTime = FindJNIMethodID(sEnv, browserClass, kGetAppUpdateTimeName, kGetAppUpdateTimeSignature);
 }
 
 void
@@ -94,15 +107,19 @@ VRBrowser::ShutdownJava() {
   sHandleAudioPose = nullptr;
   sHandleGesture = nullptr;
   sHandleResize = nullptr;
+  sHandleWidgetAnimationFinished = nullptr;
+  sHandleWidgetInView = nullptr;
   sHandleBack = nullptr;
   sRegisterExternalContext = nullptr;
   sPauseCompositor = nullptr;
   sResumeCompositor = nullptr;
+  sGetAppUpdateTime = nullptr;
   sEnv = nullptr;
 }
 
 void
 VRBrowser::DispatchCreateWidget(jint aWidgetHandle, jobject aSurface, jint aWidth, jint aHeight) {
+  PROFILE_JNI_UPCALL();
   if (!ValidateMethodID(sEnv, sActivity, sDispatchCreateWidget, __FUNCTION__)) { return; }
   sEnv->CallVoidMethod(sActivity, sDispatchCreateWidget, aWidgetHandle, aSurface, aWidth, aHeight);
   CheckJNIException(sEnv, __FUNCTION__);
@@ -110,6 +127,7 @@ VRBrowser::DispatchCreateWidget(jint aWidgetHandle, jobject aSurface, jint aWidt
 
 void
 VRBrowser::HandleMotionEvent(jint aWidgetHandle, jint aController, jboolean aPressed, jfloat aX, jfloat aY) {
+  PROFILE_JNI_UPCALL();
   if (!ValidateMethodID(sEnv, sActivity, sHandleMotionEvent, __FUNCTION__)) { return; }
   sEnv->CallVoidMethod(sActivity, sHandleMotionEvent, aWidgetHandle, aController, aPressed, aX, aY);
   CheckJNIException(sEnv, __FUNCTION__);
@@ -117,6 +135,7 @@ VRBrowser::HandleMotionEvent(jint aWidgetHandle, jint aController, jboolean aPre
 
 void
 VRBrowser::HandleScrollEvent(jint aWidgetHandle, jint aController, jfloat aX, jfloat aY) {
+  PROFILE_JNI_UPCALL();
   if (!ValidateMethodID(sEnv, sActivity, sHandleScrollEvent, __FUNCTION__)) { return; }
   sEnv->CallVoidMethod(sActivity, sHandleScrollEvent, aWidgetHandle, aController, aX, aY);
   CheckJNIException(sEnv, __FUNCTION__);
@@ -124,6 +143,7 @@ VRBrowser::HandleScrollEvent(jint aWidgetHandle, jint aController, jfloat aX, jf
 
 void
 VRBrowser::HandleAudioPose(jfloat qx, jfloat qy, jfloat qz, jfloat qw, jfloat px, jfloat py, jfloat pz) {
+  PROFILE_JNI_UPCALL();
   if (!ValidateMethodID(sEnv, sActivity, sHandleAudioPose, __FUNCTION__)) { return; }
   sEnv->CallVoidMethod(sActivity, sHandleAudioPose, qx, qy, qz, qw, px, py, pz);
   CheckJNIException(sEnv, __FUNCTION__);
@@ -131,6 +151,7 @@ VRBrowser::HandleAudioPose(jfloat qx, jfloat qy, jfloat qz, jfloat qw, jfloat px
 
 void
 VRBrowser::HandleGesture(jint aType) {
+  PROFILE_JNI_UPCALL();
   if (!ValidateMethodID(sEnv, sActivity, sHandleGesture, __FUNCTION__)) { return; }
   sEnv->CallVoidMethod(sActivity, sHandleGesture, aType);
   CheckJNIException(sEnv, __FUNCTION__);
@@ -138,13 +159,31 @@ VRBrowser::HandleGesture(jint aType) {
 
 void
 VRBrowser::HandleResize(jint aWidgetHandle, jfloat aWorldWidth, jfloat aWorldHeight) {
+  PROFILE_JNI_UPCALL();
   if (!ValidateMethodID(sEnv, sActivity, sHandleResize, __FUNCTION__)) { return; }
   sEnv->CallVoidMethod(sActivity, sHandleResize, aWidgetHandle, aWorldWidth, aWorldHeight);
   CheckJNIException(sEnv, __FUNCTION__);
 }
 
+void
+VRBrowser::HandleWidgetAnimationFinished(jint aWidgetHandle, jint aAnimationId) {
+  PROFILE_JNI_UPCALL();
+  if (!ValidateMethodID(sEnv, sActivity, sHandleWidgetAnimationFinished, __FUNCTION__)) { return; }
+  sEnv->CallVoidMethod(sActivity, sHandleWidgetAnimationFinished, aWidgetHandle, aAnimationId);
+  CheckJNIException(sEnv, __FUNCTION__);
+}
+
+void
+VRBrowser::HandleWidgetInView(jint aWidgetHandle, jboolean aInView) {
+  PROFILE_JNI_UPCALL();
+  if (!ValidateMethodID(sEnv, sActivity, sHandleWidgetInView, __FUNCTION__)) { return; }
+  sEnv->CallVoidMethod(sActivity, sHandleWidgetInView, aWidgetHandle, aInView);
+  CheckJNIException(sEnv, __FUNCTION__);
+}
+
 void
 VRBrowser::HandleBack() {
+  PROFILE_JNI_UPCALL();
   if (!ValidateMethodID(sEnv, sActivity, sHandleBack, __FUNCTION__)) { return; }
   sEnv->CallVoidMethod(sActivity, sHandleBack);
   CheckJNIException(sEnv, __FUNCTION__);
@@ -152,6 +191,7 @@ VRBrowser::HandleBack() {
 
 void
 VRBrowser::RegisterExternalContext(jlong aContext) {
+  PROFILE_JNI_UPCALL();
   if (!ValidateMethodID(sEnv, sActivity, sRegisterExternalContext, __FUNCTION__)) { return; }
   sEnv->CallVoidMethod(sActivity, sRegisterExternalContext, aContext);
   CheckJNIException(sEnv, __FUNCTION__);
@@ -159,6 +199,7 @@ VRBrowser::RegisterExternalContext(jlong aContext) {
 
 void
 VRBrowser::PauseCompositor() {
+  PROFILE_JNI_UPCALL();
   if (!ValidateMethodID(sEnv, sActivity, sPauseCompositor, __FUNCTION__)) { return; }
   sEnv->CallVoidMethod(sActivity, sPauseCompositor);
   CheckJNIException(sEnv, __FUNCTION__);
@@ -166,6 +207,7 @@ VRBrowser::PauseCompositor() {
 
 void
 VRBrowser::ResumeCompositor() {
+  PROFILE_JNI_UPCALL();
   if (!ValidateMethodID(sEnv, sActivity, sResumeCompositor, __FUNCTION__)) { return; }
   sEnv->CallVoidMethod(sActivity, sResumeCompositor);
   CheckJNIException(sEnv, __FUNCTION__);
@@ -173,6 +215,7 @@ VRBrowser::ResumeCompositor() {
 
 std::string
 VRBrowser::GetStorageAbsolutePath(const std::string& aRelativePath) {
+  PROFILE_JNI_UPCALL();
   if (!ValidateMethodID(sEnv, sActivity, sGetStorageAbsolutePath, __FUNCTION__)) { return ""; }
   jstring jStr = (jstring) sEnv->CallObjectMethod(sActivity, sGetStorageAbsolutePath);
   CheckJNIException(sEnv, __FUNCTION__);
@@ -191,4 +234,13 @@ VRBrowser::GetStorageAbsolutePath(const std::string& aRelativePath) {
   }
 }
 
+int64_t
+VRBrowser::GetAppUpdateTime() {
+  PROFILE_JNI_UPCALL();
+  if (!ValidateMethodID(sEnv, sActivity, sGetAppUpdateTime, __FUNCTION__)) { return 0; }
+  jlong result = sEnv->CallLongMethod(sActivity, sGetAppUpdateTime);
+  CheckJNIException(sEnv, __FUNCTION__);
+  return (int64_t)result;
+}
+
 } // namespace crow
@@ -8,6 +8,7 @@
 
 #include "vrb/MacroUtils.h"
 
+#include <cstdint>
 #include <memory>
 #include <string>
 #include <jni.h>
@@ -23,11 +24,14 @@ void HandleScrollEvent(jint aWidgetHandle, jint aController, jfloat aX, jfloat a
 void HandleAudioPose(jfloat qx, jfloat qy, jfloat qz, jfloat qw, jfloat px, jfloat py, jfloat pz);
 void HandleGesture(jint aType);
 void HandleResize(jint aWidgetHandle, jfloat aWorldWidth, jfloat aWorldHeight);
+void HandleWidgetAnimationFinished(jint aWidgetHandle, jint aAnimationId);
+void HandleWidgetInView(jint aWidgetHandle, jboolean aInView);
 void HandleBack();
 void RegisterExternalContext(jlong aContext);
 void PauseCompositor();
 void ResumeCompositor();
 std::string GetStorageAbsolutePath(const std::string& aRelativePath);
+int64_t GetAppUpdateTime();
 } // namespace VRBrowser;
 
 } // namespace crow
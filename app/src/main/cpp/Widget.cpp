@@ -21,6 +21,8 @@
 #include "vrb/Vector.h"
 #include "vrb/VertexArray.h"
 
+#include <algorithm>
+
 namespace crow {
 
 struct Widget::State {
@@ -39,11 +41,13 @@ struct Widget::State {
   WidgetResizerPtr resizer;
   bool resizing;
   bool toggleState;
+  float opacity;
 
   State()
       : handle(0)
       , resizing(false)
       , toggleState(false)
+      , opacity(1.0f)
   {}
 
   void Initialize(const int aHandle, const vrb::Vector& aWindowMin, const vrb::Vector& aWindowMax, const int32_t aTextureWidth, const int32_t aTextureHeight) {
@@ -57,7 +61,7 @@ struct Widget::State {
     vrb::CreationContextPtr create = render->GetRenderThreadCreationContext();
     quad = Quad::Create(create, aWindowMin, aWindowMax);
     quad->SetTexture(surface, aTextureWidth, aTextureHeight);
-    quad->SetMaterial(vrb::Color(0.4f, 0.4f, 0.4f), vrb::Color(1.0f, 1.0f, 1.0f), vrb::Color(0.0f, 0.0f, 0.0f), 0.0f);
+    SetMaterial();
 
     transform = vrb::Transform::Create(create);
     pointerToggle = vrb::Toggle::Create(create);
@@ -100,6 +104,12 @@ struct Widget::State {
     root->ToggleAll(false);
   }
 
+  void SetMaterial() {
+    // The texture is modulated by the material, so fading only changes the material alpha.
+    quad->SetMaterial(vrb::Color(0.4f, 0.4f, 0.4f, opacity), vrb::Color(1.0f, 1.0f, 1.0f, opacity),
+                      vrb::Color(0.0f, 0.0f, 0.0f), 0.0f);
+  }
+
   bool FirstDraw() {
     if (!placement) {
       return false;
@@ -166,11 +176,15 @@ Widget::SetWorldWidth(float aWorldWidth) const {
   int32_t width, height;
   m.quad->GetTextureSize(width, height);
   const float aspect = (float)width / (float) height;
-  const float worldHeight = aWorldWidth / aspect;
-  m.quad->SetWorldSize(aWorldWidth, worldHeight);
+  SetWorldSize(aWorldWidth, aWorldWidth / aspect);
+}
+
+void
+Widget::SetWorldSize(float aWorldWidth, float aWorldHeight) const {
+  m.quad->SetWorldSize(aWorldWidth, aWorldHeight);
   if (m.resizing && m.resizer) {
-    vrb::Vector min(-aWorldWidth * 0.5f, -worldHeight * 0.5f, 0.0f);
-    vrb::Vector max(aWorldWidth *0.5f, worldHeight * 0.5f, 0.0f);
+    vrb::Vector min(-aWorldWidth * 0.5f, -aWorldHeight * 0.5f, 0.0f);
+    vrb::Vector max(aWorldWidth *0.5f, aWorldHeight * 0.5f, 0.0f);
     m.resizer->SetSize(min, max);
   }
 }
@@ -226,6 +240,23 @@ Widget::SetTransform(const vrb::Matrix& aTransform) {
   m.transform->SetTransform(aTransform);
 }
 
+float
+Widget::GetOpacity() const {
+  return m.opacity;
+}
+
+void
+Widget::SetOpacity(const float aOpacity) {
+  const float opacity = std::max(0.0f, std::min(aOpacity, 1.0f));
+  if (opacity == m.opacity) {
+    return;
+  }
+  m.opacity = opacity;
+  if (m.quad) {
+    m.SetMaterial();
+  }
+}
+
 void
 Widget::ToggleWidget(const bool aEnabled) {
   m.toggleState = aEnabled;
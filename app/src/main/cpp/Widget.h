@@ -33,12 +33,15 @@ public:
   void SetSurfaceTextureSize(int32_t aWidth, int32_t aHeight);
   void GetWidgetMinAndMax(vrb::Vector& aMin, vrb::Vector& aMax) const;
   void SetWorldWidth(float aWorldWidth) const;
+  void SetWorldSize(float aWorldWidth, float aWorldHeight) const;
   void GetWorldSize(float& aWidth, float& aHeight) const;
   bool TestControllerIntersection(const vrb::Vector& aStartPoint, const vrb::Vector& aDirection, vrb::Vector& aResult, bool& aIsInWidget, float& aDistance) const;
   void ConvertToWidgetCoordinates(const vrb::Vector& aPoint, float& aX, float& aY) const;
   void ConvertToWorldCoordinates(const vrb::Vector& aPoint, vrb::Vector& aResult) const;
   const vrb::Matrix GetTransform() const;
   void SetTransform(const vrb::Matrix& aTransform);
+  float GetOpacity() const;
+  void SetOpacity(const float aOpacity);
   void ToggleWidget(const bool aEnabled);
   void TogglePointer(const bool aEnabled);
   bool IsVisible() const;
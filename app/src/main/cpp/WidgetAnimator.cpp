@@ -0,0 +1,126 @@
+/* -*- Mode: C++; tab-width: 20; indent-tabs-mode: nil; c-basic-offset: 2 -*-
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/. */
+
+#include "WidgetAnimator.h"
+
+namespace crow {
+
+WidgetAnimator::Values::Values()
+    : opacity(1.0f)
+    , scale(1.0f)
+    , translation{0.0f, 0.0f, 0.0f}
+{}
+
+float
+WidgetAnimator::Ease(const Easing aEasing, const float aProgress) {
+  const float t = aProgress < 0.0f ? 0.0f : (aProgress > 1.0f ? 1.0f : aProgress);
+  switch (aEasing) {
+    case Easing::EaseIn:
+      return t * t;
+    case Easing::EaseOut:
+      return t * (2.0f - t);
+    case Easing::EaseInOut:
+      return t * t * (3.0f - 2.0f * t);
+    case Easing::Linear:
+    default:
+      return t;
+  }
+}
+
+WidgetAnimator::Values
+WidgetAnimator::Interpolate(const Values& aFrom, const Values& aTo, const float aProgress) {
+  Values result;
+  result.opacity = aFrom.opacity + (aTo.opacity - aFrom.opacity) * aProgress;
+  result.scale = aFrom.scale + (aTo.scale - aFrom.scale) * aProgress;
+  for (int i = 0; i < 3; i++) {
+    result.translation[i] = aFrom.translation[i] + (aTo.translation[i] - aFrom.translation[i]) * aProgress;
+  }
+  return result;
+}
+
+WidgetAnimator::WidgetAnimator() {}
+
+void
+WidgetAnimator::Start(const int32_t aHandle, const int32_t aAnimationId, const Values& aFrom, const Values& aTo,
+                      const double aStart, const double aDuration, const Easing aEasing) {
+  Animation animation;
+  animation.handle = aHandle;
+  animation.id = aAnimationId;
+  animation.from = aFrom;
+  animation.to = aTo;
+  animation.current = aFrom;
+  animation.start = aStart;
+  animation.duration = aDuration > 0.0 ? aDuration : 0.0;
+  animation.easing = aEasing;
+  for (Animation& existing: mAnimations) {
+    if (existing.handle == aHandle) {
+      mReplaced.push_back({existing.handle, existing.id});
+      animation.from = existing.current;
+      animation.current = existing.current;
+      existing = animation;
+      return;
+    }
+  }
+  mAnimations.push_back(animation);
+}
+
+bool
+WidgetAnimator::IsAnimating(const int32_t aHandle) const {
+  for (const Animation& animation: mAnimations) {
+    if (animation.handle == aHandle) {
+      return true;
+    }
+  }
+  return false;
+}
+
+bool
+WidgetAnimator::IsEmpty() const {
+  return mAnimations.empty() && mReplaced.empty();
+}
+
+bool
+WidgetAnimator::GetValues(const int32_t aHandle, Values& aValues) const {
+  for (const Animation& animation: mAnimations) {
+    if (animation.handle == aHandle) {
+      aValues = animation.current;
+      return true;
+    }
+  }
+  return false;
+}
+
+void
+WidgetAnimator::Step(const double aNow, const UpdateCallback& aUpdate, const FinishedCallback& aFinished) {
+  // Callbacks may start new animations, so work on copies of the finished lists.
+  mFinished.swap(mReplaced);
+  for (auto iter = mAnimations.begin(); iter != mAnimations.end();) {
+    Animation& animation = *iter;
+    float progress = 1.0f;
+    if (animation.duration > 0.0) {
+      progress = (float)((aNow - animation.start) / animation.duration);
+    } else if (aNow < animation.start) {
+      progress = 0.0f;
+    }
+    animation.current = Interpolate(animation.from, animation.to, Ease(animation.easing, progress));
+    if (aUpdate) {
+      aUpdate(animation.handle, animation.current);
+    }
+    if (progress >= 1.0f) {
+      mFinished.push_back({animation.handle, animation.id});
+      iter = mAnimations.erase(iter);
+    } else {
+      ++iter;
+    }
+  }
+  if (aFinished) {
+    for (const Finished& finished: mFinished) {
+      aFinished(finished.handle, finished.id);
+    }
+  }
+  mFinished.clear();
+}
+
+} // namespace crow
@@ -0,0 +1,76 @@
+/* -*- Mode: C++; tab-width: 20; indent-tabs-mode: nil; c-basic-offset: 2 -*-
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/. */
+
+#ifndef VRBROWSER_WIDGET_ANIMATOR_DOT_H
+#define VRBROWSER_WIDGET_ANIMATOR_DOT_H
+
+#include <cstdint>
+#include <functional>
+#include <vector>
+
+namespace crow {
+
+// Interpolates the animatable placement values of widgets (opacity, scale and translation) on
+// the render thread, so fades and moves never redraw the widget texture. Each widget runs at
+// most one animation: starting a new one retargets it from the current values and finishes the
+// previous one. It has no dependency on vrb so it can be unit tested on the host.
+class WidgetAnimator {
+public:
+  // Must match AnimationHelper.EASING_* in Java.
+  enum class Easing {
+    Linear = 0,
+    EaseIn = 1,
+    EaseOut = 2,
+    EaseInOut = 3
+  };
+  struct Values {
+    float opacity;
+    float scale;
+    float translation[3];
+    Values();
+  };
+  typedef std::function<void(const int32_t aHandle, const Values& aValues)> UpdateCallback;
+  typedef std::function<void(const int32_t aHandle, const int32_t aAnimationId)> FinishedCallback;
+
+  static float Ease(const Easing aEasing, const float aProgress);
+  static Values Interpolate(const Values& aFrom, const Values& aTo, const float aProgress);
+
+  WidgetAnimator();
+  // Times are in seconds. The animation holds aFrom until aStart and reaches aTo at
+  // aStart + aDuration. If the widget is already animating it continues from its current
+  // values instead of aFrom and the previous animation is reported finished on the next Step.
+  void Start(const int32_t aHandle, const int32_t aAnimationId, const Values& aFrom, const Values& aTo,
+             const double aStart, const double aDuration, const Easing aEasing);
+  bool IsAnimating(const int32_t aHandle) const;
+  bool IsEmpty() const;
+  // Current values of an animating widget, returns false if it is not animating.
+  bool GetValues(const int32_t aHandle, Values& aValues) const;
+  // Advances every animation to aNow, calls aUpdate with the new values of each animating
+  // widget and then aFinished for the animations that completed.
+  void Step(const double aNow, const UpdateCallback& aUpdate, const FinishedCallback& aFinished);
+private:
+  struct Animation {
+    int32_t handle;
+    int32_t id;
+    Values from;
+    Values to;
+    Values current;
+    double start;
+    double duration;
+    Easing easing;
+  };
+  struct Finished {
+    int32_t handle;
+    int32_t id;
+  };
+  std::vector<Animation> mAnimations;
+  // Animations replaced by Start, reported on the next Step.
+  std::vector<Finished> mReplaced;
+  std::vector<Finished> mFinished;
+};
+
+} // namespace crow
+
+#endif // VRBROWSER_WIDGET_ANIMATOR_DOT_H
@@ -0,0 +1,203 @@
+/* -*- Mode: C++; tab-width: 20; indent-tabs-mode: nil; c-basic-offset: 2 -*-
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/. */
+
+#include "WidgetBVH.h"
+
+#include <algorithm>
+#include <cmath>
+#include <iterator>
+#include <limits>
+
+namespace {
+
+static const uint32_t kMaxLeafItems = 2;
+// Widgets are flat, pad their bounds so the slab test is not affected by rounding.
+static const float kBoundsPadding = 0.01f;
+static const float kEpsilon = 0.00001f;
+static const float kInfinity = std::numeric_limits<float>::infinity();
+
+} // namespace
+
+namespace crow {
+
+WidgetBVH::Bounds::Bounds() {
+  for (int axis = 0; axis < 3; axis++) {
+    min[axis] = kInfinity;
+    max[axis] = -kInfinity;
+  }
+}
+
+void
+WidgetBVH::Bounds::Include(const float aPoint[3]) {
+  for (int axis = 0; axis < 3; axis++) {
+    min[axis] = std::min(min[axis], aPoint[axis]);
+    max[axis] = std::max(max[axis], aPoint[axis]);
+  }
+}
+
+void
+WidgetBVH::Bounds::Include(const Bounds& aBounds) {
+  Include(aBounds.min);
+  Include(aBounds.max);
+}
+
+WidgetBVH::Bounds
+WidgetBVH::Bounds::Infinite() {
+  Bounds result;
+  for (int axis = 0; axis < 3; axis++) {
+    result.min[axis] = -kInfinity;
+    result.max[axis] = kInfinity;
+  }
+  return result;
+}
+
+WidgetBVH::WidgetBVH() : mDirty(true), mLastTestCount(0) {}
+
+void
+WidgetBVH::Clear() {
+  mItems.clear();
+  mNodes.clear();
+  mDirty = true;
+}
+
+void
+WidgetBVH::AddItem(const uint32_t aItem, const Bounds& aBounds) {
+  Item item;
+  item.item = aItem;
+  item.bounds = aBounds;
+  for (int axis = 0; axis < 3; axis++) {
+    item.bounds.min[axis] -= kBoundsPadding;
+    item.bounds.max[axis] += kBoundsPadding;
+    const float center = (aBounds.min[axis] + aBounds.max[axis]) * 0.5f;
+    // Infinite bounds have no meaningful center, keep them together at the origin.
+    item.center[axis] = std::isfinite(center) ? center : 0.0f;
+  }
+  mItems.push_back(item);
+}
+
+void
+WidgetBVH::Build() {
+  mNodes.clear();
+  if (mItems.size() >= kMinTreeItems) {
+    mNodes.reserve(mItems.size() * 2);
+    BuildNode(0, (uint32_t)mItems.size());
+  }
+  mDirty = false;
+}
+
+bool
+WidgetBVH::IsDirty() const {
+  return mDirty;
+}
+
+void
+WidgetBVH::SetDirty() {
+  mDirty = true;
+}
+
+bool
+WidgetBVH::CreateRay(const float aStart[3], const float aDirection[3], Ray& aRay) {
+  const float length = std::sqrt(aDirection[0] * aDirection[0] + aDirection[1] * aDirection[1] +
+                                 aDirection[2] * aDirection[2]);
+  if (length < kEpsilon) {
+    return false;
+  }
+  for (int axis = 0; axis < 3; axis++) {
+    const float direction = aDirection[axis] / length;
+    aRay.start[axis] = aStart[axis];
+    aRay.parallel[axis] = std::fabs(direction) < kEpsilon;
+    aRay.invDirection[axis] = aRay.parallel[axis] ? 0.0f : 1.0f / direction;
+  }
+  return true;
+}
+
+bool
+WidgetBVH::IntersectBounds(const Bounds& aBounds, const Ray& aRay, const float aMaxDistance, float& aEntry) {
+  float near = 0.0f;
+  float far = aMaxDistance;
+  for (int axis = 0; axis < 3; axis++) {
+    if (aRay.parallel[axis]) {
+      if (aRay.start[axis] < aBounds.min[axis] || aRay.start[axis] > aBounds.max[axis]) {
+        return false;
+      }
+      continue;
+    }
+    float t1 = (aBounds.min[axis] - aRay.start[axis]) * aRay.invDirection[axis];
+    float t2 = (aBounds.max[axis] - aRay.start[axis]) * aRay.invDirection[axis];
+    if (t1 > t2) {
+      std::swap(t1, t2);
+    }
+    near = std::max(near, t1);
+    far = std::min(far, t2);
+    if (near > far) {
+      return false;
+    }
+  }
+  aEntry = near;
+  return true;
+}
+
+size_t
+WidgetBVH::GetItemCount() const {
+  return mItems.size();
+}
+
+int32_t
+WidgetBVH::BuildNode(const uint32_t aFirst, const uint32_t aCount) {
+  const int32_t index = (int32_t)mNodes.size();
+  mNodes.push_back(Node());
+  Bounds bounds;
+  Bounds centers;
+  for (uint32_t i = aFirst; i < aFirst + aCount; i++) {
+    bounds.Include(mItems[i].bounds);
+    centers.Include(mItems[i].center);
+  }
+  mNodes[index].bounds = bounds;
+  mNodes[index].left = -1;
+  mNodes[index].right = -1;
+  mNodes[index].first = aFirst;
+  mNodes[index].count = aCount;
+  if (aCount <= kMaxLeafItems) {
+    return index;
+  }
+
+  // Median split along the axis where the centers are most spread.
+  int axis = 0;
+  for (int i = 1; i < 3; i++) {
+    if ((centers.max[i] - centers.min[i]) > (centers.max[axis] - centers.min[axis])) {
+      axis = i;
+    }
+  }
+  const uint32_t half = aCount / 2;
+  std::nth_element(mItems.begin() + aFirst, mItems.begin() + aFirst + half, mItems.begin() + aFirst + aCount,
+                   [axis](const Item& aLeft, const Item& aRight) {
+    return aLeft.center[axis] < aRight.center[axis];
+  });
+
+  const int32_t left = BuildNode(aFirst, half);
+  const int32_t right = BuildNode(aFirst + half, aCount - half);
+  mNodes[index].left = left;
+  mNodes[index].right = right;
+  mNodes[index].count = 0;
+  return index;
+}
+
+uint32_t
+WidgetBVH::GetLastTestCount() const {
+  return mLastTestCount;
+}
+
+void
+WidgetBVH::Diff(const std::vector<uint32_t>& aPrevious, const std::vector<uint32_t>& aCurrent,
+                std::vector<uint32_t>& aShown, std::vector<uint32_t>& aHidden) {
+  aShown.clear();
+  aHidden.clear();
+  std::set_difference(aCurrent.begin(), aCurrent.end(), aPrevious.begin(), aPrevious.end(),
+                      std::back_inserter(aShown));
+  std::set_difference(aPrevious.begin(), aPrevious.end(), aCurrent.begin(), aCurrent.end(),
+                      std::back_inserter(aHidden));
+}
+
+} // namespace crow
@@ -0,0 +1,170 @@
+/* -*- Mode: C++; tab-width: 20; indent-tabs-mode: nil; c-basic-offset: 2 -*-
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/. */
+
+#ifndef VRBROWSER_WIDGET_BVH_DOT_H
+#define VRBROWSER_WIDGET_BVH_DOT_H
+
+#include <cstddef>
+#include <cstdint>
+#include <vector>
+
+namespace crow {
+
+// Bounding volume hierarchy over the world space bounds of the widgets, used to find the
+// widget hit by a controller ray without testing every widget. Items are opaque indices
+// provided by the caller. It has no dependency on vrb so it can be unit tested on the host.
+// Below kMinTreeItems no tree is built and every item is tested, which is faster for the
+// widget counts the browser usually has (see WidgetBVHTest).
+class WidgetBVH {
+public:
+  static const size_t kMinTreeItems = 16;
+  struct Bounds {
+    float min[3];
+    float max[3];
+    Bounds();
+    // Grows the bounds to include the point.
+    void Include(const float aPoint[3]);
+    void Include(const Bounds& aBounds);
+    // Bounds that any ray hits, used for widgets with handles outside their quad.
+    static Bounds Infinite();
+  };
+
+  WidgetBVH();
+  void Clear();
+  void AddItem(const uint32_t aItem, const Bounds& aBounds);
+  void Build();
+  bool IsDirty() const;
+  void SetDirty();
+  size_t GetItemCount() const;
+  // Finds the closest item hit by the ray. Nodes further away than the closest hit found so
+  // far, or than aMaxDistance, are skipped. aStart and aDirection are in world space.
+  // aTest is the exact hit test of an item, bool(const uint32_t aItem, float& aDistance): it
+  // returns true and the distance along the ray, in world units, on hit. It is a template
+  // parameter so the test is inlined, the scan of a few widgets costs no more than a loop.
+  template <typename HitTest>
+  bool Query(const float aStart[3], const float aDirection[3], const float aMaxDistance,
+             const HitTest& aTest, uint32_t& aHitItem, float& aHitDistance) const;
+  // Number of exact hit tests done by the last query, for benchmarking.
+  uint32_t GetLastTestCount() const;
+
+  // Computes which items appear in aCurrent but not in aPrevious (aShown) and the opposite
+  // (aHidden). Both inputs must be sorted.
+  static void Diff(const std::vector<uint32_t>& aPrevious, const std::vector<uint32_t>& aCurrent,
+                   std::vector<uint32_t>& aShown, std::vector<uint32_t>& aHidden);
+private:
+  struct Node {
+    Bounds bounds;
+    int32_t left;
+    int32_t right;
+    uint32_t first;
+    uint32_t count;
+  };
+  struct Item {
+    uint32_t item;
+    Bounds bounds;
+    float center[3];
+  };
+  struct Ray {
+    float start[3];
+    float invDirection[3];
+    bool parallel[3];
+  };
+  // Median splits keep the depth at log2 of the widget count, far below this.
+  static const int kMaxStackSize = 64;
+  // Returns false if aDirection has no length.
+  static bool CreateRay(const float aStart[3], const float aDirection[3], Ray& aRay);
+  static bool IntersectBounds(const Bounds& aBounds, const Ray& aRay, const float aMaxDistance, float& aEntry);
+  int32_t BuildNode(const uint32_t aFirst, const uint32_t aCount);
+
+  std::vector<Item> mItems;
+  std::vector<Node> mNodes;
+  bool mDirty;
+  mutable uint32_t mLastTestCount;
+};
+
+template <typename HitTest>
+bool
+WidgetBVH::Query(const float aStart[3], const float aDirection[3], const float aMaxDistance,
+                 const HitTest& aTest, uint32_t& aHitItem, float& aHitDistance) const {
+  mLastTestCount = 0;
+  float best = aMaxDistance;
+  bool hit = false;
+  if (mNodes.empty()) {
+    // Too few items for the tree to pay off.
+    mLastTestCount = (uint32_t)mItems.size();
+    uint32_t hitItem = 0;
+    for (const Item& item: mItems) {
+      float distance = 0.0f;
+      if (aTest(item.item, distance) && distance < best) {
+        best = distance;
+        hitItem = item.item;
+        hit = true;
+      }
+    }
+    if (hit) {
+      aHitItem = hitItem;
+      aHitDistance = best;
+    }
+    return hit;
+  }
+  Ray ray;
+  float entry = 0.0f;
+  if (!CreateRay(aStart, aDirection, ray) || !IntersectBounds(mNodes[0].bounds, ray, best, entry)) {
+    return false;
+  }
+
+  struct Pending { int32_t node; float entry; };
+  Pending stack[kMaxStackSize];
+  int stackSize = 0;
+  stack[stackSize++] = {0, entry};
+  while (stackSize > 0) {
+    const Pending current = stack[--stackSize];
+    if (current.entry > best) {
+      continue;
+    }
+    const Node& node = mNodes[current.node];
+    if (node.left < 0) {
+      for (uint32_t i = node.first; i < node.first + node.count; i++) {
+        const Item& item = mItems[i];
+        float itemEntry = 0.0f;
+        if (!IntersectBounds(item.bounds, ray, best, itemEntry)) {
+          continue;
+        }
+        mLastTestCount++;
+        float distance = 0.0f;
+        if (aTest(item.item, distance) && distance < best) {
+          best = distance;
+          aHitItem = item.item;
+          aHitDistance = distance;
+          hit = true;
+        }
+      }
+      continue;
+    }
+
+    float leftEntry = 0.0f, rightEntry = 0.0f;
+    const bool hitLeft = IntersectBounds(mNodes[node.left].bounds, ray, best, leftEntry);
+    const bool hitRight = IntersectBounds(mNodes[node.right].bounds, ray, best, rightEntry);
+    // Push the farthest child first so the nearest one is visited first.
+    if (hitLeft && hitRight && stackSize + 2 <= kMaxStackSize) {
+      if (leftEntry < rightEntry) {
+        stack[stackSize++] = {node.right, rightEntry};
+        stack[stackSize++] = {node.left, leftEntry};
+      } else {
+        stack[stackSize++] = {node.left, leftEntry};
+        stack[stackSize++] = {node.right, rightEntry};
+      }
+    } else if (hitLeft && stackSize < kMaxStackSize) {
+      stack[stackSize++] = {node.left, leftEntry};
+    } else if (hitRight && stackSize < kMaxStackSize) {
+      stack[stackSize++] = {node.right, rightEntry};
+    }
+  }
+  return hit;
+}
+
+} // namespace crow
+
+#endif // VRBROWSER_WIDGET_BVH_DOT_H
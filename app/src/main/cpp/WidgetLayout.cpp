@@ -0,0 +1,152 @@
+/* -*- Mode: C++; tab-width: 20; indent-tabs-mode: nil; c-basic-offset: 2 -*-
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/. */
+
+#include "WidgetLayout.h"
+
+#include <algorithm>
+
+namespace crow {
+
+WidgetLayout::WidgetLayout() : mDirty(false) {}
+
+bool
+WidgetLayout::SetParent(const int32_t aHandle, const int32_t aParent) {
+  int32_t index = Find(aHandle);
+  if (index < 0) {
+    index = Add(aHandle);
+  }
+  Node& node = mNodes[index];
+  if (node.parent == aParent) {
+    return true;
+  }
+  node.dirty = true;
+  mDirty = true;
+  if (aParent == aHandle || IsAncestor(aHandle, aParent)) {
+    node.parent = kNoParent;
+    return false;
+  }
+  node.parent = aParent;
+  return true;
+}
+
+int32_t
+WidgetLayout::GetParent(const int32_t aHandle) const {
+  const int32_t index = Find(aHandle);
+  return index < 0 ? kNoParent : mNodes[index].parent;
+}
+
+void
+WidgetLayout::Remove(const int32_t aHandle) {
+  const int32_t index = Find(aHandle);
+  if (index < 0) {
+    return;
+  }
+  mNodes.erase(mNodes.begin() + index);
+  for (Node& node: mNodes) {
+    if (node.parent == aHandle) {
+      node.dirty = true;
+      mDirty = true;
+    }
+  }
+}
+
+void
+WidgetLayout::Invalidate(const int32_t aHandle) {
+  int32_t index = Find(aHandle);
+  if (index < 0) {
+    index = Add(aHandle);
+  }
+  mNodes[index].dirty = true;
+  mDirty = true;
+}
+
+bool
+WidgetLayout::IsDirty() const {
+  return mDirty;
+}
+
+void
+WidgetLayout::Resolve(const ResolveCallback& aResolve) {
+  if (!mDirty) {
+    return;
+  }
+  mDirty = false;
+  // A node is resolved if it or any of its ancestors is dirty. Cycles are rejected by
+  // SetParent, so walking up always ends at a root or at a parent that is not registered.
+  mOrder.clear();
+  for (int32_t index = 0; index < (int32_t)mNodes.size(); index++) {
+    Node& node = mNodes[index];
+    node.depth = 0;
+    node.resolve = node.dirty;
+    int32_t parent = Find(node.parent);
+    while (parent >= 0) {
+      node.depth++;
+      node.resolve = node.resolve || mNodes[parent].dirty;
+      parent = Find(mNodes[parent].parent);
+    }
+    if (node.resolve) {
+      mOrder.push_back(index);
+    }
+  }
+  std::stable_sort(mOrder.begin(), mOrder.end(), [this](const int32_t aLeft, const int32_t aRight) {
+    return mNodes[aLeft].depth < mNodes[aRight].depth;
+  });
+  for (Node& node: mNodes) {
+    node.dirty = false;
+  }
+  // Handles are copied first, the callback may invalidate widgets for the next pass.
+  for (int32_t& index: mOrder) {
+    index = mNodes[index].handle;
+  }
+  for (const int32_t handle: mOrder) {
+    aResolve(handle);
+  }
+}
+
+size_t
+WidgetLayout::GetWidgetCount() const {
+  return mNodes.size();
+}
+
+int32_t
+WidgetLayout::Find(const int32_t aHandle) const {
+  if (aHandle == kNoParent) {
+    return -1;
+  }
+  for (int32_t index = 0; index < (int32_t)mNodes.size(); index++) {
+    if (mNodes[index].handle == aHandle) {
+      return index;
+    }
+  }
+  return -1;
+}
+
+int32_t
+WidgetLayout::Add(const int32_t aHandle) {
+  Node node;
+  node.handle = aHandle;
+  node.parent = kNoParent;
+  node.dirty = true;
+  node.depth = 0;
+  node.resolve = false;
+  mNodes.push_back(node);
+  mDirty = true;
+  return (int32_t)mNodes.size() - 1;
+}
+
+bool
+WidgetLayout::IsAncestor(const int32_t aAncestor, const int32_t aHandle) const {
+  int32_t index = Find(aHandle);
+  // Bounded by the node count in case the links were corrupted.
+  for (size_t steps = 0; index >= 0 && steps <= mNodes.size(); steps++) {
+    if (mNodes[index].handle == aAncestor) {
+      return true;
+    }
+    index = Find(mNodes[index].parent);
+  }
+  return false;
+}
+
+} // namespace crow
@@ -0,0 +1,59 @@
+/* -*- Mode: C++; tab-width: 20; indent-tabs-mode: nil; c-basic-offset: 2 -*-
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/. */
+
+#ifndef VRBROWSER_WIDGET_LAYOUT_DOT_H
+#define VRBROWSER_WIDGET_LAYOUT_DOT_H
+
+#include <cstddef>
+#include <cstdint>
+#include <functional>
+#include <vector>
+
+namespace crow {
+
+// Tracks which widgets are anchored to which parent, so the world transforms cached in the
+// widgets are only recomputed when they are invalidated. Invalidating a widget also invalidates
+// all of its descendants and Resolve visits them once per pass, parents before children, so
+// a child always sees the resolved transform of its parent. Parent links that would create a
+// cycle are rejected. It has no dependency on vrb so it can be unit tested on the host.
+class WidgetLayout {
+public:
+  static const int32_t kNoParent = -1;
+  typedef std::function<void(const int32_t aHandle)> ResolveCallback;
+
+  WidgetLayout();
+  // Adds the widget if needed. Returns false, and leaves the widget without parent, if
+  // aParent is a descendant of the widget or the widget itself.
+  bool SetParent(const int32_t aHandle, const int32_t aParent);
+  int32_t GetParent(const int32_t aHandle) const;
+  // Children of a removed widget are invalidated and laid out as roots until their parent
+  // comes back.
+  void Remove(const int32_t aHandle);
+  void Invalidate(const int32_t aHandle);
+  bool IsDirty() const;
+  // Calls aResolve for each invalidated widget and its descendants, parents first.
+  void Resolve(const ResolveCallback& aResolve);
+  size_t GetWidgetCount() const;
+private:
+  struct Node {
+    int32_t handle;
+    int32_t parent;
+    bool dirty;
+    // Scratch values used by Resolve.
+    int32_t depth;
+    bool resolve;
+  };
+  int32_t Find(const int32_t aHandle) const;
+  int32_t Add(const int32_t aHandle);
+  bool IsAncestor(const int32_t aAncestor, const int32_t aHandle) const;
+
+  std::vector<Node> mNodes;
+  std::vector<int32_t> mOrder;
+  bool mDirty;
+};
+
+} // namespace crow
+
+#endif // VRBROWSER_WIDGET_LAYOUT_DOT_H
@@ -52,6 +52,8 @@ WidgetPlacement::FromJava(JNIEnv* aEnv, jobject& aObject) {
   GET_BOOLEAN_FIELD(opaque);
   GET_BOOLEAN_FIELD(showPointer);
   GET_BOOLEAN_FIELD(firstDraw);
+  GET_FLOAT_FIELD(opacity, "opacity");
+  GET_FLOAT_FIELD(scale, "scale");
 
   return result;
 }
@@ -30,6 +30,8 @@ struct WidgetPlacement {
   bool opaque;
   bool showPointer;
   bool firstDraw;
+  float opacity;
+  float scale;
 
   static WidgetPlacementPtr FromJava(JNIEnv* aEnv, jobject& aObject);
 private:
@@ -8,6 +8,7 @@
 #include <GLES2/gl2.h>
 
 #include "BrowserWorld.h"
+#include "JNIProfiler.h"
 #include "vrb/Logger.h"
 #include "vrb/GLError.h"
 #include "BrowserEGLContext.h"
@@ -242,7 +243,11 @@ android_main(android_app *aAppState) {
     if (sAppContext->mEgl) {
       sAppContext->mEgl->MakeCurrent();
     }
-    sAppContext->mQueue->ProcessRunnables();
+    {
+      // Runnables queued from Java run Java code on the render thread.
+      PROFILE_JNI_CALL("ProcessRunnables", JNIProfiler::Direction::NativeToJava);
+      sAppContext->mQueue->ProcessRunnables();
+    }
     if (!BrowserWorld::Instance().IsPaused() && sAppContext->mDevice->IsInVRMode()) {
       VRB_GL_CHECK(glClear(GL_COLOR_BUFFER_BIT | GL_DEPTH_BUFFER_BIT));
       BrowserWorld::Instance().Draw();
@@ -252,6 +257,7 @@ android_main(android_app *aAppState) {
 
 JNI_METHOD(void, queueRunnable)
 (JNIEnv *aEnv, jobject, jobject aRunnable) {
+  PROFILE_JNI_DOWNCALL();
   if (sAppContext) {
     sAppContext->mQueue->AddRunnable(aEnv, aRunnable);
   }
@@ -259,6 +265,7 @@ JNI_METHOD(void, queueRunnable)
 
 JNI_METHOD(jboolean, platformExit)
 (JNIEnv *, jobject) {
+  PROFILE_JNI_DOWNCALL();
   if (sAppContext && sAppContext->mDevice) {
     return (jboolean) sAppContext->mDevice->ExitApp();
   }
@@ -24,6 +24,7 @@ public:
   device::RenderMode GetRenderMode() override;
   void RegisterImmersiveDisplay(ImmersiveDisplayPtr aDisplay) override;
   GestureDelegateConstPtr GetGestureDelegate() override;
+  float GetTouchpadExtent() const override { return 1.0f; }
   vrb::CameraPtr GetCamera(const device::Eye) override;
   const vrb::Matrix& GetHeadTransform() const override;
   void SetClearColor(const vrb::Color& aColor) override;
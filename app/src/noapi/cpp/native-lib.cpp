@@ -7,6 +7,7 @@
 #include <string>
 
 #include "BrowserWorld.h"
+#include "JNIProfiler.h"
 #include "DeviceDelegateNoAPI.h"
 #include "vrb/GLError.h"
 #include "vrb/Logger.h"
@@ -23,6 +24,7 @@ extern "C" {
 
 JNI_METHOD(void, activityPaused)
 (JNIEnv*, jobject) {
+  PROFILE_JNI_DOWNCALL();
   if (sDevice) {
     sDevice->Pause();
   }
@@ -32,6 +34,7 @@ JNI_METHOD(void, activityPaused)
 
 JNI_METHOD(void, activityResumed)
 (JNIEnv*, jobject) {
+  PROFILE_JNI_DOWNCALL();
   if (sDevice) {
     sDevice->Resume();
   }
@@ -41,6 +44,7 @@ JNI_METHOD(void, activityResumed)
 
 JNI_METHOD(void, activityCreated)
 (JNIEnv* aEnv, jobject aActivity, jobject aAssetManager) {
+  PROFILE_JNI_DOWNCALL();
   if (!sDevice) {
     sDevice = crow::DeviceDelegateNoAPI::Create(BrowserWorld::Instance().GetRenderContext());
   }
@@ -52,6 +56,7 @@ JNI_METHOD(void, activityCreated)
 
 JNI_METHOD(void, updateViewport)
 (JNIEnv*, jobject, jint aWidth, jint aHeight) {
+  PROFILE_JNI_DOWNCALL();
   if (sDevice) {
     sDevice->SetViewport(aWidth, aHeight);
   } else {
@@ -61,6 +66,7 @@ JNI_METHOD(void, updateViewport)
 
 JNI_METHOD(void, activityDestroyed)
 (JNIEnv*, jobject) {
+  PROFILE_JNI_DOWNCALL();
   BrowserWorld::Instance().ShutdownJava();
   BrowserWorld::Instance().RegisterDeviceDelegate(nullptr);
   BrowserWorld::Instance().Destroy();
@@ -74,16 +80,19 @@ JNI_METHOD(void, drawGL)
 
 JNI_METHOD(void, moveAxis)
 (JNIEnv*, jobject, jfloat aX, jfloat aY, jfloat aZ) {
+  PROFILE_JNI_DOWNCALL();
   sDevice->MoveAxis(aX, aY, aZ);
 }
 
 JNI_METHOD(void, rotateHeading)
 (JNIEnv*, jobject, jfloat aHeading) {
+  PROFILE_JNI_DOWNCALL();
   sDevice->RotateHeading(aHeading);
 }
 
 JNI_METHOD(void, touchEvent)
 (JNIEnv*, jobject, jboolean aDown, jfloat aX, jfloat aY) {
+  PROFILE_JNI_DOWNCALL();
   sDevice->TouchEvent(aDown, aX, aY);
 }
 
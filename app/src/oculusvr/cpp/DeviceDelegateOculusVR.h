@@ -27,6 +27,8 @@ public:
   device::RenderMode GetRenderMode() override;
   void RegisterImmersiveDisplay(ImmersiveDisplayPtr aDisplay) override;
   GestureDelegateConstPtr GetGestureDelegate() override { return nullptr; }
+  // The trackpad position is scaled to the [0, 5] range for scrolling.
+  float GetTouchpadExtent() const override { return 5.0f; }
   vrb::CameraPtr GetCamera(const device::Eye aWhich) override;
   const vrb::Matrix& GetHeadTransform() const override;
   void SetClearColor(const vrb::Color& aColor) override;
@@ -27,6 +27,8 @@ public:
   device::RenderMode GetRenderMode() override;
   void RegisterImmersiveDisplay(ImmersiveDisplayPtr aDisplay) override;
   GestureDelegateConstPtr GetGestureDelegate() override { return nullptr; }
+  // Touch positions are in the [-1, 1] range.
+  float GetTouchpadExtent() const override { return 2.0f; }
   vrb::CameraPtr GetCamera(const device::Eye aWhich) override;
   const vrb::Matrix& GetHeadTransform() const override;
   void SetClearColor(const vrb::Color& aColor) override;
@@ -0,0 +1,104 @@
+/* -*- Mode: C++; tab-width: 20; indent-tabs-mode: nil; c-basic-offset: 2 -*-
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/. */
+
+// Host side tests for EnvironmentCache.
+
+#include "EnvironmentCache.h"
+#include "TestHarness.h"
+
+#include <cstdio>
+
+using crow::EnvironmentCache;
+
+namespace {
+
+void
+TestEvictsLeastRecentlyUsed() {
+  EnvironmentCache cache(100);
+  std::vector<std::string> evicted;
+  cache.Insert("meadow", 40, evicted);
+  cache.Insert("space", 40, evicted);
+  CHECK(evicted.empty());
+  CHECK(cache.GetSize() == 80);
+  cache.Touch("meadow");
+  cache.Insert("beach", 40, evicted);
+  CHECK(evicted.size() == 1 && evicted[0] == "space");
+  CHECK(!cache.Contains("space"));
+  CHECK(cache.Contains("meadow") && cache.Contains("beach"));
+  CHECK(cache.GetSize() == 80);
+  CHECK(cache.GetCount() == 2);
+
+  // Enough entries are evicted to fit, oldest first.
+  evicted.clear();
+  cache.Insert("city", 90, evicted);
+  CHECK(evicted.size() == 2 && evicted[0] == "meadow" && evicted[1] == "beach");
+  CHECK(cache.GetSize() == 90);
+}
+
+void
+TestKeepsInsertedEntry() {
+  EnvironmentCache cache(100);
+  std::vector<std::string> evicted;
+  cache.Insert("meadow", 40, evicted);
+  // Larger than the budget on its own, it stays so it can be shown.
+  cache.Insert("space", 150, evicted);
+  CHECK(evicted.size() == 1 && evicted[0] == "meadow");
+  CHECK(cache.Contains("space"));
+  CHECK(cache.GetSize() == 150);
+}
+
+void
+TestPinnedEntries() {
+  EnvironmentCache cache(100);
+  std::vector<std::string> evicted;
+  cache.Insert("meadow", 40, evicted);
+  cache.Insert("space", 40, evicted);
+  cache.SetPinned("meadow", true);
+  cache.Insert("beach", 40, evicted);
+  CHECK(evicted.size() == 1 && evicted[0] == "space");
+  evicted.clear();
+  cache.Insert("city", 40, evicted);
+  CHECK(evicted.size() == 1 && evicted[0] == "beach");
+  CHECK(cache.Contains("meadow"));
+  // Over budget rather than evicting the pinned entry.
+  evicted.clear();
+  cache.Insert("forest", 80, evicted);
+  CHECK(evicted.size() == 1 && evicted[0] == "city");
+  CHECK(cache.GetSize() == 120);
+  cache.SetPinned("meadow", false);
+  evicted.clear();
+  cache.Insert("forest", 80, evicted);
+  CHECK(evicted.size() == 1 && evicted[0] == "meadow");
+}
+
+void
+TestResizeAndRemove() {
+  EnvironmentCache cache(100);
+  std::vector<std::string> evicted;
+  cache.Insert("meadow", 40, evicted);
+  cache.Insert("space", 40, evicted);
+  cache.Insert("meadow", 10, evicted);
+  CHECK(evicted.empty());
+  CHECK(cache.GetSize() == 50);
+  CHECK(cache.GetCount() == 2);
+  cache.Remove("meadow");
+  cache.Remove("unknown");
+  cache.Touch("unknown");
+  CHECK(cache.GetSize() == 40);
+  CHECK(!cache.Contains("meadow"));
+  cache.Remove("space");
+  CHECK(cache.GetSize() == 0 && cache.GetCount() == 0);
+}
+
+} // namespace
+
+int
+main() {
+  TestEvictsLeastRecentlyUsed();
+  TestKeepsInsertedEntry();
+  TestPinnedEntries();
+  TestResizeAndRemove();
+  return crow::test::Result("EnvironmentCache");
+}
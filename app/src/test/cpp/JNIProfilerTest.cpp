@@ -0,0 +1,185 @@
+/* -*- Mode: C++; tab-width: 20; indent-tabs-mode: nil; c-basic-offset: 2 -*-
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/. */
+
+// Host side tests for JNIProfiler.
+
+#include "JNIProfiler.h"
+#include "TestHarness.h"
+
+#include <cstdio>
+#include <fstream>
+#include <sstream>
+#include <string>
+#include <thread>
+#include <vector>
+
+using crow::JNIProfiler;
+
+namespace {
+
+// Stand-ins for instrumented functions on both sides of the bridge.
+void
+Java_org_mozilla_vrbrowser_VRBrowserActivity_updateWidgetNative() {
+  PROFILE_JNI_DOWNCALL();
+}
+
+void
+HandleMotionEvent() {
+  PROFILE_JNI_UPCALL();
+}
+
+bool
+Contains(const std::string& aText, const std::string& aValue) {
+  return aText.find(aValue) != std::string::npos;
+}
+
+std::vector<std::string>
+ReadLines(const std::string& aPath) {
+  std::vector<std::string> result;
+  std::ifstream input(aPath);
+  std::string line;
+  while (std::getline(input, line)) {
+    result.push_back(line);
+  }
+  return result;
+}
+
+void
+TestDisabledRecordsNothing() {
+  JNIProfiler::Disable();
+  for (int i = 0; i < 10; i++) {
+    HandleMotionEvent();
+  }
+  JNIProfiler::EndFrame();
+  JNIProfiler::Enable("");
+  JNIProfiler::EndFrame();
+  CHECK(JNIProfiler::GetSummary().empty());
+  JNIProfiler::Disable();
+}
+
+void
+TestCountsPerMethodAndDirection() {
+  JNIProfiler::Enable("");
+  for (int i = 0; i < 3; i++) {
+    Java_org_mozilla_vrbrowser_VRBrowserActivity_updateWidgetNative();
+  }
+  HandleMotionEvent();
+  JNIProfiler::EndFrame();
+  HandleMotionEvent();
+  JNIProfiler::EndFrame();
+  JNIProfiler::EndFrame();
+  CHECK(JNIProfiler::GetFrameCount() == 3);
+
+  const std::string summary = JNIProfiler::GetSummary();
+  CHECK(Contains(summary, "java_to_native,updateWidgetNative,3,"));
+  CHECK(Contains(summary, "native_to_java,HandleMotionEvent,2,"));
+  // Frames with calls are the last column.
+  CHECK(Contains(summary, ",1\n"));
+  CHECK(Contains(summary, ",2\n"));
+  CHECK(!Contains(summary, "Java_org_mozilla"));
+
+  // Registering again returns the same method.
+  const int32_t id = JNIProfiler::Register("HandleMotionEvent", JNIProfiler::Direction::NativeToJava);
+  CHECK(id == JNIProfiler::Register("HandleMotionEvent", JNIProfiler::Direction::NativeToJava));
+  CHECK(id != JNIProfiler::Register("HandleMotionEvent", JNIProfiler::Direction::JavaToNative));
+  JNIProfiler::Disable();
+}
+
+void
+TestTimes() {
+  JNIProfiler::Enable("");
+  const int32_t id = JNIProfiler::Register("Sleep", JNIProfiler::Direction::NativeToJava);
+  {
+    JNIProfiler::Scope scope(id);
+    std::this_thread::sleep_for(std::chrono::milliseconds(2));
+  }
+  JNIProfiler::EndFrame();
+  std::istringstream summary(JNIProfiler::GetSummary());
+  std::string line;
+  bool found = false;
+  while (std::getline(summary, line)) {
+    if (!Contains(line, ",Sleep,")) {
+      continue;
+    }
+    found = true;
+    double total = 0.0, max = 0.0;
+    unsigned long long calls = 0, frames = 0;
+    CHECK(sscanf(line.c_str(), "native_to_java,Sleep,%llu,%lf,%lf,%llu", &calls, &total, &max, &frames) == 4);
+    CHECK(calls == 1);
+    CHECK(total >= 2000.0 && total < 200000.0);
+    CHECK(max == total);
+    CHECK(frames == 1);
+  }
+  CHECK(found);
+  JNIProfiler::Disable();
+}
+
+void
+TestConcurrentCalls() {
+  JNIProfiler::Enable("");
+  std::vector<std::thread> threads;
+  for (int t = 0; t < 4; t++) {
+    threads.push_back(std::thread([]() {
+      for (int i = 0; i < 1000; i++) {
+        HandleMotionEvent();
+      }
+    }));
+  }
+  for (std::thread& thread: threads) {
+    thread.join();
+  }
+  JNIProfiler::EndFrame();
+  CHECK(Contains(JNIProfiler::GetSummary(), "native_to_java,HandleMotionEvent,4000,"));
+  JNIProfiler::Disable();
+}
+
+void
+TestFileExport() {
+  const std::string path = "/tmp/JNIProfilerTest.csv";
+  JNIProfiler::Enable(path);
+  HandleMotionEvent();
+  JNIProfiler::EndFrame();
+  JNIProfiler::EndFrame();
+  Java_org_mozilla_vrbrowser_VRBrowserActivity_updateWidgetNative();
+  HandleMotionEvent();
+  JNIProfiler::EndFrame();
+  JNIProfiler::Disable();
+
+  const std::vector<std::string> lines = ReadLines(path);
+  CHECK(lines.size() == 4);
+  if (lines.size() == 4) {
+    CHECK(lines[0] == "frame,direction,method,calls,total_us,max_us");
+    CHECK(Contains(lines[1], "0,native_to_java,HandleMotionEvent,1,"));
+    // Frames without calls write nothing. Methods are listed in registration order.
+    CHECK(Contains(lines[2], "2,native_to_java,HandleMotionEvent,1,"));
+    CHECK(Contains(lines[3], "2,java_to_native,updateWidgetNative,1,"));
+  }
+  remove(path.c_str());
+}
+
+void
+TestDisabledOverhead() {
+  JNIProfiler::Disable();
+  const int kCalls = 1000000;
+  const uint64_t start = JNIProfiler::NowNanoseconds();
+  for (int i = 0; i < kCalls; i++) {
+    HandleMotionEvent();
+  }
+  const uint64_t perCall = (JNIProfiler::NowNanoseconds() - start) / kCalls;
+  CHECK(perCall < 50);
+}
+
+} // namespace
+
+int
+main() {
+  TestDisabledRecordsNothing();
+  TestCountsPerMethodAndDirection();
+  TestTimes();
+  TestConcurrentCalls();
+  TestFileExport();
+  TestDisabledOverhead();
+  return crow::test::Result("JNIProfiler");
+}
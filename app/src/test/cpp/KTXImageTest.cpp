@@ -0,0 +1,161 @@
+/* -*- Mode: C++; tab-width: 20; indent-tabs-mode: nil; c-basic-offset: 2 -*-
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/. */
+
+// Host side tests for KTXImage, on files laid out like the ones written by tools/textures.
+
+#include "KTXImage.h"
+#include "TestHarness.h"
+
+#include <algorithm>
+#include <cstdio>
+#include <cstring>
+#include <vector>
+
+using crow::KTXImage;
+
+namespace {
+
+const uint32_t kETC2 = 0x9274;
+const uint32_t kRGB = 0x1907;
+
+void
+Append(std::vector<uint8_t>& aData, const uint32_t aValue) {
+  uint8_t bytes[4];
+  memcpy(bytes, &aValue, sizeof(bytes));
+  aData.insert(aData.end(), bytes, bytes + sizeof(bytes));
+}
+
+// Each image is filled with its level * 16 + face so they can be told apart.
+std::vector<uint8_t>
+MakeKTX(const uint32_t aSize, const uint32_t aFaces, const uint32_t aLevels) {
+  const uint8_t identifier[] = {0xAB, 'K', 'T', 'X', ' ', '1', '1', 0xBB, '\r', '\n', 0x1A, '\n'};
+  std::vector<uint8_t> result(identifier, identifier + sizeof(identifier));
+  const char keyValue[] = "KTXorientation\0S=r,T=d"; // 23 bytes with the final null.
+  const uint32_t values[] = {0x04030201, 0, 1, 0, kETC2, kRGB, aSize, aSize, 0, 0, aFaces, aLevels, 28};
+  for (uint32_t value: values) {
+    Append(result, value);
+  }
+  Append(result, sizeof(keyValue));
+  result.insert(result.end(), keyValue, keyValue + sizeof(keyValue));
+  result.push_back(0);
+  uint32_t size = aSize;
+  for (uint32_t level = 0; level < aLevels; level++) {
+    const uint32_t blocks = (size + 3) / 4;
+    const uint32_t imageSize = blocks * blocks * 8;
+    Append(result, imageSize);
+    for (uint32_t face = 0; face < aFaces; face++) {
+      result.insert(result.end(), imageSize, (uint8_t)(level * 16 + face));
+    }
+    size = size > 1 ? size / 2 : 1;
+  }
+  return result;
+}
+
+void
+TestCubeMap() {
+  std::vector<uint8_t> data = MakeKTX(16, 6, 5);
+  KTXImage image;
+  CHECK(image.Parse(data.data(), data.size()));
+  CHECK(image.IsValid());
+  CHECK(image.GetInternalFormat() == kETC2);
+  CHECK(image.GetWidth() == 16);
+  CHECK(image.GetHeight() == 16);
+  CHECK(image.GetFaceCount() == 6);
+  CHECK(image.GetLevelCount() == 5);
+
+  const uint32_t sizes[] = {128, 32, 8, 8, 8};
+  for (uint32_t level = 0; level < 5; level++) {
+    for (uint32_t face = 0; face < 6; face++) {
+      uint32_t size = 0;
+      const uint8_t* pixels = image.GetImage(level, face, size);
+      CHECK(pixels != nullptr);
+      CHECK(size == sizes[level]);
+      if (pixels) {
+        CHECK(pixels[0] == level * 16 + face);
+        CHECK(pixels[size - 1] == level * 16 + face);
+        // Points into the parsed buffer.
+        CHECK(pixels > data.data() && pixels + size <= data.data() + data.size());
+      }
+    }
+  }
+  uint32_t size = 1;
+  CHECK(image.GetImage(5, 0, size) == nullptr);
+  CHECK(size == 0);
+  CHECK(image.GetImage(0, 6, size) == nullptr);
+}
+
+void
+TestTexture2D() {
+  std::vector<uint8_t> data = MakeKTX(8, 1, 4);
+  KTXImage image;
+  CHECK(image.Parse(data.data(), data.size()));
+  CHECK(image.GetFaceCount() == 1);
+  uint32_t size = 0;
+  CHECK(image.GetImage(3, 0, size) != nullptr);
+  CHECK(size == 8);
+  CHECK(image.GetImage(0, 1, size) == nullptr);
+}
+
+void
+TestRejectsInvalidFiles() {
+  const std::vector<uint8_t> valid = MakeKTX(16, 6, 5);
+  KTXImage image;
+  CHECK(!image.Parse(nullptr, 0));
+  CHECK(!image.Parse(valid.data(), KTXImage::kHeaderSize - 1));
+
+  // Every truncation of the file is rejected, and leaves the image empty.
+  CHECK(image.Parse(valid.data(), valid.size()));
+  for (size_t length = 0; length < valid.size(); length += 7) {
+    CHECK(!image.Parse(valid.data(), length));
+  }
+  CHECK(!image.IsValid());
+  CHECK(image.GetLevelCount() == 0);
+
+  std::vector<uint8_t> data = valid;
+  data[1] = 'X';
+  CHECK(!image.Parse(data.data(), data.size()));
+
+  // Byte swapped.
+  data = valid;
+  std::swap(data[12], data[15]);
+  std::swap(data[13], data[14]);
+  CHECK(!image.Parse(data.data(), data.size()));
+
+  // Uncompressed, glType is GL_UNSIGNED_BYTE.
+  data = valid;
+  data[16] = 0x01;
+  data[17] = 0x14;
+  CHECK(!image.Parse(data.data(), data.size()));
+
+  // Mip levels to be generated.
+  data = valid;
+  memset(&data[56], 0, 4);
+  CHECK(!image.Parse(data.data(), data.size()));
+
+  // Key value data past the end of the file.
+  data = valid;
+  data[62] = 0xff;
+  CHECK(!image.Parse(data.data(), data.size()));
+
+  // Non square cube maps.
+  data = valid;
+  data[40] = 8;
+  CHECK(!image.Parse(data.data(), data.size()));
+
+  // Image sizes past the end of the file.
+  data = valid;
+  data[KTXImage::kHeaderSize + 28 + 2] = 0xff;
+  CHECK(!image.Parse(data.data(), data.size()));
+}
+
+} // namespace
+
+int
+main() {
+  TestCubeMap();
+  TestTexture2D();
+  TestRejectsInvalidFiles();
+  return crow::test::Result("KTXImage");
+}
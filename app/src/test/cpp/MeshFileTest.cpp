@@ -0,0 +1,344 @@
+/* -*- Mode: C++; tab-width: 20; indent-tabs-mode: nil; c-basic-offset: 2 -*-
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/. */
+
+// Host side tests for the OBJ parser and MeshFile. Run from the repository root, the benchmark
+// compares parsing the environment models with loading their binary form, and with a cache hit of
+// MeshCache.
+
+#include "MeshFile.h"
+#include "TestHarness.h"
+
+#include <cstdio>
+#include <cstring>
+#include <fstream>
+#include <sstream>
+#include <sys/stat.h>
+#include <time.h>
+#include <unistd.h>
+
+using crow::MeshData;
+using crow::MappedMeshFile;
+using crow::MeshFile;
+
+namespace {
+
+const char* kAssets = "app/src/main/assets/";
+
+const char* kQuad =
+    "# A textured quad and an untextured triangle\n"
+    "mtllib quad.mtl\n"
+    "o quad\n"
+    "v 0 0 0\n"
+    "v 1 0 0\n"
+    "v 1 1 0\n"
+    "v 0 1 0\n"
+    "vt 0 0\n"
+    "vt 1 0\n"
+    "vt 1 1\n"
+    "vt 0 1\n"
+    "vn 0 0 1\n"
+    "usemtl textured\n"
+    "f 1/1/1 2/2/1 3/3/1 4/4/1\r\n"
+    "s off\n"
+    "usemtl plain color\n"
+    "f -4 -3 -1\n";
+
+const char* kQuadMtl =
+    "newmtl textured\n"
+    "Ka 0.1 0.2 0.3\n"
+    "Kd 0.4 0.5 0.6\n"
+    "Ks 0.7 0.8 0.9\n"
+    "Ns 96.5\n"
+    "map_Kd -s 1 1 1 quad.png\n"
+    "newmtl plain color\n"
+    "Kd 1 0 0\n";
+
+double
+Now() {
+  struct timespec now;
+  clock_gettime(CLOCK_MONOTONIC, &now);
+  return (double)now.tv_sec * 1e3 + (double)now.tv_nsec / 1e6;
+}
+
+bool
+ReadAsset(const std::string& aName, std::string& aContents) {
+  std::ifstream input(kAssets + aName, std::ios::binary);
+  if (!input) {
+    return false;
+  }
+  std::stringstream buffer;
+  buffer << input.rdbuf();
+  aContents = buffer.str();
+  return true;
+}
+
+crow::ReadFileCallback
+QuadFiles() {
+  return [](const std::string& aName, std::string& aContents) {
+    if (aName != "quad.mtl") {
+      return false;
+    }
+    aContents = kQuadMtl;
+    return true;
+  };
+}
+
+// Loads aMesh back from its binary form, aBuffer keeps the (aligned) data alive.
+bool
+RoundTrip(const MeshData& aMesh, std::vector<uint32_t>& aBuffer, MeshFile& aFile) {
+  std::vector<uint8_t> bytes;
+  MeshFile::Write(aMesh, bytes);
+  aBuffer.assign((bytes.size() + 3) / 4, 0);
+  memcpy(aBuffer.data(), bytes.data(), bytes.size());
+  return aFile.Parse((const uint8_t*)aBuffer.data(), bytes.size());
+}
+
+bool
+Equivalent(const MeshData& aMesh, const MeshFile& aFile) {
+  if (aFile.GetVertexCount() != aMesh.GetVertexCount() || aFile.GetIndexCount() != aMesh.indices.size() ||
+      aFile.GetMaterialCount() != aMesh.materials.size() || aFile.GetGroupCount() != aMesh.groups.size()) {
+    return false;
+  }
+  if (memcmp(aFile.GetVertices(), aMesh.vertices.data(), aMesh.vertices.size() * sizeof(float)) != 0 ||
+      memcmp(aFile.GetIndices(), aMesh.indices.data(), aMesh.indices.size() * sizeof(uint32_t)) != 0) {
+    return false;
+  }
+  for (uint32_t index = 0; index < aMesh.materials.size(); index++) {
+    const MeshData::Material& expected = aMesh.materials[index];
+    const MeshFile::Material material = aFile.GetMaterial(index);
+    if (expected.name != material.name || expected.texture != (material.texture ? material.texture : "") ||
+        memcmp(expected.ambient, material.ambient, sizeof(expected.ambient)) != 0 ||
+        memcmp(expected.diffuse, material.diffuse, sizeof(expected.diffuse)) != 0 ||
+        memcmp(expected.specular, material.specular, sizeof(expected.specular)) != 0 ||
+        expected.shininess != material.shininess) {
+      return false;
+    }
+  }
+  for (uint32_t index = 0; index < aMesh.groups.size(); index++) {
+    const MeshData::Group& group = aFile.GetGroup(index);
+    if (group.material != aMesh.groups[index].material || group.firstIndex != aMesh.groups[index].firstIndex ||
+        group.indexCount != aMesh.groups[index].indexCount) {
+      return false;
+    }
+  }
+  return true;
+}
+
+void
+TestParseObj() {
+  MeshData mesh;
+  std::string error;
+  CHECK(crow::ParseObj(kQuad, strlen(kQuad), QuadFiles(), mesh, error));
+  CHECK(error.empty());
+  // The quad shares two of its vertices between its triangles, the triangle has flat normals.
+  CHECK(mesh.GetVertexCount() == 7);
+  CHECK(mesh.indices.size() == 9);
+  const uint32_t indices[] = {0, 1, 2, 0, 2, 3, 4, 5, 6};
+  CHECK(memcmp(mesh.indices.data(), indices, sizeof(indices)) == 0);
+  const float* second = &mesh.vertices[MeshData::kVertexSize];
+  CHECK(second[0] == 1.0f && second[1] == 0.0f && second[5] == 1.0f && second[6] == 1.0f && second[7] == 0.0f);
+  const float* flat = &mesh.vertices[MeshData::kVertexSize * 4];
+  CHECK(flat[3] == 0.0f && flat[4] == 0.0f && flat[5] == 1.0f && flat[6] == 0.0f);
+
+  CHECK(mesh.materials.size() == 2);
+  CHECK(mesh.materials[0].name == "textured");
+  CHECK(mesh.materials[0].texture == "quad.png");
+  CHECK(mesh.materials[0].ambient[2] == 0.3f);
+  CHECK(mesh.materials[0].diffuse[1] == 0.5f);
+  CHECK(mesh.materials[0].specular[0] == 0.7f);
+  CHECK(mesh.materials[0].shininess == 96.5f);
+  CHECK(mesh.materials[1].name == "plain color");
+  CHECK(mesh.materials[1].texture.empty());
+  CHECK(mesh.materials[1].diffuse[0] == 1.0f && mesh.materials[1].diffuse[1] == 0.0f);
+
+  CHECK(mesh.groups.size() == 2);
+  CHECK(mesh.groups[0].material == 0 && mesh.groups[0].firstIndex == 0 && mesh.groups[0].indexCount == 6);
+  CHECK(mesh.groups[1].material == 1 && mesh.groups[1].firstIndex == 6 && mesh.groups[1].indexCount == 3);
+
+  // Without its library the materials get default values.
+  CHECK(crow::ParseObj(kQuad, strlen(kQuad), nullptr, mesh, error));
+  CHECK(mesh.materials.size() == 2);
+  CHECK(mesh.materials[0].texture.empty());
+}
+
+void
+TestRejectsInvalidObj() {
+  const char* invalid[] = {
+    "v 0 0 0\nv 1 0 0\nf 1 2\n",
+    "v 0 0 0\nv 1 0 0\nv 1 1 0\nf 1 2 4\n",
+    "v 0 0 0\nv 1 0 0\nv 1 1 0\nf 1/1 2/1 3/1\n",
+    "v 0 0\n",
+    "v 0 0 0\n",
+  };
+  for (const char* obj: invalid) {
+    MeshData mesh;
+    std::string error;
+    CHECK(!crow::ParseObj(obj, strlen(obj), nullptr, mesh, error));
+    CHECK(!error.empty());
+    CHECK(mesh.indices.empty());
+  }
+}
+
+void
+TestRoundTrip() {
+  MeshData mesh;
+  std::string error;
+  CHECK(crow::ParseObj(kQuad, strlen(kQuad), QuadFiles(), mesh, error));
+  std::vector<uint32_t> buffer;
+  MeshFile file;
+  CHECK(RoundTrip(mesh, buffer, file));
+  CHECK(Equivalent(mesh, file));
+  CHECK(file.GetMaterial(1).texture == nullptr);
+  CHECK(strcmp(file.GetMaterial(0).texture, "quad.png") == 0);
+}
+
+void
+TestRejectsInvalidFiles() {
+  MeshData mesh;
+  std::string error;
+  CHECK(crow::ParseObj(kQuad, strlen(kQuad), QuadFiles(), mesh, error));
+  std::vector<uint8_t> bytes;
+  MeshFile::Write(mesh, bytes);
+  std::vector<uint32_t> buffer((bytes.size() + 3) / 4);
+  MeshFile file;
+  auto parse = [&](const std::vector<uint8_t>& aBytes, const size_t aLength) {
+    memcpy(buffer.data(), aBytes.data(), aLength);
+    return file.Parse((const uint8_t*)buffer.data(), aLength);
+  };
+  CHECK(parse(bytes, bytes.size()));
+  for (size_t length = 0; length < bytes.size(); length += 4) {
+    CHECK(!parse(bytes, length));
+  }
+  CHECK(file.GetIndexCount() == 0);
+
+  // Unaligned.
+  CHECK(!file.Parse((const uint8_t*)buffer.data() + 1, bytes.size() - 1));
+
+  std::vector<uint8_t> corrupted = bytes;
+  corrupted[4] = 2; // Version.
+  CHECK(!parse(corrupted, corrupted.size()));
+
+  // An index past the vertices, the last index is followed by the strings.
+  const size_t stringSize = bytes[24];
+  corrupted = bytes;
+  corrupted[bytes.size() - stringSize - 4] = 7;
+  CHECK(!parse(corrupted, corrupted.size()));
+
+  // A group past the indices, the first group follows the two materials.
+  corrupted = bytes;
+  corrupted[32 + 2 * 48 + 8] = 10;
+  CHECK(!parse(corrupted, corrupted.size()));
+}
+
+void
+TestEnvironmentModels() {
+  const char* models[] = {"meadow_v4.obj", "FirefoxPlatform2_low.obj", "cube.obj"};
+  for (const char* model: models) {
+    std::string obj;
+    if (!ReadAsset(model, obj)) {
+      fprintf(stderr, "Skipping %s, run the test from the repository root\n", model);
+      continue;
+    }
+    const int kIterations = 5;
+    MeshData mesh;
+    std::string error;
+    double start = Now();
+    for (int i = 0; i < kIterations; i++) {
+      CHECK(crow::ParseObj(obj.c_str(), obj.size(), ReadAsset, mesh, error));
+    }
+    const double parseTime = (Now() - start) / kIterations;
+
+    std::vector<uint32_t> buffer;
+    MeshFile file;
+    CHECK(RoundTrip(mesh, buffer, file));
+    CHECK(Equivalent(mesh, file));
+    const size_t size = buffer.size() * 4;
+    start = Now();
+    for (int i = 0; i < kIterations; i++) {
+      CHECK(file.Parse((const uint8_t*)buffer.data(), size));
+    }
+    const double loadTime = (Now() - start) / kIterations;
+    printf("%s: %u vertices, %u triangles, %zu KB of OBJ parsed in %.2f ms, %zu KB mesh file loaded in %.3f ms\n",
+           model, file.GetVertexCount(), file.GetIndexCount() / 3, obj.size() / 1024, parseTime,
+           size / 1024, loadTime);
+    CHECK(loadTime < parseTime);
+
+    // A cache hit as MeshCache::Load does it: the model metadata, the cache name and the mapping.
+    const std::string cachePath = std::string("/tmp/") + crow::MeshCacheName(model, obj.size(), 1);
+    std::ofstream output(cachePath, std::ios::binary | std::ios::trunc);
+    output.write((const char*)buffer.data(), size);
+    output.close();
+    const std::string modelPath = std::string(kAssets) + model;
+    start = Now();
+    for (int i = 0; i < kIterations; i++) {
+      struct stat info;
+      CHECK(stat(modelPath.c_str(), &info) == 0);
+      MappedMeshFile mapped;
+      CHECK(mapped.Open(std::string("/tmp/") + crow::MeshCacheName(model, (uint64_t)info.st_size, 1)));
+      const MeshFile& cached = mapped.GetMesh();
+      CHECK(cached.GetVertexCount() == file.GetVertexCount());
+      // Touches every page, as copying the data into the vertex arrays does.
+      float sum = 0.0f;
+      const size_t floats = cached.GetVertexCount() * MeshData::kVertexSize;
+      for (size_t index = 0; index < floats; index++) {
+        sum += cached.GetVertices()[index];
+      }
+      CHECK(sum == sum);
+    }
+    const double hitTime = (Now() - start) / kIterations;
+    unlink(cachePath.c_str());
+    printf("%s: cache hit in %.3f ms\n", model, hitTime);
+    // Too small to time reliably otherwise.
+    if (parseTime > 1.0) {
+      CHECK(hitTime < parseTime);
+    }
+  }
+}
+
+void
+TestMeshCacheName() {
+  const std::string name = crow::MeshCacheName("models/meadow_v4.obj", 1000, 42);
+  CHECK(name.find("meadow_v4-") == 0);
+  CHECK(name.size() > 5 && name.compare(name.size() - 5, 5, ".mesh") == 0);
+  CHECK(name == crow::MeshCacheName("models/meadow_v4.obj", 1000, 42));
+  CHECK(name != crow::MeshCacheName("models/meadow_v4.obj", 1001, 42));
+  CHECK(name != crow::MeshCacheName("models/meadow_v4.obj", 1000, 43));
+  CHECK(name != crow::MeshCacheName("other/meadow_v4.obj", 1000, 42));
+}
+
+void
+TestMappedMeshFile() {
+  MeshData mesh;
+  std::string error;
+  CHECK(crow::ParseObj(kQuad, strlen(kQuad), QuadFiles(), mesh, error));
+  std::vector<uint8_t> bytes;
+  MeshFile::Write(mesh, bytes);
+  const std::string path = "/tmp/MeshFileTest.mesh";
+  for (size_t length: {bytes.size(), bytes.size() / 2}) {
+    std::ofstream output(path, std::ios::binary | std::ios::trunc);
+    output.write((const char*)bytes.data(), length);
+    output.close();
+    MappedMeshFile mapped;
+    // A partial write is never mapped as a mesh.
+    CHECK(mapped.Open(path) == (length == bytes.size()));
+  }
+  unlink(path.c_str());
+  MappedMeshFile missing;
+  CHECK(!missing.Open(path));
+}
+
+} // namespace
+
+int
+main() {
+  TestParseObj();
+  TestRejectsInvalidObj();
+  TestRoundTrip();
+  TestRejectsInvalidFiles();
+  TestMeshCacheName();
+  TestMappedMeshFile();
+  TestEnvironmentModels();
+  return crow::test::Result("MeshFile");
+}
@@ -0,0 +1,176 @@
+/* -*- Mode: C++; tab-width: 20; indent-tabs-mode: nil; c-basic-offset: 2 -*-
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/. */
+
+// Replays a head pose trace recorded with ExternalVR::SetPoseTraceFile, which a debug build does
+// when started with --ez record_pose_trace true, through PosePredictor and
+// reports the prediction error for several horizons. Without a trace a synthetic one is used and
+// the run fails if prediction does not beat the unpredicted pose, which is how the host tests in
+// CMakeLists.txt run it. Replay a recorded trace with: PosePredictorReplay [trace]
+
+#include "PosePredictor.h"
+
+#include <cmath>
+#include <cstdio>
+#include <vector>
+
+using crow::PosePredictor;
+
+namespace {
+
+struct Sample {
+  double time;
+  PosePredictor::Pose pose;
+};
+
+std::vector<Sample>
+ReadTrace(const char* aPath) {
+  std::vector<Sample> samples;
+  FILE* file = fopen(aPath, "r");
+  if (!file) {
+    fprintf(stderr, "Unable to open %s\n", aPath);
+    return samples;
+  }
+  Sample sample;
+  while (PosePredictor::ReadTraceSample(file, sample.time, sample.pose)) {
+    samples.push_back(sample);
+  }
+  fclose(file);
+  return samples;
+}
+
+// Head looking around at 72Hz: yaw and pitch oscillations plus a slow walk.
+std::vector<Sample>
+CreateSyntheticTrace() {
+  std::vector<Sample> samples;
+  const double interval = 1.0 / 72.0;
+  for (int i = 0; i < 72 * 20; i++) {
+    Sample sample;
+    sample.time = i * interval;
+    const float yaw = 0.8f * (float)std::sin(sample.time * 1.7);
+    const float pitch = 0.3f * (float)std::sin(sample.time * 0.9 + 0.5);
+    const float yawQuat[4] = {0.0f, std::sin(yaw * 0.5f), 0.0f, std::cos(yaw * 0.5f)};
+    const float pitchQuat[4] = {std::sin(pitch * 0.5f), 0.0f, 0.0f, std::cos(pitch * 0.5f)};
+    // yaw * pitch
+    sample.pose.orientation[0] = yawQuat[3] * pitchQuat[0] + yawQuat[0] * pitchQuat[3] + yawQuat[1] * pitchQuat[2] - yawQuat[2] * pitchQuat[1];
+    sample.pose.orientation[1] = yawQuat[3] * pitchQuat[1] - yawQuat[0] * pitchQuat[2] + yawQuat[1] * pitchQuat[3] + yawQuat[2] * pitchQuat[0];
+    sample.pose.orientation[2] = yawQuat[3] * pitchQuat[2] + yawQuat[0] * pitchQuat[1] - yawQuat[1] * pitchQuat[0] + yawQuat[2] * pitchQuat[3];
+    sample.pose.orientation[3] = yawQuat[3] * pitchQuat[3] - yawQuat[0] * pitchQuat[0] - yawQuat[1] * pitchQuat[1] - yawQuat[2] * pitchQuat[2];
+    sample.pose.position[0] = 0.2f * (float)std::sin(sample.time * 0.5);
+    sample.pose.position[1] = 1.7f;
+    sample.pose.position[2] = -0.1f * (float)sample.time;
+    samples.push_back(sample);
+  }
+  return samples;
+}
+
+// Index of the last sample at or before aTime, the samples are sorted by time.
+size_t
+FindSample(const std::vector<Sample>& aSamples, const double aTime, size_t aStart) {
+  while (aStart + 1 < aSamples.size() && aSamples[aStart + 1].time <= aTime) {
+    aStart++;
+  }
+  return aStart;
+}
+
+// Recorded pose at aTime, interpolated between the surrounding samples.
+PosePredictor::Pose
+Interpolate(const std::vector<Sample>& aSamples, const size_t aIndex, const double aTime) {
+  if (aIndex + 1 >= aSamples.size()) {
+    return aSamples[aIndex].pose;
+  }
+  const Sample& from = aSamples[aIndex];
+  const Sample& to = aSamples[aIndex + 1];
+  const float t = (float)((aTime - from.time) / (to.time - from.time));
+  PosePredictor::Pose result;
+  float dot = 0.0f;
+  for (int i = 0; i < 4; i++) {
+    dot += from.pose.orientation[i] * to.pose.orientation[i];
+  }
+  const float sign = dot < 0.0f ? -1.0f : 1.0f;
+  float length = 0.0f;
+  for (int i = 0; i < 4; i++) {
+    result.orientation[i] = from.pose.orientation[i] + (sign * to.pose.orientation[i] - from.pose.orientation[i]) * t;
+    length += result.orientation[i] * result.orientation[i];
+  }
+  length = std::sqrt(length);
+  for (int i = 0; i < 4; i++) {
+    result.orientation[i] /= length;
+  }
+  for (int i = 0; i < 3; i++) {
+    result.position[i] = from.pose.position[i] + (to.pose.position[i] - from.pose.position[i]) * t;
+  }
+  return result;
+}
+
+struct Error {
+  double angle;
+  double position;
+  int count;
+};
+
+// Compares the pose predicted aHorizon ahead of each sample with the recorded pose at that time.
+void
+Replay(const std::vector<Sample>& aSamples, const float aHorizon, Error& aPredicted, Error& aUnpredicted) {
+  PosePredictor predictor;
+  predictor.SetMaxHorizon(aHorizon);
+  aPredicted = {0.0, 0.0, 0};
+  aUnpredicted = {0.0, 0.0, 0};
+  size_t target = 0;
+  for (size_t i = 0; i < aSamples.size(); i++) {
+    predictor.AddSample(aSamples[i].time, aSamples[i].pose);
+    const double targetTime = aSamples[i].time + aHorizon;
+    if (targetTime > aSamples.back().time) {
+      break;
+    }
+    target = FindSample(aSamples, targetTime, target);
+    const PosePredictor::Pose actual = Interpolate(aSamples, target, targetTime);
+    PosePredictor::Pose predicted;
+    predictor.Predict(aHorizon, predicted);
+    double distance = 0.0, unpredictedDistance = 0.0;
+    for (int axis = 0; axis < 3; axis++) {
+      distance += std::pow(predicted.position[axis] - actual.position[axis], 2.0);
+      unpredictedDistance += std::pow(aSamples[i].pose.position[axis] - actual.position[axis], 2.0);
+    }
+    aPredicted.angle += PosePredictor::GetAngle(predicted.orientation, actual.orientation);
+    aPredicted.position += std::sqrt(distance);
+    aPredicted.count++;
+    aUnpredicted.angle += PosePredictor::GetAngle(aSamples[i].pose.orientation, actual.orientation);
+    aUnpredicted.position += std::sqrt(unpredictedDistance);
+    aUnpredicted.count++;
+  }
+}
+
+} // namespace
+
+int
+main(int argc, char** argv) {
+  const bool synthetic = argc < 2;
+  std::vector<Sample> samples = synthetic ? CreateSyntheticTrace() : ReadTrace(argv[1]);
+  if (samples.size() < 2) {
+    fprintf(stderr, "Not enough samples in the trace\n");
+    return 1;
+  }
+  printf("%zu samples over %.2fs\n", samples.size(), samples.back().time - samples.front().time);
+  const float horizons[] = {0.011f, 0.022f, 0.033f, 0.050f};
+  bool improved = true;
+  for (const float horizon: horizons) {
+    Error predicted, unpredicted;
+    Replay(samples, horizon, predicted, unpredicted);
+    if (predicted.count == 0) {
+      continue;
+    }
+    const double predictedAngle = predicted.angle / predicted.count * 180.0 / M_PI;
+    const double unpredictedAngle = unpredicted.angle / unpredicted.count * 180.0 / M_PI;
+    printf("horizon %4.0fms: angle error %.3f deg (unpredicted %.3f), position error %.2f mm (unpredicted %.2f)\n",
+           horizon * 1000.0f, predictedAngle, unpredictedAngle,
+           predicted.position / predicted.count * 1000.0, unpredicted.position / unpredicted.count * 1000.0);
+    improved = improved && predictedAngle < unpredictedAngle;
+  }
+  if (synthetic && !improved) {
+    fprintf(stderr, "Prediction did not reduce the error\n");
+    return 1;
+  }
+  return 0;
+}
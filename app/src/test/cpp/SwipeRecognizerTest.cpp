@@ -0,0 +1,185 @@
+/* -*- Mode: C++; tab-width: 20; indent-tabs-mode: nil; c-basic-offset: 2 -*-
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/. */
+
+// Host side tests for SwipeRecognizer using synthetic touchpad sample streams.
+
+#include "SwipeRecognizer.h"
+#include "TestHarness.h"
+
+#include <cstdio>
+
+using crow::SwipeRecognizer;
+
+namespace {
+
+const double kFrame = 1.0 / 60.0;
+
+// Feeds a straight stroke from (aFromX, aFromY) to (aToX, aToY) lasting aDuration seconds,
+// followed by the finger being lifted. Returns the first intent emitted and when it happened.
+SwipeRecognizer::Intent
+Stroke(SwipeRecognizer& aRecognizer, double& aTime, const float aFromX, const float aFromY,
+       const float aToX, const float aToY, const double aDuration, double* aIntentTime = nullptr,
+       const bool aScrolling = false) {
+  SwipeRecognizer::Intent result = SwipeRecognizer::Intent::None;
+  const int steps = (int)(aDuration / kFrame);
+  for (int i = 0; i <= steps; i++) {
+    const float t = steps > 0 ? (float)i / (float)steps : 1.0f;
+    SwipeRecognizer::Intent intent = aRecognizer.AddTouchSample(aTime, true, aFromX + (aToX - aFromX) * t,
+                                                                aFromY + (aToY - aFromY) * t, aScrolling);
+    if (intent != SwipeRecognizer::Intent::None && result == SwipeRecognizer::Intent::None) {
+      result = intent;
+      if (aIntentTime) {
+        *aIntentTime = aTime;
+      }
+    }
+    aTime += kFrame;
+  }
+  SwipeRecognizer::Intent intent = aRecognizer.AddTouchSample(aTime, false, 0.0f, 0.0f);
+  if (result == SwipeRecognizer::Intent::None) {
+    result = intent;
+  }
+  aTime += kFrame;
+  return result;
+}
+
+void
+TestDoubleSwipe() {
+  SwipeRecognizer recognizer;
+  double time = 0.0;
+  CHECK(Stroke(recognizer, time, 0.2f, 0.5f, 0.6f, 0.5f, 0.2) == SwipeRecognizer::Intent::None);
+  time += 0.2;
+  CHECK(Stroke(recognizer, time, 0.2f, 0.5f, 0.6f, 0.5f, 0.2) == SwipeRecognizer::Intent::Forward);
+  // The confirmation is consumed.
+  time += 0.2;
+  CHECK(Stroke(recognizer, time, 0.8f, 0.5f, 0.4f, 0.5f, 0.2) == SwipeRecognizer::Intent::None);
+  time += 0.2;
+  CHECK(Stroke(recognizer, time, 0.8f, 0.5f, 0.4f, 0.5f, 0.2) == SwipeRecognizer::Intent::Back);
+}
+
+void
+TestConfirmWindow() {
+  SwipeRecognizer recognizer;
+  double time = 0.0;
+  Stroke(recognizer, time, 0.8f, 0.5f, 0.4f, 0.5f, 0.2);
+  time += 1.5;
+  CHECK(Stroke(recognizer, time, 0.8f, 0.5f, 0.4f, 0.5f, 0.2) == SwipeRecognizer::Intent::None);
+  // Opposite directions never confirm each other.
+  time += 0.2;
+  CHECK(Stroke(recognizer, time, 0.2f, 0.5f, 0.6f, 0.5f, 0.2) == SwipeRecognizer::Intent::None);
+}
+
+void
+TestFling() {
+  SwipeRecognizer recognizer;
+  double time = 0.0;
+  double intentTime = 0.0;
+  const double start = time;
+  CHECK(Stroke(recognizer, time, 0.9f, 0.5f, 0.1f, 0.5f, 0.15, &intentTime) == SwipeRecognizer::Intent::Back);
+  // Recognized while the finger is still moving.
+  CHECK(intentTime - start < 0.15);
+}
+
+void
+TestFastShortSwipe() {
+  SwipeRecognizer recognizer;
+  double time = 0.0;
+  // Fast enough for a fling but too short, so it counts as a regular swipe once released.
+  CHECK(Stroke(recognizer, time, 0.5f, 0.5f, 0.85f, 0.5f, 0.07) == SwipeRecognizer::Intent::None);
+  CHECK(recognizer.AddSwipe(time, SwipeRecognizer::Direction::Right) == SwipeRecognizer::Intent::Forward);
+}
+
+void
+TestSlowDragIsNotASwipe() {
+  SwipeRecognizer recognizer;
+  double time = 0.0;
+  // Scrolling: the same distance over two seconds.
+  CHECK(Stroke(recognizer, time, 0.1f, 0.5f, 0.9f, 0.5f, 2.0) == SwipeRecognizer::Intent::None);
+  CHECK(Stroke(recognizer, time, 0.1f, 0.5f, 0.9f, 0.5f, 2.0) == SwipeRecognizer::Intent::None);
+}
+
+void
+TestVerticalIsNotASwipe() {
+  SwipeRecognizer recognizer;
+  double time = 0.0;
+  CHECK(Stroke(recognizer, time, 0.3f, 0.1f, 0.7f, 0.9f, 0.15) == SwipeRecognizer::Intent::None);
+  CHECK(Stroke(recognizer, time, 0.3f, 0.1f, 0.7f, 0.9f, 0.15) == SwipeRecognizer::Intent::None);
+}
+
+void
+TestShortIsNotASwipe() {
+  SwipeRecognizer recognizer;
+  double time = 0.0;
+  CHECK(Stroke(recognizer, time, 0.5f, 0.5f, 0.6f, 0.5f, 0.05) == SwipeRecognizer::Intent::None);
+  CHECK(Stroke(recognizer, time, 0.5f, 0.5f, 0.6f, 0.5f, 0.05) == SwipeRecognizer::Intent::None);
+}
+
+void
+TestHorizontalScrollIsNotASwipe() {
+  SwipeRecognizer recognizer;
+  double time = 0.0;
+  // Scrolling a page sideways over a widget, stroke after stroke, as fast as a regular swipe.
+  for (int i = 0; i < 4; i++) {
+    CHECK(Stroke(recognizer, time, 0.9f, 0.5f, 0.1f, 0.5f, 0.4, nullptr, true) == SwipeRecognizer::Intent::None);
+    time += 0.1;
+  }
+  // Fast but too short for a fling.
+  CHECK(Stroke(recognizer, time, 0.5f, 0.5f, 0.15f, 0.5f, 0.07, nullptr, true) == SwipeRecognizer::Intent::None);
+  time += 0.1;
+  CHECK(Stroke(recognizer, time, 0.5f, 0.5f, 0.15f, 0.5f, 0.07, nullptr, true) == SwipeRecognizer::Intent::None);
+
+  // Neither does a fling, it scrolls the page.
+  time += 0.1;
+  CHECK(Stroke(recognizer, time, 0.9f, 0.5f, 0.05f, 0.5f, 0.15, nullptr, true) == SwipeRecognizer::Intent::None);
+  CHECK(!recognizer.IsSwipeRecognized());
+
+  // A fling that moves onto a widget halfway is a scroll as well.
+  time += 0.1;
+  for (int i = 0; i <= 9; i++) {
+    CHECK(recognizer.AddTouchSample(time, true, 0.9f - 0.09f * i, 0.5f, i >= 3) == SwipeRecognizer::Intent::None);
+    time += kFrame;
+  }
+  CHECK(recognizer.AddTouchSample(time, false, 0.0f, 0.0f) == SwipeRecognizer::Intent::None);
+
+  // Away from widgets the same fling navigates, and its movement is not scrolled once recognized.
+  time += 0.1;
+  bool recognized = false;
+  for (int i = 0; i <= 9; i++) {
+    const SwipeRecognizer::Intent intent = recognizer.AddTouchSample(time, true, 0.9f - 0.09f * i, 0.5f);
+    if (intent == SwipeRecognizer::Intent::Back) {
+      recognized = true;
+      CHECK(recognizer.IsSwipeRecognized());
+    }
+    time += kFrame;
+  }
+  CHECK(recognized);
+  recognizer.AddTouchSample(time, false, 0.0f, 0.0f);
+  CHECK(!recognizer.IsSwipeRecognized());
+}
+
+void
+TestSdkSwipes() {
+  SwipeRecognizer recognizer;
+  CHECK(recognizer.AddSwipe(0.0, SwipeRecognizer::Direction::Left) == SwipeRecognizer::Intent::None);
+  CHECK(recognizer.AddSwipe(0.5, SwipeRecognizer::Direction::Left) == SwipeRecognizer::Intent::Back);
+  CHECK(recognizer.AddSwipe(1.0, SwipeRecognizer::Direction::Right) == SwipeRecognizer::Intent::None);
+  CHECK(recognizer.AddSwipe(2.5, SwipeRecognizer::Direction::Right) == SwipeRecognizer::Intent::None);
+  CHECK(recognizer.AddSwipe(3.0, SwipeRecognizer::Direction::Right) == SwipeRecognizer::Intent::Forward);
+}
+
+} // namespace
+
+int
+main() {
+  TestDoubleSwipe();
+  TestConfirmWindow();
+  TestFling();
+  TestFastShortSwipe();
+  TestSlowDragIsNotASwipe();
+  TestVerticalIsNotASwipe();
+  TestShortIsNotASwipe();
+  TestHorizontalScrollIsNotASwipe();
+  TestSdkSwipes();
+  return crow::test::Result("SwipeRecognizer");
+}
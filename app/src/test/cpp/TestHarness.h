@@ -0,0 +1,46 @@
+/* -*- Mode: C++; tab-width: 20; indent-tabs-mode: nil; c-basic-offset: 2 -*-
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/. */
+
+#ifndef VRBROWSER_TEST_HARNESS_DOT_H
+#define VRBROWSER_TEST_HARNESS_DOT_H
+
+#include <cstdio>
+
+// Checks shared by the host side tests in this directory. Each test is a single executable whose
+// main() runs its checks and returns crow::test::Result(). CMakeLists.txt in this directory builds
+// and runs all of them.
+
+namespace crow {
+namespace test {
+
+inline int&
+Failures() {
+  static int sFailures = 0;
+  return sFailures;
+}
+
+// Prints a summary and returns the exit code of the test executable.
+inline int
+Result(const char* aName) {
+  if (Failures() > 0) {
+    fprintf(stderr, "%d %s checks failed\n", Failures(), aName);
+    return 1;
+  }
+  printf("All %s tests passed\n", aName);
+  return 0;
+}
+
+} // namespace test
+} // namespace crow
+
+#define CHECK(aCondition) \
+  do { \
+    if (!(aCondition)) { \
+      fprintf(stderr, "%s:%d: CHECK failed: %s\n", __FILE__, __LINE__, #aCondition); \
+      crow::test::Failures()++; \
+    } \
+  } while (0)
+
+#endif // VRBROWSER_TEST_HARNESS_DOT_H
@@ -0,0 +1,175 @@
+/* -*- Mode: C++; tab-width: 20; indent-tabs-mode: nil; c-basic-offset: 2 -*-
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/. */
+
+// Host side tests for WidgetAnimator.
+
+#include "WidgetAnimator.h"
+#include "TestHarness.h"
+
+#include <cmath>
+#include <cstdio>
+#include <vector>
+
+using crow::WidgetAnimator;
+
+namespace {
+
+bool
+Near(const float aValue, const float aExpected) {
+  return std::fabs(aValue - aExpected) < 0.001f;
+}
+
+struct Recorder {
+  std::vector<int32_t> updated;
+  std::vector<WidgetAnimator::Values> values;
+  std::vector<int32_t> finished;
+
+  void Step(WidgetAnimator& aAnimator, const double aNow) {
+    updated.clear();
+    values.clear();
+    finished.clear();
+    aAnimator.Step(aNow, [this](const int32_t aHandle, const WidgetAnimator::Values& aValues) {
+      updated.push_back(aHandle);
+      values.push_back(aValues);
+    }, [this](const int32_t, const int32_t aId) {
+      finished.push_back(aId);
+    });
+  }
+};
+
+WidgetAnimator::Values
+Opacity(const float aOpacity) {
+  WidgetAnimator::Values result;
+  result.opacity = aOpacity;
+  return result;
+}
+
+void
+TestEasing() {
+  const WidgetAnimator::Easing easings[] = {
+      WidgetAnimator::Easing::Linear, WidgetAnimator::Easing::EaseIn,
+      WidgetAnimator::Easing::EaseOut, WidgetAnimator::Easing::EaseInOut};
+  for (WidgetAnimator::Easing easing: easings) {
+    CHECK(Near(WidgetAnimator::Ease(easing, 0.0f), 0.0f));
+    CHECK(Near(WidgetAnimator::Ease(easing, 1.0f), 1.0f));
+    CHECK(Near(WidgetAnimator::Ease(easing, -1.0f), 0.0f));
+    CHECK(Near(WidgetAnimator::Ease(easing, 2.0f), 1.0f));
+  }
+  CHECK(Near(WidgetAnimator::Ease(WidgetAnimator::Easing::Linear, 0.25f), 0.25f));
+  CHECK(WidgetAnimator::Ease(WidgetAnimator::Easing::EaseIn, 0.5f) < 0.5f);
+  CHECK(WidgetAnimator::Ease(WidgetAnimator::Easing::EaseOut, 0.5f) > 0.5f);
+  CHECK(Near(WidgetAnimator::Ease(WidgetAnimator::Easing::EaseInOut, 0.5f), 0.5f));
+}
+
+void
+TestFade() {
+  WidgetAnimator animator;
+  Recorder recorder;
+  animator.Start(1, 10, Opacity(0.0f), Opacity(1.0f), 1.0, 0.5, WidgetAnimator::Easing::Linear);
+  CHECK(animator.IsAnimating(1));
+  CHECK(!animator.IsAnimating(2));
+
+  // Holds the start values during the delay.
+  recorder.Step(animator, 0.5);
+  CHECK(recorder.updated.size() == 1);
+  CHECK(Near(recorder.values[0].opacity, 0.0f));
+  CHECK(recorder.finished.empty());
+
+  recorder.Step(animator, 1.25);
+  CHECK(Near(recorder.values[0].opacity, 0.5f));
+  WidgetAnimator::Values current;
+  CHECK(animator.GetValues(1, current));
+  CHECK(Near(current.opacity, 0.5f));
+
+  recorder.Step(animator, 1.6);
+  CHECK(Near(recorder.values[0].opacity, 1.0f));
+  CHECK(recorder.finished.size() == 1 && recorder.finished[0] == 10);
+  CHECK(!animator.IsAnimating(1));
+  CHECK(animator.IsEmpty());
+
+  recorder.Step(animator, 2.0);
+  CHECK(recorder.updated.empty());
+  CHECK(recorder.finished.empty());
+}
+
+void
+TestTransform() {
+  WidgetAnimator animator;
+  Recorder recorder;
+  WidgetAnimator::Values from;
+  WidgetAnimator::Values to;
+  to.scale = 2.0f;
+  to.translation[0] = 1.0f;
+  to.translation[2] = -4.0f;
+  animator.Start(3, 1, from, to, 0.0, 1.0, WidgetAnimator::Easing::Linear);
+  recorder.Step(animator, 0.5);
+  CHECK(Near(recorder.values[0].scale, 1.5f));
+  CHECK(Near(recorder.values[0].translation[0], 0.5f));
+  CHECK(Near(recorder.values[0].translation[1], 0.0f));
+  CHECK(Near(recorder.values[0].translation[2], -2.0f));
+  CHECK(Near(recorder.values[0].opacity, 1.0f));
+}
+
+void
+TestRetarget() {
+  WidgetAnimator animator;
+  Recorder recorder;
+  animator.Start(1, 1, Opacity(1.0f), Opacity(0.0f), 0.0, 1.0, WidgetAnimator::Easing::Linear);
+  recorder.Step(animator, 0.25);
+  CHECK(Near(recorder.values[0].opacity, 0.75f));
+
+  // Fading back in before the fade out finishes starts from the current opacity, not from 0.
+  animator.Start(1, 2, Opacity(0.0f), Opacity(1.0f), 0.25, 1.0, WidgetAnimator::Easing::Linear);
+  recorder.Step(animator, 0.25);
+  CHECK(Near(recorder.values[0].opacity, 0.75f));
+  CHECK(recorder.finished.size() == 1 && recorder.finished[0] == 1);
+
+  recorder.Step(animator, 1.25);
+  CHECK(Near(recorder.values[0].opacity, 1.0f));
+  CHECK(recorder.finished.size() == 1 && recorder.finished[0] == 2);
+}
+
+void
+TestIndependentWidgets() {
+  WidgetAnimator animator;
+  Recorder recorder;
+  animator.Start(1, 1, Opacity(0.0f), Opacity(1.0f), 0.0, 1.0, WidgetAnimator::Easing::Linear);
+  animator.Start(2, 2, Opacity(1.0f), Opacity(0.0f), 0.0, 2.0, WidgetAnimator::Easing::Linear);
+  recorder.Step(animator, 1.0);
+  CHECK(recorder.updated.size() == 2);
+  CHECK(recorder.finished.size() == 1 && recorder.finished[0] == 1);
+  CHECK(animator.IsAnimating(2));
+  CHECK(!animator.IsAnimating(1));
+
+  recorder.Step(animator, 3.0);
+  CHECK(recorder.updated.size() == 1 && recorder.updated[0] == 2);
+  CHECK(recorder.finished.size() == 1 && recorder.finished[0] == 2);
+}
+
+void
+TestZeroDuration() {
+  WidgetAnimator animator;
+  Recorder recorder;
+  animator.Start(1, 7, Opacity(1.0f), Opacity(0.0f), 1.0, 0.0, WidgetAnimator::Easing::EaseOut);
+  recorder.Step(animator, 0.5);
+  CHECK(Near(recorder.values[0].opacity, 1.0f));
+  CHECK(recorder.finished.empty());
+  recorder.Step(animator, 1.0);
+  CHECK(Near(recorder.values[0].opacity, 0.0f));
+  CHECK(recorder.finished.size() == 1 && recorder.finished[0] == 7);
+}
+
+} // namespace
+
+int
+main() {
+  TestEasing();
+  TestFade();
+  TestTransform();
+  TestRetarget();
+  TestIndependentWidgets();
+  TestZeroDuration();
+  return crow::test::Result("WidgetAnimator");
+}
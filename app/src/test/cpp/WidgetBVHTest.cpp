@@ -0,0 +1,279 @@
+/* -*- Mode: C++; tab-width: 20; indent-tabs-mode: nil; c-basic-offset: 2 -*-
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/. */
+
+// Host side tests and benchmark for WidgetBVH. The benchmark only runs once the tests pass.
+
+#include "WidgetBVH.h"
+#include "TestHarness.h"
+
+#include <chrono>
+#include <cmath>
+#include <cstdio>
+#include <cstdlib>
+#include <vector>
+
+using crow::WidgetBVH;
+
+namespace {
+
+// Widget quad facing +Z, as placed by BrowserWorld.
+struct TestWidget {
+  float center[3];
+  float halfWidth;
+  float halfHeight;
+};
+
+WidgetBVH::Bounds
+GetBounds(const TestWidget& aWidget) {
+  WidgetBVH::Bounds bounds;
+  const float min[3] = {aWidget.center[0] - aWidget.halfWidth, aWidget.center[1] - aWidget.halfHeight, aWidget.center[2]};
+  const float max[3] = {aWidget.center[0] + aWidget.halfWidth, aWidget.center[1] + aWidget.halfHeight, aWidget.center[2]};
+  bounds.Include(min);
+  bounds.Include(max);
+  return bounds;
+}
+
+// Kept out of line so the linear and BVH queries are compared on equal terms, like the call to
+// Widget::TestControllerIntersection in BrowserWorld.
+__attribute__((noinline)) bool
+TestWidgetHit(const TestWidget& aWidget, const float aStart[3], const float aDirection[3], float& aDistance) {
+  if (std::fabs(aDirection[2]) < 0.00001f) {
+    return false;
+  }
+  const float t = (aWidget.center[2] - aStart[2]) / aDirection[2];
+  if (t < 0.0f) {
+    return false;
+  }
+  const float x = aStart[0] + aDirection[0] * t;
+  const float y = aStart[1] + aDirection[1] * t;
+  if (std::fabs(x - aWidget.center[0]) > aWidget.halfWidth || std::fabs(y - aWidget.center[1]) > aWidget.halfHeight) {
+    return false;
+  }
+  const float length = std::sqrt(aDirection[0] * aDirection[0] + aDirection[1] * aDirection[1] +
+                                 aDirection[2] * aDirection[2]);
+  aDistance = t * length;
+  return true;
+}
+
+// Reference implementation, the loop BrowserWorld used before the BVH.
+bool
+LinearQuery(const std::vector<TestWidget>& aWidgets, const float aStart[3], const float aDirection[3],
+            const float aMaxDistance, uint32_t& aHitItem, float& aHitDistance, uint32_t& aTests) {
+  bool hit = false;
+  float best = aMaxDistance;
+  aTests = 0;
+  for (uint32_t i = 0; i < aWidgets.size(); i++) {
+    aTests++;
+    float distance = 0.0f;
+    if (TestWidgetHit(aWidgets[i], aStart, aDirection, distance) && distance < best) {
+      best = distance;
+      aHitItem = i;
+      aHitDistance = distance;
+      hit = true;
+    }
+  }
+  return hit;
+}
+
+void
+Build(WidgetBVH& aBVH, const std::vector<TestWidget>& aWidgets) {
+  aBVH.Clear();
+  for (uint32_t i = 0; i < aWidgets.size(); i++) {
+    aBVH.AddItem(i, GetBounds(aWidgets[i]));
+  }
+  aBVH.Build();
+}
+
+bool
+BVHQuery(const WidgetBVH& aBVH, const std::vector<TestWidget>& aWidgets, const float aStart[3],
+         const float aDirection[3], const float aMaxDistance, uint32_t& aHitItem, float& aHitDistance) {
+  return aBVH.Query(aStart, aDirection, aMaxDistance, [&](const uint32_t aItem, float& aDistance) -> bool {
+    return TestWidgetHit(aWidgets[aItem], aStart, aDirection, aDistance);
+  }, aHitItem, aHitDistance);
+}
+
+// Widgets laid out on a few curved rows in front of the user, like tabs and panels.
+std::vector<TestWidget>
+CreateScene(const int aCount) {
+  std::vector<TestWidget> widgets;
+  srand(42);
+  for (int i = 0; i < aCount; i++) {
+    TestWidget widget;
+    widget.center[0] = (float)(i % 10) * 1.5f - 7.0f;
+    widget.center[1] = (float)(i / 10) * 1.2f - 2.0f;
+    widget.center[2] = -4.0f - (float)(rand() % 100) * 0.02f;
+    widget.halfWidth = 0.6f;
+    widget.halfHeight = 0.45f;
+    widgets.push_back(widget);
+  }
+  return widgets;
+}
+
+void
+RandomRay(float aStart[3], float aDirection[3]) {
+  aStart[0] = 0.3f;
+  aStart[1] = 1.2f;
+  aStart[2] = 0.0f;
+  aDirection[0] = ((float)(rand() % 2000) / 1000.0f - 1.0f) * 1.8f;
+  aDirection[1] = ((float)(rand() % 2000) / 1000.0f - 1.0f) * 1.2f;
+  aDirection[2] = -1.0f;
+}
+
+void
+TestEmpty() {
+  WidgetBVH bvh;
+  CHECK(bvh.IsDirty());
+  bvh.Build();
+  CHECK(!bvh.IsDirty());
+  const float start[3] = {0.0f, 0.0f, 0.0f};
+  const float direction[3] = {0.0f, 0.0f, -1.0f};
+  uint32_t item = 0;
+  float distance = 0.0f;
+  CHECK(!bvh.Query(start, direction, 100.0f, [](const uint32_t, float&) { return true; }, item, distance));
+}
+
+void
+TestClosestHit() {
+  std::vector<TestWidget> widgets;
+  widgets.push_back({{0.0f, 0.0f, -5.0f}, 1.0f, 1.0f});
+  widgets.push_back({{0.0f, 0.0f, -2.0f}, 1.0f, 1.0f});
+  widgets.push_back({{5.0f, 0.0f, -1.0f}, 1.0f, 1.0f});
+  WidgetBVH bvh;
+  Build(bvh, widgets);
+  const float start[3] = {0.0f, 0.0f, 0.0f};
+  const float direction[3] = {0.0f, 0.0f, -1.0f};
+  uint32_t item = 0;
+  float distance = 0.0f;
+  CHECK(BVHQuery(bvh, widgets, start, direction, 100.0f, item, distance));
+  CHECK(item == 1);
+  CHECK(std::fabs(distance - 2.0f) < 0.001f);
+  // The closer widget is out of reach.
+  CHECK(!BVHQuery(bvh, widgets, start, direction, 1.5f, item, distance));
+}
+
+void
+TestInfiniteBounds() {
+  // Enough widgets for the tree to be built.
+  std::vector<TestWidget> widgets = CreateScene((int)WidgetBVH::kMinTreeItems);
+  WidgetBVH bvh;
+  bvh.Clear();
+  for (uint32_t i = 0; i < widgets.size(); i++) {
+    bvh.AddItem(i, GetBounds(widgets[i]));
+  }
+  const uint32_t resizing = (uint32_t)widgets.size();
+  bvh.AddItem(resizing, WidgetBVH::Bounds::Infinite());
+  bvh.Build();
+  // A ray missing every widget must still reach the exact test of the resizing widget.
+  const float start[3] = {0.0f, 0.0f, 0.0f};
+  const float direction[3] = {0.0f, 0.0f, 1.0f};
+  uint32_t item = 0;
+  float distance = 0.0f;
+  const bool hit = bvh.Query(start, direction, 100.0f, [&](const uint32_t aItem, float& aDistance) -> bool {
+    aDistance = 3.0f;
+    return aItem == resizing;
+  }, item, distance);
+  CHECK(hit);
+  CHECK(item == resizing);
+}
+
+void
+TestMatchesLinear(const int aWidgetCount) {
+  std::vector<TestWidget> widgets = CreateScene(aWidgetCount);
+  WidgetBVH bvh;
+  Build(bvh, widgets);
+  const int kRays = 5000;
+  uint64_t bvhTests = 0;
+  for (int i = 0; i < kRays; i++) {
+    float start[3], direction[3];
+    RandomRay(start, direction);
+    uint32_t linearItem = 0, bvhItem = 0, tests = 0;
+    float linearDistance = 0.0f, bvhDistance = 0.0f;
+    const bool linearHit = LinearQuery(widgets, start, direction, 300.0f, linearItem, linearDistance, tests);
+    const bool bvhHit = BVHQuery(bvh, widgets, start, direction, 300.0f, bvhItem, bvhDistance);
+    CHECK(linearHit == bvhHit);
+    if (linearHit && bvhHit) {
+      CHECK(std::fabs(linearDistance - bvhDistance) < 0.0001f);
+    }
+    bvhTests += bvh.GetLastTestCount();
+  }
+  // Every widget is tested below the tree threshold, about one per ray above it.
+  if (widgets.size() < WidgetBVH::kMinTreeItems) {
+    CHECK(bvhTests == widgets.size() * kRays);
+  } else {
+    CHECK(bvhTests < (uint64_t)kRays);
+  }
+}
+
+void
+TestDiff() {
+  std::vector<uint32_t> shown, hidden;
+  WidgetBVH::Diff({1, 3, 5}, {3, 4}, shown, hidden);
+  CHECK(shown.size() == 1 && shown[0] == 4);
+  CHECK(hidden.size() == 2 && hidden[0] == 1 && hidden[1] == 5);
+  WidgetBVH::Diff({2}, {2}, shown, hidden);
+  CHECK(shown.empty() && hidden.empty());
+}
+
+void
+Benchmark(const int aWidgetCount) {
+  const int kRays = 200000;
+  std::vector<TestWidget> widgets = CreateScene(aWidgetCount);
+  WidgetBVH bvh;
+  Build(bvh, widgets);
+  std::vector<float> rays;
+  for (int i = 0; i < kRays; i++) {
+    float start[3], direction[3];
+    RandomRay(start, direction);
+    rays.insert(rays.end(), start, start + 3);
+    rays.insert(rays.end(), direction, direction + 3);
+  }
+
+  uint64_t linearTests = 0, bvhTests = 0;
+  uint32_t hits = 0;
+  auto begin = std::chrono::steady_clock::now();
+  for (int i = 0; i < kRays; i++) {
+    uint32_t item = 0, tests = 0;
+    float distance = 0.0f;
+    hits += LinearQuery(widgets, &rays[i * 6], &rays[i * 6 + 3], 300.0f, item, distance, tests) ? 1 : 0;
+    linearTests += tests;
+  }
+  const double linearMs = std::chrono::duration<double, std::milli>(std::chrono::steady_clock::now() - begin).count();
+
+  begin = std::chrono::steady_clock::now();
+  for (int i = 0; i < kRays; i++) {
+    uint32_t item = 0;
+    float distance = 0.0f;
+    hits += BVHQuery(bvh, widgets, &rays[i * 6], &rays[i * 6 + 3], 300.0f, item, distance) ? 1 : 0;
+    bvhTests += bvh.GetLastTestCount();
+  }
+  const double bvhMs = std::chrono::duration<double, std::milli>(std::chrono::steady_clock::now() - begin).count();
+
+  printf("%d widgets, %d rays (%u hits): linear %.2f tests/ray %.1fms, bvh %.2f tests/ray %.1fms\n",
+         aWidgetCount, kRays, hits / 2, (double)linearTests / kRays, linearMs, (double)bvhTests / kRays, bvhMs);
+}
+
+} // namespace
+
+int
+main() {
+  TestEmpty();
+  TestClosestHit();
+  TestInfiniteBounds();
+  TestMatchesLinear(10);
+  TestMatchesLinear((int)WidgetBVH::kMinTreeItems);
+  TestMatchesLinear(128);
+  TestDiff();
+  const int result = crow::test::Result("WidgetBVH");
+  if (result != 0) {
+    return result;
+  }
+  // Below kMinTreeItems both columns scan every widget.
+  Benchmark(10);
+  Benchmark(20);
+  Benchmark(50);
+  Benchmark(100);
+  Benchmark(200);
+  return 0;
+}
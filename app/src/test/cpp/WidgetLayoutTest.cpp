@@ -0,0 +1,206 @@
+/* -*- Mode: C++; tab-width: 20; indent-tabs-mode: nil; c-basic-offset: 2 -*-
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/. */
+
+// Host side tests for WidgetLayout. Transforms are reduced to translations, which compose the
+// same way the widget transforms do.
+
+#include "WidgetLayout.h"
+#include "TestHarness.h"
+
+#include <cmath>
+#include <cstdio>
+#include <map>
+#include <vector>
+
+using crow::WidgetLayout;
+
+namespace {
+
+struct Offset {
+  float x;
+  float y;
+  float z;
+};
+
+bool
+Near(const Offset& aOffset, const float aX, const float aY, const float aZ) {
+  return std::fabs(aOffset.x - aX) < 0.001f && std::fabs(aOffset.y - aY) < 0.001f &&
+         std::fabs(aOffset.z - aZ) < 0.001f;
+}
+
+// Mirrors BrowserWorld: each widget has a placement relative to its parent and a cached world
+// transform computed from the cached transform of the parent.
+struct World {
+  WidgetLayout layout;
+  std::map<int32_t, Offset> local;
+  std::map<int32_t, Offset> world;
+  std::vector<int32_t> resolved;
+
+  void Update(const int32_t aHandle, const int32_t aParent, const Offset& aLocal) {
+    local[aHandle] = aLocal;
+    layout.SetParent(aHandle, aParent);
+    layout.Invalidate(aHandle);
+  }
+
+  void Resolve() {
+    resolved.clear();
+    layout.Resolve([this](const int32_t aHandle) {
+      resolved.push_back(aHandle);
+      Offset result = local[aHandle];
+      const int32_t parent = layout.GetParent(aHandle);
+      if (world.count(parent) > 0 && local.count(parent) > 0) {
+        const Offset& base = world[parent];
+        result.x += base.x;
+        result.y += base.y;
+        result.z += base.z;
+      }
+      world[aHandle] = result;
+    });
+  }
+
+  size_t IndexOf(const int32_t aHandle) const {
+    for (size_t i = 0; i < resolved.size(); i++) {
+      if (resolved[i] == aHandle) {
+        return i;
+      }
+    }
+    return resolved.size();
+  }
+};
+
+// Browser window (1) with a navigation bar (2), a top bar (3) and a keyboard (4). The keyboard
+// hosts a popup (5). A settings panel (6) is unrelated.
+void
+BuildTree(World& aWorld) {
+  aWorld.Update(5, 4, {0.0f, 1.0f, 0.0f});
+  aWorld.Update(4, 1, {0.0f, -2.0f, 0.5f});
+  aWorld.Update(3, 1, {0.0f, 1.5f, 0.0f});
+  aWorld.Update(2, 1, {0.0f, -1.0f, 0.0f});
+  aWorld.Update(1, WidgetLayout::kNoParent, {0.0f, 2.0f, -4.0f});
+  aWorld.Update(6, WidgetLayout::kNoParent, {3.0f, 0.0f, -2.0f});
+}
+
+void
+TestInitialLayout() {
+  World world;
+  BuildTree(world);
+  CHECK(world.layout.IsDirty());
+  world.Resolve();
+  CHECK(!world.layout.IsDirty());
+  CHECK(world.resolved.size() == 6);
+  // Parents first, even though the children were added before them.
+  CHECK(world.IndexOf(1) < world.IndexOf(2));
+  CHECK(world.IndexOf(1) < world.IndexOf(4));
+  CHECK(world.IndexOf(4) < world.IndexOf(5));
+  CHECK(Near(world.world[1], 0.0f, 2.0f, -4.0f));
+  CHECK(Near(world.world[2], 0.0f, 1.0f, -4.0f));
+  CHECK(Near(world.world[3], 0.0f, 3.5f, -4.0f));
+  CHECK(Near(world.world[4], 0.0f, 0.0f, -3.5f));
+  CHECK(Near(world.world[5], 0.0f, 1.0f, -3.5f));
+  CHECK(Near(world.world[6], 3.0f, 0.0f, -2.0f));
+
+  // Nothing changed, nothing is resolved.
+  world.Resolve();
+  CHECK(world.resolved.empty());
+}
+
+void
+TestParentChangePropagates() {
+  World world;
+  BuildTree(world);
+  world.Resolve();
+
+  // Moving the browser window moves every descendant in a single pass, each resolved once.
+  world.Update(1, WidgetLayout::kNoParent, {1.0f, 2.0f, -5.0f});
+  world.Resolve();
+  CHECK(world.resolved.size() == 5);
+  CHECK(world.IndexOf(6) == world.resolved.size());
+  CHECK(Near(world.world[2], 1.0f, 1.0f, -5.0f));
+  CHECK(Near(world.world[5], 1.0f, 1.0f, -4.5f));
+
+  // Invalidating a leaf only resolves the leaf.
+  world.Update(5, 4, {0.5f, 1.0f, 0.0f});
+  world.Resolve();
+  CHECK(world.resolved.size() == 1 && world.resolved[0] == 5);
+  CHECK(Near(world.world[5], 1.5f, 1.0f, -4.5f));
+
+  // Invalidating a parent and its child resolves the child once.
+  world.Update(5, 4, {0.0f, 1.0f, 0.0f});
+  world.Update(4, 1, {0.0f, -3.0f, 0.5f});
+  world.Resolve();
+  CHECK(world.resolved.size() == 2);
+  CHECK(world.IndexOf(4) < world.IndexOf(5));
+  CHECK(Near(world.world[5], 1.0f, 0.0f, -4.5f));
+}
+
+void
+TestReparent() {
+  World world;
+  BuildTree(world);
+  world.Resolve();
+
+  // The popup moves from the keyboard to the settings panel.
+  world.Update(5, 6, {0.0f, 1.0f, 0.0f});
+  world.Resolve();
+  CHECK(Near(world.world[5], 3.0f, 1.0f, -2.0f));
+  world.Update(6, WidgetLayout::kNoParent, {-3.0f, 0.0f, -2.0f});
+  world.Resolve();
+  CHECK(world.resolved.size() == 2);
+  CHECK(Near(world.world[5], -3.0f, 1.0f, -2.0f));
+}
+
+void
+TestCyclesAreRejected() {
+  World world;
+  BuildTree(world);
+  world.Resolve();
+
+  CHECK(!world.layout.SetParent(1, 5));
+  CHECK(world.layout.GetParent(1) == WidgetLayout::kNoParent);
+  CHECK(!world.layout.SetParent(6, 6));
+  CHECK(world.layout.GetParent(6) == WidgetLayout::kNoParent);
+  CHECK(world.layout.SetParent(6, 5));
+
+  // Cycles through widgets that are not registered yet are caught once they are added.
+  CHECK(world.layout.SetParent(10, 11));
+  CHECK(!world.layout.SetParent(11, 10));
+
+  // The pass still terminates and lays every widget out.
+  world.Resolve();
+  CHECK(world.IndexOf(5) < world.IndexOf(6));
+  CHECK(world.IndexOf(10) < world.resolved.size());
+}
+
+void
+TestRemove() {
+  World world;
+  BuildTree(world);
+  world.Resolve();
+
+  // Children of a removed widget are laid out as roots.
+  world.layout.Remove(4);
+  world.local.erase(4);
+  CHECK(world.layout.GetWidgetCount() == 5);
+  world.Resolve();
+  CHECK(world.resolved.size() == 1 && world.resolved[0] == 5);
+  CHECK(Near(world.world[5], 0.0f, 1.0f, 0.0f));
+
+  // And follow it again once it comes back.
+  world.Update(4, 1, {0.0f, -2.0f, 0.5f});
+  world.Resolve();
+  CHECK(Near(world.world[5], 0.0f, 1.0f, -3.5f));
+}
+
+} // namespace
+
+int
+main() {
+  TestInitialLayout();
+  TestParentChangePropagates();
+  TestReparent();
+  TestCyclesAreRejected();
+  TestRemove();
+  return crow::test::Result("WidgetLayout");
+}
@@ -0,0 +1,137 @@
+package org.mozilla.vrbrowser;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * Records a synthetic controller session and replays it into a fake dispatch target, the same
+ * way VRBrowserActivity replays traces into its UI thread dispatch path.
+ */
+public class InputTraceTest {
+    private static final long FRAME_NANOS = 16666666L;
+    private static final int GESTURE_SWIPE_LEFT = 0;
+
+    private static byte[] recordSession(int aFrames) throws IOException {
+        InputTrace.Recorder recorder = new InputTrace.Recorder();
+        long time = 1000000000L;
+        for (int i = 0; i < aFrames; i++) {
+            recorder.recordMotion(3, 0, i % 10 < 5, i * 0.5f, 100.0f - i, time);
+            if (i % 20 == 0) {
+                recorder.recordScroll(3, 0, 0.0f, -1.0f, time);
+            }
+            time += FRAME_NANOS;
+        }
+        recorder.recordGesture(GESTURE_SWIPE_LEFT, time);
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        recorder.writeTo(output);
+        return output.toByteArray();
+    }
+
+    @Test
+    public void roundTrip() throws Exception {
+        byte[] trace = recordSession(100);
+        assertEquals(8 + InputTrace.RECORD_SIZE * (100 + 5 + 1), trace.length);
+
+        List<InputTrace.Event> events = InputTrace.read(new ByteArrayInputStream(trace));
+        assertEquals(106, events.size());
+        InputTrace.Event first = events.get(0);
+        assertEquals(InputTrace.TYPE_MOTION, first.mType);
+        assertEquals(3, first.mHandle);
+        assertTrue(first.mPressed);
+        assertEquals(100.0f, first.mY, 0.0f);
+        assertEquals(0, first.mTimestamp);
+        InputTrace.Event scroll = events.get(1);
+        assertEquals(InputTrace.TYPE_SCROLL, scroll.mType);
+        assertEquals(-1.0f, scroll.mY, 0.0f);
+        InputTrace.Event gesture = events.get(events.size() - 1);
+        assertEquals(InputTrace.TYPE_GESTURE, gesture.mType);
+        assertEquals(GESTURE_SWIPE_LEFT, gesture.mGesture);
+        assertEquals(100 * FRAME_NANOS, gesture.mTimestamp);
+    }
+
+    @Test(expected = IOException.class)
+    public void rejectsOtherFiles() throws Exception {
+        InputTrace.read(new ByteArrayInputStream(new byte[] {1, 2, 3, 4, 5, 6, 7, 8}));
+    }
+
+    @Test
+    public void truncatedRecordIsDropped() throws Exception {
+        byte[] trace = recordSession(10);
+        byte[] truncated = new byte[trace.length - 3];
+        System.arraycopy(trace, 0, truncated, 0, truncated.length);
+        assertEquals(10 + 1, InputTrace.read(new ByteArrayInputStream(truncated)).size());
+    }
+
+    @Test
+    public void replayDispatchesInOrder() throws Exception {
+        List<InputTrace.Event> events = InputTrace.read(new ByteArrayInputStream(recordSession(200)));
+        final List<InputTrace.Event> dispatched = new ArrayList<>();
+        InputReplay replay = new InputReplay(events, new InputReplay.Target() {
+            @Override
+            public void dispatch(InputTrace.Event aEvent) {
+                dispatched.add(aEvent);
+            }
+        }, 0.0f);
+        InputTrace.LatencyReport report = replay.run();
+        assertEquals(events, dispatched);
+        assertEquals(events.size(), report.mCount);
+        assertTrue(report.mP50 <= report.mP90);
+        assertTrue(report.mP90 <= report.mP99);
+        assertTrue(report.mP99 <= report.mMax);
+    }
+
+    @Test
+    public void canceledBeforeLoadDispatchesNothing() throws Exception {
+        List<InputTrace.Event> events = InputTrace.read(new ByteArrayInputStream(recordSession(10)));
+        final List<InputTrace.Event> dispatched = new ArrayList<>();
+        InputReplay replay = new InputReplay(new InputReplay.Target() {
+            @Override
+            public void dispatch(InputTrace.Event aEvent) {
+                dispatched.add(aEvent);
+            }
+        }, 0.0f);
+        replay.cancel();
+        assertEquals(0, replay.run(events).mCount);
+        assertTrue(dispatched.isEmpty());
+    }
+
+    @Test
+    public void acceleratedReplayKeepsRelativeTiming() throws Exception {
+        // 30 frames recorded over 0.5s, replayed 5 times faster.
+        List<InputTrace.Event> events = InputTrace.read(new ByteArrayInputStream(recordSession(30)));
+        final long[] lastDispatch = new long[1];
+        long start = System.nanoTime();
+        InputTrace.LatencyReport report = new InputReplay(events, new InputReplay.Target() {
+            @Override
+            public void dispatch(InputTrace.Event aEvent) {
+                lastDispatch[0] = System.nanoTime();
+            }
+        }, 5.0f).run();
+        long elapsed = lastDispatch[0] - start;
+        long expected = events.get(events.size() - 1).mTimestamp / 5;
+        assertTrue("Replay finished too early: " + elapsed, elapsed >= expected);
+        assertEquals(events.size(), report.mCount);
+    }
+
+    @Test
+    public void slowTargetShowsInPercentiles() throws Exception {
+        List<InputTrace.Event> events = InputTrace.read(new ByteArrayInputStream(recordSession(20)));
+        InputTrace.LatencyReport report = new InputReplay(events, new InputReplay.Target() {
+            @Override
+            public void dispatch(InputTrace.Event aEvent) throws InterruptedException {
+                if (aEvent.mType == InputTrace.TYPE_GESTURE) {
+                    Thread.sleep(20);
+                }
+            }
+        }, 0.0f).run();
+        assertTrue(report.mMax >= 20000000L);
+        assertTrue(report.mP50 < 20000000L);
+    }
+}
@@ -0,0 +1,107 @@
+package org.mozilla.vrbrowser;
+
+import org.junit.Test;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executor;
+
+import static org.junit.Assert.*;
+
+/**
+ * Removed sessions are closed a batch at a time, each batch in its own task.
+ */
+public class SessionCloserTest {
+    static class QueueExecutor implements Executor {
+        final ArrayDeque<Runnable> mTasks = new ArrayDeque<>();
+
+        @Override
+        public void execute(Runnable aRunnable) {
+            mTasks.add(aRunnable);
+        }
+
+        boolean runNext() {
+            Runnable task = mTasks.poll();
+            if (task == null) {
+                return false;
+            }
+            task.run();
+            return true;
+        }
+    }
+
+    private static Runnable close(final List<Integer> aClosed, final int aId) {
+        return new Runnable() {
+            @Override
+            public void run() {
+                aClosed.add(aId);
+            }
+        };
+    }
+
+    @Test
+    public void closesInBatches() {
+        QueueExecutor executor = new QueueExecutor();
+        SessionCloser closer = new SessionCloser(executor);
+        List<Integer> closed = new ArrayList<>();
+        int count = SessionCloser.BATCH_SIZE * 3 + 1;
+        for (int i = 0; i < count; i++) {
+            closer.enqueue(close(closed, i));
+        }
+        // Nothing is closed while queueing, and a single task is pending.
+        assertTrue(closed.isEmpty());
+        assertEquals(1, executor.mTasks.size());
+        assertEquals(count, closer.getPendingCount());
+
+        assertTrue(executor.runNext());
+        assertEquals(SessionCloser.BATCH_SIZE, closed.size());
+        assertEquals(1, executor.mTasks.size());
+
+        int tasks = 1;
+        while (executor.runNext()) {
+            tasks++;
+        }
+        assertEquals(4, tasks);
+        assertEquals(0, closer.getPendingCount());
+        for (int i = 0; i < count; i++) {
+            assertEquals(i, (int)closed.get(i));
+        }
+    }
+
+    @Test
+    public void otherTasksRunBetweenBatches() {
+        QueueExecutor executor = new QueueExecutor();
+        SessionCloser closer = new SessionCloser(executor);
+        final List<Integer> closed = new ArrayList<>();
+        for (int i = 0; i < SessionCloser.BATCH_SIZE * 2; i++) {
+            closer.enqueue(close(closed, i));
+        }
+        final int[] closedBeforeFrame = { -1 };
+        executor.execute(new Runnable() {
+            @Override
+            public void run() {
+                closedBeforeFrame[0] = closed.size();
+            }
+        });
+        while (executor.runNext()) {
+        }
+        assertEquals(SessionCloser.BATCH_SIZE, closedBeforeFrame[0]);
+        assertEquals(SessionCloser.BATCH_SIZE * 2, closed.size());
+    }
+
+    @Test
+    public void enqueueWhileIdleSchedulesAgain() {
+        QueueExecutor executor = new QueueExecutor();
+        SessionCloser closer = new SessionCloser(executor);
+        List<Integer> closed = new ArrayList<>();
+        closer.enqueue(close(closed, 1));
+        while (executor.runNext()) {
+        }
+        assertTrue(executor.mTasks.isEmpty());
+        closer.enqueue(close(closed, 2));
+        assertEquals(1, executor.mTasks.size());
+        executor.runNext();
+        assertEquals(2, closed.size());
+    }
+}
@@ -0,0 +1,93 @@
+package org.mozilla.vrbrowser;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * Widget updates are coalesced per layout pass and sent parents first, the way
+ * VRBrowserActivity flushes them to the native layout.
+ */
+public class WidgetLayoutTest {
+    private static final int BROWSER = 1;
+    private static final int NAVIGATION_BAR = 2;
+    private static final int KEYBOARD = 3;
+    private static final int POPUP = 4;
+
+    private static List<Integer> resolve(WidgetLayout aLayout) {
+        final List<Integer> result = new ArrayList<>();
+        aLayout.resolve(new WidgetLayout.Callback() {
+            @Override
+            public void onResolve(int aHandle) {
+                result.add(aHandle);
+            }
+        });
+        return result;
+    }
+
+    private static void update(WidgetLayout aLayout, int aHandle, int aParent) {
+        assertTrue(aLayout.setParent(aHandle, aParent));
+        aLayout.invalidate(aHandle);
+    }
+
+    @Test
+    public void coalescesUpdatesParentsFirst() {
+        WidgetLayout layout = new WidgetLayout();
+        update(layout, POPUP, KEYBOARD);
+        update(layout, NAVIGATION_BAR, BROWSER);
+        update(layout, KEYBOARD, BROWSER);
+        update(layout, BROWSER, WidgetLayout.NO_PARENT);
+        // The cascade triggered by the browser update does not add native updates.
+        update(layout, NAVIGATION_BAR, BROWSER);
+        update(layout, POPUP, KEYBOARD);
+        assertTrue(layout.isDirty());
+
+        List<Integer> order = resolve(layout);
+        assertEquals(4, order.size());
+        assertEquals(BROWSER, (int) order.get(0));
+        assertTrue(order.indexOf(KEYBOARD) < order.indexOf(POPUP));
+        assertFalse(layout.isDirty());
+        assertTrue(resolve(layout).isEmpty());
+    }
+
+    @Test
+    public void descendantsAreLeftToTheNativeLayout() {
+        WidgetLayout layout = new WidgetLayout();
+        update(layout, BROWSER, WidgetLayout.NO_PARENT);
+        update(layout, KEYBOARD, BROWSER);
+        resolve(layout);
+
+        update(layout, BROWSER, WidgetLayout.NO_PARENT);
+        List<Integer> order = resolve(layout);
+        assertEquals(1, order.size());
+        assertEquals(BROWSER, (int) order.get(0));
+    }
+
+    @Test
+    public void rejectsCycles() {
+        WidgetLayout layout = new WidgetLayout();
+        update(layout, KEYBOARD, BROWSER);
+        update(layout, POPUP, KEYBOARD);
+        assertFalse(layout.setParent(BROWSER, POPUP));
+        assertEquals(WidgetLayout.NO_PARENT, layout.getParent(BROWSER));
+        assertFalse(layout.setParent(POPUP, POPUP));
+        assertEquals(WidgetLayout.NO_PARENT, layout.getParent(POPUP));
+        layout.invalidate(BROWSER);
+        assertEquals(3, resolve(layout).size());
+    }
+
+    @Test
+    public void removedWidgetsAreNotResolved() {
+        WidgetLayout layout = new WidgetLayout();
+        update(layout, BROWSER, WidgetLayout.NO_PARENT);
+        update(layout, KEYBOARD, BROWSER);
+        layout.remove(KEYBOARD);
+        List<Integer> order = resolve(layout);
+        assertEquals(1, order.size());
+        assertEquals(BROWSER, (int) order.get(0));
+        assertEquals(WidgetLayout.NO_PARENT, layout.getParent(KEYBOARD));
+    }
+}
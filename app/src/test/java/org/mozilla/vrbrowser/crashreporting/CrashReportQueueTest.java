@@ -0,0 +1,279 @@
+package org.mozilla.vrbrowser.crashreporting;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.PrintWriter;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.zip.GZIPInputStream;
+
+import static org.junit.Assert.*;
+
+/**
+ * Queues reports in a temporary directory and submits them to a loopback stand-in for the crash
+ * server.
+ */
+public class CrashReportQueueTest {
+    static class TestServer implements Runnable {
+        volatile int mStatus = 200;
+        final List<String> mBodies = Collections.synchronizedList(new ArrayList<String>());
+        private ServerSocket mSocket;
+
+        TestServer() throws IOException {
+            mSocket = new ServerSocket(0, 50, InetAddress.getLoopbackAddress());
+            Thread thread = new Thread(this, "TestServer");
+            thread.setDaemon(true);
+            thread.start();
+        }
+
+        String getUrl() {
+            return "http://127.0.0.1:" + mSocket.getLocalPort() + "/submit";
+        }
+
+        void close() throws IOException {
+            mSocket.close();
+        }
+
+        @Override
+        public void run() {
+            while (!mSocket.isClosed()) {
+                try (Socket socket = mSocket.accept()) {
+                    DataInputStream input = new DataInputStream(socket.getInputStream());
+                    int length = 0;
+                    boolean gzip = false;
+                    String line;
+                    while (!(line = readLine(input)).isEmpty()) {
+                        String lower = line.toLowerCase();
+                        if (lower.startsWith("content-length:")) {
+                            length = Integer.parseInt(line.substring(15).trim());
+                        } else if (lower.startsWith("content-encoding:") && lower.contains("gzip")) {
+                            gzip = true;
+                        }
+                    }
+                    byte[] body = new byte[length];
+                    input.readFully(body);
+                    if (gzip) {
+                        mBodies.add(new String(gunzip(body), "ISO-8859-1"));
+                    }
+                    OutputStream output = socket.getOutputStream();
+                    PrintWriter writer = new PrintWriter(output);
+                    writer.print("HTTP/1.1 " + mStatus + " Status\r\nContent-Length: 0\r\nConnection: close\r\n\r\n");
+                    writer.flush();
+                } catch (IOException e) {
+                    // Closed.
+                }
+            }
+        }
+
+        private static String readLine(InputStream aInput) throws IOException {
+            StringBuilder result = new StringBuilder();
+            int c;
+            while ((c = aInput.read()) >= 0 && c != '\n') {
+                if (c != '\r') {
+                    result.append((char) c);
+                }
+            }
+            return result.toString();
+        }
+
+        private static byte[] gunzip(byte[] aData) throws IOException {
+            ByteArrayOutputStream result = new ByteArrayOutputStream();
+            try (InputStream input = new GZIPInputStream(new java.io.ByteArrayInputStream(aData))) {
+                byte[] buffer = new byte[4096];
+                int read;
+                while ((read = input.read(buffer)) > 0) {
+                    result.write(buffer, 0, read);
+                }
+            }
+            return result.toByteArray();
+        }
+    }
+
+    private File mDirectory;
+    private TestServer mServer;
+
+    @Before
+    public void setUp() throws IOException {
+        mDirectory = Files.createTempDirectory("crash").toFile();
+        mServer = new TestServer();
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        mServer.close();
+        File[] files = mDirectory.listFiles();
+        if (files != null) {
+            for (File file: files) {
+                file.delete();
+            }
+        }
+        mDirectory.delete();
+    }
+
+    private Map<String, String> extras(String aStack) {
+        Map<String, String> result = new LinkedHashMap<>();
+        result.put("ProductName", "FirefoxReality");
+        result.put("Version", "1.0");
+        result.put("JavaStackTrace", aStack);
+        result.put("UptimeTS", String.valueOf(new Random().nextInt()));
+        return result;
+    }
+
+    private File minidump(int aSize) throws IOException {
+        File file = new File(mDirectory, "minidump.dmp");
+        byte[] data = new byte[aSize];
+        // Incompressible, so the size bound can be tested.
+        new Random(aSize).nextBytes(data);
+        try (FileOutputStream output = new FileOutputStream(file)) {
+            output.write(data);
+        }
+        return file;
+    }
+
+    @Test
+    public void submitsCompressedReport() throws IOException {
+        CrashReportQueue queue = new CrashReportQueue(mDirectory, 5, 1024 * 1024);
+        assertTrue(queue.enqueue(extras("at Foo.bar"), minidump(1000), 0));
+        assertEquals(1, queue.size());
+
+        CrashReportUploader.Result result = new CrashReportUploader(queue, mServer.getUrl()).submitDue(0);
+        assertEquals(1, result.submitted);
+        assertEquals(0, queue.size());
+        assertEquals(1, mServer.mBodies.size());
+        String body = mServer.mBodies.get(0);
+        assertTrue(body.contains("name=\"JavaStackTrace\"\r\n\r\nat Foo.bar\r\n"));
+        assertTrue(body.contains("name=\"" + CrashReportQueue.MINIDUMP_FIELD + "\"; filename=\"minidump.dmp\""));
+        assertTrue(body.endsWith("--\r\n"));
+    }
+
+    @Test
+    public void dedupesIdenticalSignatures() throws IOException {
+        CrashReportQueue queue = new CrashReportQueue(mDirectory, 5, 1024 * 1024);
+        assertTrue(queue.enqueue(extras("at Foo.bar"), null, 0));
+        // Same stack, other uptime.
+        assertFalse(queue.enqueue(extras("at Foo.bar"), null, 10));
+        assertTrue(queue.enqueue(extras("at Foo.baz"), null, 20));
+        assertEquals(2, queue.size());
+        assertEquals(2, queue.getDue(20).get(0).getCount());
+    }
+
+    @Test
+    public void keepsNativeCrashesWithoutStack() throws IOException {
+        CrashReportQueue queue = new CrashReportQueue(mDirectory, 5, 1024 * 1024);
+        for (int i = 0; i < 3; i++) {
+            // What a native crash has, no Java stack nor crash reason.
+            Map<String, String> extras = new LinkedHashMap<>();
+            extras.put("ProductName", "FirefoxReality");
+            extras.put("Version", "1.0");
+            extras.put("BuildID", "20180101000000");
+            extras.put("CrashTime", String.valueOf(i));
+            assertNull(CrashReportQueue.computeSignature(extras));
+            assertTrue(queue.enqueue(extras, minidump(1000 + i), i));
+        }
+        assertEquals(3, queue.size());
+
+        CrashReportUploader.Result result = new CrashReportUploader(queue, mServer.getUrl()).submitDue(3);
+        assertEquals(3, result.submitted);
+        for (String body: mServer.mBodies) {
+            assertTrue(body.contains("name=\"" + CrashReportQueue.MINIDUMP_FIELD + "\""));
+        }
+    }
+
+    @Test
+    public void staysWithinBounds() throws IOException {
+        CrashReportQueue queue = new CrashReportQueue(mDirectory, 2, 1024 * 1024);
+        queue.enqueue(extras("a"), null, 0);
+        queue.enqueue(extras("b"), null, 1);
+        queue.enqueue(extras("c"), null, 2);
+        List<CrashReportQueue.Entry> due = queue.getDue(2);
+        assertEquals(2, due.size());
+        assertTrue(due.get(0).getSignature().contains("JavaStackTrace=b"));
+
+        queue = new CrashReportQueue(mDirectory, 10, 3000);
+        assertTrue(queue.enqueue(extras("d"), minidump(1000), 3));
+        // Does not fit with the others, the oldest ones go.
+        assertTrue(queue.enqueue(extras("e"), minidump(2000), 4));
+        assertEquals(1, queue.size());
+        // Larger than the whole budget.
+        assertFalse(queue.enqueue(extras("f"), minidump(4000), 5));
+        assertEquals(1, queue.size());
+    }
+
+    @Test
+    public void backsOffAfterServerErrors() throws IOException {
+        CrashReportQueue queue = new CrashReportQueue(mDirectory, 5, 1024 * 1024);
+        queue.enqueue(extras("a"), null, 0);
+        queue.enqueue(extras("b"), null, 0);
+        mServer.mStatus = 503;
+        CrashReportUploader uploader = new CrashReportUploader(queue, mServer.getUrl());
+        CrashReportUploader.Result result = uploader.submitDue(0);
+        // Stops at the first failure, the server is down for the others too.
+        assertEquals(1, result.failed);
+        assertEquals(1, mServer.mBodies.size());
+        assertEquals(1, queue.getDue(0).size());
+
+        long now = 1000;
+        uploader.submitDue(now);
+        assertEquals(CrashReportQueue.INITIAL_BACKOFF_MS, queue.getNextAttempt());
+        assertTrue(queue.getDue(now).isEmpty());
+        assertEquals(1, queue.getDue(CrashReportQueue.INITIAL_BACKOFF_MS).size());
+
+        assertEquals(CrashReportQueue.INITIAL_BACKOFF_MS * 2, CrashReportQueue.getBackoff(2));
+        assertEquals(CrashReportQueue.INITIAL_BACKOFF_MS * 8, CrashReportQueue.getBackoff(4));
+        assertEquals(CrashReportQueue.MAX_BACKOFF_MS, CrashReportQueue.getBackoff(40));
+
+        mServer.mStatus = 200;
+        result = uploader.submitDue(now + CrashReportQueue.INITIAL_BACKOFF_MS);
+        assertEquals(2, result.submitted);
+        assertEquals(-1, queue.getNextAttempt());
+    }
+
+    @Test
+    public void dropsAfterMaxAttemptsOrRejection() throws IOException {
+        CrashReportQueue queue = new CrashReportQueue(mDirectory, 5, 1024 * 1024);
+        queue.enqueue(extras("a"), null, 0);
+        mServer.mStatus = 500;
+        CrashReportUploader uploader = new CrashReportUploader(queue, mServer.getUrl());
+        long now = 0;
+        for (int i = 0; i < CrashReportQueue.MAX_ATTEMPTS; i++) {
+            assertEquals(1, queue.size());
+            now = Math.max(now, queue.getNextAttempt());
+            uploader.submitDue(now);
+        }
+        assertEquals(0, queue.size());
+
+        queue.enqueue(extras("b"), null, now);
+        mServer.mStatus = 400;
+        assertEquals(1, uploader.submitDue(now).rejected);
+        assertEquals(0, queue.size());
+    }
+
+    @Test
+    public void readsExtrasFile() throws IOException {
+        File file = new File(mDirectory, "report.extra");
+        try (PrintWriter writer = new PrintWriter(file, "UTF-8")) {
+            writer.print("ProductName=FirefoxReality\nJavaStackTrace=line1\\nline2 \\\\ x\nServerURL=https://example.com/submit\n");
+        }
+        Map<String, String> extras = CrashReportQueue.readExtras(file);
+        assertEquals("FirefoxReality", extras.get("ProductName"));
+        assertEquals("line1\nline2 \\ x", extras.get("JavaStackTrace"));
+        assertEquals("https://example.com/submit", extras.get(CrashReportQueue.SERVER_URL_KEY));
+    }
+}
@@ -0,0 +1,457 @@
+package org.mozilla.vrbrowser.downloads;
+
+import org.junit.Test;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+/**
+ * Runs the download manager against a loopback HTTP server that understands range requests and
+ * can drop connections or send slowly.
+ */
+public class DownloadManagerTest {
+    private static final Executor DIRECT = new Executor() {
+        @Override
+        public void execute(Runnable aRunnable) {
+            aRunnable.run();
+        }
+    };
+
+    static class TestServer implements Runnable {
+        volatile byte[] mBody;
+        volatile String mETag = "\"v1\"";
+        // Closes the first response after this many body bytes, negative to send everything.
+        volatile int mAbortAfter = -1;
+        volatile int mChunkDelay;
+        // Sent instead of the body when set, like a server asking to sign in.
+        volatile String mStatusLine;
+        volatile String mContentType;
+        final List<String> mRanges = Collections.synchronizedList(new ArrayList<String>());
+        final List<String> mCookies = Collections.synchronizedList(new ArrayList<String>());
+        private ServerSocket mSocket;
+
+        TestServer(byte[] aBody) throws IOException {
+            mBody = aBody;
+            mSocket = new ServerSocket(0, 50, InetAddress.getLoopbackAddress());
+            Thread thread = new Thread(this, "TestServer");
+            thread.setDaemon(true);
+            thread.start();
+        }
+
+        String getUri(String aPath) {
+            return "http://127.0.0.1:" + mSocket.getLocalPort() + aPath;
+        }
+
+        void close() throws IOException {
+            mSocket.close();
+        }
+
+        @Override
+        public void run() {
+            while (true) {
+                final Socket client;
+                try {
+                    client = mSocket.accept();
+                } catch (IOException e) {
+                    return;
+                }
+                Thread thread = new Thread(new Runnable() {
+                    @Override
+                    public void run() {
+                        try {
+                            serve(client);
+                        } catch (IOException | InterruptedException e) {
+                            // Client went away.
+                        } finally {
+                            try {
+                                client.close();
+                            } catch (IOException e) {
+                            }
+                        }
+                    }
+                });
+                thread.setDaemon(true);
+                thread.start();
+            }
+        }
+
+        private void serve(Socket aClient) throws IOException, InterruptedException {
+            BufferedReader reader = new BufferedReader(new InputStreamReader(aClient.getInputStream(), "US-ASCII"));
+            reader.readLine();
+            String range = null;
+            String ifRange = null;
+            String cookie = null;
+            String line;
+            while ((line = reader.readLine()) != null && !line.isEmpty()) {
+                int colon = line.indexOf(':');
+                String name = line.substring(0, colon).trim();
+                String value = line.substring(colon + 1).trim();
+                if (name.equalsIgnoreCase("Range")) {
+                    range = value;
+                } else if (name.equalsIgnoreCase("If-Range")) {
+                    ifRange = value;
+                } else if (name.equalsIgnoreCase("Cookie")) {
+                    cookie = value;
+                }
+            }
+            mCookies.add(cookie);
+            if (range != null) {
+                mRanges.add(range);
+            }
+            byte[] body = mBody;
+            int start = 0;
+            StringBuilder headers = new StringBuilder();
+            if (range != null && (ifRange == null || ifRange.equals(mETag))) {
+                start = Integer.parseInt(range.substring("bytes=".length(), range.indexOf('-')));
+                if (start >= body.length) {
+                    headers.append("HTTP/1.1 416 Range Not Satisfiable\r\nContent-Length: 0\r\n");
+                    start = body.length;
+                } else {
+                    headers.append("HTTP/1.1 206 Partial Content\r\n");
+                    headers.append("Content-Range: bytes " + start + "-" + (body.length - 1) + "/" + body.length + "\r\n");
+                }
+            } else {
+                headers.append(mStatusLine != null ? mStatusLine : "HTTP/1.1 200 OK").append("\r\n");
+            }
+            if (mContentType != null) {
+                headers.append("Content-Type: " + mContentType + "\r\n");
+            }
+            if (start < body.length) {
+                headers.append("Content-Length: " + (body.length - start) + "\r\n");
+            }
+            headers.append("ETag: " + mETag + "\r\nConnection: close\r\n\r\n");
+            OutputStream output = aClient.getOutputStream();
+            output.write(headers.toString().getBytes("US-ASCII"));
+            int end = body.length;
+            if (mAbortAfter >= 0) {
+                end = Math.min(end, start + mAbortAfter);
+                mAbortAfter = -1;
+            }
+            for (int offset = start; offset < end; offset += 8192) {
+                output.write(body, offset, Math.min(8192, end - offset));
+                if (mChunkDelay > 0) {
+                    output.flush();
+                    Thread.sleep(mChunkDelay);
+                }
+            }
+            output.flush();
+        }
+    }
+
+    static class StateListener implements DownloadManager.Listener {
+        final CountDownLatch mFinished;
+        final AtomicInteger mProgressCount = new AtomicInteger();
+        final AtomicInteger mRunning = new AtomicInteger();
+        final AtomicInteger mMaxRunning = new AtomicInteger();
+        volatile Download mLast;
+
+        StateListener(int aCount) {
+            mFinished = new CountDownLatch(aCount);
+        }
+
+        @Override
+        public void onDownloadAdded(Download aDownload) {
+        }
+
+        @Override
+        public void onDownloadProgress(Download aDownload) {
+            mProgressCount.incrementAndGet();
+        }
+
+        @Override
+        public void onDownloadStateChanged(Download aDownload) {
+            mLast = aDownload;
+            if (aDownload.getState() == Download.RUNNING) {
+                int running = mRunning.incrementAndGet();
+                synchronized (mMaxRunning) {
+                    mMaxRunning.set(Math.max(mMaxRunning.get(), running));
+                }
+            } else if (aDownload.isFinished()) {
+                mRunning.decrementAndGet();
+            }
+            if (aDownload.isFinished()) {
+                mFinished.countDown();
+            }
+        }
+
+        void await() throws InterruptedException {
+            assertTrue("Timed out", mFinished.await(20, TimeUnit.SECONDS));
+        }
+    }
+
+    private static byte[] randomBody(int aSize, long aSeed) {
+        byte[] result = new byte[aSize];
+        new Random(aSeed).nextBytes(result);
+        return result;
+    }
+
+    private static File createDirectory() throws IOException {
+        return Files.createTempDirectory("downloads").toFile();
+    }
+
+    private static void waitForBytes(DownloadManager aManager, long aId, long aBytes) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 20000;
+        while (aManager.getDownload(aId).getDownloadedBytes() < aBytes) {
+            assertTrue("Timed out", System.currentTimeMillis() < deadline);
+            Thread.sleep(5);
+        }
+    }
+
+    private static void waitForState(DownloadManager aManager, long aId, int aState) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 20000;
+        while (true) {
+            // Null until the persisted queue is restored.
+            Download download = aManager.getDownload(aId);
+            if (download != null && download.getState() == aState) {
+                return;
+            }
+            assertTrue("Timed out", System.currentTimeMillis() < deadline);
+            Thread.sleep(5);
+        }
+    }
+
+    @Test
+    public void downloadsWholeFile() throws Exception {
+        byte[] body = randomBody(2 * 1024 * 1024, 1);
+        TestServer server = new TestServer(body);
+        File directory = createDirectory();
+        DownloadManager manager = new DownloadManager(directory, new File(directory, "queue"), 2, DIRECT);
+        StateListener listener = new StateListener(1);
+        manager.addListener(listener);
+        try {
+            long start = System.nanoTime();
+            Download download = manager.enqueue(server.getUri("/files/data.bin?x=1"), null, "application/octet-stream", body.length);
+            listener.await();
+            long elapsed = System.nanoTime() - start;
+
+            assertEquals(new File(directory, "data.bin"), download.getFile());
+            assertEquals(Download.COMPLETED, listener.mLast.getState());
+            assertEquals(body.length, listener.mLast.getDownloadedBytes());
+            assertArrayEquals(body, Files.readAllBytes(download.getFile().toPath()));
+            assertTrue(server.mRanges.isEmpty());
+            // Progress is throttled to one update per frame.
+            assertTrue(listener.mProgressCount.get() <= elapsed / DownloadManager.PROGRESS_INTERVAL_NANOS + 1);
+        } finally {
+            manager.shutdown();
+            server.close();
+        }
+    }
+
+    @Test
+    public void resumesAfterDroppedConnection() throws Exception {
+        byte[] body = randomBody(1024 * 1024, 2);
+        TestServer server = new TestServer(body);
+        server.mAbortAfter = 300000;
+        File directory = createDirectory();
+        DownloadManager manager = new DownloadManager(directory, new File(directory, "queue"), 2, DIRECT);
+        StateListener failed = new StateListener(1);
+        manager.addListener(failed);
+        try {
+            Download download = manager.enqueue(server.getUri("/resume.bin"), null, null, Download.UNKNOWN_LENGTH);
+            failed.await();
+            assertEquals(Download.FAILED, failed.mLast.getState());
+            assertEquals(300000, download.getFile().length());
+
+            manager.removeListener(failed);
+            StateListener completed = new StateListener(1);
+            manager.addListener(completed);
+            manager.resume(download.getId());
+            completed.await();
+            assertEquals(Download.COMPLETED, completed.mLast.getState());
+            assertEquals(Collections.singletonList("bytes=300000-"), server.mRanges);
+            assertArrayEquals(body, Files.readAllBytes(download.getFile().toPath()));
+        } finally {
+            manager.shutdown();
+            server.close();
+        }
+    }
+
+    @Test
+    public void changedFileRestartsFromScratch() throws Exception {
+        TestServer server = new TestServer(randomBody(512 * 1024, 3));
+        server.mAbortAfter = 100000;
+        File directory = createDirectory();
+        DownloadManager manager = new DownloadManager(directory, new File(directory, "queue"), 1, DIRECT);
+        StateListener failed = new StateListener(1);
+        manager.addListener(failed);
+        try {
+            Download download = manager.enqueue(server.getUri("/changed.bin"), null, null, Download.UNKNOWN_LENGTH);
+            failed.await();
+
+            byte[] changed = randomBody(400 * 1024, 4);
+            server.mBody = changed;
+            server.mETag = "\"v2\"";
+            manager.removeListener(failed);
+            StateListener completed = new StateListener(1);
+            manager.addListener(completed);
+            manager.resume(download.getId());
+            completed.await();
+            assertEquals(Download.COMPLETED, completed.mLast.getState());
+            assertEquals(changed.length, completed.mLast.getTotalBytes());
+            assertArrayEquals(changed, Files.readAllBytes(download.getFile().toPath()));
+        } finally {
+            manager.shutdown();
+            server.close();
+        }
+    }
+
+    @Test
+    public void restartContinuesPersistedQueue() throws Exception {
+        byte[] body = randomBody(1024 * 1024, 5);
+        TestServer server = new TestServer(body);
+        server.mChunkDelay = 10;
+        File directory = createDirectory();
+        File queue = new File(directory, "queue");
+        DownloadManager manager = new DownloadManager(directory, queue, 2, DIRECT);
+        Download download = manager.enqueue(server.getUri("/restart.bin"), "restart.bin", null, body.length);
+        waitForBytes(manager, download.getId(), 100000);
+        manager.shutdown();
+        assertTrue(server.mRanges.isEmpty());
+
+        server.mChunkDelay = 0;
+        manager = new DownloadManager(directory, queue, 2, DIRECT);
+        try {
+            waitForState(manager, download.getId(), Download.COMPLETED);
+            assertEquals(1, manager.getDownloads().size());
+            assertEquals(1, server.mRanges.size());
+            assertArrayEquals(body, Files.readAllBytes(download.getFile().toPath()));
+        } finally {
+            manager.shutdown();
+            server.close();
+        }
+    }
+
+    @Test
+    public void headersAreNotPersisted() throws Exception {
+        TestServer server = new TestServer(randomBody(1024 * 1024, 8));
+        server.mChunkDelay = 10;
+        File directory = createDirectory();
+        File queue = new File(directory, "queue");
+        DownloadManager manager = new DownloadManager(directory, queue, 1, DIRECT);
+        Map<String, String> headers = new HashMap<>();
+        headers.put("Cookie", "session=secret");
+        Download download = manager.enqueue(server.getUri("/private.bin"), null, null, Download.UNKNOWN_LENGTH, headers);
+        waitForBytes(manager, download.getId(), 50000);
+        manager.shutdown();
+        assertEquals(Collections.singletonList("session=secret"), server.mCookies);
+        assertFalse(new String(Files.readAllBytes(queue.toPath()), "UTF-8").contains("secret"));
+
+        // Not requested again without its cookie, and it can not be resumed.
+        manager = new DownloadManager(directory, queue, 1, DIRECT);
+        Download other = manager.enqueue(server.getUri("/public.bin"), null, null, Download.UNKNOWN_LENGTH);
+        try {
+            waitForState(manager, other.getId(), Download.COMPLETED);
+            assertEquals(2, manager.getDownloads().size());
+            Download restored = null;
+            for (Download item: manager.getDownloads()) {
+                if (item.getId() != other.getId()) {
+                    restored = item;
+                }
+            }
+            assertEquals(Download.FAILED, restored.getState());
+            assertEquals(download.getFile(), restored.getFile());
+            manager.resume(restored.getId());
+            Thread.sleep(100);
+            assertEquals(Download.FAILED, manager.getDownload(restored.getId()).getState());
+            assertEquals(Arrays.asList("session=secret", null), server.mCookies);
+        } finally {
+            manager.shutdown();
+            server.close();
+        }
+    }
+
+    @Test
+    public void signInPagesAreNotSaved() throws Exception {
+        TestServer server = new TestServer("<html>Sign in</html>".getBytes("UTF-8"));
+        server.mContentType = "text/html; charset=utf-8";
+        File directory = createDirectory();
+        DownloadManager manager = new DownloadManager(directory, new File(directory, "queue"), 1, DIRECT);
+        StateListener listener = new StateListener(2);
+        manager.addListener(listener);
+        try {
+            Download page = manager.enqueue(server.getUri("/report.pdf"), null, "application/pdf", Download.UNKNOWN_LENGTH);
+            waitForState(manager, page.getId(), Download.FAILED);
+            server.mStatusLine = "HTTP/1.1 401 Unauthorized";
+            Download unauthorized = manager.enqueue(server.getUri("/report.zip"), null, "application/zip", Download.UNKNOWN_LENGTH);
+            listener.await();
+            assertEquals(Download.FAILED, manager.getDownload(unauthorized.getId()).getState());
+            assertFalse(page.getFile().exists() && page.getFile().length() > 0);
+            assertFalse(unauthorized.getFile().exists() && unauthorized.getFile().length() > 0);
+        } finally {
+            manager.shutdown();
+            server.close();
+        }
+    }
+
+    @Test
+    public void concurrencyIsBounded() throws Exception {
+        byte[] body = randomBody(256 * 1024, 6);
+        TestServer server = new TestServer(body);
+        server.mChunkDelay = 2;
+        File directory = createDirectory();
+        DownloadManager manager = new DownloadManager(directory, new File(directory, "queue"), 2, DIRECT);
+        StateListener listener = new StateListener(5);
+        manager.addListener(listener);
+        try {
+            List<Download> downloads = new ArrayList<>();
+            for (int i = 0; i < 5; i++) {
+                downloads.add(manager.enqueue(server.getUri("/same.bin"), null, null, body.length));
+            }
+            listener.await();
+            assertEquals(2, listener.mMaxRunning.get());
+            assertEquals(new File(directory, "same (4).bin"), downloads.get(4).getFile());
+            for (Download download: downloads) {
+                assertArrayEquals(body, Files.readAllBytes(download.getFile().toPath()));
+            }
+        } finally {
+            manager.shutdown();
+            server.close();
+        }
+    }
+
+    @Test
+    public void cancelDeletesPartialFile() throws Exception {
+        TestServer server = new TestServer(randomBody(1024 * 1024, 7));
+        server.mChunkDelay = 10;
+        File directory = createDirectory();
+        DownloadManager manager = new DownloadManager(directory, new File(directory, "queue"), 1, DIRECT);
+        StateListener listener = new StateListener(1);
+        manager.addListener(listener);
+        try {
+            Download download = manager.enqueue(server.getUri("/cancel.bin"), null, null, Download.UNKNOWN_LENGTH);
+            waitForBytes(manager, download.getId(), 50000);
+            manager.cancel(download.getId());
+            listener.await();
+            assertEquals(Download.CANCELED, listener.mLast.getState());
+            assertNull(manager.getDownload(download.getId()));
+            long deadline = System.currentTimeMillis() + 5000;
+            while (download.getFile().exists() && System.currentTimeMillis() < deadline) {
+                Thread.sleep(5);
+            }
+            assertFalse(download.getFile().exists());
+        } finally {
+            manager.shutdown();
+            server.close();
+        }
+    }
+}
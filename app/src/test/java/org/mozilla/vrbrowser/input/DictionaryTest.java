@@ -0,0 +1,132 @@
+/* -*- Mode: Java; c-basic-offset: 4; tab-width: 4; indent-tabs-mode: nil; -*-
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/. */
+
+package org.mozilla.vrbrowser.input;
+
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.StringReader;
+import java.nio.ByteBuffer;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class DictionaryTest {
+    private static final String WORDS =
+            "# comment\n" +
+            "the 255\n" +
+            "there 120\n" +
+            "these 90\n" +
+            "them 140\n" +
+            "then 130\n" +
+            "theater 10\n" +
+            "thermal 5\n" +
+            "don't 80\n" +
+            "Firefox 60\n";
+
+    private static Dictionary build(String aWords) throws IOException {
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        DictionaryBuilder.build(new StringReader(aWords), output);
+        // Direct like the memory mapped buffer used by the app.
+        byte[] bytes = output.toByteArray();
+        ByteBuffer buffer = ByteBuffer.allocateDirect(bytes.length);
+        buffer.put(bytes);
+        buffer.flip();
+        return new Dictionary(buffer);
+    }
+
+    private static int suggest(Dictionary aDictionary, String aPrefix, Dictionary.Suggestions aResult) {
+        return aDictionary.suggest(aPrefix.toCharArray(), aPrefix.length(), aResult);
+    }
+
+    @Test
+    public void suggestsMostFrequentFirst() throws IOException {
+        Dictionary dictionary = build(WORDS);
+        Dictionary.Suggestions result = new Dictionary.Suggestions(3);
+        assertEquals(3, suggest(dictionary, "the", result));
+        // The prefix itself is not suggested.
+        assertEquals("them", result.toString(0));
+        assertEquals("then", result.toString(1));
+        assertEquals("there", result.toString(2));
+        assertEquals(140, result.getFrequency(0));
+        assertEquals(120, result.getFrequency(2));
+    }
+
+    @Test
+    public void returnsEveryCompletionWhenThereAreFew() throws IOException {
+        Dictionary dictionary = build(WORDS);
+        Dictionary.Suggestions result = new Dictionary.Suggestions(8);
+        assertEquals(2, suggest(dictionary, "ther", result));
+        assertEquals("there", result.toString(0));
+        assertEquals("thermal", result.toString(1));
+    }
+
+    @Test
+    public void ignoresCase() throws IOException {
+        Dictionary dictionary = build(WORDS);
+        Dictionary.Suggestions result = new Dictionary.Suggestions(3);
+        assertEquals(1, suggest(dictionary, "FIRE", result));
+        assertEquals("firefox", result.toString(0));
+        assertEquals(1, suggest(dictionary, "Don", result));
+        assertEquals("don't", result.toString(0));
+    }
+
+    @Test
+    public void missingPrefixHasNoSuggestions() throws IOException {
+        Dictionary dictionary = build(WORDS);
+        Dictionary.Suggestions result = new Dictionary.Suggestions(3);
+        assertEquals(3, suggest(dictionary, "the", result));
+        assertEquals(0, suggest(dictionary, "xyz", result));
+        assertEquals(0, result.getCount());
+        assertEquals(0, suggest(dictionary, "", result));
+    }
+
+    @Test
+    public void rejectsInvalidInput() throws IOException {
+        try {
+            build("word 300\n");
+            fail("Frequency out of range accepted");
+        } catch (IOException e) {
+            // Expected.
+        }
+        try {
+            new Dictionary(ByteBuffer.wrap(new byte[32]));
+            fail("Buffer without magic accepted");
+        } catch (IOException e) {
+            // Expected.
+        }
+    }
+
+    @Test
+    public void lookupsAreFastAndReuseTheirBuffers() throws IOException {
+        StringBuilder words = new StringBuilder();
+        for (int i = 0; i < 20000; i++) {
+            words.append("w").append(Integer.toString(i, 26)).append(' ').append(1 + i % 255).append('\n');
+        }
+        Dictionary dictionary = build(words.toString());
+        Dictionary.Suggestions result = new Dictionary.Suggestions(3);
+        char[][] buffers = { result.getWord(0), result.getWord(1), result.getWord(2) };
+        char[] prefix = "w1".toCharArray();
+
+        // Warm up before timing.
+        for (int i = 0; i < 1000; i++) {
+            dictionary.suggest(prefix, 2, result);
+        }
+        int iterations = 1000;
+        long start = System.nanoTime();
+        for (int i = 0; i < iterations; i++) {
+            assertEquals(3, dictionary.suggest(prefix, 2, result));
+        }
+        long average = (System.nanoTime() - start) / iterations;
+        assertTrue("Lookup took " + average + "ns", average < 1000000);
+        for (int i = 0; i < buffers.length; i++) {
+            assertTrue(buffers[i] == result.getWord(i));
+        }
+        assertEquals(255, result.getFrequency(0));
+    }
+}
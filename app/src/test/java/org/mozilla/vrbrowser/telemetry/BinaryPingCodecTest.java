@@ -0,0 +1,60 @@
+package org.mozilla.vrbrowser.telemetry;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.*;
+
+/**
+ * Pings are stored in binary form and turned into JSON when uploaded.
+ */
+public class BinaryPingCodecTest {
+    private static Map<String, Object> results() {
+        Map<String, Object> results = new LinkedHashMap<>();
+        results.put("v", 1);
+        results.put("clientId", "a\"b\\c\n");
+        results.put("durations", 12.5);
+        results.put("whole", 3.0);
+        results.put("nan", Double.NaN);
+        results.put("experiment", true);
+        results.put("missing", null);
+        List<Object> event = Arrays.<Object>asList(1234L, "performance", "jni", "VRBrowser",
+                Collections.singletonMap("calls", "12"));
+        results.put("events", Collections.singletonList(event));
+        results.put("ids", new int[] { 1, 2 });
+        return results;
+    }
+
+    @Test
+    public void roundTripsToJSON() throws IOException {
+        byte[] record = BinaryPingCodec.encode("focus-event", "doc-1", "/submit/path", results());
+        assertEquals("focus-event", BinaryPingCodec.decodeType(record));
+        BinaryPingCodec.Ping ping = BinaryPingCodec.decode(record);
+        assertEquals("focus-event", ping.mType);
+        assertEquals("doc-1", ping.mDocumentId);
+        assertEquals("/submit/path", ping.mUploadPath);
+        assertEquals("{\"v\":1,\"clientId\":\"a\\\"b\\\\c\\n\",\"durations\":12.5,\"whole\":3,\"nan\":null," +
+                "\"experiment\":true,\"missing\":null," +
+                "\"events\":[[1234,\"performance\",\"jni\",\"VRBrowser\",{\"calls\":\"12\"}]],\"ids\":[1,2]}",
+                BinaryPingCodec.toJSON(ping.mResults));
+    }
+
+    @Test
+    public void rejectsTruncatedRecords() {
+        byte[] record = BinaryPingCodec.encode("core", "doc-2", "/submit", results());
+        for (int length = 0; length < record.length; length += 7) {
+            try {
+                BinaryPingCodec.decode(Arrays.copyOf(record, length));
+                fail("Decoded a truncated record of " + length + " bytes");
+            } catch (IOException e) {
+                // Expected.
+            }
+        }
+    }
+}
@@ -0,0 +1,190 @@
+package org.mozilla.vrbrowser.telemetry;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * Appends to, reopens and corrupts a segmented log in a temporary directory.
+ */
+public class SegmentedLogTest {
+    private static final int SEGMENT_SIZE = 1024;
+    private File mDirectory;
+
+    @Before
+    public void setUp() throws IOException {
+        mDirectory = Files.createTempDirectory("log").toFile();
+    }
+
+    @After
+    public void tearDown() {
+        File[] files = mDirectory.listFiles();
+        if (files != null) {
+            for (File file: files) {
+                file.delete();
+            }
+        }
+        mDirectory.delete();
+    }
+
+    private static byte[] record(int aValue, int aLength) {
+        byte[] result = new byte[aLength];
+        Arrays.fill(result, (byte) aValue);
+        return result;
+    }
+
+    private static List<Integer> read(SegmentedLog aLog, final int aAction) {
+        final List<Integer> result = new ArrayList<>();
+        aLog.process(new SegmentedLog.Visitor() {
+            @Override
+            public int visit(byte[] aRecord) {
+                result.add((int) aRecord[0]);
+                return aAction;
+            }
+        });
+        return result;
+    }
+
+    private File[] segments() {
+        File[] files = mDirectory.listFiles();
+        Arrays.sort(files);
+        return files;
+    }
+
+    @Test
+    public void appendsAndConsumes() throws IOException {
+        SegmentedLog log = new SegmentedLog(mDirectory, SEGMENT_SIZE, 4);
+        for (int i = 1; i <= 3; i++) {
+            assertTrue(log.append(record(i, 100)));
+        }
+        assertEquals(Arrays.asList(1, 2, 3), read(log, SegmentedLog.Visitor.KEEP));
+
+        final int[] visited = { 0 };
+        assertFalse(log.process(new SegmentedLog.Visitor() {
+            @Override
+            public int visit(byte[] aRecord) {
+                visited[0]++;
+                return aRecord[0] == 2 ? STOP : CONSUME;
+            }
+        }));
+        assertEquals(2, visited[0]);
+        assertEquals(Arrays.asList(2, 3), read(log, SegmentedLog.Visitor.KEEP));
+
+        assertFalse(log.append(new byte[0]));
+        assertFalse(log.append(record(9, SEGMENT_SIZE)));
+    }
+
+    @Test
+    public void appendsWhileProcessing() throws IOException {
+        final SegmentedLog log = new SegmentedLog(mDirectory, SEGMENT_SIZE, 4);
+        log.append(record(1, 100));
+        final boolean[] appended = { false };
+        assertTrue(log.process(new SegmentedLog.Visitor() {
+            @Override
+            public int visit(byte[] aRecord) {
+                // An upload runs on another thread, it must not keep the log locked.
+                Thread thread = new Thread(new Runnable() {
+                    @Override
+                    public void run() {
+                        try {
+                            appended[0] = log.append(record(2, 100));
+                        } catch (IOException e) {
+                            fail(e.toString());
+                        }
+                    }
+                });
+                thread.start();
+                try {
+                    thread.join(5000);
+                } catch (InterruptedException e) {
+                    fail(e.toString());
+                }
+                return CONSUME;
+            }
+        }));
+        assertTrue(appended[0]);
+        assertEquals(Arrays.asList(2), read(log, SegmentedLog.Visitor.KEEP));
+    }
+
+    @Test
+    public void rotatesAndDropsOldestSegments() throws IOException {
+        SegmentedLog log = new SegmentedLog(mDirectory, SEGMENT_SIZE, 3);
+        // Two records per segment.
+        for (int i = 1; i <= 8; i++) {
+            assertTrue(log.append(record(i, 400)));
+        }
+        assertEquals(3, log.getSegmentCount());
+        assertEquals(3, segments().length);
+        for (File file: segments()) {
+            assertEquals(SEGMENT_SIZE, file.length());
+        }
+        assertEquals(Arrays.asList(3, 4, 5, 6, 7, 8), read(log, SegmentedLog.Visitor.KEEP));
+
+        // Consumed segments are deleted, except the one being appended to.
+        assertEquals(Arrays.asList(3, 4, 5, 6, 7, 8), read(log, SegmentedLog.Visitor.CONSUME));
+        assertEquals(1, log.getSegmentCount());
+        assertTrue(read(log, SegmentedLog.Visitor.KEEP).isEmpty());
+    }
+
+    @Test
+    public void reopensWhereItLeftOff() throws IOException {
+        SegmentedLog log = new SegmentedLog(mDirectory, SEGMENT_SIZE, 4);
+        for (int i = 1; i <= 3; i++) {
+            log.append(record(i, 300));
+        }
+        log.process(new SegmentedLog.Visitor() {
+            @Override
+            public int visit(byte[] aRecord) {
+                return aRecord[0] == 1 ? CONSUME : KEEP;
+            }
+        });
+        log.flush();
+
+        log = new SegmentedLog(mDirectory, SEGMENT_SIZE, 4);
+        assertEquals(Arrays.asList(2, 3), read(log, SegmentedLog.Visitor.KEEP));
+        log.append(record(4, 300));
+        assertEquals(Arrays.asList(2, 3, 4), read(log, SegmentedLog.Visitor.KEEP));
+    }
+
+    @Test
+    public void skipsCorruptedRecords() throws IOException {
+        SegmentedLog log = new SegmentedLog(mDirectory, SEGMENT_SIZE, 4);
+        // Records 1 and 2 in the first segment, 3 and 4 in the second one.
+        for (int i = 1; i <= 4; i++) {
+            log.append(record(i, 400));
+        }
+        log.flush();
+        File[] files = segments();
+        assertEquals(2, files.length);
+        try (RandomAccessFile file = new RandomAccessFile(files[0], "rw")) {
+            // Flips a payload byte of the second record.
+            long offset = SegmentedLog.SEGMENT_HEADER_SIZE + 2 * SegmentedLog.RECORD_HEADER_SIZE + 400 + 10;
+            file.seek(offset);
+            file.write(0x55);
+        }
+        try (RandomAccessFile file = new RandomAccessFile(files[1], "rw")) {
+            // A torn append, a length without its record.
+            file.seek(SegmentedLog.SEGMENT_HEADER_SIZE + 2 * (SegmentedLog.RECORD_HEADER_SIZE + 400));
+            file.writeInt(50);
+        }
+        // Not a segment of this log.
+        Files.write(new File(mDirectory, "zzzz.seg").toPath(), new byte[] { 1, 2, 3 });
+
+        log = new SegmentedLog(mDirectory, SEGMENT_SIZE, 4);
+        assertEquals(Arrays.asList(1, 3, 4), read(log, SegmentedLog.Visitor.KEEP));
+        assertFalse(new File(mDirectory, "zzzz.seg").exists());
+        // Appends after the torn record.
+        log.append(record(5, 50));
+        assertEquals(Arrays.asList(1, 3, 4, 5), read(log, SegmentedLog.Visitor.KEEP));
+    }
+}
@@ -0,0 +1,178 @@
+/* -*- Mode: Java; c-basic-offset: 4; tab-width: 4; indent-tabs-mode: nil; -*-
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/. */
+
+package org.mozilla.vrbrowser.textures;
+
+import org.junit.Test;
+
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Arrays;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class TextureCompressorTest {
+    // Reference decoder for the individual and differential modes.
+    private static int[] decode(byte[] aData, int aWidth, int aHeight) {
+        int[] result = new int[aWidth * aHeight];
+        ByteBuffer buffer = ByteBuffer.wrap(aData).order(ByteOrder.BIG_ENDIAN);
+        for (int blockY = 0; blockY < aHeight; blockY += 4) {
+            for (int blockX = 0; blockX < aWidth; blockX += 4) {
+                long block = buffer.getLong();
+                boolean differential = ((block >>> 33) & 1) == 1;
+                boolean flip = ((block >>> 32) & 1) == 1;
+                int[][] base = new int[2][3];
+                for (int c = 0; c < 3; c++) {
+                    int shift = 59 - c * 8;
+                    if (differential) {
+                        int first = (int)(block >>> shift) & 0x1f;
+                        int delta = ((int)(block >>> (shift - 3)) & 0x7) << 29 >> 29;
+                        base[0][c] = ETC2Encoder.expand(first, 5);
+                        base[1][c] = ETC2Encoder.expand(first + delta, 5);
+                    } else {
+                        base[0][c] = ETC2Encoder.expand((int)(block >>> (shift + 1)) & 0xf, 4);
+                        base[1][c] = ETC2Encoder.expand((int)(block >>> (shift - 3)) & 0xf, 4);
+                    }
+                }
+                int[] tables = {(int)(block >>> 37) & 0x7, (int)(block >>> 34) & 0x7};
+                for (int x = 0; x < 4; x++) {
+                    for (int y = 0; y < 4; y++) {
+                        int pixel = x * 4 + y;
+                        int half = flip ? y / 2 : x / 2;
+                        int index = (int)((block >>> (16 + pixel)) & 1) << 1 | (int)((block >>> pixel) & 1);
+                        int modifier = ETC2Encoder.MODIFIERS[tables[half]][index];
+                        int color = 0;
+                        for (int c = 0; c < 3; c++) {
+                            color |= ETC2Encoder.clamp(base[half][c] + modifier) << (16 - c * 8);
+                        }
+                        if (blockX + x < aWidth && blockY + y < aHeight) {
+                            result[(blockY + y) * aWidth + blockX + x] = color;
+                        }
+                    }
+                }
+            }
+        }
+        return result;
+    }
+
+    private static double psnr(int[] aExpected, int[] aActual) {
+        double error = 0;
+        for (int i = 0; i < aExpected.length; i++) {
+            for (int shift = 0; shift <= 16; shift += 8) {
+                int difference = ((aExpected[i] >> shift) & 0xff) - ((aActual[i] >> shift) & 0xff);
+                error += difference * difference;
+            }
+        }
+        error /= aExpected.length * 3;
+        return error == 0 ? Double.POSITIVE_INFINITY : 10 * Math.log10(255 * 255 / error);
+    }
+
+    private static BufferedImage gradient(int aSize) {
+        BufferedImage image = new BufferedImage(aSize, aSize, BufferedImage.TYPE_INT_RGB);
+        for (int y = 0; y < aSize; y++) {
+            for (int x = 0; x < aSize; x++) {
+                int r = x * 255 / aSize;
+                int g = y * 255 / aSize;
+                int b = (x + y) * 127 / aSize;
+                image.setRGB(x, y, (r << 16) | (g << 8) | b);
+            }
+        }
+        return image;
+    }
+
+    @Test
+    public void solidColorsAreNearlyExact() {
+        int[] colors = {0x000000, 0xffffff, 0x3366cc, 0x80ff10};
+        for (int color: colors) {
+            int[] pixels = new int[8 * 8];
+            Arrays.fill(pixels, color);
+            byte[] encoded = new ETC2Encoder().encode(pixels, 8, 8);
+            assertEquals(4 * ETC2Encoder.BLOCK_SIZE, encoded.length);
+            assertTrue(psnr(pixels, decode(encoded, 8, 8)) > 40);
+        }
+    }
+
+    @Test
+    public void gradientsKeepTheirQuality() {
+        int size = 64;
+        int[] pixels = gradient(size).getRGB(0, 0, size, size, null, 0, size);
+        int[] decoded = decode(new ETC2Encoder().encode(pixels, size, size), size, size);
+        double quality = psnr(pixels, decoded);
+        assertTrue("PSNR " + quality, quality > 35);
+    }
+
+    @Test
+    public void smallLevelsUseOneBlock() {
+        int[] pixels = {0x102030, 0x405060};
+        byte[] encoded = new ETC2Encoder().encode(pixels, 2, 1);
+        assertEquals(ETC2Encoder.BLOCK_SIZE, encoded.length);
+        assertTrue(psnr(pixels, decode(encoded, 2, 1)) > 30);
+    }
+
+    @Test
+    public void writesCubeMapsWithAllLevels() throws IOException {
+        int size = 16;
+        int[] colors = {0xff0000, 0x00ff00, 0x0000ff, 0xffff00, 0x00ffff, 0xff00ff};
+        BufferedImage[] faces = new BufferedImage[TextureCompressor.FACES.length];
+        for (int i = 0; i < faces.length; i++) {
+            faces[i] = new BufferedImage(size, size, BufferedImage.TYPE_INT_RGB);
+            for (int y = 0; y < size; y++) {
+                for (int x = 0; x < size; x++) {
+                    faces[i].setRGB(x, y, colors[i]);
+                }
+            }
+        }
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        TextureCompressor.writeCubeMap(faces, output);
+        ByteBuffer ktx = ByteBuffer.wrap(output.toByteArray()).order(ByteOrder.LITTLE_ENDIAN);
+
+        byte[] identifier = new byte[TextureCompressor.KTX_IDENTIFIER.length];
+        ktx.get(identifier);
+        assertArrayEquals(TextureCompressor.KTX_IDENTIFIER, identifier);
+        assertEquals(TextureCompressor.KTX_ENDIANNESS, ktx.getInt(12));
+        assertEquals(ETC2Encoder.GL_COMPRESSED_RGB8_ETC2, ktx.getInt(28));
+        assertEquals(size, ktx.getInt(36));
+        assertEquals(size, ktx.getInt(40));
+        assertEquals(6, ktx.getInt(52));
+        assertEquals(5, ktx.getInt(56));
+
+        // 16, 8, 4, 2 and 1 pixels wide.
+        int[] levelSizes = {16 * 8, 4 * 8, 8, 8, 8};
+        int offset = TextureCompressor.KTX_HEADER_SIZE + ktx.getInt(60);
+        for (int level = 0; level < levelSizes.length; level++) {
+            assertEquals(levelSizes[level], ktx.getInt(offset));
+            offset += 4 + levelSizes[level] * 6;
+        }
+        assertEquals(output.size(), offset);
+
+        // The second face of the first level decodes back to the second image.
+        byte[] face = new byte[levelSizes[0]];
+        ktx.position(TextureCompressor.KTX_HEADER_SIZE + ktx.getInt(60) + 4 + levelSizes[0]);
+        ktx.get(face);
+        int[] expected = new int[size * size];
+        Arrays.fill(expected, colors[1]);
+        assertTrue(psnr(expected, decode(face, size, size)) > 40);
+    }
+
+    @Test
+    public void rejectsFacesOfDifferentSizes() {
+        BufferedImage[] faces = new BufferedImage[TextureCompressor.FACES.length];
+        for (int i = 0; i < faces.length; i++) {
+            faces[i] = gradient(i == 3 ? 8 : 16);
+        }
+        try {
+            TextureCompressor.writeCubeMap(faces, new ByteArrayOutputStream());
+            fail("Faces of different sizes accepted");
+        } catch (IOException e) {
+            // Expected.
+        }
+    }
+}
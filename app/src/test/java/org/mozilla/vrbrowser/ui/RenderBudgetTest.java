@@ -0,0 +1,101 @@
+package org.mozilla.vrbrowser.ui;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * Browser windows run their compositor at a rate that depends on focus, occlusion and whether
+ * they are in view, see RenderBudget.
+ */
+public class RenderBudgetTest {
+    @Test
+    public void focusedWindowRunsAtFullRate() {
+        RenderBudget budget = new RenderBudget();
+        assertEquals(RenderBudget.Level.FULL, budget.getLevel(0));
+        assertTrue(budget.shouldRun(0));
+        assertEquals(-1, budget.getNextChange(0));
+    }
+
+    @Test
+    public void backgroundWindowRunsInSlices() {
+        RenderBudget budget = new RenderBudget();
+        budget.setFocused(false, 1000);
+        assertEquals(RenderBudget.Level.REDUCED, budget.getLevel(1000));
+        assertTrue(budget.shouldRun(1000));
+        assertEquals(1000 + RenderBudget.REDUCED_RUN_MS, budget.getNextChange(1000));
+        long paused = 1000 + RenderBudget.REDUCED_RUN_MS;
+        assertFalse(budget.shouldRun(paused));
+        assertEquals(1000 + RenderBudget.REDUCED_PERIOD_MS, budget.getNextChange(paused));
+        assertTrue(budget.shouldRun(1000 + RenderBudget.REDUCED_PERIOD_MS));
+
+        budget.setFocused(true, 2000);
+        budget.setOccluded(true, 2000);
+        assertEquals(RenderBudget.Level.REDUCED, budget.getLevel(2000));
+        budget.setOccluded(false, 2100);
+        assertEquals(RenderBudget.Level.FULL, budget.getLevel(2100));
+    }
+
+    @Test
+    public void outOfViewWindowPausesAfterDelay() {
+        RenderBudget budget = new RenderBudget();
+        budget.setInView(false, 1000);
+        assertEquals(RenderBudget.Level.FULL, budget.getLevel(1000));
+        assertEquals(1000 + RenderBudget.OUT_OF_VIEW_DELAY_MS, budget.getNextChange(1000));
+        // Looking back before the delay does not pause.
+        budget.setInView(true, 1500);
+        budget.setInView(false, 1600);
+        assertTrue(budget.shouldRun(2500));
+        long pausedAt = 1600 + RenderBudget.OUT_OF_VIEW_DELAY_MS;
+        assertEquals(RenderBudget.Level.PAUSED, budget.getLevel(pausedAt));
+        assertFalse(budget.shouldRun(pausedAt));
+        assertEquals(-1, budget.getNextChange(pausedAt));
+        budget.setInView(true, 5000);
+        assertTrue(budget.shouldRun(5000));
+    }
+
+    @Test
+    public void inputRestoresFullRate() {
+        RenderBudget budget = new RenderBudget();
+        budget.setOccluded(true, 0);
+        budget.onInput(1000);
+        assertEquals(RenderBudget.Level.FULL, budget.getLevel(1000));
+        assertEquals(1000 + RenderBudget.INPUT_LINGER_MS, budget.getNextChange(1000));
+        assertEquals(RenderBudget.Level.REDUCED, budget.getLevel(1000 + RenderBudget.INPUT_LINGER_MS));
+    }
+
+    @Test
+    public void suspendedWindowIsPaused() {
+        RenderBudget budget = new RenderBudget();
+        budget.setSuspended(true, 0);
+        budget.onInput(0);
+        assertFalse(budget.shouldRun(0));
+        budget.setSuspended(false, 100);
+        assertTrue(budget.shouldRun(100));
+    }
+
+    @Test
+    public void accountsTimePerLevel() {
+        RenderBudget budget = new RenderBudget();
+        budget.getLevel(0);
+        budget.setFocused(false, 1000);
+        budget.setInView(false, 3000);
+        budget.getLevel(3000 + RenderBudget.OUT_OF_VIEW_DELAY_MS);
+        budget.setInView(true, 10000);
+        budget.setFocused(true, 10000);
+        assertEquals(1000, budget.getTime(RenderBudget.Level.FULL, 10000));
+        assertEquals(2000 + RenderBudget.OUT_OF_VIEW_DELAY_MS, budget.getTime(RenderBudget.Level.REDUCED, 10000));
+        assertEquals(10000 - 3000 - RenderBudget.OUT_OF_VIEW_DELAY_MS, budget.getTime(RenderBudget.Level.PAUSED, 10000));
+        assertEquals(4, budget.getTransitionCount());
+        budget.onSwitched(300);
+        budget.onSwitched(1200);
+        assertEquals(2, budget.getSwitchCount());
+        assertEquals(1500, budget.getSwitchTimeUs());
+        assertEquals(1200, budget.getMaxSwitchTimeUs());
+        budget.resetMetrics(10000);
+        assertEquals(0, budget.getTransitionCount());
+        assertEquals(0, budget.getSwitchCount());
+        assertEquals(0, budget.getMaxSwitchTimeUs());
+        assertEquals(500, budget.getTime(RenderBudget.Level.FULL, 10500));
+    }
+}
@@ -15,6 +15,7 @@
 #include <wvr/wvr_events.h>
 
 #include "BrowserWorld.h"
+#include "JNIProfiler.h"
 #include "DeviceDelegateWaveVR.h"
 #include "vrb/Logger.h"
 #include "vrb/GLError.h"
@@ -34,11 +35,13 @@ extern "C" {
 
 JNI_METHOD(void, activityPaused)
 (JNIEnv*, jobject) {
+  PROFILE_JNI_DOWNCALL();
   BrowserWorld::Instance().Pause();
 }
 
 JNI_METHOD(void, activityResumed)
 (JNIEnv*, jobject) {
+  PROFILE_JNI_DOWNCALL();
   BrowserWorld::Instance().Resume();
 }
 
@@ -71,7 +74,11 @@ int main(int argc, char *argv[]) {
   BrowserWorld::Instance().InitializeGL();
   BrowserWorld::Instance().Resume();
   while (sDevice->IsRunning()) {
-    sQueue->ProcessRunnables();
+    {
+      // Runnables queued from Java run Java code on the render thread.
+      PROFILE_JNI_CALL("ProcessRunnables", JNIProfiler::Direction::NativeToJava);
+      sQueue->ProcessRunnables();
+    }
     //VRB_LOG("About to DRAW!");
     VRB_GL_CHECK(glClear(GL_COLOR_BUFFER_BIT | GL_DEPTH_BUFFER_BIT));
     BrowserWorld::Instance().Draw();
@@ -82,11 +89,13 @@ int main(int argc, char *argv[]) {
 
 JNI_METHOD(void, queueRunnable)
 (JNIEnv* aEnv, jobject, jobject aRunnable) {
+  PROFILE_JNI_DOWNCALL();
   sQueue->AddRunnable(aEnv, aRunnable);
 }
 
 JNI_METHOD(void, initializeJava)
 (JNIEnv* aEnv, jobject aActivity, jobject aAssets) {
+  PROFILE_JNI_DOWNCALL();
   sJavaInitialized = true;
   BrowserWorld::Instance().InitializeJava(aEnv, aActivity, aAssets);
 }
@@ -0,0 +1,152 @@
+/* -*- Mode: Java; c-basic-offset: 4; tab-width: 4; indent-tabs-mode: nil; -*-
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/. */
+
+package org.mozilla.vrbrowser.input;
+
+import java.io.BufferedReader;
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.Reader;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Compiles a word list into the dictionary format read by Dictionary. It runs from the Gradle
+ * build (see tools/gradle/dictionary.gradle) and from the unit tests, so it only uses the JDK.
+ *
+ * The word list has one "word frequency" pair per line, frequencies go from 1 to 255 and lines
+ * starting with '#' are comments. Words are stored in lower case.
+ */
+public class DictionaryBuilder {
+    // Must match Dictionary.
+    static final int MAGIC = 0x56524B44; // "VRKD"
+    static final int VERSION = 1;
+    static final int MAX_WORD_LENGTH = 48;
+
+    private static class Node {
+        char mChar;
+        int mFrequency;
+        int mMaxFrequency;
+        TreeMap<Character, Node> mChildren = new TreeMap<>();
+        int mIndex;
+    }
+
+    public static void main(String[] aArgs) throws IOException {
+        if (aArgs.length != 2) {
+            System.err.println("Usage: DictionaryBuilder <word list directory> <output directory>");
+            System.exit(1);
+        }
+        buildAll(new File(aArgs[0]), new File(aArgs[1]));
+    }
+
+    /**
+     * Compiles every <locale>.txt word list in aSourceDir into <locale>.dict in aOutputDir.
+     */
+    public static void buildAll(File aSourceDir, File aOutputDir) throws IOException {
+        File[] lists = aSourceDir.listFiles();
+        if (lists == null) {
+            return;
+        }
+        if (!aOutputDir.isDirectory() && !aOutputDir.mkdirs()) {
+            throw new IOException("Unable to create " + aOutputDir);
+        }
+        for (File list: lists) {
+            String name = list.getName();
+            if (!name.endsWith(".txt")) {
+                continue;
+            }
+            File output = new File(aOutputDir, name.substring(0, name.length() - 4) + ".dict");
+            try (Reader input = new InputStreamReader(new FileInputStream(list), "UTF-8");
+                 OutputStream stream = new FileOutputStream(output)) {
+                build(input, stream);
+            }
+        }
+    }
+
+    public static void build(Reader aWordList, OutputStream aOutput) throws IOException {
+        Node root = new Node();
+        BufferedReader reader = new BufferedReader(aWordList);
+        String line;
+        int lineNumber = 0;
+        int maxWordLength = 0;
+        while ((line = reader.readLine()) != null) {
+            lineNumber++;
+            line = line.trim();
+            if (line.isEmpty() || line.startsWith("#")) {
+                continue;
+            }
+            String[] fields = line.split("\\s+");
+            int frequency;
+            try {
+                frequency = fields.length == 2 ? Integer.parseInt(fields[1]) : -1;
+            } catch (NumberFormatException e) {
+                frequency = -1;
+            }
+            String word = fields[0].toLowerCase(Locale.ROOT);
+            if (frequency < 1 || frequency > 255 || word.length() > MAX_WORD_LENGTH) {
+                throw new IOException("Invalid entry at line " + lineNumber + ": " + line);
+            }
+            maxWordLength = Math.max(maxWordLength, word.length());
+            Node node = root;
+            for (int i = 0; i < word.length(); i++) {
+                char c = word.charAt(i);
+                Node child = node.mChildren.get(c);
+                if (child == null) {
+                    child = new Node();
+                    child.mChar = c;
+                    node.mChildren.put(c, child);
+                }
+                node = child;
+            }
+            node.mFrequency = Math.max(node.mFrequency, frequency);
+        }
+        computeMaxFrequency(root);
+
+        // Breadth first, so the children of every node are contiguous.
+        ArrayList<Node> nodes = new ArrayList<>();
+        ArrayDeque<Node> queue = new ArrayDeque<>();
+        queue.add(root);
+        while (!queue.isEmpty()) {
+            Node node = queue.poll();
+            node.mIndex = nodes.size();
+            nodes.add(node);
+            queue.addAll(node.mChildren.values());
+        }
+
+        DataOutputStream output = new DataOutputStream(new BufferedOutputStream(aOutput));
+        output.writeInt(MAGIC);
+        output.writeInt(VERSION);
+        output.writeInt(nodes.size());
+        output.writeInt(maxWordLength);
+        for (Node node: nodes) {
+            output.writeChar(node.mChar);
+            output.writeByte(node.mFrequency);
+            output.writeByte(node.mMaxFrequency);
+            Map.Entry<Character, Node> first = node.mChildren.firstEntry();
+            output.writeInt(first != null ? first.getValue().mIndex : 0);
+            output.writeShort(node.mChildren.size());
+            output.writeShort(0);
+        }
+        output.flush();
+    }
+
+    private static int computeMaxFrequency(Node aNode) {
+        int result = aNode.mFrequency;
+        for (Node child: aNode.mChildren.values()) {
+            result = Math.max(result, computeMaxFrequency(child));
+        }
+        aNode.mMaxFrequency = result;
+        return result;
+    }
+}
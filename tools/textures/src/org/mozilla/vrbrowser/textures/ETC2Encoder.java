@@ -0,0 +1,228 @@
+/* -*- Mode: Java; c-basic-offset: 4; tab-width: 4; indent-tabs-mode: nil; -*-
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/. */
+
+package org.mozilla.vrbrowser.textures;
+
+/**
+ * Encodes RGB images to GL_COMPRESSED_RGB8_ETC2 blocks. Only the individual and differential
+ * modes shared with ETC1 are used, so the output also decodes as ETC1. The T, H and planar modes
+ * would improve sharp edges and gradients a bit, the sky boxes are neither.
+ *
+ * Each 4x4 block is split in two 2x4 or 4x2 halves, each half gets a base color and one of eight
+ * intensity tables, every pixel picks one of the four modifiers of its table. The encoder tries
+ * both splits and both modes with the average color of each half as base and keeps the one with
+ * the lowest squared error.
+ */
+public class ETC2Encoder {
+    public static final int GL_COMPRESSED_RGB8_ETC2 = 0x9274;
+    public static final int BLOCK_SIZE = 8;
+
+    static final int[][] MODIFIERS = {
+        {2, 8, -2, -8},
+        {5, 17, -5, -17},
+        {9, 29, -9, -29},
+        {13, 42, -13, -42},
+        {18, 60, -18, -60},
+        {24, 80, -24, -80},
+        {33, 106, -33, -106},
+        {47, 183, -47, -183}
+    };
+
+    // Scratch values of the block being encoded.
+    private int[] mBlock = new int[16 * 3];
+    private int[] mHalf = new int[8 * 3];
+    private int[] mHalfPixels = new int[8];
+    private int[] mBase = new int[3];
+    private int[] mIndices = new int[16];
+    private int[] mBestIndices = new int[16];
+    private int mTable;
+    private long mHalfError;
+
+    /**
+     * @return the size of the ETC2 data of an aWidth x aHeight image.
+     */
+    public static int getEncodedSize(int aWidth, int aHeight) {
+        return ((aWidth + 3) / 4) * ((aHeight + 3) / 4) * BLOCK_SIZE;
+    }
+
+    /**
+     * Encodes aPixels, packed 0xRRGGBB values stored row by row, alpha is ignored.
+     */
+    public byte[] encode(int[] aPixels, int aWidth, int aHeight) {
+        byte[] result = new byte[getEncodedSize(aWidth, aHeight)];
+        int offset = 0;
+        for (int blockY = 0; blockY < aHeight; blockY += 4) {
+            for (int blockX = 0; blockX < aWidth; blockX += 4) {
+                // Blocks past the edge of small mip levels repeat the last row and column.
+                for (int x = 0; x < 4; x++) {
+                    for (int y = 0; y < 4; y++) {
+                        int pixel = aPixels[Math.min(blockY + y, aHeight - 1) * aWidth + Math.min(blockX + x, aWidth - 1)];
+                        int index = (x * 4 + y) * 3;
+                        mBlock[index] = (pixel >> 16) & 0xff;
+                        mBlock[index + 1] = (pixel >> 8) & 0xff;
+                        mBlock[index + 2] = pixel & 0xff;
+                    }
+                }
+                long block = encodeBlock();
+                for (int i = 0; i < BLOCK_SIZE; i++) {
+                    result[offset++] = (byte)(block >>> (56 - i * 8));
+                }
+            }
+        }
+        return result;
+    }
+
+    // mBlock holds the pixels in ETC order, column by column.
+    private long encodeBlock() {
+        long best = 0;
+        long bestError = Long.MAX_VALUE;
+        for (int flip = 0; flip < 2; flip++) {
+            int[][] averages = new int[2][];
+            for (int half = 0; half < 2; half++) {
+                averages[half] = average(flip, half);
+            }
+            for (int differential = 0; differential < 2; differential++) {
+                int bits = differential == 1 ? 5 : 4;
+                int[][] quantized = new int[2][3];
+                boolean fits = true;
+                for (int half = 0; half < 2; half++) {
+                    for (int c = 0; c < 3; c++) {
+                        quantized[half][c] = quantize(averages[half][c], bits);
+                    }
+                }
+                if (differential == 1) {
+                    for (int c = 0; c < 3; c++) {
+                        int delta = quantized[1][c] - quantized[0][c];
+                        fits &= delta >= -4 && delta <= 3;
+                    }
+                }
+                if (!fits) {
+                    continue;
+                }
+                long error = 0;
+                int[] tables = new int[2];
+                for (int half = 0; half < 2; half++) {
+                    for (int c = 0; c < 3; c++) {
+                        mBase[c] = expand(quantized[half][c], bits);
+                    }
+                    encodeHalf(flip, half);
+                    tables[half] = mTable;
+                    error += mHalfError;
+                }
+                if (error < bestError) {
+                    bestError = error;
+                    System.arraycopy(mIndices, 0, mBestIndices, 0, 16);
+                    best = pack(flip, differential, quantized, tables);
+                }
+            }
+        }
+        return best;
+    }
+
+    private boolean inHalf(int aPixel, int aFlip, int aHalf) {
+        int x = aPixel / 4;
+        int y = aPixel % 4;
+        return (aFlip == 0 ? x / 2 : y / 2) == aHalf;
+    }
+
+    private int[] average(int aFlip, int aHalf) {
+        int[] sum = new int[3];
+        for (int pixel = 0; pixel < 16; pixel++) {
+            if (inHalf(pixel, aFlip, aHalf)) {
+                for (int c = 0; c < 3; c++) {
+                    sum[c] += mBlock[pixel * 3 + c];
+                }
+            }
+        }
+        for (int c = 0; c < 3; c++) {
+            sum[c] = (sum[c] + 4) / 8;
+        }
+        return sum;
+    }
+
+    // Picks the table and the modifiers of the half around mBase, sets mTable, mHalfError and
+    // the indices of the half in mIndices.
+    private void encodeHalf(int aFlip, int aHalf) {
+        int count = 0;
+        for (int pixel = 0; pixel < 16; pixel++) {
+            if (inHalf(pixel, aFlip, aHalf)) {
+                mHalfPixels[count] = pixel;
+                System.arraycopy(mBlock, pixel * 3, mHalf, count * 3, 3);
+                count++;
+            }
+        }
+        mHalfError = Long.MAX_VALUE;
+        int[] indices = new int[8];
+        for (int table = 0; table < MODIFIERS.length; table++) {
+            long error = 0;
+            for (int i = 0; i < 8 && error < mHalfError; i++) {
+                int bestPixelError = Integer.MAX_VALUE;
+                for (int modifier = 0; modifier < 4; modifier++) {
+                    int pixelError = 0;
+                    for (int c = 0; c < 3; c++) {
+                        int difference = clamp(mBase[c] + MODIFIERS[table][modifier]) - mHalf[i * 3 + c];
+                        pixelError += difference * difference;
+                    }
+                    if (pixelError < bestPixelError) {
+                        bestPixelError = pixelError;
+                        indices[i] = modifier;
+                    }
+                }
+                error += bestPixelError;
+            }
+            if (error < mHalfError) {
+                mHalfError = error;
+                mTable = table;
+                for (int i = 0; i < 8; i++) {
+                    mIndices[mHalfPixels[i]] = indices[i];
+                }
+            }
+        }
+    }
+
+    private long pack(int aFlip, int aDifferential, int[][] aColors, int[] aTables) {
+        long block = 0;
+        for (int c = 0; c < 3; c++) {
+            int shift = 59 - c * 8;
+            if (aDifferential == 1) {
+                block |= (long)aColors[0][c] << shift;
+                block |= (long)((aColors[1][c] - aColors[0][c]) & 0x7) << (shift - 3);
+            } else {
+                block |= (long)aColors[0][c] << (shift + 1);
+                block |= (long)aColors[1][c] << (shift - 3);
+            }
+        }
+        block |= (long)aTables[0] << 37;
+        block |= (long)aTables[1] << 34;
+        block |= (long)aDifferential << 33;
+        block |= (long)aFlip << 32;
+        for (int pixel = 0; pixel < 16; pixel++) {
+            // The modifiers are stored as sign and magnitude bits.
+            int index = mBestIndices[pixel];
+            block |= (long)(index >> 1) << (16 + pixel);
+            block |= (long)(index & 1) << pixel;
+        }
+        return block;
+    }
+
+    static int quantize(int aValue, int aBits) {
+        int max = (1 << aBits) - 1;
+        int best = 0;
+        for (int candidate = Math.max(0, (aValue * max) / 255 - 1); candidate <= Math.min(max, (aValue * max) / 255 + 1); candidate++) {
+            if (Math.abs(expand(candidate, aBits) - aValue) < Math.abs(expand(best, aBits) - aValue)) {
+                best = candidate;
+            }
+        }
+        return best;
+    }
+
+    static int expand(int aValue, int aBits) {
+        return aBits == 5 ? (aValue << 3) | (aValue >> 2) : (aValue << 4) | aValue;
+    }
+
+    static int clamp(int aValue) {
+        return aValue < 0 ? 0 : (aValue > 255 ? 255 : aValue);
+    }
+}
@@ -0,0 +1,271 @@
+/* -*- Mode: Java; c-basic-offset: 4; tab-width: 4; indent-tabs-mode: nil; -*-
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/. */
+
+package org.mozilla.vrbrowser.textures;
+
+import java.awt.image.BufferedImage;
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Locale;
+import java.util.zip.Deflater;
+
+import javax.imageio.ImageIO;
+
+/**
+ * Converts the cube maps in the assets to ETC2 KTX files with all their mip levels, so the app
+ * can upload them without decoding them (see CompressedTexture.h). It runs from the Gradle build
+ * (see tools/gradle/textures.gradle) and from the unit tests, so it only uses the JDK.
+ *
+ * A cube map is a directory with posx, negx, posy, negy, posz and negz images of the same square
+ * size. It is written to <directory>.ktx, the source images stay in the APK as the fallback for
+ * devices without ETC2.
+ */
+public class TextureCompressor {
+    public static final String[] FACES = {"posx", "negx", "posy", "negy", "posz", "negz"};
+    static final byte[] KTX_IDENTIFIER = {
+        (byte)0xAB, 'K', 'T', 'X', ' ', '1', '1', (byte)0xBB, '\r', '\n', 0x1A, '\n'
+    };
+    static final int KTX_ENDIANNESS = 0x04030201;
+    static final int KTX_HEADER_SIZE = 64;
+    static final int GL_RGB = 0x1907;
+    // Rows are stored top first, like the decoded images uploaded by the fallback.
+    static final String ORIENTATION_KEY = "KTXorientation";
+    static final String ORIENTATION = "S=r,T=d";
+
+    public static void main(String[] aArgs) throws IOException {
+        if (aArgs.length != 2) {
+            System.err.println("Usage: TextureCompressor <assets directory> <output directory>");
+            System.exit(1);
+        }
+        buildAll(new File(aArgs[0]), new File(aArgs[1]));
+    }
+
+    /**
+     * Converts every cube map found under aAssetsDir to a KTX file at the same relative path
+     * under aOutputDir, and prints how much smaller and faster to load they are.
+     */
+    public static void buildAll(File aAssetsDir, File aOutputDir) throws IOException {
+        ArrayList<File> cubeMaps = new ArrayList<>();
+        findCubeMaps(aAssetsDir, cubeMaps);
+        String root = aAssetsDir.getCanonicalPath();
+        for (File directory: cubeMaps) {
+            String name = directory.getCanonicalPath().substring(root.length() + 1);
+            File output = new File(aOutputDir, name + ".ktx");
+            if (!output.getParentFile().isDirectory() && !output.getParentFile().mkdirs()) {
+                throw new IOException("Unable to create " + output.getParentFile());
+            }
+
+            long sourceSize = 0;
+            long start = System.nanoTime();
+            BufferedImage[] faces = new BufferedImage[FACES.length];
+            for (int i = 0; i < FACES.length; i++) {
+                File file = findFace(directory, FACES[i]);
+                if (file == null) {
+                    throw new IOException("Missing " + FACES[i] + " face in " + directory);
+                }
+                sourceSize += file.length();
+                faces[i] = ImageIO.read(file);
+                if (faces[i] == null) {
+                    throw new IOException("Unable to decode " + file);
+                }
+            }
+            long decodeTime = System.nanoTime() - start;
+
+            try (OutputStream stream = new BufferedOutputStream(new FileOutputStream(output))) {
+                writeCubeMap(faces, stream);
+            }
+            start = System.nanoTime();
+            byte[] ktx = Files.readAllBytes(output.toPath());
+            long readTime = System.nanoTime() - start;
+
+            int size = faces[0].getWidth();
+            System.out.println(String.format(Locale.ROOT,
+                    "%s.ktx: %d KB in the APK (was %d KB), %d KB of GPU memory (was %d KB), %.1f ms to read (was %.1f ms to decode)",
+                    name, getDeflatedSize(ktx) / 1024, sourceSize / 1024,
+                    getCompressedSize(size) * FACES.length / 1024,
+                    getUncompressedSize(size) * FACES.length / 1024,
+                    readTime / 1e6, decodeTime / 1e6));
+        }
+    }
+
+    /**
+     * Writes the six faces, in FACES order, with all their mip levels.
+     */
+    public static void writeCubeMap(BufferedImage[] aFaces, OutputStream aOutput) throws IOException {
+        if (aFaces.length != FACES.length) {
+            throw new IOException("A cube map needs " + FACES.length + " faces");
+        }
+        int size = aFaces[0].getWidth();
+        for (BufferedImage face: aFaces) {
+            if (face.getWidth() != size || face.getHeight() != size) {
+                throw new IOException("Cube map faces must be square and have the same size");
+            }
+        }
+        int levels = getLevelCount(size);
+        ETC2Encoder encoder = new ETC2Encoder();
+        byte[][][] images = new byte[levels][FACES.length][];
+        for (int face = 0; face < FACES.length; face++) {
+            int[] pixels = aFaces[face].getRGB(0, 0, size, size, null, 0, size);
+            int levelSize = size;
+            for (int level = 0; level < levels; level++) {
+                images[level][face] = encoder.encode(pixels, levelSize, levelSize);
+                if (level + 1 < levels) {
+                    pixels = downsample(pixels, levelSize);
+                    levelSize = Math.max(1, levelSize / 2);
+                }
+            }
+        }
+        writeKTX(aOutput, ETC2Encoder.GL_COMPRESSED_RGB8_ETC2, GL_RGB, size, size, images);
+    }
+
+    /**
+     * Writes a KTX 1.1 file of compressed images, indexed by mip level and then by face.
+     */
+    static void writeKTX(OutputStream aOutput, int aInternalFormat, int aBaseFormat, int aWidth, int aHeight, byte[][][] aImages) throws IOException {
+        byte[] key = (ORIENTATION_KEY + '\0').getBytes(StandardCharsets.US_ASCII);
+        byte[] value = (ORIENTATION + '\0').getBytes(StandardCharsets.US_ASCII);
+        int keyValueSize = 4 + key.length + value.length;
+        int keyValuePadding = pad(keyValueSize) - keyValueSize;
+
+        ByteBuffer header = ByteBuffer.allocate(KTX_HEADER_SIZE + keyValueSize + keyValuePadding).order(ByteOrder.LITTLE_ENDIAN);
+        header.put(KTX_IDENTIFIER);
+        header.putInt(KTX_ENDIANNESS);
+        header.putInt(0); // glType, 0 when compressed
+        header.putInt(1); // glTypeSize
+        header.putInt(0); // glFormat, 0 when compressed
+        header.putInt(aInternalFormat);
+        header.putInt(aBaseFormat);
+        header.putInt(aWidth);
+        header.putInt(aHeight);
+        header.putInt(0); // pixelDepth
+        header.putInt(0); // numberOfArrayElements
+        header.putInt(aImages[0].length);
+        header.putInt(aImages.length);
+        header.putInt(keyValueSize + keyValuePadding);
+        header.putInt(key.length + value.length);
+        header.put(key);
+        header.put(value);
+        aOutput.write(header.array());
+
+        ByteBuffer imageSize = ByteBuffer.allocate(4).order(ByteOrder.LITTLE_ENDIAN);
+        byte[] padding = new byte[3];
+        for (byte[][] level: aImages) {
+            // The size of one face, compressed blocks never need padding.
+            imageSize.putInt(0, level[0].length);
+            aOutput.write(imageSize.array());
+            for (byte[] face: level) {
+                aOutput.write(face);
+                aOutput.write(padding, 0, pad(face.length) - face.length);
+            }
+        }
+    }
+
+    static int getLevelCount(int aSize) {
+        int levels = 1;
+        while (aSize > 1) {
+            aSize /= 2;
+            levels++;
+        }
+        return levels;
+    }
+
+    static long getCompressedSize(int aSize) {
+        long result = 0;
+        for (int size = aSize; ; size /= 2) {
+            result += ETC2Encoder.getEncodedSize(size, size);
+            if (size == 1) {
+                return result;
+            }
+        }
+    }
+
+    // RGBA, with the mip levels generated on device by the fallback.
+    static long getUncompressedSize(int aSize) {
+        long result = 0;
+        for (int size = aSize; ; size /= 2) {
+            result += (long)size * size * 4;
+            if (size == 1) {
+                return result;
+            }
+        }
+    }
+
+    // Box filters a square image to half its size.
+    static int[] downsample(int[] aPixels, int aSize) {
+        int size = Math.max(1, aSize / 2);
+        int[] result = new int[size * size];
+        for (int y = 0; y < size; y++) {
+            for (int x = 0; x < size; x++) {
+                int x0 = Math.min(x * 2, aSize - 1);
+                int x1 = Math.min(x * 2 + 1, aSize - 1);
+                int y0 = Math.min(y * 2, aSize - 1);
+                int y1 = Math.min(y * 2 + 1, aSize - 1);
+                int[] samples = {aPixels[y0 * aSize + x0], aPixels[y0 * aSize + x1], aPixels[y1 * aSize + x0], aPixels[y1 * aSize + x1]};
+                int pixel = 0;
+                for (int shift = 0; shift <= 16; shift += 8) {
+                    int sum = 2;
+                    for (int sample: samples) {
+                        sum += (sample >> shift) & 0xff;
+                    }
+                    pixel |= (sum / 4) << shift;
+                }
+                result[y * size + x] = pixel;
+            }
+        }
+        return result;
+    }
+
+    // The assets are stored deflated in the APK.
+    static long getDeflatedSize(byte[] aData) {
+        Deflater deflater = new Deflater();
+        deflater.setInput(aData);
+        deflater.finish();
+        byte[] buffer = new byte[64 * 1024];
+        long result = 0;
+        while (!deflater.finished()) {
+            result += deflater.deflate(buffer);
+        }
+        deflater.end();
+        return result;
+    }
+
+    private static int pad(int aSize) {
+        return (aSize + 3) & ~3;
+    }
+
+    private static void findCubeMaps(File aDirectory, ArrayList<File> aResult) throws IOException {
+        File[] files = aDirectory.listFiles();
+        if (files == null) {
+            return;
+        }
+        if (findFace(aDirectory, FACES[0]) != null) {
+            aResult.add(aDirectory);
+            return;
+        }
+        for (File file: files) {
+            if (file.isDirectory()) {
+                findCubeMaps(file, aResult);
+            }
+        }
+    }
+
+    private static File findFace(File aDirectory, String aFace) {
+        for (String extension: new String[] {".jpg", ".png"}) {
+            File file = new File(aDirectory, aFace + extension);
+            if (file.isFile()) {
+                return file;
+            }
+        }
+        return null;
+    }
+}